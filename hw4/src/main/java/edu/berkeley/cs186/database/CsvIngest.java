@@ -0,0 +1,393 @@
+package edu.berkeley.cs186.database;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+
+/**
+ * Loads a CSV file (see CsvReader for the format) into a table with several
+ * threads, streaming it so that files much larger than memory can be loaded.
+ * The load is a pipeline of three stages connected by bounded queues:
+ *
+ *   reader --chunks of lines--> parsers --chunks of records--> writers
+ *
+ *   - One reader thread reads the file sequentially and cuts it into chunks
+ *     of chunkLines lines.
+ *   - numParsers parser threads turn the lines of each chunk into Records.
+ *   - numWriters writer threads append the records to the table, each through
+ *     a Table.BulkLoader of its own, so that each writer fills a range of
+ *     pages of its own and the writers don't wait for each other.
+ *
+ * Each queue holds at most queueCapacity chunks, so a stage that falls behind
+ * holds back the stages before it instead of letting chunks pile up in
+ * memory. Rows are not loaded in file order.
+ *
+ *   CsvIngest ingest = new CsvIngest(table, Paths.get("students.csv"));
+ *   ingest.setNumParsers(4);
+ *   ingest.setProgressListener(p -> System.out.println(p), 1000);
+ *   long numRows = ingest.run();
+ *
+ * If the file can't be read or one of its lines doesn't match the table's
+ * schema, the whole pipeline stops and run throws a DatabaseException. The
+ * rows loaded before stay in the table.
+ */
+public class CsvIngest {
+  public static final int DEFAULT_CHUNK_LINES = 1024;
+  public static final int DEFAULT_QUEUE_CAPACITY = 8;
+  public static final int DEFAULT_NUM_WRITERS = 2;
+
+  // How often a writer waiting for records checks whether the load failed.
+  private static final long WRITER_POLL_MILLIS = 10;
+
+  // The end of a queue's stream; each consumer of the queue gets one.
+  private static final LineChunk END_OF_LINES = new LineChunk(0, null);
+  private static final List<Record> END_OF_RECORDS = new ArrayList<Record>();
+
+  private final Table table;
+  private final Path path;
+  private int numParsers;
+  private int numWriters;
+  private int chunkLines;
+  private int queueCapacity;
+  private BiConsumer<RecordId, Record> onLoad;
+  private Consumer<Progress> progressListener;
+  private long progressIntervalMillis;
+
+  // The state of a run.
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final AtomicLong rowsLoaded = new AtomicLong();
+  private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+  private final List<Thread> threads = new ArrayList<Thread>();
+  // The writers are never interrupted: interrupting a thread in the middle of
+  // FileChannel I/O closes the channel, and with it the table's file. They
+  // poll for records instead, and stop once they see a failure.
+  private final List<Thread> writers = new ArrayList<Thread>();
+
+  /**
+   * Creates a load of the CSV file path into table, with one parser per
+   * available processor, DEFAULT_NUM_WRITERS writers, and no progress
+   * reports.
+   */
+  public CsvIngest(Table table, Path path) {
+    this.table = table;
+    this.path = path;
+    this.numParsers = Runtime.getRuntime().availableProcessors();
+    this.numWriters = DEFAULT_NUM_WRITERS;
+    this.chunkLines = DEFAULT_CHUNK_LINES;
+    this.queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    this.onLoad = (rid, record) -> { };
+    this.progressListener = null;
+    this.progressIntervalMillis = 0;
+  }
+
+  // Configuration /////////////////////////////////////////////////////////////
+  public void setNumParsers(int numParsers) {
+    this.numParsers = checkPositive("number of parsers", numParsers);
+  }
+
+  public void setNumWriters(int numWriters) {
+    this.numWriters = checkPositive("number of writers", numWriters);
+  }
+
+  public void setChunkLines(int chunkLines) {
+    this.chunkLines = checkPositive("chunk size", chunkLines);
+  }
+
+  public void setQueueCapacity(int queueCapacity) {
+    this.queueCapacity = checkPositive("queue capacity", queueCapacity);
+  }
+
+  /**
+   * Makes the writers call onLoad with the record id and record of every row
+   * they add, e.g. to collect the entries of an index. onLoad is called from
+   * several threads at once.
+   */
+  public void setOnLoad(BiConsumer<RecordId, Record> onLoad) {
+    this.onLoad = onLoad;
+  }
+
+  /**
+   * Makes run call listener with the progress of the load every intervalMillis
+   * milliseconds, and once more when the load is done. The listener is called
+   * on the thread that called run.
+   */
+  public void setProgressListener(Consumer<Progress> listener, long intervalMillis) {
+    this.progressListener = listener;
+    this.progressIntervalMillis = checkPositive("progress interval", intervalMillis);
+  }
+
+  // Running ///////////////////////////////////////////////////////////////////
+  /**
+   * Loads the file and returns the number of rows loaded. An ingest can only
+   * be run once.
+   */
+  public long run() throws DatabaseException {
+    synchronized (this) {
+      if (!threads.isEmpty()) {
+        throw new IllegalStateException("A CsvIngest can only be run once.");
+      }
+      BlockingQueue<LineChunk> lines = new ArrayBlockingQueue<LineChunk>(queueCapacity);
+      BlockingQueue<List<Record>> records = new ArrayBlockingQueue<List<Record>>(queueCapacity);
+      AtomicInteger numParsing = new AtomicInteger(numParsers);
+
+      threads.add(newThread("csv-reader", () -> {
+        read(lines);
+        for (int i = 0; i < numParsers; ++i) {
+          lines.put(END_OF_LINES);
+        }
+      }));
+      for (int i = 0; i < numParsers; ++i) {
+        threads.add(newThread("csv-parser-" + i, () -> {
+          parse(lines, records);
+          if (numParsing.decrementAndGet() == 0) {
+            for (int j = 0; j < numWriters; ++j) {
+              records.put(END_OF_RECORDS);
+            }
+          }
+        }));
+      }
+      for (int i = 0; i < numWriters; ++i) {
+        writers.add(newThread("csv-writer-" + i, () -> write(records)));
+      }
+      threads.addAll(writers);
+    }
+
+    long start = System.nanoTime();
+    long totalBytes = path.toFile().length();
+    // Started under the lock that fail interrupts under, so that a stage that
+    // fails right away can't miss the stages that haven't started yet.
+    synchronized (threads) {
+      for (Thread thread : threads) {
+        thread.start();
+      }
+    }
+    try {
+      for (Thread thread : threads) {
+        while (thread.isAlive()) {
+          thread.join(progressListener == null ? 0 : progressIntervalMillis);
+          if (progressListener != null && thread.isAlive()) {
+            progressListener.accept(progress(start, totalBytes));
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      fail(e);
+      joinUninterruptibly();
+    }
+
+    Throwable t = failure.get();
+    if (t != null) {
+      throw new DatabaseException("Loading " + path + " failed: " + t.getMessage());
+    }
+    if (progressListener != null) {
+      progressListener.accept(progress(start, totalBytes));
+    }
+    return rowsLoaded.get();
+  }
+
+  /** The reader: cuts the file into chunks of lines. */
+  private void read(BlockingQueue<LineChunk> lines) throws IOException, InterruptedException {
+    try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      long firstLineNum = 1;
+      List<String> chunk = new ArrayList<String>(chunkLines);
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // Only approximately the number of bytes, as a progress measure.
+        bytesRead.addAndGet(line.length() + 1);
+        chunk.add(line);
+        if (chunk.size() == chunkLines) {
+          lines.put(new LineChunk(firstLineNum, chunk));
+          firstLineNum += chunk.size();
+          chunk = new ArrayList<String>(chunkLines);
+        }
+      }
+      if (!chunk.isEmpty()) {
+        lines.put(new LineChunk(firstLineNum, chunk));
+      }
+    }
+  }
+
+  /** A parser: turns chunks of lines into chunks of records. */
+  private void parse(BlockingQueue<LineChunk> lines, BlockingQueue<List<Record>> records)
+      throws DatabaseException, InterruptedException {
+    Schema schema = table.getSchema();
+    List<Type> types = schema.getFieldTypes();
+    while (true) {
+      LineChunk chunk = lines.take();
+      if (chunk == END_OF_LINES) {
+        return;
+      }
+      List<Record> parsed = new ArrayList<Record>(chunk.lines.size());
+      for (int i = 0; i < chunk.lines.size(); ++i) {
+        String line = chunk.lines.get(i);
+        if (!line.trim().isEmpty()) {
+          List<DataBox> values = CsvReader.parse(line, types, path, chunk.firstLineNum + i);
+          parsed.add(schema.verify(values));
+        }
+      }
+      records.put(parsed);
+    }
+  }
+
+  /** A writer: appends chunks of records to pages of its own. */
+  private void write(BlockingQueue<List<Record>> records)
+      throws DatabaseException, InterruptedException {
+    try (Table.BulkLoader loader = table.newBulkLoader()) {
+      while (failure.get() == null) {
+        List<Record> chunk = records.poll(WRITER_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (chunk == END_OF_RECORDS) {
+          return;
+        }
+        if (chunk == null) {
+          continue;
+        }
+        for (Record record : chunk) {
+          onLoad.accept(loader.add(record), record);
+        }
+        rowsLoaded.addAndGet(chunk.size());
+      }
+    }
+  }
+
+  // Helpers ///////////////////////////////////////////////////////////////////
+  private interface Stage {
+    void run() throws Exception;
+  }
+
+  private Thread newThread(String name, Stage stage) {
+    Thread thread = new Thread(() -> {
+      try {
+        stage.run();
+      } catch (InterruptedException e) {
+        // Another stage failed and stopped the pipeline.
+      } catch (Exception | Error e) {
+        fail(e);
+      }
+    }, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /** Records the first failure, and stops every stage. */
+  private void fail(Throwable t) {
+    if (failure.compareAndSet(null, t)) {
+      synchronized (threads) {
+        for (Thread thread : threads) {
+          if (!writers.contains(thread)) {
+            thread.interrupt();
+          }
+        }
+      }
+    }
+  }
+
+  private void joinUninterruptibly() {
+    boolean interrupted = false;
+    for (Thread thread : threads) {
+      while (thread.isAlive()) {
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Progress progress(long start, long totalBytes) {
+    return new Progress(rowsLoaded.get(), bytesRead.get(), totalBytes, System.nanoTime() - start);
+  }
+
+  private static <T extends Number> T checkPositive(String what, T n) {
+    if (n.longValue() <= 0) {
+      throw new IllegalArgumentException("The " + what + " must be positive, not " + n + ".");
+    }
+    return n;
+  }
+
+  private static class LineChunk {
+    final long firstLineNum;
+    final List<String> lines;
+
+    LineChunk(long firstLineNum, List<String> lines) {
+      this.firstLineNum = firstLineNum;
+      this.lines = lines;
+    }
+  }
+
+  /**
+   * A snapshot of the progress of a load.
+   */
+  public static class Progress {
+    private final long rowsLoaded;
+    private final long bytesRead;
+    private final long totalBytes;
+    private final long elapsedNanos;
+
+    Progress(long rowsLoaded, long bytesRead, long totalBytes, long elapsedNanos) {
+      this.rowsLoaded = rowsLoaded;
+      this.bytesRead = bytesRead;
+      this.totalBytes = totalBytes;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getRowsLoaded() {
+      return rowsLoaded;
+    }
+
+    /**
+     * @return about how many bytes of the file have been read so far
+     */
+    public long getBytesRead() {
+      return bytesRead;
+    }
+
+    public long getTotalBytes() {
+      return totalBytes;
+    }
+
+    /**
+     * @return the fraction of the file read so far, between 0 and 1
+     */
+    public double getFractionRead() {
+      return totalBytes == 0 ? 1 : Math.min(1, (double) bytesRead / totalBytes);
+    }
+
+    public long getElapsedMillis() {
+      return elapsedNanos / 1000000;
+    }
+
+    public double getRowsPerSecond() {
+      return elapsedNanos == 0 ? 0 : rowsLoaded * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d rows loaded (%.1f%% of the file read) in %.1f s, %.0f rows/s",
+                           rowsLoaded, 100 * getFractionRead(), elapsedNanos / 1e9,
+                           getRowsPerSecond());
+    }
+  }
+}
@@ -0,0 +1,129 @@
+package edu.berkeley.cs186.database;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.DataBoxException;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * Reads the rows of a CSV file as values of a schema, one line at a time. Each
+ * line holds one row, with the fields in schema order separated by commas
+ * and surrounded by optional whitespace; blank lines are skipped. Fields are
+ * not quoted, so string values can't contain commas, e.g.
+ *
+ *   1,Augustina Mazzoni,Chemistry,1.005420210172708
+ *
+ * for the schema (int, string(20), string(20), float). Strings longer than
+ * their column are truncated, as StringDataBox does.
+ *
+ * next throws a DataBoxException naming the file and line if a line doesn't
+ * match the schema, and an UncheckedIOException if the file can't be read.
+ */
+class CsvReader implements Iterator<List<DataBox>>, Closeable {
+  private final Path path;
+  private final List<Type> types;
+  private final BufferedReader reader;
+  private String nextLine;
+  private long lineNum;
+
+  CsvReader(Path path, Schema schema) throws IOException {
+    this.path = path;
+    this.types = schema.getFieldTypes();
+    this.reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+    this.lineNum = 0;
+    this.nextLine = readLine();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return nextLine != null;
+  }
+
+  @Override
+  public List<DataBox> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    List<DataBox> values = parse(nextLine, types, path, lineNum);
+    nextLine = readLine();
+    return values;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  /** Returns the next non-blank line, or null at the end of the file. */
+  private String readLine() {
+    try {
+      String line;
+      do {
+        line = reader.readLine();
+        lineNum++;
+      } while (line != null && line.trim().isEmpty());
+      return line;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Parses line lineNum of file path into values of types, or throws a
+   * DataBoxException.
+   */
+  static List<DataBox> parse(String line, List<Type> types, Path path, long lineNum) {
+    String[] fields = line.split(",", -1);
+    if (fields.length != types.size()) {
+      throw error(path, lineNum, String.format("expected %d fields but found %d", types.size(),
+                                               fields.length));
+    }
+    List<DataBox> values = new ArrayList<DataBox>(fields.length);
+    for (int i = 0; i < fields.length; ++i) {
+      String field = fields[i].trim();
+      Type type = types.get(i);
+      try {
+        switch (type.getTypeId()) {
+          case BOOL:
+            values.add(new BoolDataBox(Boolean.parseBoolean(field)));
+            break;
+          case INT:
+            values.add(new IntDataBox(Integer.parseInt(field)));
+            break;
+          case FLOAT:
+            values.add(new FloatDataBox(Float.parseFloat(field)));
+            break;
+          case STRING:
+            values.add(new StringDataBox(field, type.getSizeInBytes()));
+            break;
+          default:
+            throw new DataBoxException("unsupported type " + type);
+        }
+      } catch (NumberFormatException | DataBoxException e) {
+        throw error(path, lineNum, String.format("bad value '%s' for field %d: %s", field, i,
+                                                 e.getMessage()));
+      }
+    }
+    return values;
+  }
+
+  private static DataBoxException error(Path path, long lineNum, String msg) {
+    return new DataBoxException(String.format("%s:%d: %s", path, lineNum, msg));
+  }
+}
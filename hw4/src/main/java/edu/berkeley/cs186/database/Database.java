@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database;
 
 import java.io.File;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -14,29 +15,44 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.LinkedList;
 
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockManager;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.index.BPlusTree;
 import edu.berkeley.cs186.database.index.BPlusTreeException;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.table.ColumnChunk;
+import edu.berkeley.cs186.database.table.PageLayout;
+import edu.berkeley.cs186.database.table.PartitionedTable;
+import edu.berkeley.cs186.database.table.Partitioning;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.RecordIterator;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
+import edu.berkeley.cs186.database.table.ZonePredicate;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 import edu.berkeley.cs186.database.io.PageAllocator.PageIterator;
 
 
 public class Database {
+  // How full loadCsv fills the leaves of the indices it builds.
+  private static final float BULK_LOAD_FILL_FACTOR = 0.75f;
+
   private Map<String, Table> tableLookup;
+  private Map<String, PartitionedTable> partitionLookup;
   private Map<String, BPlusTree> indexLookup;
   private long numTransactions;
   private String fileDir;
   private LockManager lockMan;
   private int numMemoryPages;
+  private BufferPool bufferPool;
 
   /**
    * Creates a new database.
@@ -58,10 +74,31 @@ public class Database {
    * @throws DatabaseException
    */
   public Database(String fileDir, int numMemoryPages) throws DatabaseException {
+    this(fileDir, numMemoryPages, BufferPool.getDefault());
+  }
+
+  /**
+   * Creates a new database whose tables and indices cache their pages in the
+   * given buffer pool, e.g. to pick a replacement policy for this database:
+   *
+   *   new Database(dir, 5, new BufferPool(1024, ReplacementPolicy.Type.ARC));
+   *
+   * The capacity of the pool bounds the memory of the database: operators
+   * reserve their numMemoryPages pages out of it while they run (see
+   * Transaction#reserveMemory), and the pool caches pages in the rest.
+   *
+   * @param fileDir the directory to put the table files in
+   * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+   * @param bufferPool the buffer pool that caches the pages of this database
+   * @throws DatabaseException
+   */
+  public Database(String fileDir, int numMemoryPages, BufferPool bufferPool) throws DatabaseException {
     this.numMemoryPages = numMemoryPages;
+    this.bufferPool = bufferPool;
     this.fileDir = fileDir;
     numTransactions = 0;
     tableLookup = new ConcurrentHashMap<String, Table>();
+    partitionLookup = new ConcurrentHashMap<String, PartitionedTable>();
     indexLookup = new ConcurrentHashMap<String, BPlusTree>();
 
     File dir = new File(fileDir);
@@ -78,12 +115,17 @@ public class Database {
       if (fName.endsWith(Table.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(Table.FILENAME_EXTENSION);
         String tableName = fName.substring(0, lastIndex);
-        tableLookup.put(tableName, new Table(tableName, f.toPath().toString()));
+        tableLookup.put(tableName, new Table(tableName, f.toPath().toString(), bufferPool));
+      } else if (f.isDirectory() && fName.endsWith(PartitionedTable.DIRECTORY_EXTENSION)) {
+        int lastIndex = fName.lastIndexOf(PartitionedTable.DIRECTORY_EXTENSION);
+        String tableName = fName.substring(0, lastIndex);
+        partitionLookup.put(tableName, new PartitionedTable(tableName, f.toPath().toString(),
+                                                            bufferPool));
       } else if (fName.endsWith(BPlusTree.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(BPlusTree.FILENAME_EXTENSION);
         String indexName = fName.substring(0, lastIndex);
         Path path = Paths.get(f.toPath().toString(), indexName + BPlusTree.FILENAME_EXTENSION);
-        indexLookup.put(indexName, new BPlusTree(path.toString()));
+        indexLookup.put(indexName, new BPlusTree(path.toString(), bufferPool));
       }
     }
   }
@@ -97,12 +139,68 @@ public class Database {
    * @throws DatabaseException
    */
   public synchronized void createTable(Schema s, String tableName) throws DatabaseException {
-    if (this.tableLookup.containsKey(tableName)) {
+    createTable(s, tableName, PageLayout.Format.ROW);
+  }
+
+  /**
+   * Create a new table in this database whose data pages are laid out in the
+   * given format. PAX suits tables that are mostly scanned a column or two at
+   * a time, e.g. by aggregates (see PageLayout).
+   *
+   * @param s the table schema
+   * @param tableName the name of the table
+   * @param format the format of the table's data pages
+   * @throws DatabaseException
+   */
+  public synchronized void createTable(Schema s, String tableName, PageLayout.Format format)
+      throws DatabaseException {
+    if (this.tableExists(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
 
     Path path = Paths.get(fileDir, tableName + Table.FILENAME_EXTENSION);
-    this.tableLookup.put(tableName, new Table(tableName, s, path.toString()));
+    this.tableLookup.put(tableName, new Table(tableName, s, path.toString(), this.bufferPool,
+                                              format));
+  }
+
+  /**
+   * Create a new table in this database whose records are spread over
+   * several partitions by the hash or the range of the value of one column,
+   * each partition with a file and an allocator of its own (see
+   * PartitionedTable). Queries on the table only read the partitions that may
+   * hold records that satisfy their selects on that column, and read several
+   * partitions at once.
+   *
+   *   db.createTable(schema, "Students", Partitioning.hash("sid", 4));
+   *
+   * Partitioned tables have no indices, and the page-level methods of
+   * Transaction, e.g. getPageIterator, don't apply to them.
+   *
+   * @param s the table schema
+   * @param tableName the name of the table
+   * @param partitioning how the records are spread over the partitions
+   * @throws DatabaseException if the name is taken or the partitioning
+   * doesn't fit the schema
+   */
+  public void createTable(Schema s, String tableName, Partitioning partitioning)
+      throws DatabaseException {
+    createTable(s, tableName, partitioning, PageLayout.Format.ROW);
+  }
+
+  /**
+   * Like createTable(s, tableName, partitioning), but the data pages of the
+   * partitions are laid out in the given format.
+   */
+  public synchronized void createTable(Schema s, String tableName, Partitioning partitioning,
+                                       PageLayout.Format format) throws DatabaseException {
+    if (this.tableExists(tableName)) {
+      throw new DatabaseException("Table name already exists");
+    }
+
+    Path path = Paths.get(fileDir, tableName + PartitionedTable.DIRECTORY_EXTENSION);
+    this.partitionLookup.put(tableName, new PartitionedTable(tableName, s, partitioning,
+                                                             path.toString(), this.bufferPool,
+                                                             format));
   }
 
   /**
@@ -114,7 +212,7 @@ public class Database {
    * @throws DatabaseException
    */
   public synchronized void createTableWithIndices(Schema s, String tableName, List<String> indexColumns) throws DatabaseException {
-    if (this.tableLookup.containsKey(tableName)) {
+    if (this.tableExists(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
 
@@ -136,7 +234,7 @@ public class Database {
     }
 
     Path path = Paths.get(fileDir, tableName + Table.FILENAME_EXTENSION);
-    this.tableLookup.put(tableName, new Table(tableName, s, path.toString()));
+    this.tableLookup.put(tableName, new Table(tableName, s, path.toString(), this.bufferPool));
     for (int i : schemaColIndex) {
       String colName = schemaColNames.get(i);
       Type colType = schemaColType.get(i);
@@ -144,13 +242,140 @@ public class Database {
       Path p = Paths.get(this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION);
       try {
         this.indexLookup.put(indexName, new BPlusTree(p.toString(), colType,
-                           BPlusTree.maxOrder(Page.pageSize, colType)));
+                           BPlusTree.maxOrder(Page.pageSize, colType), this.bufferPool));
       } catch (BPlusTreeException e) {
         throw new DatabaseException(e.getMessage());
       }
     }
   }
 
+  /**
+   * Loads the rows of the CSV file csvFile (see CsvReader for the format) into
+   * table tableName with a CsvIngest, which parses and bulk loads the rows on
+   * several threads and is much faster than adding them one by one. The rows
+   * are not loaded in file order. The table's indices are updated too, once
+   * the rows are in: the entries of each index are sorted externally while
+   * the rows load (see IndexEntrySorter), an index that is empty is built
+   * bottom-up from them (see BPlusTree#bulkLoad), and the entries of any
+   * other index are put one by one.
+   *
+   * The table's record count is updated once at the end of the load, and its
+   * histograms are left as they were; call buildStatistics to refresh
+   * them.
+   *
+   * @return the number of rows loaded
+   * @throws DatabaseException if the table doesn't exist, the file can't be
+   * read, or a row doesn't match the table's schema. The rows loaded before
+   * the load stopped stay loaded, and are added to the indices all the same.
+   */
+  public long loadCsv(String tableName, Path csvFile) throws DatabaseException {
+    Table table = this.tableLookup.get(tableName);
+    if (table == null) {
+      throw new DatabaseException("Table: " + tableName + " does not exist");
+    }
+
+    // The indices of the table, and the sorters of the entries that go into
+    // each of them.
+    List<String> fieldNames = table.getSchema().getFieldNames();
+    List<Type> fieldTypes = table.getSchema().getFieldTypes();
+    List<Integer> indexColumns = new ArrayList<Integer>();
+    List<BPlusTree> indices = new ArrayList<BPlusTree>();
+    List<IndexEntrySorter> sorters = new ArrayList<IndexEntrySorter>();
+    for (int i = 0; i < fieldNames.size(); ++i) {
+      BPlusTree index = this.indexLookup.get(tableName + "," + fieldNames.get(i));
+      if (index != null) {
+        indexColumns.add(i);
+        indices.add(index);
+        sorters.add(new IndexEntrySorter(fieldTypes.get(i), Paths.get(this.fileDir)));
+      }
+    }
+
+    CsvIngest ingest = new CsvIngest(table, csvFile);
+    if (!indices.isEmpty()) {
+      ingest.setOnLoad((rid, record) -> {
+        for (int i = 0; i < indexColumns.size(); ++i) {
+          sorters.get(i).add(record.getValues().get(indexColumns.get(i)), rid);
+        }
+      });
+    }
+
+    // Whether the ingest succeeds or not, the rows it loaded are in the table,
+    // so their entries go into the indices either way.
+    try {
+      return ingest.run();
+    } finally {
+      try {
+        for (int i = 0; i < indices.size(); ++i) {
+          BPlusTree index = indices.get(i);
+          Iterator<Pair<DataBox, RecordId>> entries = sorters.get(i).iterator();
+          if (!index.scanAll().hasNext()) {
+            index.bulkLoad(entries, BULK_LOAD_FILL_FACTOR);
+          } else {
+            while (entries.hasNext()) {
+              Pair<DataBox, RecordId> entry = entries.next();
+              index.put(entry.getFirst(), entry.getSecond());
+            }
+          }
+        }
+      } catch (BPlusTreeException | UncheckedIOException e) {
+        throw new DatabaseException(e.getMessage());
+      } finally {
+        for (IndexEntrySorter sorter : sorters) {
+          sorter.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Builds a Bloom filter of the values of column columnName of table
+   * tableName, which the table keeps up to date as records are added (see
+   * Table#buildBloomFilter). Transaction#contains and Transaction#lookupKey
+   * then answer for a key that isn't in the column without reading the table
+   * or its index, and work on the column even if it has no index, by
+   * scanning the table. Building the filter of a column that has one already
+   * rebuilds it, e.g. after many records were deleted.
+   *
+   * @throws DatabaseException if the table or column doesn't exist
+   */
+  public void buildBloomFilter(String tableName, String columnName) throws DatabaseException {
+    Table table = this.tableLookup.get(tableName);
+    if (table == null) {
+      throw new DatabaseException("Table: " + tableName + " does not exist");
+    }
+    int field = table.getSchema().getFieldNames().indexOf(columnName);
+    if (field == -1) {
+      throw new DatabaseException("Column: " + columnName + " is not a column of " + tableName);
+    }
+    table.buildBloomFilter(field);
+  }
+
+  /**
+   * Builds the statistics of table tableName (see Table#buildStatistics and
+   * PartitionedTable#buildStatistics), and then dictionary encodes the string
+   * columns that they say are worth it (see Table#encodeColumns). Encoding
+   * rewrites the table's pages, so it only happens if the table is quiet:
+   * while a write to the table is underway or a page of it is pinned, the
+   * statistics are built but nothing is encoded, and a later call may encode
+   * the columns instead.
+   *
+   * @return whether any column was encoded
+   * @throws DatabaseException if the table doesn't exist
+   */
+  public boolean buildStatistics(String tableName, int buckets) throws DatabaseException {
+    PartitionedTable partitioned = this.partitionLookup.get(tableName);
+    if (partitioned != null) {
+      partitioned.buildStatistics(buckets);
+      return partitioned.encodeColumns();
+    }
+    Table table = this.tableLookup.get(tableName);
+    if (table == null) {
+      throw new DatabaseException("Table: " + tableName + " does not exist");
+    }
+    table.buildStatistics(buckets);
+    return table.encodeColumns();
+  }
+
   /**
    * Delete a table in this database.
    *
@@ -158,6 +383,16 @@ public class Database {
    * @return true if the database was successfully deleted
    */
   public synchronized boolean deleteTable(String tableName) {
+    PartitionedTable partitioned = this.partitionLookup.remove(tableName);
+    if (partitioned != null) {
+      partitioned.close();
+      File dir = new File(partitioned.getDirname());
+      for (File f : dir.listFiles()) {
+        f.delete();
+      }
+      dir.delete();
+      return true;
+    }
     if (!this.tableLookup.containsKey(tableName)) {
       return false;
     }
@@ -165,8 +400,11 @@ public class Database {
     this.tableLookup.get(tableName).close();
     this.tableLookup.remove(tableName);
 
-    File f = new File(fileDir + tableName + Table.FILENAME_EXTENSION);
+    File f = Paths.get(fileDir, tableName + Table.FILENAME_EXTENSION).toFile();
     f.delete();
+    new File(f.getPath() + Table.METADATA_EXTENSION).delete();
+    new File(f.getPath() + Table.FREE_SPACE_EXTENSION).delete();
+    new File(f.getPath() + Table.DICTIONARY_EXTENSION).delete();
 
     return true;
   }
@@ -176,12 +414,32 @@ public class Database {
    */
   public synchronized void deleteAllTables() {
     List<String> tableNames = new ArrayList<String>(tableLookup.keySet());
+    tableNames.addAll(partitionLookup.keySet());
 
     for (String s : tableNames) {
       deleteTable(s);
     }
   }
 
+  /**
+   * Writes every page of this database's tables and indices that was
+   * modified since it was last written back to disk, and forces the files to
+   * disk. When this returns, every modification made before the call is in
+   * the files, even if the database is not closed. Tables also persist their
+   * metadata, so that they open without a scan (see Table).
+   */
+  public synchronized void checkpoint() {
+    for (Table t : this.tableLookup.values()) {
+      t.checkpoint();
+    }
+    for (PartitionedTable t : this.partitionLookup.values()) {
+      t.checkpoint();
+    }
+    for (BPlusTree tree : this.indexLookup.values()) {
+      tree.checkpoint();
+    }
+  }
+
   /**
    * Close this database.
    */
@@ -189,14 +447,38 @@ public class Database {
     for (Table t : this.tableLookup.values()) {
       t.close();
     }
+    for (PartitionedTable t : this.partitionLookup.values()) {
+      t.close();
+    }
 
     this.tableLookup.clear();
+    this.partitionLookup.clear();
   }
 
   public Table getTable(String tableName) {
     return tableLookup.get(tableName);
   }
 
+  /**
+   * @return the partitioned table named tableName, or null if there is no
+   * such table or it isn't partitioned
+   */
+  public PartitionedTable getPartitionedTable(String tableName) {
+    return partitionLookup.get(tableName);
+  }
+
+  private boolean tableExists(String tableName) {
+    return this.tableLookup.containsKey(tableName) || this.partitionLookup.containsKey(tableName);
+  }
+
+  /**
+   * @return the buffer pool that caches the pages of this database, e.g. to
+   * read its hit ratio
+   */
+  public BufferPool getBufferPool() {
+    return this.bufferPool;
+  }
+
   /**
    * Start a new transaction.
    *
@@ -204,6 +486,7 @@ public class Database {
    */
   public synchronized Transaction beginTransaction() {
     Transaction t = new Transaction(this.numTransactions);
+    IOStats.attach(t.ioStats);
 
     this.numTransactions++;
     return t;
@@ -226,6 +509,8 @@ public class Database {
     HashMap<String, Table> tempTables;
     HashMap<String, String> aliasMaps;
     long tempTableCounter;
+    List<BufferPool.Reservation> reservations;
+    IOStats ioStats;
 
     private Transaction(long tNum) {
       this.transNum = tNum;
@@ -233,6 +518,8 @@ public class Database {
       this.tempTables = new HashMap<String, Table>();
       this.aliasMaps = new HashMap<String, String>();
       this.tempTableCounter = 0;
+      this.reservations = new ArrayList<BufferPool.Reservation>();
+      this.ioStats = new IOStats();
     }
 
     public boolean isActive() {
@@ -243,6 +530,11 @@ public class Database {
       assert(this.active);
 
       deleteAllTempTables();
+      for (BufferPool.Reservation reservation : this.reservations) {
+        reservation.close();
+      }
+      this.reservations.clear();
+      IOStats.detach(this.ioStats);
       this.active = false;
 
     }
@@ -270,13 +562,13 @@ public class Database {
     public void queryAs(String tableName, String alias) throws DatabaseException {
       assert(this.active);
 
-      if (Database.this.tableLookup.containsKey(alias)
+      if (Database.this.tableExists(alias)
               || this.tempTables.containsKey(alias)
               || this.aliasMaps.containsKey(alias)) {
         throw new DatabaseException("Table name already exists");
       }
 
-      if (Database.this.tableLookup.containsKey(tableName)) {
+      if (Database.this.tableExists(tableName)) {
         this.aliasMaps.put(alias, tableName);
       } else if (tempTables.containsKey(tableName)) {
         this.aliasMaps.put(alias, tableName);
@@ -305,7 +597,7 @@ public class Database {
       }
 
       Path path = Paths.get(Database.this.fileDir, "temp", tempTableName + Table.FILENAME_EXTENSION);
-      this.tempTables.put(tempTableName, new Table(tempTableName, schema, path.toString()));
+      this.tempTables.put(tempTableName, new Table(tempTableName, schema, path.toString(), Database.this.bufferPool));
       return tempTableName;
     }
 
@@ -320,7 +612,7 @@ public class Database {
     public void createTempTable(Schema schema, String tempTableName) throws DatabaseException {
       assert(this.active);
 
-      if (Database.this.tableLookup.containsKey(tempTableName)
+      if (Database.this.tableExists(tempTableName)
               || this.tempTables.containsKey(tempTableName))  {
         throw new DatabaseException("Table name already exists");
       }
@@ -332,7 +624,7 @@ public class Database {
       }
 
       Path path = Paths.get(Database.this.fileDir, "temp", tempTableName + Table.FILENAME_EXTENSION);
-      this.tempTables.put(tempTableName, new Table(tempTableName, schema, path.toString()));
+      this.tempTables.put(tempTableName, new Table(tempTableName, schema, path.toString(), Database.this.bufferPool));
     }
 
 
@@ -353,24 +645,67 @@ public class Database {
     }
 
     public Iterator<Record> sortedScan(String tableName, String columnName) throws DatabaseException {
+      return sortedScan(tableName, columnName, null);
+    }
+
+    /**
+     * Like sortedScan(tableName, columnName), but the records only have the
+     * fields whose indices are in fields, or all of them if fields is null.
+     */
+    public Iterator<Record> sortedScan(String tableName, String columnName, int[] fields) throws DatabaseException {
       Table tab = getTable(tableName);
       BPlusTree index = resolveIndexFromName(tableName, columnName);
-      return new RecordIterator(tab, index.scanAll());
+      return new RecordIterator(tab, index.scanAll(), fields);
     }
 
     public Iterator<Record> sortedScanFrom(String tableName, String columnName, DataBox startValue) throws DatabaseException {
+      return sortedScanFrom(tableName, columnName, startValue, null);
+    }
+
+    public Iterator<Record> sortedScanFrom(String tableName, String columnName, DataBox startValue,
+                                           int[] fields) throws DatabaseException {
       Table tab = getTable(tableName);
       BPlusTree index = resolveIndexFromName(tableName, columnName);
-      return new RecordIterator(tab, index.scanGreaterEqual(startValue));
+      return new RecordIterator(tab, index.scanGreaterEqual(startValue), fields);
     }
 
     public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key) throws DatabaseException {
+      return lookupKey(tableName, columnName, key, null);
+    }
+
+    /**
+     * Like lookupKey(tableName, columnName, key), but the records only have the fields whose
+     * indices are in fields, or all of them if fields is null. A key that the column's Bloom filter
+     * rules out finds nothing without reading the index, and a column without an index but with a
+     * Bloom filter is looked up by scanning the table (see Database#buildBloomFilter).
+     */
+    public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key,
+                                      int[] fields) throws DatabaseException {
       Table tab = getTable(tableName);
+      int field = resolveFieldFromName(tab, columnName);
+      if (!tab.mightContain(field, key)) {
+        return new RecordIterator(tab, new ArrayList<RecordId>().iterator(), fields);
+      }
+      if (tab.hasBloomFilter(field) && !indexExists(tableName, columnName)) {
+        return new RecordIterator(tab, tab.ridsEqual(field, key), fields);
+      }
       BPlusTree index = resolveIndexFromName(tableName, columnName);
-      return new RecordIterator(tab, index.scanEqual(key));
+      return new RecordIterator(tab, index.scanEqual(key), fields);
     }
 
+    /**
+     * @return whether a record of table tableName has key in column columnName, which needs an
+     * index or a Bloom filter on the column (see lookupKey)
+     */
     public boolean contains(String tableName, String columnName, DataBox key) throws DatabaseException {
+      Table tab = getTable(tableName);
+      int field = resolveFieldFromName(tab, columnName);
+      if (!tab.mightContain(field, key)) {
+        return false;
+      }
+      if (tab.hasBloomFilter(field) && !indexExists(tableName, columnName)) {
+        return tab.ridsEqual(field, key).hasNext();
+      }
       BPlusTree index = resolveIndexFromName(tableName, columnName);
       return index.get(key).isPresent();
     }
@@ -382,6 +717,10 @@ public class Database {
 
     private RecordId runAddRecord(String tableName, List<DataBox> values) throws DatabaseException {
       assert(this.active);
+      PartitionedTable partitioned = getPartitionedTable(tableName);
+      if (partitioned != null) {
+        return partitioned.addRecord(values);
+      }
       Table tab = getTable(tableName);
       RecordId rid = tab.addRecord(values);
       Schema s = tab.getSchema();
@@ -404,6 +743,17 @@ public class Database {
     }
 
 
+    /**
+     * Returns the I/O this transaction caused, e.g. to compare a query's estimateIOCost with
+     * the pages it actually fetched. I/O is charged to the transaction when it is done by the
+     * thread that began the transaction, until the transaction ends or that thread begins
+     * another one. The I/O of every table and index is available on its own as well (see
+     * Table#getIOStats).
+     */
+    public IOStats getIOStats() {
+      return this.ioStats;
+    }
+
     public int getNumMemoryPages() throws DatabaseException {
       assert(this.active);
 
@@ -411,6 +761,25 @@ public class Database {
 
     }
 
+    /**
+     * Reserves between minPages and maxPages pages of working memory out of the database's
+     * buffer pool (see BufferPool#reserve). The reservation is released when it is closed, or at
+     * the latest when this transaction ends.
+     *
+     * @throws DatabaseException if fewer than minPages pages are available
+     */
+    public BufferPool.Reservation reserveMemory(int minPages, int maxPages)
+        throws DatabaseException {
+      assert(this.active);
+      try {
+        BufferPool.Reservation reservation = Database.this.bufferPool.reserve(minPages, maxPages);
+        this.reservations.add(reservation);
+        return reservation;
+      } catch (PageException e) {
+        throw new DatabaseException(e);
+      }
+    }
+
 
     public RecordId deleteRecord(String tableName, RecordId rid)  throws DatabaseException {
         return runDeleteRecord(tableName, rid);
@@ -418,6 +787,11 @@ public class Database {
 
     private RecordId runDeleteRecord(String tableName, RecordId rid) throws DatabaseException {
       assert(active);
+      PartitionedTable partitioned = getPartitionedTable(tableName);
+      if (partitioned != null) {
+        partitioned.deleteRecord(rid);
+        return rid;
+      }
 
       Table tab = getTable(tableName);
       Schema s = tab.getSchema();
@@ -437,6 +811,10 @@ public class Database {
 
     public Record getRecord(String tableName, RecordId rid) throws DatabaseException {
       assert(active);
+      PartitionedTable partitioned = getPartitionedTable(tableName);
+      if (partitioned != null) {
+        return partitioned.getRecord(rid);
+      }
       return getTable(tableName).getRecord(rid);
     }
 
@@ -445,6 +823,80 @@ public class Database {
       return getTable(tableName).iterator();
     }
 
+    public Iterator<RecordView> getRecordViewIterator(String tableName) throws DatabaseException {
+      return getRecordViewIterator(tableName, null);
+    }
+
+    /**
+     * Returns views of the records of tableName that only expose the fields
+     * whose indices are in fields, or all of them if fields is null.
+     */
+    public Iterator<RecordView> getRecordViewIterator(String tableName, int[] fields) throws DatabaseException {
+      assert(this.active);
+      return getTable(tableName).viewIterator(fields);
+    }
+
+    /**
+     * Like getRecordViewIterator(tableName, fields), but skips the data pages
+     * that hold no record that satisfies every predicate (see
+     * Table#viewIterator).
+     */
+    public Iterator<RecordView> getRecordViewIterator(String tableName, int[] fields,
+                                                      List<ZonePredicate> predicates) throws DatabaseException {
+      assert(this.active);
+      PartitionedTable partitioned = getPartitionedTable(tableName);
+      if (partitioned != null) {
+        return partitioned.viewIterator(fields, predicates);
+      }
+      return getTable(tableName).viewIterator(fields, predicates);
+    }
+
+    /**
+     * Returns the records of the given partitions of the partitioned table tableName, reading as
+     * many partitions at once as there are processors (see PartitionedTable#scan). The records
+     * only have the fields whose indices are in fields, or all of them if fields is null, and the
+     * data pages that predicates rule out aren't read.
+     */
+    public Iterator<Record> getPartitionIterator(String tableName, List<Integer> partitions,
+                                                 int[] fields, List<ZonePredicate> predicates)
+        throws DatabaseException {
+      assert(this.active);
+      int parallelism = Runtime.getRuntime().availableProcessors();
+      return getPartitioned(tableName).scan(partitions, fields, predicates, parallelism);
+    }
+
+    /**
+     * @return whether tableName is a partitioned table (see Database#createTable(Schema, String,
+     * Partitioning))
+     */
+    public boolean isPartitioned(String tableName) {
+      return getPartitionedTable(tableName) != null;
+    }
+
+    /**
+     * @return the partitions of the partitioned table tableName that may hold a record whose
+     * field field satisfies `field operator value`, or all of them if field is -1 (see
+     * PartitionedTable#partitionsFor)
+     */
+    public List<Integer> getPartitions(String tableName, int field,
+                                       QueryPlan.PredicateOperator operator, DataBox value)
+        throws DatabaseException {
+      PartitionedTable partitioned = getPartitioned(tableName);
+      if (field == -1) {
+        return partitioned.allPartitions();
+      }
+      return partitioned.partitionsFor(field, operator, value);
+    }
+
+    /**
+     * Returns the values of field field of tableName, a data page at a time
+     * (see Table#columnIterator).
+     */
+    public Iterator<ColumnChunk> getColumnChunkIterator(String tableName, int field) throws DatabaseException {
+      assert(this.active);
+      return getTable(tableName).columnIterator(field);
+    }
+
     public RecordId updateRecord(String tableName, List<DataBox> values, RecordId rid)  throws DatabaseException {
         return runUpdateRecord(tableName, values, rid);
     }
@@ -453,6 +905,14 @@ public class Database {
       return getTable(tableName).getAllocator().iterator();
     }
 
+    /**
+     * Like getPageIterator, but every page returned is pinned in the buffer
+     * pool and must be unpinned by the caller (see PageAllocator#pinPage).
+     */
+    public PageIterator getPinnedPageIterator(String tableName) throws DatabaseException {
+      return getTable(tableName).getAllocator().pinnedIterator();
+    }
+
 
     public RecordId runUpdateRecordWhere(String tableName, String targetColumnName, DataBox targetVaue, String predColumnName, DataBox predValue)  throws DatabaseException {
 
@@ -480,6 +940,11 @@ public class Database {
 
     private RecordId runUpdateRecord(String tableName, List<DataBox> values, RecordId rid) throws DatabaseException {
       assert(this.active);
+      PartitionedTable partitioned = getPartitionedTable(tableName);
+      if (partitioned != null) {
+        partitioned.updateRecord(values, rid);
+        return rid;
+      }
       Table tab = getTable(tableName);
       Schema s = tab.getSchema();
 
@@ -507,14 +972,45 @@ public class Database {
 
     public TableStats getStats(String tableName) throws DatabaseException {
       assert(this.active);
+      PartitionedTable partitioned = getPartitionedTable(tableName);
+      if (partitioned != null) {
+        return partitioned.getStats();
+      }
       return getTable(tableName).getStats();
     }
 
     public int getNumDataPages(String tableName) throws DatabaseException {
       assert(this.active);
+      PartitionedTable partitioned = getPartitionedTable(tableName);
+      if (partitioned != null) {
+        return partitioned.getNumDataPages();
+      }
       return getTable(tableName).getNumDataPages();
     }
 
+    /**
+     * @return the number of data pages of tableName that a scan with
+     * predicates reads (see Table#getNumDataPages(List))
+     */
+    public int getNumDataPages(String tableName, List<ZonePredicate> predicates) throws DatabaseException {
+      assert(this.active);
+      PartitionedTable partitioned = getPartitionedTable(tableName);
+      if (partitioned != null) {
+        return partitioned.getNumDataPages(partitioned.allPartitions(), predicates);
+      }
+      return getTable(tableName).getNumDataPages(predicates);
+    }
+
+    /**
+     * @return the number of data pages of the given partitions of the partitioned table
+     * tableName that a scan with predicates reads
+     */
+    public int getNumDataPages(String tableName, List<Integer> partitions,
+                               List<ZonePredicate> predicates) throws DatabaseException {
+      assert(this.active);
+      return getPartitioned(tableName).getNumDataPages(partitions, predicates);
+    }
+
     public int getNumEntriesPerPage(String tableName) throws DatabaseException {
       assert(this.active);
       return getTable(tableName).getNumRecordsPerPage();
@@ -535,8 +1031,28 @@ public class Database {
       return getTable(tableName).getSchema().getSizeInBytes();
     }
 
+    public PageLayout getPageLayout(String tableName) throws DatabaseException {
+      assert(this.active);
+      return getTable(tableName).getLayout();
+    }
+
+    /**
+     * Copies data page page of tableName into copy under the page's latch
+     * (see Table#copyPage).
+     *
+     * @return the layout of the page when it was copied
+     */
+    public PageLayout copyPage(String tableName, Page page, Page copy) throws DatabaseException {
+      assert(this.active);
+      return getTable(tableName).copyPage(page, copy);
+    }
+
     public long getNumRecords(String tableName) throws DatabaseException {
       assert(this.active);
+      PartitionedTable partitioned = getPartitionedTable(tableName);
+      if (partitioned != null) {
+        return partitioned.getNumRecords();
+      }
       return getTable(tableName).getNumRecords();
     }
 
@@ -547,13 +1063,17 @@ public class Database {
 
     public Schema getSchema(String tableName) throws DatabaseException {
       assert(this.active);
+      PartitionedTable partitioned = getPartitionedTable(tableName);
+      if (partitioned != null) {
+        return partitioned.getSchema();
+      }
       return getTable(tableName).getSchema();
     }
 
     public Schema getFullyQualifiedSchema(String tableName) throws DatabaseException {
       assert(this.active);
 
-      Schema schema = getTable(tableName).getSchema();
+      Schema schema = getSchema(tableName);
 
       List<String> newColumnNames = new ArrayList<String>();
 
@@ -585,6 +1105,22 @@ public class Database {
       throw new DatabaseException("Index does not exist");
     }
 
+    /**
+     * @return the index of column columnName, which may be qualified with the table's name, in the
+     * schema of tab
+     */
+    private int resolveFieldFromName(Table tab, String columnName) throws DatabaseException {
+      if (columnName.contains(".")) {
+        columnName = columnName.split("\\.")[1];
+      }
+      int field = tab.getSchema().getFieldNames().indexOf(columnName);
+      if (field == -1) {
+        throw new DatabaseException("Column: " + columnName + " is not a column of " +
+                                    tab.getName());
+      }
+      return field;
+    }
+
     private Table getTable(String tableName) throws DatabaseException {
       if (this.tempTables.containsKey(tableName)) {
         return this.tempTables.get(tableName);
@@ -594,6 +1130,10 @@ public class Database {
         tableName = aliasMaps.get(tableName);
       }
 
+      if (Database.this.partitionLookup.containsKey(tableName)) {
+        throw new DatabaseException("Table: " + tableName + " is partitioned, and only supports " +
+                                    "record and query operations");
+      }
       if (!Database.this.tableLookup.containsKey(tableName)) {
         throw new DatabaseException("Table: " + tableName + "does not exist");
       }
@@ -601,6 +1141,28 @@ public class Database {
       return Database.this.tableLookup.get(tableName);
     }
 
+    /**
+     * @return the partitioned table tableName, which may be an alias, or null if it is another
+     * kind of table or doesn't exist
+     */
+    private PartitionedTable getPartitionedTable(String tableName) {
+      if (this.tempTables.containsKey(tableName)) {
+        return null;
+      }
+      while (aliasMaps.containsKey(tableName)) {
+        tableName = aliasMaps.get(tableName);
+      }
+      return Database.this.partitionLookup.get(tableName);
+    }
+
+    private PartitionedTable getPartitioned(String tableName) throws DatabaseException {
+      PartitionedTable partitioned = getPartitionedTable(tableName);
+      if (partitioned == null) {
+        throw new DatabaseException("Table: " + tableName + " is not partitioned");
+      }
+      return partitioned;
+    }
+
 
     public void deleteTempTable(String tempTableName) {
       assert(this.active);
@@ -612,8 +1174,12 @@ public class Database {
       this.tempTables.get(tempTableName).close();
       Database.this.tableLookup.remove(tempTableName);
 
-      File f = new File(Database.this.fileDir + "temp/" + tempTableName + Table.FILENAME_EXTENSION);
+      Path path = Paths.get(Database.this.fileDir, "temp", tempTableName + Table.FILENAME_EXTENSION);
+      File f = path.toFile();
       f.delete();
+      new File(f.getPath() + Table.METADATA_EXTENSION).delete();
+      new File(f.getPath() + Table.FREE_SPACE_EXTENSION).delete();
+      new File(f.getPath() + Table.DICTIONARY_EXTENSION).delete();
     }
 
     private void deleteAllTempTables() {
@@ -657,6 +1223,7 @@ public class Database {
 
     public void run(){
       assert(this.active);
+      IOStats.attach(this.ioStats);
 
       LinkedList<RecordId> newRecords =  new LinkedList<RecordId>();
 
@@ -681,6 +1248,7 @@ public class Database {
       }
 
       super.deleteAllTempTables();
+      IOStats.detach(this.ioStats);
       this.active = false;
     }
 
@@ -0,0 +1,244 @@
+package edu.berkeley.cs186.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.RecordId;
+
+/**
+ * Sorts the (key, record id) entries of an index by key, for loadCsv to bulk
+ * load them, without keeping them all in memory. Entries are buffered in runs
+ * of runSize entries; each full run is sorted and spilled to a file of its own
+ * in dir, and iterator merges the spilled runs with the last one.
+ *
+ *   try (IndexEntrySorter sorter = new IndexEntrySorter(Type.intType(), dir)) {
+ *     sorter.add(new IntDataBox(3), rid);
+ *     ...
+ *     index.bulkLoad(sorter.iterator(), fillFactor);
+ *   }
+ *
+ * add may be called from several threads. Spill files are written with the
+ * fixed-size encodings of the keys and record ids, and are deleted on close.
+ * IO errors surface as UncheckedIOExceptions, so that add can be called from
+ * callbacks that can't throw.
+ */
+class IndexEntrySorter implements Closeable {
+  public static final int DEFAULT_RUN_SIZE = 1 << 16;
+  static final String RUN_EXTENSION = ".run";
+
+  // Entries are sorted by key, and entries with the same key by record id, so
+  // that runs merge the same way regardless of the order they were added in.
+  private static final Comparator<Pair<DataBox, RecordId>> ENTRY_ORDER =
+    Comparator.comparing((Pair<DataBox, RecordId> e) -> e.getFirst())
+    .thenComparing(Pair::getSecond);
+
+  private final Type keyType;
+  private final Path dir;
+  private final int runSize;
+  private final int entrySize;
+  private List<Pair<DataBox, RecordId>> run;
+  private final List<Path> spilled;
+  private final List<DataInputStream> readers;
+
+  IndexEntrySorter(Type keyType, Path dir) {
+    this(keyType, dir, DEFAULT_RUN_SIZE);
+  }
+
+  IndexEntrySorter(Type keyType, Path dir, int runSize) {
+    if (runSize <= 0) {
+      throw new IllegalArgumentException("runSize must be positive: " + runSize);
+    }
+    this.keyType = keyType;
+    this.dir = dir;
+    this.runSize = runSize;
+    this.entrySize = keyType.getSizeInBytes() + RecordId.getSizeInBytes();
+    this.run = new ArrayList<Pair<DataBox, RecordId>>();
+    this.spilled = new ArrayList<Path>();
+    this.readers = new ArrayList<DataInputStream>();
+  }
+
+  /**
+   * Adds the entry (key, rid), spilling the current run if it is full.
+   */
+  synchronized void add(DataBox key, RecordId rid) {
+    this.run.add(new Pair<DataBox, RecordId>(key, rid));
+    if (this.run.size() >= this.runSize) {
+      spill();
+    }
+  }
+
+  /**
+   * @return the number of runs spilled to disk so far
+   */
+  synchronized int getNumSpilledRuns() {
+    return this.spilled.size();
+  }
+
+  /**
+   * @return all the entries added, sorted by key. Entries added afterwards
+   * are not returned.
+   */
+  synchronized Iterator<Pair<DataBox, RecordId>> iterator() {
+    this.run.sort(ENTRY_ORDER);
+    List<Iterator<Pair<DataBox, RecordId>>> runs =
+      new ArrayList<Iterator<Pair<DataBox, RecordId>>>();
+    runs.add(new ArrayList<Pair<DataBox, RecordId>>(this.run).iterator());
+    for (Path p : this.spilled) {
+      runs.add(new RunIterator(p));
+    }
+    return new MergeIterator(runs);
+  }
+
+  /**
+   * Closes the readers of the spilled runs and deletes their files.
+   */
+  @Override
+  public synchronized void close() {
+    for (DataInputStream in : this.readers) {
+      try {
+        in.close();
+      } catch (IOException e) {
+        // Nothing to do; the file is deleted below anyway.
+      }
+    }
+    this.readers.clear();
+    for (Path p : this.spilled) {
+      try {
+        Files.deleteIfExists(p);
+      } catch (IOException e) {
+        // Leave it behind; it is ignored when the database is reopened.
+      }
+    }
+    this.spilled.clear();
+    this.run.clear();
+  }
+
+  private void spill() {
+    this.run.sort(ENTRY_ORDER);
+    try {
+      Path p = Files.createTempFile(this.dir, "index", RUN_EXTENSION);
+      this.spilled.add(p);
+      try (DataOutputStream out = new DataOutputStream(
+             new BufferedOutputStream(Files.newOutputStream(p)))) {
+        for (Pair<DataBox, RecordId> e : this.run) {
+          out.write(e.getFirst().toBytes());
+          out.write(e.getSecond().toBytes());
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.run = new ArrayList<Pair<DataBox, RecordId>>();
+  }
+
+  // Iterators ////////////////////////////////////////////////////////////////
+
+  /** Reads back the entries of one spilled run, in order. */
+  private class RunIterator implements Iterator<Pair<DataBox, RecordId>> {
+    private final DataInputStream in;
+    private final byte[] bytes;
+    private Pair<DataBox, RecordId> next;
+
+    private RunIterator(Path p) {
+      try {
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(p)));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      IndexEntrySorter.this.readers.add(this.in);
+      this.bytes = new byte[IndexEntrySorter.this.entrySize];
+      this.next = read();
+    }
+
+    private Pair<DataBox, RecordId> read() {
+      try {
+        this.in.readFully(this.bytes);
+      } catch (EOFException e) {
+        return null;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      ByteBuffer buf = ByteBuffer.wrap(this.bytes);
+      DataBox key = DataBox.fromBytes(buf, IndexEntrySorter.this.keyType);
+      return new Pair<DataBox, RecordId>(key, RecordId.fromBytes(buf));
+    }
+
+    @Override
+    public boolean hasNext() {
+      return this.next != null;
+    }
+
+    @Override
+    public Pair<DataBox, RecordId> next() {
+      if (this.next == null) {
+        throw new NoSuchElementException();
+      }
+      Pair<DataBox, RecordId> e = this.next;
+      this.next = read();
+      return e;
+    }
+  }
+
+  /** Merges sorted runs, keeping only the head of each in memory. */
+  private static class MergeIterator implements Iterator<Pair<DataBox, RecordId>> {
+    private final PriorityQueue<Head> heads;
+
+    private MergeIterator(List<Iterator<Pair<DataBox, RecordId>>> runs) {
+      this.heads = new PriorityQueue<Head>(Math.max(1, runs.size()),
+                                           (a, b) -> ENTRY_ORDER.compare(a.entry, b.entry));
+      for (Iterator<Pair<DataBox, RecordId>> run : runs) {
+        advance(run);
+      }
+    }
+
+    private void advance(Iterator<Pair<DataBox, RecordId>> run) {
+      if (run.hasNext()) {
+        this.heads.add(new Head(run.next(), run));
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return !this.heads.isEmpty();
+    }
+
+    @Override
+    public Pair<DataBox, RecordId> next() {
+      Head head = this.heads.poll();
+      if (head == null) {
+        throw new NoSuchElementException();
+      }
+      advance(head.rest);
+      return head.entry;
+    }
+  }
+
+  /** The next entry of a run, and the rest of the run. */
+  private static class Head {
+    private final Pair<DataBox, RecordId> entry;
+    private final Iterator<Pair<DataBox, RecordId>> rest;
+
+    private Head(Pair<DataBox, RecordId> entry, Iterator<Pair<DataBox, RecordId>> rest) {
+      this.entry = entry;
+      this.rest = rest;
+    }
+  }
+}
@@ -28,9 +28,10 @@ public class Bits {
    *   - getBit(new byte[]{0b00000000, 0b00000001}, 15) == ONE
    */
   public static Bit getBit(byte[] bytes, int i) {
-    String err = String.format("bytes.length = %d; i = %d.", bytes.length, i);
-    assert (bytes.length > 0) : err;
-    assert (0 <= i && i < bytes.length * 8) : err;
+    // The message is only formatted if the assertion fails; this is called
+    // for every slot of every page a table scans.
+    assert (bytes.length > 0 && 0 <= i && i < bytes.length * 8) :
+        String.format("bytes.length = %d; i = %d.", bytes.length, i);
     return getBit(bytes[i/8], i % 8);
   }
 
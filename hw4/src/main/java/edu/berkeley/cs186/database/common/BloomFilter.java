@@ -0,0 +1,133 @@
+package edu.berkeley.cs186.database.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+
+/**
+ * A Bloom filter of DataBoxes: a set that can say for sure that a value is
+ * not in it, but only that a value may be in it otherwise. A filter sized for
+ * n values (see BloomFilter(long)) is wrong about a value that isn't in it
+ * about 1% of the time while it holds at most n values, and more and more
+ * often as it fills past that. Values can't be removed.
+ *
+ *   BloomFilter filter = new BloomFilter(1000);
+ *   filter.add(new IntDataBox(42));
+ *   filter.mightContain(new IntDataBox(42)); // true
+ *   filter.mightContain(new IntDataBox(43)); // false, most likely
+ *
+ * A value sets NUM_HASHES bits of the filter, picked by the value's
+ * hashCode, so values that are equal set the same bits. Bits are set
+ * atomically, so several threads may add values to a filter, and check it,
+ * at the same time.
+ */
+public class BloomFilter {
+  // The number of bits of the filter per value it is sized for, and the
+  // number of bits every value sets, which is the best for that many bits
+  // (about BITS_PER_VALUE * ln 2).
+  private static final int BITS_PER_VALUE = 10;
+  private static final int NUM_HASHES = 7;
+
+  private final int numHashes;
+  private final long numBits;
+  private final AtomicLongArray words;
+
+  /**
+   * Constructs an empty filter sized for numValues values.
+   */
+  public BloomFilter(long numValues) {
+    this(NUM_HASHES, new long[(int) Math.max(1, (Math.max(1, numValues) * BITS_PER_VALUE + 63) / 64)]);
+  }
+
+  private BloomFilter(int numHashes, long[] words) {
+    this.numHashes = numHashes;
+    this.numBits = 64L * words.length;
+    this.words = new AtomicLongArray(words);
+  }
+
+  /**
+   * Adds value to the filter.
+   */
+  public void add(DataBox value) {
+    long hash = hash(value);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < this.numHashes; ++i) {
+      long bit = bitOf(h1 + i * h2);
+      int word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      long old = this.words.get(word);
+      while ((old & mask) == 0 && !this.words.compareAndSet(word, old, old | mask)) {
+        old = this.words.get(word);
+      }
+    }
+  }
+
+  /**
+   * @return false if value was never added to the filter, and true if it may
+   * have been
+   */
+  public boolean mightContain(DataBox value) {
+    long hash = hash(value);
+    int h1 = (int) hash;
+    int h2 = (int) (hash >>> 32);
+    for (int i = 0; i < this.numHashes; ++i) {
+      long bit = bitOf(h1 + i * h2);
+      if ((this.words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of bytes toBytes writes
+   */
+  public int getSizeInBytes() {
+    return 4 + 4 + 8 * this.words.length();
+  }
+
+  /**
+   * Writes the filter to buf, from where fromBytes reads it back.
+   */
+  public void toBytes(ByteBuffer buf) {
+    buf.putInt(this.numHashes);
+    buf.putInt(this.words.length());
+    for (int i = 0; i < this.words.length(); ++i) {
+      buf.putLong(this.words.get(i));
+    }
+  }
+
+  /**
+   * Reads a filter written by toBytes from buf.
+   */
+  public static BloomFilter fromBytes(ByteBuffer buf) {
+    int numHashes = buf.getInt();
+    long[] words = new long[buf.getInt()];
+    for (int i = 0; i < words.length; ++i) {
+      words[i] = buf.getLong();
+    }
+    return new BloomFilter(numHashes, words);
+  }
+
+  /**
+   * Spreads the bits of value's hashCode over a long, whose two halves are
+   * combined into the value's NUM_HASHES bits (see Kirsch and Mitzenmacher,
+   * "Less Hashing, Same Performance"). Hash codes of small ints and floats
+   * are the values themselves, so they need the spreading.
+   */
+  private static long hash(DataBox value) {
+    long h = value.hashCode() * 0x9e3779b97f4a7c15L;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private long bitOf(int combinedHash) {
+    return (combinedHash & 0xffffffffL) % this.numBits;
+  }
+}
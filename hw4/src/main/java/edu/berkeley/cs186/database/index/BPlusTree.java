@@ -10,6 +10,8 @@ import java.util.Optional;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -82,6 +84,15 @@ public class BPlusTree {
      */
     public BPlusTree(String filename, Type keySchema, int order)
         throws BPlusTreeException {
+      this(filename, keySchema, order, BufferPool.getDefault());
+    }
+
+    /**
+     * Construct a new B+ tree like BPlusTree(filename, keySchema, order) does,
+     * but cache its nodes in `bufferPool`.
+     */
+    public BPlusTree(String filename, Type keySchema, int order,
+                     BufferPool bufferPool) throws BPlusTreeException {
 
       // Sanity checks.
       if (order < 0) {
@@ -101,7 +112,8 @@ public class BPlusTree {
       }
 
       // Initialize the page allocator.
-      PageAllocator allocator = new PageAllocator(filename, true /* wipe */);
+      PageAllocator allocator = new PageAllocator(filename, true /* wipe */,
+                                                  true /* durable */, bufferPool);
       this.metadata = new BPlusTreeMetadata(allocator, keySchema, order);
 
       // Allocate the header page.
@@ -116,13 +128,22 @@ public class BPlusTree {
       this.root = new LeafNode(this.metadata, keys, rids, rightSibling);
 
       // Initialize the header page.
-      writeHeader(headerPage.getByteBuffer());
+      writeHeader();
     }
 
     /** Read a B+ tree that was previously serialized to filename. */
     public BPlusTree(String filename) {
+      this(filename, BufferPool.getDefault());
+    }
+
+    /**
+     * Read a B+ tree that was previously serialized to filename, caching its
+     * nodes in `bufferPool`.
+     */
+    public BPlusTree(String filename, BufferPool bufferPool) {
       // Initialize the page allocator and fetch the header page.
-      PageAllocator allocator = new PageAllocator(filename, false /* wipe */);
+      PageAllocator allocator = new PageAllocator(filename, false /* wipe */,
+                                                  true /* durable */, bufferPool);
       Page headerPage = allocator.fetchPage(0);
       ByteBuffer buf = headerPage.getByteBuffer();
 
@@ -288,7 +309,81 @@ public class BPlusTree {
 
       InnerNode inner = new InnerNode(metadata, keys, children);
       this.root = inner;
-      writeHeader(headerPage.getByteBuffer());
+      writeHeader();
+    }
+
+    /**
+     * Builds the tree bottom-up out of the (key, rid) pairs of data, which
+     * must be sorted by key with no key repeated. Leaves are written left to
+     * right, each filled to fillFactor of its 2d entries so that later puts
+     * don't split them right away, and then each level of inner nodes above
+     * them, each as full as possible, until a single root remains. Every node
+     * is written once and nothing is ever split, which makes this much faster
+     * than putting the pairs one by one.
+     *
+     *   BPlusTree tree = new BPlusTree("t.txt", Type.intType(), 4);
+     *   List<Pair<DataBox, RecordId>> data = ...; // sorted by key
+     *   tree.bulkLoad(data.iterator(), 0.75f);
+     *
+     * The tree must be empty. If it isn't, or the keys are not strictly
+     * increasing, a BPlusTreeException is thrown and the tree stays as it was.
+     */
+    public void bulkLoad(Iterator<Pair<DataBox, RecordId>> data, float fillFactor)
+        throws BPlusTreeException {
+      if (fillFactor <= 0 || fillFactor > 1) {
+        String msg = String.format("Invalid fill factor %f.", fillFactor);
+        throw new BPlusTreeException(msg);
+      }
+      if (!(root instanceof LeafNode) || !((LeafNode) root).getKeys().isEmpty()) {
+        throw new BPlusTreeException("Only an empty B+ tree can be bulk loaded.");
+      }
+      int order = metadata.getOrder();
+      if (order < 1) {
+        throw new BPlusTreeException("An order 0 B+ tree can't be bulk loaded.");
+      }
+
+      // The leaves, as (smallest key, page number) pairs.
+      int leafSize = Math.max(1, (int) (2 * order * fillFactor));
+      List<Pair<DataBox, Integer>> level = new ArrayList<>();
+      LeafNode previous = null;
+      DataBox lastKey = null;
+      while (data.hasNext()) {
+        List<DataBox> keys = new ArrayList<>();
+        List<RecordId> rids = new ArrayList<>();
+        while (keys.size() < leafSize && data.hasNext()) {
+          Pair<DataBox, RecordId> entry = data.next();
+          DataBox key = entry.getFirst();
+          typecheck(key);
+          if (lastKey != null && key.compareTo(lastKey) <= 0) {
+            String msg = String.format(
+                "Bulk loaded keys must be strictly increasing, but %s follows %s.",
+                key, lastKey);
+            throw new BPlusTreeException(msg);
+          }
+          keys.add(key);
+          rids.add(entry.getSecond());
+          lastKey = key;
+        }
+        LeafNode leaf = new LeafNode(metadata, keys, rids, Optional.empty());
+        if (previous != null) {
+          previous.setRightSibling(leaf.getPage().getPageNum());
+        }
+        level.add(new Pair<>(keys.get(0), leaf.getPage().getPageNum()));
+        previous = leaf;
+      }
+      if (level.isEmpty()) {
+        return;
+      }
+
+      // The inner nodes, one level at a time.
+      while (level.size() > 1) {
+        level = buildInnerLevel(level);
+      }
+
+      int emptyRootPageNum = root.getPage().getPageNum();
+      this.root = BPlusNode.fromBytes(metadata, level.get(0).getSecond());
+      writeHeader();
+      metadata.getAllocator().freePage(emptyRootPageNum);
     }
 
     /**
@@ -349,16 +444,58 @@ public class BPlusTree {
       return Math.min(leafOrder, innerOrder);
     }
 
+    /**
+     * Writes every page of the tree that was modified since it was last
+     * written back to disk (see PageAllocator#checkpoint).
+     */
+    public void checkpoint() {
+      metadata.getAllocator().checkpoint();
+    }
+
+    /** Returns the I/O counters of the tree's file. */
+    public IOStats getIOStats() {
+      return metadata.getAllocator().getIOStats();
+    }
+
     /** Returns the number of pages used to serialize the tree. */
     public int getNumPages() {
       return metadata.getAllocator().getNumPages();
     }
 
-    /** Serializes the header page to buf. */
-    private void writeHeader(ByteBuffer buf) {
+    /**
+     * Builds the level of inner nodes above children, given as (smallest key,
+     * page number) pairs, and returns it in the same form. Children are spread
+     * evenly over as few nodes of at most 2d + 1 children as possible, so that
+     * no node is left with a single child.
+     */
+    private List<Pair<DataBox, Integer>> buildInnerLevel(List<Pair<DataBox, Integer>> children) {
+      int fanout = 2 * metadata.getOrder() + 1;
+      int numNodes = (children.size() + fanout - 1) / fanout;
+      List<Pair<DataBox, Integer>> level = new ArrayList<>();
+      for (int i = 0; i < numNodes; ++i) {
+        int from = (int) ((long) i * children.size() / numNodes);
+        int to = (int) ((long) (i + 1) * children.size() / numNodes);
+        List<DataBox> keys = new ArrayList<>();
+        List<Integer> pageNums = new ArrayList<>();
+        for (int j = from; j < to; ++j) {
+          if (j > from) {
+            keys.add(children.get(j).getFirst());
+          }
+          pageNums.add(children.get(j).getSecond());
+        }
+        InnerNode inner = new InnerNode(metadata, keys, pageNums);
+        level.add(new Pair<>(children.get(from).getFirst(), inner.getPage().getPageNum()));
+      }
+      return level;
+    }
+
+    /** Serializes the header to the header page. */
+    private void writeHeader() {
+      ByteBuffer buf = headerPage.getByteBuffer();
       buf.put(metadata.getKeySchema().toBytes());
       buf.putInt(metadata.getOrder());
       buf.putInt(root.getPage().getPageNum());
+      headerPage.markDirty();
     }
 
     private void typecheck(DataBox key) {
@@ -385,6 +522,9 @@ public class BPlusTree {
         this.leaf = leaf;
         this.iter = iter;
 
+        // Sibling leaves are rarely next to each other in the file, so the
+        // allocator can't see the walk is sequential; tell it where we go next.
+        this.leaf.prefetchRightSibling();
         if (!this.iter.hasNext()) {
           advance();
         }
@@ -395,6 +535,7 @@ public class BPlusTree {
         if (sibling.isPresent()) {
           this.leaf = sibling.get();
           this.iter = this.leaf.scanAll();
+          this.leaf.prefetchRightSibling();
           if (!this.iter.hasNext()) {
             advance();
           }
@@ -178,6 +178,7 @@ class InnerNode extends BPlusNode {
 
   private void sync() {
     page.getByteBuffer().put(toBytes());
+    page.markDirty();
   }
 
   // Just for testing.
@@ -378,9 +379,10 @@ class InnerNode extends BPlusNode {
    */
   public static InnerNode fromBytes(BPlusTreeMetadata metadata, int pageNum) {
     Page page = metadata.getAllocator().fetchPage(pageNum);
-    ByteBuffer buf = page.getByteBuffer();
+    ByteBuffer buf = page.asReadOnlyBuffer();
 
-    assert(buf.get() == (byte) 0);
+    byte isLeaf = buf.get();
+    assert(isLeaf == (byte) 0);
 
     List<DataBox> keys = new ArrayList<>();
     List<Integer> children = new ArrayList<>();
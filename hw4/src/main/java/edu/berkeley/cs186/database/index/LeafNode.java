@@ -261,9 +261,26 @@ class LeafNode extends BPlusNode {
     return Optional.of(LeafNode.fromBytes(metadata, pageNum));
   }
 
+  /** Makes the leaf on page pageNum the right sibling of this leaf. */
+  void setRightSibling(int pageNum) {
+    rightSibling = Optional.of(pageNum);
+    sync();
+  }
+
+  /**
+   * Starts loading the page of the right sibling of this leaf in the
+   * background, if it has one, for a caller that is about to walk to it.
+   */
+  void prefetchRightSibling() {
+    if (rightSibling.isPresent()) {
+      metadata.getAllocator().prefetch(rightSibling.get());
+    }
+  }
+
   /** Serializes this leaf to its page. */
   private void sync() {
     page.getByteBuffer().put(toBytes());
+    page.markDirty();
   }
 
   /**
@@ -394,9 +411,10 @@ class LeafNode extends BPlusNode {
    */
   public static LeafNode fromBytes(BPlusTreeMetadata metadata, int pageNum) {
     Page page = metadata.getAllocator().fetchPage(pageNum);
-    ByteBuffer buf = page.getByteBuffer();
+    ByteBuffer buf = page.asReadOnlyBuffer();
 
-    assert(buf.get() == (byte) 1);
+    byte isLeaf = buf.get();
+    assert(isLeaf == (byte) 1);
 
     int s = buf.getInt();
     Optional<Integer> rightSibling = s == -1 ? Optional.empty() : Optional.of(s);
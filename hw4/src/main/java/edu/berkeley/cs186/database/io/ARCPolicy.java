@@ -0,0 +1,124 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.LongPredicate;
+
+/**
+ * Adaptive Replacement Cache (ARC) of Megiddo and Modha. Cached pages are
+ * split between T1, pages seen once recently, and T2, pages seen at least
+ * twice recently. Two ghost lists remember the pages recently evicted from T1
+ * (B1) and from T2 (B2). A miss on a page remembered in B1 means T1 was too
+ * small, so the target size p of T1 grows; a miss on a page remembered in B2
+ * means T2 was too small, so p shrinks. Evictions take the LRU page of T1 when
+ * T1 is larger than p, and of T2 otherwise.
+ *
+ * ARC therefore balances recency against frequency on its own: a scan only
+ * ever occupies T1, and it can only grow T1 at the expense of T2 if the
+ * scanned pages are actually requested again.
+ *
+ * The capacity c the policy is sized for is an estimate: a BufferPool shard
+ * may hold somewhat more or fewer pages than c, in which case ARC still keeps
+ * at most c pages in T1 plus B1 and at most 2c pages in total.
+ */
+class ARCPolicy implements ReplacementPolicy {
+  private final int c;
+
+  // The target size of T1.
+  private int p;
+
+  // Whether the last inserted page was remembered in B2. ARC's replacement
+  // rule breaks the tie |T1| == p in favor of evicting from T1 in that case.
+  private boolean lastInsertWasInB2;
+
+  // All four lists iterate from least to most recently used.
+  private final LinkedHashSet<Long> t1 = new LinkedHashSet<Long>();
+  private final LinkedHashSet<Long> t2 = new LinkedHashSet<Long>();
+  private final LinkedHashSet<Long> b1 = new LinkedHashSet<Long>();
+  private final LinkedHashSet<Long> b2 = new LinkedHashSet<Long>();
+
+  ARCPolicy(int capacity) {
+    this.c = Math.max(1, capacity);
+    this.p = 0;
+    this.lastInsertWasInB2 = false;
+  }
+
+  @Override
+  public void recordHit(long vPageNum) {
+    if (t1.remove(vPageNum) || t2.remove(vPageNum)) {
+      t2.add(vPageNum);
+    }
+  }
+
+  @Override
+  public void recordInsert(long vPageNum) {
+    lastInsertWasInB2 = false;
+    if (b1.contains(vPageNum)) {
+      int delta = Math.max(1, b2.size() / b1.size());
+      p = Math.min(c, p + delta);
+      b1.remove(vPageNum);
+      t2.add(vPageNum);
+    } else if (b2.contains(vPageNum)) {
+      int delta = Math.max(1, b1.size() / b2.size());
+      p = Math.max(0, p - delta);
+      b2.remove(vPageNum);
+      t2.add(vPageNum);
+      lastInsertWasInB2 = true;
+    } else {
+      // A page ARC has never seen (or has forgotten). Make room in the ghost
+      // lists; the page itself is made room for by the next evict.
+      if (t1.size() + b1.size() >= c) {
+        removeOldest(b1);
+      } else if (t1.size() + t2.size() + b1.size() + b2.size() >= 2 * c) {
+        removeOldest(b2);
+      }
+      t1.add(vPageNum);
+    }
+  }
+
+  @Override
+  public void recordRemove(long vPageNum) {
+    t1.remove(vPageNum);
+    t2.remove(vPageNum);
+    b1.remove(vPageNum);
+    b2.remove(vPageNum);
+  }
+
+  @Override
+  public long evict(LongPredicate evictable) {
+    boolean preferT1 = !t1.isEmpty() &&
+                       (t1.size() > p || (lastInsertWasInB2 && t1.size() == p));
+    LinkedHashSet<Long> first = preferT1 ? t1 : t2;
+    LinkedHashSet<Long> second = preferT1 ? t2 : t1;
+
+    long victim = LRUPolicy.removeFirstEvictable(first, evictable);
+    if (victim == NO_VICTIM) {
+      victim = LRUPolicy.removeFirstEvictable(second, evictable);
+      first = second;
+    }
+    if (victim == NO_VICTIM) {
+      return NO_VICTIM;
+    }
+
+    if (first == t1) {
+      b1.add(victim);
+    } else {
+      b2.add(victim);
+    }
+    while (t1.size() + b1.size() > c && !b1.isEmpty()) {
+      removeOldest(b1);
+    }
+    while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * c && !b2.isEmpty()) {
+      removeOldest(b2);
+    }
+    return victim;
+  }
+
+  private static void removeOldest(LinkedHashSet<Long> list) {
+    Iterator<Long> iter = list.iterator();
+    if (iter.hasNext()) {
+      iter.next();
+      iter.remove();
+    }
+  }
+}
@@ -0,0 +1,773 @@
+package edu.berkeley.cs186.database.io;
+
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A buffer pool of cached pages shared by any number of PageAllocators. Pages
+ * are keyed by their virtual page number (see PageAllocator#translatePageNum),
+ * which packs the id of the owning allocator into the high 32 bits and the
+ * allocator-local page number into the low 32 bits.
+ *
+ * The pool is split into a power-of-two number of shards. Every virtual page
+ * number hashes to exactly one shard, and every shard keeps its pages and its
+ * own ReplacementPolicy behind its own monitor. A cache hit therefore only
+ * contends with other accesses that hash to the same shard, so hits on pages
+ * of different tables (or different pages of the same table) scale across
+ * cores instead of serializing on a single global lock.
+ *
+ *   BufferPool pool = new BufferPool(1024);
+ *   PageAllocator a = new PageAllocator("a.table", true, true, pool);
+ *   PageAllocator b = new PageAllocator("b.table", true, true, pool);
+ *
+ * The capacity is shared by all shards rather than split between them, so an
+ * unlucky hash distribution never evicts pages while the pool has room. When
+ * an insertion pushes the pool over capacity, the inserting shard's policy
+ * picks a victim other than the page just inserted (or, if it has none, the
+ * next non-empty shard's policy does), so replacement decisions are made per
+ * shard rather than globally.
+ *
+ * The replacement policy is LRU unless another one is picked:
+ *
+ *   BufferPool pool = new BufferPool(1024, ReplacementPolicy.Type.TWO_Q);
+ *
+ * The capacity is a memory budget rather than just the size of the cache.
+ * Query operators reserve the pages they work with out of it (see reserve),
+ * and the cache holds at most the pages that are not reserved, so that the
+ * pool's cache and the operators using it together stay within one bound. The
+ * budget can be changed while the pool is in use (see setCapacity). The
+ * budget of the default pool, which databases share unless they are given a
+ * pool, is read from the system property CAPACITY_PROPERTY:
+ *
+ *   java -Dcs186.bufferPool.pages=4096 ...
+ *
+ * Every pool counts its hits and misses so that policies can be compared on a
+ * real workload (see getHitRatio).
+ *
+ * The pool also decides which PageStore the allocators that use it load their
+ * pages with. By default every page that enters the pool is memory-mapped on
+ * its own, which costs a system call per page. Allocators opened after a
+ * segment size is set map their file in segments of that many bytes instead,
+ * and hand out pages as slices of them:
+ *
+ *   pool.setSegmentSize(BufferPool.DEFAULT_SEGMENT_SIZE);
+ *
+ * Allocators opened after the store type is set to PREAD read and write
+ * their pages with positional I/O into direct buffers of their own:
+ *
+ *   pool.setStoreType(PageStore.Type.PREAD);
+ *
+ * Pages can be pinned (see PageAllocator#pinPage). The pool never evicts a
+ * pinned page, so an operator can keep the pages it is working on resident
+ * no matter what other fetches do. If every page is pinned, the pool grows
+ * past its capacity until pages are unpinned and evicted by later inserts.
+ *
+ * Scans of files larger than a fraction of the pool don't go through the
+ * pool, so that one large scan doesn't evict everybody else's pages (see
+ * PageAllocator.PageIterator and setScanRingFraction).
+ *
+ * When an iterator fetches an allocator's pages in order, the pages that
+ * follow are loaded ahead of time on a background thread (see
+ * setReadAheadWindow).
+ *
+ * Evicting a page never writes it, so a fetch that misses never waits for a
+ * write. Pages track whether they are dirty instead, and a background writer
+ * owned by the pool writes the dirty pages of its allocators back in file
+ * order every few milliseconds (see setWriterInterval), as do checkpoints
+ * (see PageAllocator#checkpoint) and closing an allocator.
+ */
+public class BufferPool {
+  public static final int DEFAULT_CAPACITY = 1024;
+  public static final String CAPACITY_PROPERTY = "cs186.bufferPool.pages";
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+  public static final long DEFAULT_WRITER_INTERVAL_MILLIS = 100;
+  public static final double DEFAULT_SCAN_RING_FRACTION = 0.25;
+  public static final int SCAN_RING_SIZE = 32;
+  public static final int DEFAULT_READ_AHEAD_WINDOW = 32;
+
+  // By default a pool has at most one shard per this many pages; tiny shards
+  // make per-shard replacement decisions a too coarse approximation of global ones.
+  private static final int MIN_PAGES_PER_SHARD = 16;
+
+  // Reservations never leave the cache fewer than this fraction of the budget.
+  private static final double MIN_CACHE_FRACTION = 0.25;
+
+  private static final BufferPool defaultPool =
+      new BufferPool(Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+
+  private final Shard[] shards;
+  private final int shardMask;
+  // The memory budget, and the part of it reserved by operators. Written
+  // under budgetLock.
+  private volatile int capacity;
+  private volatile int numReserved;
+  private final Object budgetLock;
+  private final AtomicInteger size;
+  private final ReplacementPolicy.Type policyType;
+  private volatile int segmentSize;
+  private volatile PageStore.Type storeType;
+  private final PageWriter writer;
+  private volatile double scanRingFraction;
+  private volatile int readAheadWindow;
+  private ThreadPoolExecutor readAheadExecutor;
+  private final AtomicLong numReadAheadLoads;
+  private final AtomicLong numReadAheadHits;
+  private final AtomicLong numReadAheadWasted;
+
+  /**
+   * Create an LRU buffer pool holding at most capacity pages, with a number of
+   * shards chosen from the number of available processors.
+   */
+  public BufferPool(int capacity) {
+    this(capacity, ReplacementPolicy.Type.LRU);
+  }
+
+  /**
+   * Create a buffer pool holding at most capacity pages that replaces pages
+   * according to policyType, with a number of shards chosen from the number of
+   * available processors.
+   */
+  public BufferPool(int capacity, ReplacementPolicy.Type policyType) {
+    this(capacity, defaultNumShards(capacity), policyType);
+  }
+
+  /**
+   * Create an LRU buffer pool holding at most capacity pages split across
+   * numShards shards.
+   */
+  public BufferPool(int capacity, int numShards) {
+    this(capacity, numShards, ReplacementPolicy.Type.LRU);
+  }
+
+  /**
+   * Create a buffer pool holding at most capacity pages split across
+   * numShards shards, each of which replaces pages according to policyType.
+   * numShards is rounded up to a power of two, but there are never more shards
+   * than pages. A pool with a single shard behaves like one global cache behind
+   * one lock.
+   */
+  public BufferPool(int capacity, int numShards, ReplacementPolicy.Type policyType) {
+    if (capacity < 1) {
+      throw new PageException("buffer pool capacity must be positive");
+    }
+    if (numShards < 1) {
+      throw new PageException("buffer pool must have at least one shard");
+    }
+    if (policyType == null) {
+      throw new PageException("buffer pool needs a replacement policy");
+    }
+    numShards = Math.min(roundUpToPowerOfTwo(numShards), Integer.highestOneBit(capacity));
+    this.capacity = capacity;
+    this.numReserved = 0;
+    this.budgetLock = new Object();
+    this.size = new AtomicInteger(0);
+    this.policyType = policyType;
+    this.segmentSize = Page.pageSize;
+    this.storeType = PageStore.Type.MMAP;
+    this.scanRingFraction = DEFAULT_SCAN_RING_FRACTION;
+    this.readAheadWindow = DEFAULT_READ_AHEAD_WINDOW;
+    this.readAheadExecutor = null;
+    this.numReadAheadLoads = new AtomicLong(0);
+    this.numReadAheadHits = new AtomicLong(0);
+    this.numReadAheadWasted = new AtomicLong(0);
+    // Wake the writer up early once a quarter of the pool has become dirty.
+    this.writer = new PageWriter(DEFAULT_WRITER_INTERVAL_MILLIS, capacity / 4);
+    this.shards = new Shard[numShards];
+    this.shardMask = numShards - 1;
+    // Policies that size their queues from the capacity get the share of the
+    // pool a shard holds on average.
+    int pagesPerShard = (capacity + numShards - 1) / numShards;
+    for (int i = 0; i < numShards; i++) {
+      this.shards[i] = new Shard(policyType.create(pagesPerShard));
+    }
+  }
+
+  /**
+   * @return the buffer pool used by PageAllocators that are not given one
+   */
+  public static BufferPool getDefault() {
+    return defaultPool;
+  }
+
+  /**
+   * Returns the cached page for virtual page number vPageNum, or null if the
+   * page is not cached. Every call counts as a hit or a miss, and hits are
+   * reported to the replacement policy.
+   */
+  public Page get(long vPageNum) {
+    return get(vPageNum, false);
+  }
+
+  /**
+   * Like get, but if pin is true the page returned is pinned before the
+   * shard's lock is released, so that it can't be evicted in between.
+   */
+  public Page get(long vPageNum, boolean pin) {
+    Shard shard = shardFor(vPageNum);
+    synchronized (shard) {
+      Page page = shard.cache.get(vPageNum);
+      if (page == null) {
+        shard.numMisses++;
+      } else {
+        shard.numHits++;
+        shard.policy.recordHit(vPageNum);
+        if (pin) {
+          page.pin();
+        }
+      }
+      return page;
+    }
+  }
+
+  /**
+   * @return whether the page for virtual page number vPageNum is cached
+   */
+  public boolean contains(long vPageNum) {
+    Shard shard = shardFor(vPageNum);
+    synchronized (shard) {
+      return shard.cache.containsKey(vPageNum);
+    }
+  }
+
+  /**
+   * Caches page under vPageNum unless some other thread cached a page for
+   * vPageNum first, in which case the page already in the pool wins. Callers
+   * must use the returned page, not the one they passed in.
+   *
+   * @return the page cached under vPageNum after this call
+   */
+  public Page putIfAbsent(long vPageNum, Page page) {
+    return putIfAbsent(vPageNum, page, false);
+  }
+
+  /**
+   * Like putIfAbsent, but if pin is true the page returned is pinned before
+   * the shard's lock is released, so that it can't be evicted in between.
+   */
+  public Page putIfAbsent(long vPageNum, Page page, boolean pin) {
+    int shardIndex = shardIndexFor(vPageNum);
+    Shard shard = this.shards[shardIndex];
+    synchronized (shard) {
+      Page cached = shard.cache.get(vPageNum);
+      if (cached != null) {
+        if (pin) {
+          cached.pin();
+        }
+        return cached;
+      }
+      shard.cache.put(vPageNum, page);
+      shard.policy.recordInsert(vPageNum);
+      if (pin) {
+        page.pin();
+      }
+    }
+    if (this.size.incrementAndGet() > getCacheCapacity()) {
+      evict(shardIndex, vPageNum);
+    }
+    return page;
+  }
+
+  /**
+   * Drops the page cached under vPageNum without flushing it.
+   *
+   * @return the page that was removed, or null if it was not cached
+   */
+  public Page remove(long vPageNum) {
+    Shard shard = shardFor(vPageNum);
+    synchronized (shard) {
+      Page removed = shard.cache.remove(vPageNum);
+      if (removed != null) {
+        shard.policy.recordRemove(vPageNum);
+        this.size.decrementAndGet();
+      }
+      return removed;
+    }
+  }
+
+  /**
+   * Drops every page that belongs to the allocator with id allocID, without
+   * flushing them.
+   *
+   * @return the pages that were removed
+   */
+  public List<Page> removeAll(int allocID) {
+    List<Page> removed = new ArrayList<Page>();
+    for (Shard shard : this.shards) {
+      synchronized (shard) {
+        Iterator<Map.Entry<Long, Page>> iter = shard.cache.entrySet().iterator();
+        while (iter.hasNext()) {
+          Map.Entry<Long, Page> entry = iter.next();
+          if (PageAllocator.translateAllocator(entry.getKey()) == allocID) {
+            removed.add(entry.getValue());
+            iter.remove();
+            shard.policy.recordRemove(entry.getKey());
+            this.size.decrementAndGet();
+          }
+        }
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * @return whether any cached page that belongs to the allocator with id
+   * allocID is pinned
+   */
+  public boolean hasPinned(int allocID) {
+    for (Shard shard : this.shards) {
+      synchronized (shard) {
+        for (Map.Entry<Long, Page> entry : shard.cache.entrySet()) {
+          if (PageAllocator.translateAllocator(entry.getKey()) == allocID &&
+              entry.getValue().isPinned()) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the number of pages currently cached
+   */
+  public int size() {
+    return this.size.get();
+  }
+
+  /**
+   * @return the memory budget of this pool in pages, shared by the cache and
+   * the reservations of operators
+   */
+  public int getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Changes the memory budget of this pool to capacity pages. Shrinking the
+   * budget evicts unpinned pages until the cache fits into what is left of it
+   * after reservations; existing reservations are kept, so the budget can't be
+   * shrunk below what they need.
+   *
+   * @throws PageException if capacity isn't positive or is too small for the
+   * current reservations
+   */
+  public void setCapacity(int capacity) {
+    synchronized (this.budgetLock) {
+      if (capacity < 1) {
+        throw new PageException("buffer pool capacity must be positive");
+      }
+      if (this.numReserved > capacity - minCachePages(capacity)) {
+        throw new PageException("buffer pool capacity of " + capacity + " pages is too small for " +
+                                this.numReserved + " reserved pages");
+      }
+      this.capacity = capacity;
+    }
+    evictToCapacity();
+  }
+
+  /**
+   * @return the number of pages the cache may hold, i.e. the part of the
+   * budget that isn't reserved
+   */
+  public int getCacheCapacity() {
+    return this.capacity - this.numReserved;
+  }
+
+  /**
+   * @return the number of pages currently reserved by operators
+   */
+  public int getNumReserved() {
+    return this.numReserved;
+  }
+
+  /**
+   * Reserves between minPages and maxPages pages of the budget, as many as
+   * are available, for an operator to work with, e.g. to pin a block of
+   * pages. The cache gives up the pages it holds above what is left for it.
+   * The reservation lasts until it is closed:
+   *
+   *   try (BufferPool.Reservation r = pool.reserve(3, numBuffers)) {
+   *     int blockSize = r.getNumPages() - 2;
+   *     ...
+   *   }
+   *
+   * At least a quarter of the budget always stays with the cache.
+   *
+   * @throws PageException if fewer than minPages pages are available
+   */
+  public Reservation reserve(int minPages, int maxPages) {
+    if (minPages < 0 || maxPages < minPages) {
+      throw new PageException("invalid reservation of " + minPages + " to " + maxPages + " pages");
+    }
+    int numPages;
+    synchronized (this.budgetLock) {
+      int available = this.capacity - minCachePages(this.capacity) - this.numReserved;
+      if (available < minPages) {
+        throw new PageException("can't reserve " + minPages + " pages: only " +
+                                Math.max(0, available) + " of " + this.capacity + " are available");
+      }
+      numPages = Math.min(maxPages, available);
+      this.numReserved += numPages;
+    }
+    evictToCapacity();
+    return new Reservation(numPages);
+  }
+
+  private void release(int numPages) {
+    synchronized (this.budgetLock) {
+      this.numReserved -= numPages;
+    }
+  }
+
+  private static int minCachePages(int capacity) {
+    return Math.max(1, (int) (capacity * MIN_CACHE_FRACTION));
+  }
+
+  public int getNumShards() {
+    return this.shards.length;
+  }
+
+  public ReplacementPolicy.Type getPolicyType() {
+    return this.policyType;
+  }
+
+  /**
+   * @return the number of bytes that allocators opened on this pool map at a
+   * time; Page.pageSize means one mapping per page
+   */
+  public int getSegmentSize() {
+    return this.segmentSize;
+  }
+
+  /**
+   * Makes allocators opened on this pool from now on map their files in
+   * segments of segmentSize bytes. Allocators that are already open keep
+   * mapping the way they did. segmentSize must be a positive multiple of
+   * Page.pageSize; Page.pageSize maps every page on its own.
+   */
+  public void setSegmentSize(int segmentSize) {
+    if (segmentSize < Page.pageSize || segmentSize % Page.pageSize != 0) {
+      throw new PageException("segment size must be a positive multiple of the page size");
+    }
+    this.segmentSize = segmentSize;
+  }
+
+  public PageStore.Type getStoreType() {
+    return this.storeType;
+  }
+
+  /**
+   * Makes allocators opened on this pool from now on load their pages with a
+   * store of type storeType. Allocators that are already open keep the store
+   * they have. The segment size only matters for MMAP stores.
+   */
+  public void setStoreType(PageStore.Type storeType) {
+    if (storeType == null) {
+      throw new PageException("buffer pool needs a page store type");
+    }
+    this.storeType = storeType;
+  }
+
+  /**
+   * Creates the store for an allocator of this pool whose file is fc.
+   */
+  PageStore createStore(FileChannel fc) {
+    switch (this.storeType) {
+      case MMAP: return new MmapPageStore(fc, this.segmentSize);
+      case PREAD: return new PreadPageStore(fc);
+      default: throw new PageException("Unreachable code.");
+    }
+  }
+
+  /**
+   * @return the number of milliseconds between two rounds of the background
+   * writer, or 0 if it is turned off
+   */
+  public long getWriterInterval() {
+    return this.writer.getIntervalMillis();
+  }
+
+  /**
+   * Makes the background writer write the dirty pages of this pool's
+   * allocators back every intervalMillis milliseconds. An interval of 0 turns
+   * the writer off, so that dirty pages are only written by checkpoints and
+   * when their allocator is closed.
+   */
+  public void setWriterInterval(long intervalMillis) {
+    if (intervalMillis < 0) {
+      throw new PageException("writer interval can't be negative");
+    }
+    this.writer.setIntervalMillis(intervalMillis);
+  }
+
+  public double getScanRingFraction() {
+    return this.scanRingFraction;
+  }
+
+  /**
+   * Makes page iterators of allocators with more than fraction * capacity
+   * pages load the pages that aren't cached into a private ring of
+   * SCAN_RING_SIZE pages rather than into the pool. Iterators that already
+   * exist keep what they chose. A fraction of Double.POSITIVE_INFINITY turns
+   * rings off.
+   */
+  public void setScanRingFraction(double fraction) {
+    if (!(fraction >= 0)) {
+      throw new PageException("scan ring fraction can't be negative");
+    }
+    this.scanRingFraction = fraction;
+  }
+
+  /**
+   * @return the number of pages above which a scan uses a ring
+   */
+  double getScanRingThreshold() {
+    return this.scanRingFraction * getCacheCapacity();
+  }
+
+  public int getReadAheadWindow() {
+    return this.readAheadWindow;
+  }
+
+  /**
+   * Lets allocators of this pool load up to window pages ahead of a
+   * sequential reader in the background. Each reader starts with a window
+   * of a few pages and grows it up to this one while the pages loaded for it
+   * are used. A window of 0 turns read-ahead off.
+   */
+  public void setReadAheadWindow(int window) {
+    if (window < 0) {
+      throw new PageException("read-ahead window can't be negative");
+    }
+    this.readAheadWindow = window;
+  }
+
+  /**
+   * @return the executor that loads pages ahead of readers: a single daemon
+   * thread that is started on demand and exits when idle
+   */
+  synchronized Executor getReadAheadExecutor() {
+    if (this.readAheadExecutor == null) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+            Thread thread = new Thread(r, "page-read-ahead");
+            thread.setDaemon(true);
+            return thread;
+          });
+      executor.allowCoreThreadTimeOut(true);
+      this.readAheadExecutor = executor;
+    }
+    return this.readAheadExecutor;
+  }
+
+  void recordReadAheadLoad() {
+    this.numReadAheadLoads.incrementAndGet();
+  }
+
+  void recordReadAheadHit() {
+    this.numReadAheadHits.incrementAndGet();
+  }
+
+  void recordReadAheadWaste(int numPages) {
+    this.numReadAheadWasted.addAndGet(numPages);
+  }
+
+  PageWriter getWriter() {
+    return this.writer;
+  }
+
+  // Statistics ////////////////////////////////////////////////////////////////
+
+  /**
+   * @return the number of calls to get that found their page cached
+   */
+  public long getNumHits() {
+    long hits = 0;
+    for (Shard shard : this.shards) {
+      synchronized (shard) {
+        hits += shard.numHits;
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * @return the number of calls to get that did not find their page cached
+   */
+  public long getNumMisses() {
+    long misses = 0;
+    for (Shard shard : this.shards) {
+      synchronized (shard) {
+        misses += shard.numMisses;
+      }
+    }
+    return misses;
+  }
+
+  /**
+   * @return the fraction of calls to get that found their page cached, or 0 if
+   * get has not been called since the pool was created or its statistics were
+   * last reset
+   */
+  public double getHitRatio() {
+    long hits = getNumHits();
+    long total = hits + getNumMisses();
+    return total == 0 ? 0.0 : (double) hits / total;
+  }
+
+  /**
+   * @return the number of pages loaded ahead of their readers
+   */
+  public long getNumReadAheadLoads() {
+    return this.numReadAheadLoads.get();
+  }
+
+  /**
+   * @return the number of fetches that missed the pool but found their page
+   * loaded ahead
+   */
+  public long getNumReadAheadHits() {
+    return this.numReadAheadHits.get();
+  }
+
+  /**
+   * @return the number of pages loaded ahead that were dropped unused because
+   * the access pattern changed
+   */
+  public long getNumReadAheadWasted() {
+    return this.numReadAheadWasted.get();
+  }
+
+  /**
+   * Resets the hit, miss, and read-ahead counters to zero. The cached pages
+   * are untouched.
+   */
+  public void resetStats() {
+    this.numReadAheadLoads.set(0);
+    this.numReadAheadHits.set(0);
+    this.numReadAheadWasted.set(0);
+    for (Shard shard : this.shards) {
+      synchronized (shard) {
+        shard.numHits = 0;
+        shard.numMisses = 0;
+      }
+    }
+  }
+
+  private void evictToCapacity() {
+    if (this.size.get() > getCacheCapacity()) {
+      evict(0, ReplacementPolicy.NO_VICTIM);
+    }
+  }
+
+  /**
+   * Evicts pages until the cache is back within its capacity, starting with shard
+   * startIndex and never evicting inserted, the page the caller just cached,
+   * or a pinned page. Evicted pages are not written: dirty ones stay with their allocator until
+   * the background writer writes them.
+   */
+  private void evict(int startIndex, long inserted) {
+    int i = 0;
+    while (i < this.shards.length && this.size.get() > getCacheCapacity()) {
+      Shard shard = this.shards[(startIndex + i) & this.shardMask];
+      boolean evicted = false;
+      synchronized (shard) {
+        if (!shard.cache.isEmpty() && this.size.get() > getCacheCapacity()) {
+          Map<Long, Page> cache = shard.cache;
+          long vPageNum = shard.policy.evict(v -> v != inserted && !cache.get(v).isPinned());
+          if (vPageNum != ReplacementPolicy.NO_VICTIM && shard.cache.remove(vPageNum) != null) {
+            this.size.decrementAndGet();
+            evicted = true;
+          }
+        }
+      }
+      if (!evicted) {
+        i++;
+      }
+    }
+  }
+
+  private Shard shardFor(long vPageNum) {
+    return this.shards[shardIndexFor(vPageNum)];
+  }
+
+  private int shardIndexFor(long vPageNum) {
+    return spread(vPageNum) & this.shardMask;
+  }
+
+  /**
+   * Mixes all 64 bits of a virtual page number into the low bits used to pick
+   * a shard, so that page i of every allocator does not land in the same
+   * shard. This is the finalizer of MurmurHash3's 64-bit hash.
+   */
+  private static int spread(long key) {
+    key ^= key >>> 33;
+    key *= 0xff51afd7ed558ccdL;
+    key ^= key >>> 33;
+    key *= 0xc4ceb9fe1a85ec53L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  private static int defaultNumShards(int capacity) {
+    int byCores = 4 * Runtime.getRuntime().availableProcessors();
+    int bySize = Math.max(1, capacity / MIN_PAGES_PER_SHARD);
+    return Math.min(byCores, bySize);
+  }
+
+  private static int roundUpToPowerOfTwo(int n) {
+    int highest = Integer.highestOneBit(n);
+    return highest == n ? n : highest << 1;
+  }
+
+  /**
+   * Pages of a pool's budget reserved by an operator (see reserve). Closing
+   * a reservation gives its pages back to the cache; closing it again does
+   * nothing.
+   */
+  public class Reservation implements AutoCloseable {
+    private final int numPages;
+    private boolean closed;
+
+    private Reservation(int numPages) {
+      this.numPages = numPages;
+      this.closed = false;
+    }
+
+    /**
+     * @return the number of pages reserved
+     */
+    public int getNumPages() {
+      return this.numPages;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!this.closed) {
+        this.closed = true;
+        release(this.numPages);
+      }
+    }
+  }
+
+  private static class Shard {
+    private final Map<Long, Page> cache = new HashMap<Long, Page>();
+    private final ReplacementPolicy policy;
+    private long numHits = 0;
+    private long numMisses = 0;
+
+    private Shard(ReplacementPolicy policy) {
+      this.policy = policy;
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongPredicate;
+
+/**
+ * CLOCK (second chance) replacement. Cached pages sit in a circular array of
+ * frames, each with a reference bit that is set whenever the page is inserted
+ * or hit. To find a victim, a clock hand sweeps the frames: a page whose bit
+ * is set gets its bit cleared and a second chance, and the first evictable
+ * page whose bit is already clear is evicted.
+ *
+ * Unlike LRU, a hit only sets a bit instead of reordering a list, which makes
+ * hits cheap. CLOCK approximates LRU and is just as vulnerable to large scans.
+ */
+class ClockPolicy implements ReplacementPolicy {
+  // frames.get(i) is the page in frame i, or null if the frame is empty.
+  private final List<Long> frames = new ArrayList<Long>();
+  private final List<Boolean> referenced = new ArrayList<Boolean>();
+  private final Map<Long, Integer> frameOf = new HashMap<Long, Integer>();
+  private final List<Integer> emptyFrames = new ArrayList<Integer>();
+  private int hand = 0;
+
+  @Override
+  public void recordHit(long vPageNum) {
+    Integer frame = frameOf.get(vPageNum);
+    if (frame != null) {
+      referenced.set(frame, true);
+    }
+  }
+
+  @Override
+  public void recordInsert(long vPageNum) {
+    int frame;
+    if (emptyFrames.isEmpty()) {
+      frame = frames.size();
+      frames.add(vPageNum);
+      referenced.add(true);
+    } else {
+      frame = emptyFrames.remove(emptyFrames.size() - 1);
+      frames.set(frame, vPageNum);
+      referenced.set(frame, true);
+    }
+    frameOf.put(vPageNum, frame);
+  }
+
+  @Override
+  public void recordRemove(long vPageNum) {
+    Integer frame = frameOf.remove(vPageNum);
+    if (frame != null) {
+      clearFrame(frame);
+    }
+  }
+
+  @Override
+  public long evict(LongPredicate evictable) {
+    if (frameOf.isEmpty()) {
+      return NO_VICTIM;
+    }
+    // Two full sweeps clear every reference bit, so if nothing has been found
+    // by then, nothing is evictable.
+    for (int i = 0; i < 2 * frames.size(); i++) {
+      int frame = hand;
+      hand = (hand + 1) % frames.size();
+      Long vPageNum = frames.get(frame);
+      if (vPageNum == null) {
+        continue;
+      }
+      if (referenced.get(frame)) {
+        referenced.set(frame, false);
+      } else if (evictable.test(vPageNum)) {
+        frameOf.remove(vPageNum);
+        clearFrame(frame);
+        return vPageNum;
+      }
+    }
+    return NO_VICTIM;
+  }
+
+  private void clearFrame(int frame) {
+    frames.set(frame, null);
+    referenced.set(frame, false);
+    emptyFrames.add(frame);
+  }
+}
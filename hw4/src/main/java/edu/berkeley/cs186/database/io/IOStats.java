@@ -0,0 +1,158 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * I/O counters for one scope: a PageAllocator, and so the Table or BPlusTree
+ * that owns it, or a Database.Transaction. The counters are
+ *
+ *   - logical reads: page fetches, whether or not the page was cached;
+ *   - cache misses: fetches that didn't find their page in the buffer pool;
+ *   - page reads: blocks loaded from the file, including the ones loaded
+ *     ahead of their readers (see BufferPool#setReadAheadWindow);
+ *   - page writes: dirty pages written back;
+ *   - flushes: times the file was forced to disk;
+ *
+ * and a histogram of fetch latencies. A fetch that misses can still be fast
+ * if its page was loaded ahead of it, so misses and reads are both counted.
+ *
+ * Every allocator charges its own stats. It also charges the stats attached
+ * to the thread that does the I/O, if any (see attach), which is how a
+ * transaction gets its share:
+ *
+ *   IOStats.attach(stats);
+ *   ... run a query on this thread ...
+ *   IOStats.detach(stats);
+ *   stats.getNumCacheMisses();
+ *
+ * Writes and loads done by the pool's background threads are charged to
+ * their allocator only.
+ */
+public class IOStats {
+  private static final ThreadLocal<IOStats> attached = new ThreadLocal<IOStats>();
+
+  private final AtomicLong numLogicalReads;
+  private final AtomicLong numCacheMisses;
+  private final AtomicLong numPageReads;
+  private final AtomicLong numPageWrites;
+  private final AtomicLong numFlushes;
+  private final LatencyHistogram fetchLatency;
+
+  public IOStats() {
+    this.numLogicalReads = new AtomicLong(0);
+    this.numCacheMisses = new AtomicLong(0);
+    this.numPageReads = new AtomicLong(0);
+    this.numPageWrites = new AtomicLong(0);
+    this.numFlushes = new AtomicLong(0);
+    this.fetchLatency = new LatencyHistogram();
+  }
+
+  /**
+   * Charges the I/O the current thread does from now on to stats as well,
+   * until stats is detached or other stats are attached instead.
+   */
+  public static void attach(IOStats stats) {
+    attached.set(stats);
+  }
+
+  /**
+   * Stops charging the current thread's I/O to stats, if it is the stats
+   * attached to the thread.
+   */
+  public static void detach(IOStats stats) {
+    if (attached.get() == stats) {
+      attached.remove();
+    }
+  }
+
+  // Recording /////////////////////////////////////////////////////////////////
+  void recordFetch(long nanos, boolean miss) {
+    recordFetchHere(nanos, miss);
+    IOStats other = attached.get();
+    if (other != null && other != this) {
+      other.recordFetchHere(nanos, miss);
+    }
+  }
+
+  void recordPageRead() {
+    this.numPageReads.incrementAndGet();
+    IOStats other = attached.get();
+    if (other != null && other != this) {
+      other.numPageReads.incrementAndGet();
+    }
+  }
+
+  void recordPageWrites(int numPages) {
+    this.numPageWrites.addAndGet(numPages);
+    IOStats other = attached.get();
+    if (other != null && other != this) {
+      other.numPageWrites.addAndGet(numPages);
+    }
+  }
+
+  void recordFlush() {
+    this.numFlushes.incrementAndGet();
+    IOStats other = attached.get();
+    if (other != null && other != this) {
+      other.numFlushes.incrementAndGet();
+    }
+  }
+
+  private void recordFetchHere(long nanos, boolean miss) {
+    this.numLogicalReads.incrementAndGet();
+    if (miss) {
+      this.numCacheMisses.incrementAndGet();
+    }
+    this.fetchLatency.record(nanos);
+  }
+
+  // Counters //////////////////////////////////////////////////////////////////
+  public long getNumLogicalReads() {
+    return this.numLogicalReads.get();
+  }
+
+  public long getNumCacheMisses() {
+    return this.numCacheMisses.get();
+  }
+
+  public long getNumPageReads() {
+    return this.numPageReads.get();
+  }
+
+  public long getNumPageWrites() {
+    return this.numPageWrites.get();
+  }
+
+  public long getNumFlushes() {
+    return this.numFlushes.get();
+  }
+
+  /**
+   * @return the fraction of fetches that missed the buffer pool, or 0 if
+   * there were none
+   */
+  public double getMissRatio() {
+    long reads = getNumLogicalReads();
+    return reads == 0 ? 0.0 : (double) getNumCacheMisses() / reads;
+  }
+
+  public LatencyHistogram getFetchLatency() {
+    return this.fetchLatency;
+  }
+
+  public void reset() {
+    this.numLogicalReads.set(0);
+    this.numCacheMisses.set(0);
+    this.numPageReads.set(0);
+    this.numPageWrites.set(0);
+    this.numFlushes.set(0);
+    this.fetchLatency.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("reads=%d misses=%d pageReads=%d pageWrites=%d flushes=%d fetch: %s",
+                         getNumLogicalReads(), getNumCacheMisses(), getNumPageReads(),
+                         getNumPageWrites(), getNumFlushes(), this.fetchLatency);
+  }
+}
@@ -0,0 +1,53 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.LongPredicate;
+
+/**
+ * Strict least-recently-used replacement: the victim is the evictable page
+ * that was hit or inserted longest ago. A single sequential scan larger than
+ * the cache flushes every other page out of it.
+ */
+class LRUPolicy implements ReplacementPolicy {
+  // Iteration order runs from least to most recently used.
+  private final LinkedHashSet<Long> pages = new LinkedHashSet<Long>();
+
+  @Override
+  public void recordHit(long vPageNum) {
+    if (pages.remove(vPageNum)) {
+      pages.add(vPageNum);
+    }
+  }
+
+  @Override
+  public void recordInsert(long vPageNum) {
+    pages.add(vPageNum);
+  }
+
+  @Override
+  public void recordRemove(long vPageNum) {
+    pages.remove(vPageNum);
+  }
+
+  @Override
+  public long evict(LongPredicate evictable) {
+    return removeFirstEvictable(pages, evictable);
+  }
+
+  /**
+   * Removes and returns the first page of pages, in iteration order, for
+   * which evictable returns true, or NO_VICTIM if there is none.
+   */
+  static long removeFirstEvictable(LinkedHashSet<Long> pages, LongPredicate evictable) {
+    Iterator<Long> iter = pages.iterator();
+    while (iter.hasNext()) {
+      long vPageNum = iter.next();
+      if (evictable.test(vPageNum)) {
+        iter.remove();
+        return vPageNum;
+      }
+    }
+    return NO_VICTIM;
+  }
+}
@@ -0,0 +1,122 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds with one bucket per power of two:
+ * bucket i counts the latencies in [2^i, 2^(i+1)), and bucket 0 also counts
+ * latencies below 1ns. Recording a latency is a few atomic increments and
+ * never blocks, so it can be done on every page fetch. Percentiles are only
+ * as precise as the buckets, i.e. within a factor of two:
+ *
+ *   LatencyHistogram h = allocator.getIOStats().getFetchLatency();
+ *   System.out.println(h.getPercentile(0.99) + "ns");
+ */
+public class LatencyHistogram {
+  private static final int NUM_BUCKETS = 64;
+
+  private final AtomicLongArray buckets;
+  private final AtomicLong count;
+  private final AtomicLong totalNanos;
+  private final AtomicLong maxNanos;
+
+  public LatencyHistogram() {
+    this.buckets = new AtomicLongArray(NUM_BUCKETS);
+    this.count = new AtomicLong(0);
+    this.totalNanos = new AtomicLong(0);
+    this.maxNanos = new AtomicLong(0);
+  }
+
+  public void record(long nanos) {
+    nanos = Math.max(0, nanos);
+    this.buckets.incrementAndGet(bucketOf(nanos));
+    this.count.incrementAndGet();
+    this.totalNanos.addAndGet(nanos);
+    long max = this.maxNanos.get();
+    while (nanos > max && !this.maxNanos.compareAndSet(max, nanos)) {
+      max = this.maxNanos.get();
+    }
+  }
+
+  /**
+   * @return the number of latencies recorded
+   */
+  public long getCount() {
+    return this.count.get();
+  }
+
+  /**
+   * @return the mean latency in nanoseconds, or 0 if nothing was recorded
+   */
+  public double getMean() {
+    long n = this.count.get();
+    return n == 0 ? 0.0 : (double) this.totalNanos.get() / n;
+  }
+
+  /**
+   * @return the largest latency recorded, in nanoseconds
+   */
+  public long getMax() {
+    return this.maxNanos.get();
+  }
+
+  /**
+   * Returns an upper bound on the latency below which a fraction p of the
+   * recorded latencies fall: the upper end of the bucket that holds the
+   * p-quantile, but never more than the largest latency recorded.
+   *
+   * @param p a fraction between 0 and 1, e.g. 0.99
+   * @return the latency in nanoseconds, or 0 if nothing was recorded
+   */
+  public long getPercentile(double p) {
+    if (!(p >= 0 && p <= 1)) {
+      throw new IllegalArgumentException("percentile must be between 0 and 1");
+    }
+    long n = 0;
+    long[] counts = new long[NUM_BUCKETS];
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      counts[i] = this.buckets.get(i);
+      n += counts[i];
+    }
+    if (n == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(p * n));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        long upper = i >= NUM_BUCKETS - 2 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+        return Math.min(upper, getMax());
+      }
+    }
+    return getMax();
+  }
+
+  /**
+   * @return the number of latencies in [2^i, 2^(i+1))
+   */
+  public long getBucketCount(int i) {
+    return this.buckets.get(i);
+  }
+
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      this.buckets.set(i, 0);
+    }
+    this.count.set(0);
+    this.totalNanos.set(0);
+    this.maxNanos.set(0);
+  }
+
+  private static int bucketOf(long nanos) {
+    return nanos == 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.0fns p50=%dns p99=%dns max=%dns", getCount(), getMean(),
+                         getPercentile(0.5), getPercentile(0.99), getMax());
+  }
+}
@@ -0,0 +1,105 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The MMAP PageStore. With a segment size of Page.pageSize every page is
+ * mapped on its own when it is loaded. With a larger segment size the file is
+ * mapped in fixed-size segments of many blocks, and pages are slices of those
+ * segments: the first page requested in a segment maps the whole segment with
+ * a single fc.map call, and every other page of the segment (data and header
+ * pages alike) is then a slice of the existing mapping and costs no system
+ * call at all.
+ *
+ * Mapping a segment past the end of the file grows the file to the end of
+ * the segment, so files are always a multiple of the segment size long. The
+ * tail of the last segment is never written and stays sparse on file systems
+ * that support it.
+ */
+class MmapPageStore implements PageStore {
+  private final FileChannel fc;
+  private final int segmentSize;
+  private final int blocksPerSegment;
+
+  // Segment i covers the bytes [i * segmentSize, (i + 1) * segmentSize).
+  private final Map<Integer, MappedByteBuffer> segments;
+
+  /**
+   * @param fc the file to map
+   * @param segmentSize the size of a segment in bytes, a multiple of Page.pageSize
+   */
+  MmapPageStore(FileChannel fc, int segmentSize) {
+    this.fc = fc;
+    this.segmentSize = segmentSize;
+    this.blocksPerSegment = segmentSize / Page.pageSize;
+    this.segments = new HashMap<Integer, MappedByteBuffer>();
+  }
+
+  /**
+   * Returns a Page for block blockNum of the file with virtual page number
+   * pageNum, mapping the segment that holds the block if it isn't mapped yet.
+   */
+  @Override
+  public synchronized Page getPage(int blockNum, int pageNum, boolean durable) {
+    if (this.blocksPerSegment == 1) {
+      return new Page(this.fc, blockNum, pageNum, durable);
+    }
+
+    int segmentIndex = blockNum / this.blocksPerSegment;
+    MappedByteBuffer segment = this.segments.get(segmentIndex);
+    if (segment == null) {
+      long position = (long) segmentIndex * this.segmentSize;
+      try {
+        segment = this.fc.map(FileChannel.MapMode.READ_WRITE, position, this.segmentSize);
+      } catch (IOException e) {
+        throw new PageException("Can't mmap segment: " + segmentIndex + " ; " + e.getMessage());
+      }
+      PageAllocator.incrementMappedRegions();
+      this.segments.put(segmentIndex, segment);
+    }
+    int offset = (blockNum % this.blocksPerSegment) * Page.pageSize;
+    return new Page(segment, offset, blockNum, pageNum, durable);
+  }
+
+  /**
+   * Writes to a mapping already are writes to the file, so this only forces
+   * the mappings of pages, each one once: pages of the same segment are next
+   * to each other in file order.
+   */
+  @Override
+  public void writeBack(List<Page> pages, boolean force) {
+    if (!force) {
+      return;
+    }
+    MappedByteBuffer lastForced = null;
+    for (Page page : pages) {
+      MappedByteBuffer mapping = page.getMapping();
+      if (mapping != lastForced) {
+        PageAllocator.incrementCacheMisses();
+        mapping.force();
+        lastForced = mapping;
+      }
+    }
+  }
+
+  /**
+   * @return the number of segments currently mapped
+   */
+  synchronized int getNumSegments() {
+    return this.segments.size();
+  }
+
+  /**
+   * Forgets every mapped segment. Pages handed out earlier keep their segment
+   * mapped until they are garbage collected.
+   */
+  @Override
+  public synchronized void close() {
+    this.segments.clear();
+  }
+}
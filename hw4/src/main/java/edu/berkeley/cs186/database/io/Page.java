@@ -4,19 +4,43 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * General-purpose wrapper for interacting with the memory-mapped bytes on a page.
+ * General-purpose wrapper for interacting with the bytes on a page, which are either memory-mapped
+ * or a copy of the page's block in a direct buffer (see PageStore).
+ *
+ * Every accessor takes the offset it reads or writes at, and none of them moves a position that
+ * another thread could be using, so any number of threads may read a cached page at once. Reads
+ * of primitives (getInt, getFloat, getByte) and bulk copies into a caller's array (getBytes) don't
+ * allocate; decoders that read a sequence of values can read them from a read-only view instead:
+ *
+ *   ByteBuffer buf = page.slice(offset, length);
+ *   Record record = Record.fromBytes(buf, schema);
  *
  * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
  */
 public class Page {
   public static final int pageSize = 4096;
 
-  private MappedByteBuffer pageData;
+  private ByteBuffer pageData;
+  // For memory-mapped pages, the mapping pageData lives in: pageData itself,
+  // or the segment it is a slice of. Flushing forces the whole mapping.
+  private MappedByteBuffer mapping;
+  // For pages of a PREAD store, the frame that writes pageData back.
+  private PreadPageStore.Frame frame;
+  private int blockNum;
   private int pageNum;
   private boolean durable;
 
+  // Whether the page was modified since it was last written back, and the
+  // allocator that is told when it becomes dirty.
+  private volatile boolean dirty;
+  private PageAllocator allocator;
+
+  // The number of pins on the page; the buffer pool never evicts a pinned page.
+  private final AtomicInteger pinCount = new AtomicInteger(0);
+
   /**
    * Create a new page using fc with at offset blockNum with virtual page number pageNum
    *
@@ -29,19 +53,207 @@ public class Page {
   }
 
   public Page(FileChannel fc, int blockNum, int pageNum, boolean durable) {
+    this.blockNum = blockNum;
     this.pageNum = pageNum;
     this.durable = durable;
     PageAllocator.incrementCacheMisses();
     try {
-      this.pageData = fc.map(FileChannel.MapMode.READ_WRITE, blockNum*Page.pageSize, Page.pageSize);
+      this.mapping = fc.map(FileChannel.MapMode.READ_WRITE, ((long) blockNum)*Page.pageSize, Page.pageSize);
     } catch (IOException e) {
       throw new PageException("Can't mmap page: " + pageNum + "at block: " + blockNum + " ; " + e.getMessage());
     }
+    PageAllocator.incrementMappedRegions();
+    this.pageData = this.mapping;
+  }
+
+  /**
+   * Create a new page for block blockNum with virtual page number pageNum for
+   * the pageSize bytes at offset in an already mapped segment (see
+   * MmapPageStore).
+   */
+  Page(MappedByteBuffer segment, int offset, int blockNum, int pageNum, boolean durable) {
+    this.blockNum = blockNum;
+    this.pageNum = pageNum;
+    this.durable = durable;
+    PageAllocator.incrementCacheMisses();
+    ByteBuffer view = segment.duplicate();
+    view.position(offset);
+    view.limit(offset + Page.pageSize);
+    this.pageData = view.slice();
+    this.mapping = segment;
+  }
+
+  /**
+   * Create a new page for block blockNum with virtual page number pageNum
+   * whose bytes are buffer, for a PREAD store. The store must set the page's
+   * frame before handing the page out.
+   */
+  Page(ByteBuffer buffer, int blockNum, int pageNum, boolean durable) {
+    this.blockNum = blockNum;
+    this.pageNum = pageNum;
+    this.durable = durable;
+    PageAllocator.incrementCacheMisses();
+    this.pageData = buffer;
+  }
+
+  /**
+   * Creates a page that only lives in memory, with no file behind it, to
+   * hold a copy of other pages (see copyFrom). Flushing it does nothing.
+   */
+  public Page() {
+    this.blockNum = -1;
+    this.pageNum = -1;
+    this.durable = false;
+    this.pageData = ByteBuffer.allocate(Page.pageSize);
+  }
+
+  /**
+   * Overwrites the bytes and the page number of this page, which must be a
+   * page created by Page(), with those of page. The caller keeps writers of
+   * page out while it is copied.
+   */
+  public void copyFrom(Page page) {
+    if (this.mapping != null || this.frame != null) {
+      throw new PageException("page " + this.pageNum + " is not an in-memory page");
+    }
+    ByteBuffer src = page.pageData.duplicate();
+    src.position(0);
+    src.limit(Page.pageSize);
+    ByteBuffer dst = this.pageData.duplicate();
+    dst.clear();
+    dst.put(src);
+    this.blockNum = page.blockNum;
+    this.pageNum = page.pageNum;
   }
 
+  void setFrame(PreadPageStore.Frame frame) {
+    this.frame = frame;
+  }
+
+  PreadPageStore.Frame getFrame() {
+    return this.frame;
+  }
+
+  MappedByteBuffer getMapping() {
+    return this.mapping;
+  }
+
+  void setAllocator(PageAllocator allocator) {
+    this.allocator = allocator;
+  }
+
+  /**
+   * Reads the page once so that a memory-mapped page is faulted in now, by
+   * the thread calling this, rather than by its first reader. Pages of a
+   * PREAD store are in memory already.
+   */
+  void load() {
+    if (this.frame == null) {
+      for (int i = 0; i < Page.pageSize; i += 4096) {
+        this.pageData.get(i);
+      }
+    }
+  }
+
+  /**
+   * @return the block of the file that holds this page
+   */
+  int getBlockNum() {
+    return this.blockNum;
+  }
+
+  /**
+   * Returns a new buffer over the bytes of the page, positioned at 0. The
+   * buffer's position is the caller's own. Reading through the buffer is
+   * always fine, but a caller that writes through it must call markDirty
+   * afterwards, or the write may never reach the file.
+   */
   public ByteBuffer getByteBuffer() {
-    pageData.position(0);
-    return pageData;
+    return pageData.duplicate();
+  }
+
+  /**
+   * Returns a read-only view of the length bytes of the page at offset,
+   * positioned at 0 and with a position of its own. The view shares the
+   * page's memory; nothing is copied.
+   */
+  public ByteBuffer slice(int offset, int length) {
+    checkBounds(offset, length);
+    ByteBuffer view = pageData.asReadOnlyBuffer();
+    view.position(offset);
+    view.limit(offset + length);
+    return view.slice();
+  }
+
+  /**
+   * @return a read-only view of the whole page, positioned at 0
+   */
+  public ByteBuffer asReadOnlyBuffer() {
+    return pageData.asReadOnlyBuffer();
+  }
+
+  /**
+   * Records that the page was modified, so that it is written back by the
+   * background writer (see BufferPool#setWriterInterval), a checkpoint, or
+   * when its allocator is closed. The write methods of Page call this
+   * themselves.
+   *
+   * Pages are marked dirty after they are modified: a writer that clears the
+   * flag and then writes the page back either sees the modification or the
+   * modification marks the page dirty again.
+   */
+  public void markDirty() {
+    if (!this.dirty) {
+      this.dirty = true;
+      if (this.allocator != null) {
+        this.allocator.pageDirtied(this);
+      }
+    }
+  }
+
+  /**
+   * @return whether the page was modified since it was last written back
+   */
+  public boolean isDirty() {
+    return this.dirty;
+  }
+
+  /**
+   * Clears the dirty flag of a page that is about to be written back.
+   */
+  void clearDirty() {
+    this.dirty = false;
+  }
+
+  /**
+   * Adds a pin. Only the buffer pool pins pages, while it holds the lock that
+   * eviction takes, so that a page can't be evicted between being found and
+   * being pinned (see PageAllocator#pinPage).
+   */
+  void pin() {
+    this.pinCount.incrementAndGet();
+  }
+
+  /**
+   * Removes one pin added by PageAllocator#pinPage. Once the last pin is
+   * removed the buffer pool may evict the page again.
+   */
+  public void unpin() {
+    if (this.pinCount.getAndDecrement() <= 0) {
+      this.pinCount.incrementAndGet();
+      throw new PageException("page " + this.pageNum + " is not pinned");
+    }
+  }
+
+  /**
+   * @return whether the page has at least one pin
+   */
+  public boolean isPinned() {
+    return this.pinCount.get() > 0;
+  }
+
+  public int getPinCount() {
+    return this.pinCount.get();
   }
 
   /**
@@ -52,14 +264,48 @@ public class Page {
    * @param buf the buffer to put the bytes into
    */
   public void readBytes(int position, int num, byte[] buf) {
-    if (Page.pageSize < position + num) {
-      throw new PageException("readBytes is out of bounds");
-    }
     if (buf.length < num) {
       throw new PageException("num bytes to read is longer than buffer");
     }
-    pageData.position(position);
-    pageData.get(buf, 0, num);
+    getBytes(position, buf, 0, num);
+  }
+
+  /**
+   * Copies length bytes of the page from offset into dst, starting at
+   * dstOffset.
+   */
+  public void getBytes(int offset, byte[] dst, int dstOffset, int length) {
+    checkBounds(offset, length);
+    if (dstOffset < 0 || dst.length < dstOffset + length) {
+      throw new PageException("getBytes is out of bounds of the destination");
+    }
+    ByteBuffer view = pageData.duplicate();
+    view.position(offset);
+    view.get(dst, dstOffset, length);
+  }
+
+  /**
+   * @return the byte at offset
+   */
+  public byte getByte(int offset) {
+    checkBounds(offset, 1);
+    return pageData.get(offset);
+  }
+
+  /**
+   * @return the 4-byte integer at offset
+   */
+  public int getInt(int offset) {
+    checkBounds(offset, 4);
+    return pageData.getInt(offset);
+  }
+
+  /**
+   * @return the 4-byte float at offset
+   */
+  public float getFloat(int offset) {
+    checkBounds(offset, 4);
+    return pageData.getFloat(offset);
   }
 
   /**
@@ -70,9 +316,7 @@ public class Page {
    * @return a new byte array with the bytes read
    */
   public byte[] readBytes(int position, int num) {
-    if (Page.pageSize < position + num) {
-      throw new PageException("readBytes is out of bounds");
-    }
+    checkBounds(position, num);
     byte[] data = new byte[num];
     readBytes(position, num, data);
     return data;
@@ -94,10 +338,7 @@ public class Page {
    * @return the byte at offset position
    */
   public byte readByte(int position) {
-    if (position < 0 || position >= Page.pageSize) {
-      throw new PageException("readByte is out of bounds of page");
-    }
-    return pageData.get(position);
+    return getByte(position);
   }
 
   /**
@@ -120,8 +361,10 @@ public class Page {
       throw new PageException("writeBytes would go out of bounds");
     }
 
-    pageData.position(position);
-    pageData.put(buf, 0, num);
+    ByteBuffer view = pageData.duplicate();
+    view.position(position);
+    view.put(buf, 0, num);
+    markDirty();
   }
 
   /**
@@ -135,6 +378,7 @@ public class Page {
       throw new PageException("readByte is out of bounds of page");
     }
     pageData.put(position, b);
+    markDirty();
   }
 
   /**
@@ -144,7 +388,9 @@ public class Page {
    * @param value the value to write
    */
   public void writeInt(int startPos, int value) {
-    this.writeBytes(startPos, 4, ByteBuffer.allocate(4).putInt(value).array());
+    checkBounds(startPos, 4);
+    pageData.putInt(startPos, value);
+    markDirty();
   }
 
   /**
@@ -154,7 +400,14 @@ public class Page {
    * @return the 4-byte integer at startPos
    */
   public int readInt(int startPos) {
-    return ByteBuffer.wrap(this.readBytes(startPos, 4)).getInt();
+    return getInt(startPos);
+  }
+
+  private static void checkBounds(int offset, int length) {
+    if (offset < 0 || length < 0 || Page.pageSize < offset + length) {
+      throw new PageException("access of " + length + " bytes at offset " + offset +
+                              " is out of bounds of page");
+    }
   }
 
   /**
@@ -166,12 +419,27 @@ public class Page {
   }
 
   /**
-   * Force the page to disk.
+   * Force the page to disk right away. A page that is a slice of a segment
+   * forces the whole segment, which writes back every dirty page of the
+   * segment. A page of a PREAD store is written back if it is dirty, whether
+   * or not it is durable, and is then forced if it is durable.
+   *
+   * Nothing in the database calls this any more: dirty pages are written in
+   * the background and by checkpoints (see PageAllocator#checkpoint).
    */
   public void flush() {
-    if (this.durable) {
+    boolean wasDirty = this.dirty;
+    this.dirty = false;
+    if (this.frame != null) {
+      if (wasDirty) {
+        this.frame.write();
+        if (this.durable) {
+          this.frame.force();
+        }
+      }
+    } else if (this.durable) {
       PageAllocator.incrementCacheMisses();
-      this.pageData.force();
+      this.mapping.force();
     }
   }
 
@@ -8,13 +8,17 @@ import java.nio.ByteOrder;
 import java.util.LinkedHashMap;
 import java.lang.IllegalArgumentException;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.NoSuchElementException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.io.Closeable;
@@ -23,25 +27,56 @@ import edu.berkeley.cs186.database.common.BacktrackingIterator;
 
 /**
  * A PageAllocation system for an OS paging system. Provides memory-mapped paging from the OS, an
- * interface to individual pages with the Page objects, an LRU cache for pages, 16GB worth of paging,
- * and virtual page translation.
+ * interface to individual pages with the Page objects, a shared BufferPool that caches pages, 16GB
+ * worth of paging, and virtual page translation.
  *
  * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
  */
 public class PageAllocator implements Iterable<Page>, Closeable {
   private static final int numHeaderPages = 1024;
-  private static final int cacheSize = 1024;
 
   private static AtomicInteger pACounter = new AtomicInteger(0);
-  private static LRUCache<Long, Page> pageLRU = new LRUCache<Long, Page>(cacheSize);
   private static AtomicLong numIOs = new AtomicLong(0);
   private static AtomicLong cacheMisses = new AtomicLong(0);
+  private static AtomicLong mappedRegions = new AtomicLong(0);
 
   private Page masterPage;
   private FileChannel fc;
   private int numPages;
   private int allocID;
   private boolean durable;
+  private BufferPool bufferPool;
+
+  // Loads the blocks of fc as Pages.
+  private PageStore store;
+
+  // The pages that became dirty since they were last written back, whether or not they are still
+  // cached, and the writer that writes them in the background. writeLock serializes writing them,
+  // and closed is only accessed under it.
+  private final Set<Page> dirtyPages;
+  private final PageWriter writer;
+  private final Object writeLock;
+  private boolean closed;
+
+  // Loads pages ahead of sequential readers.
+  private final ReadAhead readAhead;
+
+  // The I/O of this allocator.
+  private final IOStats ioStats;
+
+  // The allocation directory, an in-memory copy of the master and header pages that is built once
+  // when the allocator is opened. headerCounts[i] is the number of pages allocated under header
+  // page i, and bit j of allocated[i] is set iff page i * Page.pageSize + j is allocated
+  // (allocated[i] is null while header page i has never had a page). Every header page before
+  // firstFreeHeader is full, and no page of header page i before freeHints[i] is free.
+  private int[] headerCounts;
+  private BitSet[] allocated;
+  private int[] freeHints;
+  private int firstFreeHeader;
+
+  // The header pages mapped so far, indexed by header page number.
+  private Page[] headerPages;
+
   /**
    * Create a new PageAllocator that writes its bytes into a file named fName. If wipe is true, the
    * data in the page is completely removed.
@@ -54,16 +89,39 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   }
 
   public PageAllocator(String fName, boolean wipe, boolean durable) {
+    this(fName, wipe, durable, BufferPool.getDefault());
+  }
+
+  /**
+   * Create a new PageAllocator whose pages are cached in bufferPool rather than in the default
+   * pool shared by the whole JVM.
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable whether pages are forced to disk when flushed
+   * @param bufferPool the pool that caches this allocator's pages
+   */
+  public PageAllocator(String fName, boolean wipe, boolean durable, BufferPool bufferPool) {
     this.durable = durable;
+    this.bufferPool = bufferPool;
+    this.dirtyPages = Collections.newSetFromMap(new ConcurrentHashMap<Page, Boolean>());
+    this.writer = bufferPool.getWriter();
+    this.writeLock = new Object();
+    this.closed = false;
+    this.readAhead = new ReadAhead(this, bufferPool);
+    this.ioStats = new IOStats();
     try {
       this.fc = new RandomAccessFile(fName, "rw").getChannel();
     } catch (IOException e) {
       throw new PageException("Could not open File: " + e.getMessage());
     }
 
-    this.masterPage = new Page(this.fc, 0, -1);
+    this.store = bufferPool.createStore(this.fc);
+    this.masterPage = loadPage(0, -1, true);
     this.allocID = pACounter.getAndIncrement();
 
+    this.headerPages = new Page[numHeaderPages];
+
     if (wipe) {
       // Nukes masterPage and headerPages
       byte[] masterBytes = this.masterPage.readBytes();
@@ -83,71 +141,115 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       this.masterPage.wipe();
     }
 
+    loadDirectory();
+    this.writer.register(this);
+  }
+
+  /**
+   * Builds the allocation directory from the master page and the header pages. This is the only
+   * time the allocator reads them; from then on they are only written.
+   */
+  private void loadDirectory() {
     byte[] masterBytes = masterPage.readBytes();
     IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
+    this.headerCounts = new int[numHeaderPages];
+    ib.get(this.headerCounts);
 
+    this.allocated = new BitSet[numHeaderPages];
+    this.freeHints = new int[numHeaderPages];
+    this.firstFreeHeader = 0;
     this.numPages = 0;
     for (int i = 0; i < numHeaderPages; i++) {
-      this.numPages += pageCounts[i];
+      if (this.headerCounts[i] == 0) {
+        continue;
+      }
+      this.numPages += this.headerCounts[i];
+      byte[] headerBytes = getHeadPage(i).readBytes();
+      BitSet bits = new BitSet(Page.pageSize);
+      for (int j = 0; j < Page.pageSize; j++) {
+        if (headerBytes[j] != 0) {
+          bits.set(j);
+        }
+      }
+      this.allocated[i] = bits;
     }
   }
 
   /**
-   * Allocates a new page in the file.
+   * Allocates a new page in the file. The new page, the master page, and the header page are
+   * written back with the other dirty pages of the allocator rather than right away.
    *
    * @return the virtual page number of the page
    */
   public synchronized int allocPage() {
-    byte[] masterBytes = this.masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
+    int pageNum = reservePage();
+    fetchPage(pageNum).wipe();
+    this.numPages += 1;
+    return pageNum;
+  }
 
-    Page headerPage = null;
-    int headerIndex = -1;
-    for (int i = 0; i < numHeaderPages; i++) {
-      if (pageCounts[i] < Page.pageSize) {
-        // Found header page with space
-        headerPage = getHeadPage(i);
-        headerIndex = i;
-        break;
-      }
+  /**
+   * Allocates n new pages in the file under a single acquisition of the allocator's monitor.
+   *
+   * @param n the number of pages to allocate
+   * @return the virtual page numbers of the pages, in increasing order
+   */
+  public synchronized int[] allocPages(int n) {
+    if (n < 0) {
+      throw new PageException("cannot allocate a negative number of pages");
     }
-
-    if (headerPage == null) {
-      throw new PageException("No free Pages Available");
+    int[] pageNums = new int[n];
+    for (int i = 0; i < n; i++) {
+      pageNums[i] = reservePage();
     }
+    Arrays.sort(pageNums);
 
-    byte[] headerBytes = headerPage.readBytes();
-    int pageIndex = -1;
+    for (int pageNum : pageNums) {
+      fetchPage(pageNum).wipe();
+    }
+    this.numPages += n;
+    return pageNums;
+  }
 
-    for (int i = 0; i < Page.pageSize; i++) {
-      if (headerBytes[i] == 0) {
-        pageIndex = i;
-        break;
-      }
+  /**
+   * Finds the lowest free page number, marks it allocated in the directory and in the master and
+   * header pages, and returns it.
+   */
+  private int reservePage() {
+    while (this.firstFreeHeader < numHeaderPages &&
+           this.headerCounts[this.firstFreeHeader] >= Page.pageSize) {
+      this.firstFreeHeader++;
+    }
+    if (this.firstFreeHeader == numHeaderPages) {
+      throw new PageException("No free Pages Available");
     }
 
-    if (pageIndex == -1) {
-     throw new PageException("Header page should have free page but doesnt");
+    int headerIndex = this.firstFreeHeader;
+    if (this.allocated[headerIndex] == null) {
+      this.allocated[headerIndex] = new BitSet(Page.pageSize);
+    }
+    BitSet bits = this.allocated[headerIndex];
+    int pageIndex = bits.nextClearBit(this.freeHints[headerIndex]);
+    if (pageIndex >= Page.pageSize) {
+      throw new PageException("Header page should have free page but doesnt");
     }
 
-    int newCount = pageCounts[headerIndex] + 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    this.masterPage.writeBytes(headerIndex*4, 4, newCountBytes);
-    headerPage.writeByte(pageIndex, (byte) 1);
+    bits.set(pageIndex);
+    this.freeHints[headerIndex] = pageIndex + 1;
+    this.headerCounts[headerIndex] += 1;
+    this.masterPage.writeInt(headerIndex*4, this.headerCounts[headerIndex]);
+    getHeadPage(headerIndex).writeByte(pageIndex, (byte) 1);
 
-    if (this.durable) {
-      this.masterPage.flush();
-      headerPage.flush();
-    }
+    return headerIndex * Page.pageSize + pageIndex;
+  }
 
-    int pageNum = headerIndex * Page.pageSize + pageIndex;
-    fetchPage(pageNum).wipe();
-    this.numPages += 1;
-    return pageNum;
+  private boolean isAllocated(int pageNum) {
+    int headPageIndex = pageNum/Page.pageSize;
+    if (pageNum < 0 || headPageIndex >= numHeaderPages) {
+      return false;
+    }
+    BitSet bits = this.allocated[headPageIndex];
+    return bits != null && bits.get(pageNum % Page.pageSize);
   }
 
   /**
@@ -156,50 +258,112 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @param pageNum the virtual page number
    * @return a Page object wrapping the page corresponding to pageNum
    */
-  public synchronized Page fetchPage(int pageNum) {
+  public Page fetchPage(int pageNum) {
+    return fetchPage(pageNum, false);
+  }
+
+  /**
+   * Fetches the page corresponding to virtual page number pageNum and pins it, so that the buffer
+   * pool doesn't evict it until it is unpinned. Pins are counted: a page pinned n times must be
+   * unpinned n times (see Page#unpin).
+   *
+   *   Page page = allocator.pinPage(pageNum);
+   *   try {
+   *     ...
+   *   } finally {
+   *     page.unpin();
+   *   }
+   *
+   * @param pageNum the virtual page number
+   * @return the pinned page
+   */
+  public Page pinPage(int pageNum) {
+    return fetchPage(pageNum, true);
+  }
+
+  private Page fetchPage(int pageNum, boolean pin) {
     if (pageNum < 0) {
       throw new PageException("invalid page number -- out of bounds");
     }
 
     numIOs.getAndIncrement();
+    long start = System.nanoTime();
+
+    // Cache hits only take the lock of the buffer pool shard that pageNum hashes to; they never
+    // touch this allocator's monitor.
+    long vPageNum = translatePageNum(pageNum);
+    Page page = this.bufferPool.get(vPageNum, pin);
+    boolean miss = page == null;
+    if (miss) {
+      page = fetchUncachedPage(pageNum, vPageNum, pin, true);
+    }
+    this.ioStats.recordFetch(System.nanoTime() - start, miss);
+    return page;
+  }
 
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        return pageLRU.get(translatePageNum(pageNum));
-      }
+  /**
+   * Starts loading page pageNum in the background if it isn't cached, for a caller that knows it
+   * will fetch the page soon. Does nothing if read-ahead is turned off (see
+   * BufferPool#setReadAheadWindow).
+   *
+   * @param pageNum the virtual page number
+   */
+  public void prefetch(int pageNum) {
+    if (pageNum >= 0 && !this.bufferPool.contains(translatePageNum(pageNum))) {
+      this.readAhead.prefetch(pageNum);
     }
+  }
+
+  /**
+   * Loads page pageNum for the read-ahead without caching it.
+   *
+   * @return the page, or null if it isn't allocated
+   */
+  synchronized Page loadForReadAhead(int pageNum) {
+    if (this.masterPage == null) {
+      throw new PageException("allocator is closed");
+    }
+    if (!isAllocated(pageNum)) {
+      return null;
+    }
+    return loadDataPage(pageNum);
+  }
+
+  private Page loadDataPage(int pageNum) {
+    int headPageIndex = pageNum/Page.pageSize;
+    int dataPageIndex = pageNum % Page.pageSize;
+    int dataBlockID = 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
+    return loadPage(dataBlockID, pageNum, this.durable);
+  }
 
+  /**
+   * Validates pageNum against the allocation directory and loads it, caching it in the buffer pool
+   * if cache is true. The directory is only read under this allocator's monitor so that a
+   * concurrent allocPage or freePage can't be observed half-done.
+   */
+  private synchronized Page fetchUncachedPage(int pageNum, long vPageNum, boolean pin,
+                                              boolean cache) {
     int headPageIndex = pageNum/Page.pageSize;
 
     if (headPageIndex >= numHeaderPages) {
       throw new PageException("invalid page number -- out of bounds");
     }
 
-    byte[] headCountBytes = this.masterPage.readBytes(headPageIndex*4, 4);
-    int headCount = ByteBuffer.wrap(headCountBytes).getInt();
-
-    if (headCount < 1) {
+    if (!isAllocated(pageNum)) {
       throw new PageException("invalid page number -- page not allocated");
     }
 
-    Page headPage = getHeadPage(headPageIndex);
-
-    int dataPageIndex = pageNum % Page.pageSize;
-
-    byte validByte = headPage.readByte(dataPageIndex);
-
-    if (validByte == 0) {
-      throw new PageException("invalid page number -- page not allocated");
+    Page dataPage = this.readAhead.take(pageNum);
+    if (dataPage == null) {
+      dataPage = loadDataPage(pageNum);
     }
-
-    int dataBlockID = 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
-    Page dataPage = new Page(this.fc, dataBlockID, pageNum, this.durable);
-
-    synchronized(PageAllocator.class) {
-      pageLRU.put(translatePageNum(pageNum), dataPage);
+    if (!cache) {
+      return dataPage;
     }
 
-    return dataPage;
+    // Another thread may have cached the page between our miss and now, in which case we must hand
+    // out its copy so that every caller sees the same Page object.
+    return this.bufferPool.putIfAbsent(vPageNum, dataPage, pin);
   }
 
   /**
@@ -210,38 +374,23 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @return whether or not the page was freed
    */
   public synchronized boolean freePage(Page p) {
-    if (this.durable) {
-      p.flush();
-    }
     int pageNum = p.getPageNum();
-    int headPageIndex = pageNum/Page.pageSize;
-    int dataPageIndex = pageNum % Page.pageSize;
-
-    Page headPage = getHeadPage(headPageIndex);
-
-    if (headPage.readByte(dataPageIndex) == 0) {
+    if (!isAllocated(pageNum)) {
       return false;
     }
+    int headPageIndex = pageNum/Page.pageSize;
+    int dataPageIndex = pageNum % Page.pageSize;
 
-    headPage.writeByte(dataPageIndex, (byte) 0);
-    if (this.durable) {
-      headPage.flush();
-    }
-    byte[] countBytes = masterPage.readBytes(4*headPageIndex,4);
-    int oldCount = ByteBuffer.wrap(countBytes).getInt();
+    this.allocated[headPageIndex].clear(dataPageIndex);
+    this.headerCounts[headPageIndex] -= 1;
+    this.freeHints[headPageIndex] = Math.min(this.freeHints[headPageIndex], dataPageIndex);
+    this.firstFreeHeader = Math.min(this.firstFreeHeader, headPageIndex);
 
-    int newCount = oldCount - 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    masterPage.writeBytes(headPageIndex*4, 4, newCountBytes);
-    if (this.durable) {
-      masterPage.flush();
-    }
+    getHeadPage(headPageIndex).writeByte(dataPageIndex, (byte) 0);
+    masterPage.writeInt(headPageIndex*4, this.headerCounts[headPageIndex]);
 
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        pageLRU.remove(translatePageNum(pageNum));
-      }
-    }
+    this.bufferPool.remove(translatePageNum(pageNum));
+    this.readAhead.forget(pageNum);
 
     this.numPages -= 1;
     return true;
@@ -265,43 +414,86 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   }
 
   /**
-   * Close this PageAllocator.
+   * Writes every dirty page of this allocator back to the file, in file order, and then forces the
+   * file to disk if the allocator is durable. Pages that become dirty while the checkpoint runs may
+   * or may not be written by it. The background writer of the buffer pool calls this regularly, so
+   * a checkpoint only has to write what became dirty since the writer's last round.
+   *
+   * @return the number of pages written
    */
-  public synchronized void close() {
-    if (this.masterPage == null) {
-      return;
-    }
-    if (this.durable) {
-      this.masterPage.flush();
+  public int checkpoint() {
+    synchronized (this.writeLock) {
+      return writeDirtyPages();
     }
-    List<Long> toRemove = new ArrayList<Long>();
-    Set<Long> vPageNums = null;
-    List<Page> toFlush = new ArrayList<Page>();
+  }
 
-    synchronized(PageAllocator.class) {
-      vPageNums = pageLRU.keySet();
+  private int writeDirtyPages() {
+    if (this.closed || this.dirtyPages.isEmpty()) {
+      return 0;
     }
-
-    for (Long l : vPageNums) {
-      if (translateAllocator(l) == this.allocID) {
-        toRemove.add(l);
-      }
+    List<Page> pages = new ArrayList<Page>(this.dirtyPages);
+    pages.sort(Comparator.comparingInt(Page::getBlockNum));
+    // Take every page out of the set before clearing its flag, so that a write that marks it dirty
+    // again also puts it back.
+    for (Page p : pages) {
+      this.dirtyPages.remove(p);
+      p.clearDirty();
     }
-
-    synchronized(PageAllocator.class) {
-      for (Long vPageNum : toRemove) {
-        if (pageLRU.containsKey(vPageNum)) {
-          toFlush.add(pageLRU.get(vPageNum));
-          pageLRU.remove(vPageNum);
-        }
+    try {
+      this.store.writeBack(pages, this.durable);
+    } catch (PageException e) {
+      for (Page p : pages) {
+        p.markDirty();
       }
+      throw e;
     }
+    this.ioStats.recordPageWrites(pages.size());
     if (this.durable) {
-      for (Page p : toFlush) {
-        p.flush();
-      }
+      this.ioStats.recordFlush();
     }
+    return pages.size();
+  }
+
+  /**
+   * Records that p became dirty, so that it is written back later. Called by p itself.
+   */
+  void pageDirtied(Page p) {
+    this.dirtyPages.add(p);
+    this.writer.pageDirtied();
+  }
+
+  /**
+   * @return the number of pages of this allocator that are dirty
+   */
+  public int getNumDirtyPages() {
+    return this.dirtyPages.size();
+  }
+
+  /**
+   * @return whether any page of this allocator is pinned (see pinPage).
+   * Pinned pages are always cached, so this only looks at the buffer pool.
+   */
+  public boolean hasPinnedPages() {
+    return this.bufferPool.hasPinned(this.allocID);
+  }
+
+  /**
+   * Close this PageAllocator, writing back all of its dirty pages first.
+   */
+  public synchronized void close() {
+    if (this.masterPage == null) {
+      return;
+    }
+    synchronized (this.writeLock) {
+      writeDirtyPages();
+      this.closed = true;
+    }
+    this.writer.unregister(this);
+    this.readAhead.close();
+    this.bufferPool.removeAll(this.allocID);
     this.masterPage = null;
+    Arrays.fill(this.headerPages, null);
+    this.store.close();
     try {
       this.fc.close();
     } catch (IOException e) {
@@ -310,52 +502,144 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   }
 
   private synchronized Page getHeadPage(int headIndex) {
-    int headBlockID = 1 + headIndex*(Page.pageSize + 1);
-    return new Page(this.fc, headBlockID, -1);
+    if (this.headerPages[headIndex] == null) {
+      int headBlockID = 1 + headIndex*(Page.pageSize + 1);
+      this.headerPages[headIndex] = loadPage(headBlockID, -1, true);
+    }
+    return this.headerPages[headIndex];
+  }
+
+  /**
+   * Loads block blockNum from the store as a page that reports to this allocator when it becomes
+   * dirty.
+   */
+  private Page loadPage(int blockNum, int pageNum, boolean durable) {
+    Page page = this.store.getPage(blockNum, pageNum, durable);
+    page.setAllocator(this);
+    this.ioStats.recordPageRead();
+    return page;
   }
 
   public synchronized int getNumPages() {
     return this.numPages;
   }
 
-  public synchronized static long getNumIOs() {
+  public BufferPool getBufferPool() {
+    return this.bufferPool;
+  }
+
+  /**
+   * @return the number of segments of this allocator's file that are mapped, or 0 if the
+   * allocator maps every page on its own or doesn't memory-map its file at all
+   */
+  public int getNumMappedSegments() {
+    if (this.store instanceof MmapPageStore) {
+      return ((MmapPageStore) this.store).getNumSegments();
+    }
+    return 0;
+  }
+
+  /**
+   * @return the I/O counters of this allocator, and so of the Table or BPlusTree it belongs to
+   */
+  public IOStats getIOStats() {
+    return this.ioStats;
+  }
+
+  // The counters and the virtual page translation below are called on every fetch, so they must
+  // not take any monitor; the counters are atomic and allocID never changes. The static counters
+  // add up the I/O of every allocator in the JVM; getIOStats breaks it down.
+  public static long getNumIOs() {
     return PageAllocator.numIOs.get();
   }
 
-  static synchronized void incrementNumIOs() {
+  static void incrementNumIOs() {
     PageAllocator.numIOs.getAndIncrement();
   }
 
-  static synchronized void incrementCacheMisses() {
+  static void incrementCacheMisses() {
     PageAllocator.cacheMisses.getAndIncrement();
   }
 
-  public synchronized static long getNumCacheMisses() {
+  public static long getNumCacheMisses() {
     return PageAllocator.cacheMisses.get();
   }
 
-  private synchronized long translatePageNum(int pageNum) {
+  static void incrementMappedRegions() {
+    PageAllocator.mappedRegions.getAndIncrement();
+  }
+
+  /**
+   * @return the number of fc.map calls made by all allocators, i.e. one per page mapped on its own
+   * plus one per segment
+   */
+  public static long getNumMappedRegions() {
+    return PageAllocator.mappedRegions.get();
+  }
+
+  long translatePageNum(int pageNum) {
     return (((long) this.allocID) << 32) | (((long) pageNum) & 0xFFFFFFFFL);
   }
 
-  static synchronized private int translateAllocator(long vPageNum) {
+  static int translateAllocator(long vPageNum) {
     return (int) ((vPageNum & 0xFFFFFFFF00000000L) >> 32);
   }
 
   /**
-   * @return an iterator of the valid pages managed by this PageAllocator.
+   * @return an iterator of the valid pages managed by this PageAllocator. If the allocator has more
+   * pages than a fraction of the buffer pool (see BufferPool#setScanRingFraction), the iterator
+   * uses a ring.
    */
   public PageIterator iterator() {
-      return new PageIterator();
+      return new PageIterator(false);
   }
 
+  /**
+   * @return an iterator of the valid pages managed by this PageAllocator that pins every page it
+   * returns. The caller must unpin them.
+   */
+  public PageIterator pinnedIterator() {
+      return new PageIterator(true);
+  }
+
+  /**
+   * An iterator over the pages of the allocator in page number order.
+   *
+   * A scan of a file much larger than the buffer pool would evict every other page from the pool,
+   * only to fill it with pages that are read once. So a scan of more pages than a fraction of the
+   * pool uses a ring instead: pages that are cached are used from the pool as usual, but pages
+   * that aren't are loaded without entering the pool, and the iterator holds on to the last
+   * BufferPool.SCAN_RING_SIZE of them itself. Iterators that pin their pages never use a ring,
+   * since their pages must be resident.
+   *
+   * Every iterator has a read-ahead stream of its own, which loads the pages after the ones it
+   * has fetched in the background (see ReadAhead). Fetches that don't go through an iterator
+   * don't feed any stream.
+   */
   public class PageIterator implements BacktrackingIterator<Page> {
     private int pageNum;
     private int cursor;
     private int markedPageNum;
     private int markedCursor;
+    private final boolean pin;
+
+    // The pages loaded outside of the buffer pool, or null if the iterator doesn't use a ring.
+    private final Page[] ring;
+    private int ringIndex;
+    // The iterator's own read-ahead, so that other readers of the file don't disturb it.
+    private final ReadAhead.Stream readAhead;
 
     public PageIterator() {
+      this(false);
+    }
+
+    private PageIterator(boolean pin) {
+      this.pin = pin;
+      BufferPool pool = PageAllocator.this.bufferPool;
+      boolean useRing = !pin && PageAllocator.this.getNumPages() > pool.getScanRingThreshold();
+      this.ring = useRing ? new Page[BufferPool.SCAN_RING_SIZE] : null;
+      this.ringIndex = 0;
+      this.readAhead = PageAllocator.this.readAhead.newStream();
       this.pageNum = 0;
       this.cursor = 0;
       this.markedPageNum = 0;
@@ -371,7 +655,7 @@ public class PageAllocator implements Iterable<Page>, Closeable {
         while (true) {
           Page p;
           try {
-            p = PageAllocator.this.fetchPage(cursor);
+            p = fetch(cursor);
             cursor++;
             pageNum++;
             return p;
@@ -387,6 +671,63 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       throw new UnsupportedOperationException();
     }
 
+    /**
+     * @return the page number of the page that next would return, without fetching the page
+     */
+    public int peekPageNum() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      synchronized (PageAllocator.this) {
+        while (!isAllocated(this.cursor)) {
+          this.cursor++;
+        }
+      }
+      return this.cursor;
+    }
+
+    /**
+     * Moves past the page that next would return without fetching it, for a caller that knows it
+     * has no use for the page, e.g. a scan that can tell from a summary of the page that it holds
+     * no record it wants.
+     */
+    public void skip() {
+      this.peekPageNum();
+      this.cursor++;
+      this.pageNum++;
+    }
+
+    /**
+     * @return whether this iterator loads pages that aren't cached into a ring rather than into
+     * the buffer pool
+     */
+    public boolean usesRing() {
+      return this.ring != null;
+    }
+
+    private Page fetch(int pageNum) {
+      if (this.ring == null) {
+        Page p = PageAllocator.this.fetchPage(pageNum, this.pin);
+        // Only now, so that a page prefetched for this very fetch is taken before a change of
+        // access pattern drops it.
+        this.readAhead.recordAccess(pageNum);
+        return p;
+      }
+      numIOs.getAndIncrement();
+      long start = System.nanoTime();
+      long vPageNum = translatePageNum(pageNum);
+      Page p = PageAllocator.this.bufferPool.get(vPageNum);
+      boolean miss = p == null;
+      if (miss) {
+        p = fetchUncachedPage(pageNum, vPageNum, false, false);
+        this.ring[this.ringIndex] = p;
+        this.ringIndex = (this.ringIndex + 1) % this.ring.length;
+      }
+      this.readAhead.recordAccess(pageNum);
+      PageAllocator.this.ioStats.recordFetch(System.nanoTime() - start, miss);
+      return p;
+    }
+
     /**
      * Marks a page to come back to later.
      *
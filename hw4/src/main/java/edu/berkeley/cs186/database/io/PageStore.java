@@ -0,0 +1,57 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.List;
+
+/**
+ * A PageStore moves the blocks of one PageAllocator's file between disk and
+ * memory, and wraps them in Pages. Every PageAllocator owns one store for
+ * its file, created when the allocator is opened and closed with it.
+ *
+ * There are two kinds of stores:
+ *
+ *   - MMAP memory-maps the file, one page or one segment at a time (see
+ *     BufferPool#setSegmentSize). Pages are views of the OS page cache: reads
+ *     may stall on page faults, and writes reach the file as soon as
+ *     they are made, but the OS decides when they reach the disk.
+ *   - PREAD copies each block into a direct ByteBuffer with a positional
+ *     FileChannel.read when its page is loaded, and writes it back with a
+ *     positional FileChannel.write when the page is flushed. A page that is
+ *     loaded never faults, and nothing reaches the file until the database
+ *     writes it. Since every allocator has its own copy of the blocks it
+ *     loaded, a file written through a PREAD store must be closed before
+ *     another allocator opens it.
+ *
+ * The kind of store is picked per BufferPool, and so per Database:
+ *
+ *   BufferPool pool = new BufferPool(1024);
+ *   pool.setStoreType(PageStore.Type.PREAD);
+ *   Database db = new Database("db", 5, pool);
+ */
+public interface PageStore {
+  enum Type {
+    MMAP,
+    PREAD
+  }
+
+  /**
+   * Returns a page holding block blockNum of the file, with virtual page
+   * number pageNum. Blocks past the end of the file read as zeros.
+   *
+   * @param durable whether flushing the page forces it to disk
+   */
+  Page getPage(int blockNum, int pageNum, boolean durable);
+
+  /**
+   * Makes the contents of pages reach the file, and then forces the file to
+   * disk if force is true. pages are pages of this store in file order, and
+   * their dirty flags have already been cleared.
+   */
+  void writeBack(List<Page> pages, boolean force);
+
+  /**
+   * Releases the memory of the store. Dirty pages must have been written back
+   * before. The store must not be used afterwards, but pages handed out
+   * earlier stay readable.
+   */
+  void close();
+}
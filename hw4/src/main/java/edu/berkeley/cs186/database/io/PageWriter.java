@@ -0,0 +1,117 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The background writer of a BufferPool. Every intervalMillis milliseconds,
+ * or sooner once wakeThreshold pages have become dirty since its last round,
+ * a daemon thread checkpoints every open allocator of the pool (see
+ * PageAllocator#checkpoint), which writes the allocator's dirty pages back in
+ * file order. Evicting a page from the pool never writes it; a dirty page
+ * stays with its allocator until the writer gets to it.
+ *
+ * The thread is started when the first allocator of the pool opens, and
+ * exits when the last one closes or the interval is set to 0. Allocators are
+ * only weakly referenced, so that one that is dropped without being closed
+ * can still be garbage collected, and its dirty pages with it.
+ */
+class PageWriter implements Runnable {
+  private final int wakeThreshold;
+  private final AtomicInteger numDirtied;
+
+  // The open allocators of the pool. Guarded by this.
+  private final Set<PageAllocator> allocators;
+  private long intervalMillis;
+  private boolean wakeRequested;
+  private Thread thread;
+
+  PageWriter(long intervalMillis, int wakeThreshold) {
+    this.wakeThreshold = Math.max(1, wakeThreshold);
+    this.numDirtied = new AtomicInteger(0);
+    this.allocators = Collections.newSetFromMap(new WeakHashMap<PageAllocator, Boolean>());
+    this.intervalMillis = intervalMillis;
+    this.wakeRequested = false;
+    this.thread = null;
+  }
+
+  synchronized void register(PageAllocator allocator) {
+    this.allocators.add(allocator);
+    startIfNeeded();
+  }
+
+  synchronized void unregister(PageAllocator allocator) {
+    this.allocators.remove(allocator);
+    notifyAll();
+  }
+
+  synchronized long getIntervalMillis() {
+    return this.intervalMillis;
+  }
+
+  synchronized void setIntervalMillis(long intervalMillis) {
+    this.intervalMillis = intervalMillis;
+    startIfNeeded();
+    notifyAll();
+  }
+
+  /**
+   * Called whenever a page of the pool becomes dirty. Wakes the writer up
+   * early once every wakeThreshold pages, so that the number of dirty pages
+   * that pile up between two rounds stays bounded under heavy writes.
+   */
+  void pageDirtied() {
+    if (this.numDirtied.incrementAndGet() == this.wakeThreshold) {
+      wake();
+    }
+  }
+
+  synchronized void wake() {
+    this.wakeRequested = true;
+    notifyAll();
+  }
+
+  private void startIfNeeded() {
+    if (this.thread == null && this.intervalMillis > 0 && !this.allocators.isEmpty()) {
+      this.thread = new Thread(this, "page-writer");
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+  }
+
+  @Override
+  public void run() {
+    while (true) {
+      List<PageAllocator> toWrite;
+      synchronized (this) {
+        if (!this.wakeRequested && this.intervalMillis > 0 && !this.allocators.isEmpty()) {
+          try {
+            wait(this.intervalMillis);
+          } catch (InterruptedException e) {
+            // Nobody interrupts the writer; treat it as a wake-up.
+          }
+        }
+        if (this.intervalMillis <= 0 || this.allocators.isEmpty()) {
+          this.thread = null;
+          return;
+        }
+        this.wakeRequested = false;
+        toWrite = new ArrayList<PageAllocator>(this.allocators);
+      }
+
+      this.numDirtied.set(0);
+      for (PageAllocator allocator : toWrite) {
+        try {
+          allocator.checkpoint();
+        } catch (PageException e) {
+          // The pages that could not be written are dirty again, so the next
+          // round retries them.
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The PREAD PageStore. Loading a page reads its block into a new direct
+ * buffer with positional FileChannel.reads, and writing a dirty page back
+ * writes the buffer with positional FileChannel.writes.
+ *
+ * Unlike a memory-mapped page, a page of this store is a private copy of its
+ * block, so there must never be two pages for the same block at the same
+ * time: a write to one would be lost when the other is written back. Callers
+ * such as B+ tree nodes hold on to pages for a long time, also after the
+ * BufferPool has evicted them. So the store remembers the page of every block
+ * it loaded for as long as the page is reachable (the page's Frame), and
+ * hands out the very same page if the block is requested again. The
+ * allocator holds on to dirty pages until they are written back, so a page
+ * that has been garbage collected was clean, and its frame is simply
+ * forgotten.
+ *
+ * The buffer of a collected page isn't reused for another block: views of
+ * the page (see Page#slice and Page#getByteBuffer) don't keep the page
+ * reachable, and may still be read after it is collected. The garbage
+ * collector frees the buffer once nothing refers to it.
+ */
+class PreadPageStore implements PageStore {
+  private final FileChannel fc;
+
+  // The frame of every block whose page is (or may still be) reachable.
+  private final Map<Integer, Frame> frames;
+
+  // Frames whose page has been garbage collected are enqueued here.
+  private final ReferenceQueue<Page> collected;
+
+  PreadPageStore(FileChannel fc) {
+    this.fc = fc;
+    this.frames = new HashMap<Integer, Frame>();
+    this.collected = new ReferenceQueue<Page>();
+  }
+
+  @Override
+  public synchronized Page getPage(int blockNum, int pageNum, boolean durable) {
+    forgetCollected();
+
+    Frame frame = this.frames.get(blockNum);
+    if (frame != null) {
+      Page page = frame.get();
+      if (page != null) {
+        return page;
+      }
+      // The page was collected, but its frame is not enqueued yet.
+      forget(frame);
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocateDirect(Page.pageSize);
+    read(buffer, blockNum);
+    Page page = new Page(buffer, blockNum, pageNum, durable);
+    frame = new Frame(page, blockNum, buffer);
+    page.setFrame(frame);
+    this.frames.put(blockNum, frame);
+    return page;
+  }
+
+  @Override
+  public void writeBack(List<Page> pages, boolean force) {
+    for (Page page : pages) {
+      page.getFrame().write();
+    }
+    if (force && !pages.isEmpty()) {
+      force();
+    }
+  }
+
+  /**
+   * Forgets all frames. Pages that are still reachable keep their buffers.
+   */
+  @Override
+  public synchronized void close() {
+    forgetCollected();
+    this.frames.clear();
+  }
+
+  private void forgetCollected() {
+    Frame frame;
+    while ((frame = (Frame) this.collected.poll()) != null) {
+      forget(frame);
+    }
+  }
+
+  private void forget(Frame frame) {
+    if (this.frames.get(frame.blockNum) == frame) {
+      this.frames.remove(frame.blockNum);
+    }
+  }
+
+  private void read(ByteBuffer buffer, int blockNum) {
+    long position = ((long) blockNum) * Page.pageSize;
+    try {
+      while (buffer.hasRemaining()) {
+        int n = this.fc.read(buffer, position);
+        if (n < 0) {
+          // Blocks past the end of the file have never been written.
+          while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+          }
+          break;
+        }
+        position += n;
+      }
+    } catch (IOException e) {
+      throw new PageException("Can't read block: " + blockNum + " ; " + e.getMessage());
+    }
+    buffer.clear();
+  }
+
+  private void force() {
+    try {
+      this.fc.force(false);
+    } catch (IOException e) {
+      throw new PageException("Can't force file ; " + e.getMessage());
+    }
+  }
+
+  /**
+   * The buffer of one loaded block. A frame outlives its page so that the
+   * store can tell that the page is gone.
+   */
+  class Frame extends WeakReference<Page> {
+    private final int blockNum;
+    private final ByteBuffer buffer;
+
+    private Frame(Page page, int blockNum, ByteBuffer buffer) {
+      super(page, PreadPageStore.this.collected);
+      this.blockNum = blockNum;
+      this.buffer = buffer;
+    }
+
+    /**
+     * Writes the buffer to its block.
+     */
+    synchronized void write() {
+      PageAllocator.incrementCacheMisses();
+      ByteBuffer src = this.buffer.duplicate();
+      src.clear();
+      long position = ((long) this.blockNum) * Page.pageSize;
+      try {
+        while (src.hasRemaining()) {
+          position += PreadPageStore.this.fc.write(src, position);
+        }
+      } catch (IOException e) {
+        throw new PageException("Can't write block: " + this.blockNum + " ; " + e.getMessage());
+      }
+    }
+
+    /**
+     * Forces the file of the block to disk.
+     */
+    void force() {
+      PreadPageStore.this.force();
+    }
+  }
+}
@@ -0,0 +1,233 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-ahead for one PageAllocator. Each sequential reader of the allocator,
+ * i.e. each PageIterator, has a Stream of its own that it reports the page
+ * numbers it fetches to. Once a few fetches of a stream in a row ask for
+ * consecutive pages, the pages after the last one are loaded on the buffer
+ * pool's read-ahead executor (see BufferPool#setReadAheadWindow), a window at
+ * a time, and kept here until a fetch misses the pool on one of them and
+ * takes it. For a memory-mapped page, loading it faults it in; for a PREAD
+ * page, it reads the block. Either way the fetch that later asks for the page
+ * doesn't wait for the disk.
+ *
+ * A stream's window starts small and adapts: it doubles whenever a page
+ * prefetched for the stream is used, up to the pool's maximum, and is reset
+ * as soon as the stream stops being sequential or reaches the end of the
+ * file, at which point the pages prefetched for it that were not used are
+ * dropped and counted as wasted. Streams don't see each other's fetches, so
+ * concurrent scans of the same file don't reset each other, and fetches that
+ * don't go through a stream, like the point lookups of getRecord, only look
+ * for a prefetched page when they miss the pool.
+ *
+ * Callers that know which page they will need next even though it isn't the
+ * next page of the file, like the leaf walk of a B+ tree, can ask for it
+ * explicitly with prefetch.
+ */
+class ReadAhead {
+  // The number of consecutive fetches after which read-ahead starts.
+  private static final int SEQUENTIAL_THRESHOLD = 2;
+  private static final int INITIAL_WINDOW = 4;
+
+  private final PageAllocator allocator;
+  private final BufferPool bufferPool;
+  // The pages loaded ahead that nobody took yet, with the stream that each
+  // was loaded for, or null for those asked for with prefetch.
+  private final Map<Integer, Prefetched> prefetched;
+  private volatile boolean closed;
+
+  ReadAhead(PageAllocator allocator, BufferPool bufferPool) {
+    this.allocator = allocator;
+    this.bufferPool = bufferPool;
+    this.prefetched = new ConcurrentHashMap<Integer, Prefetched>();
+    this.closed = false;
+  }
+
+  /**
+   * @return a new stream for one sequential reader
+   */
+  Stream newStream() {
+    return new Stream();
+  }
+
+  /**
+   * Starts loading pageNum in the background, unless it is cached already.
+   */
+  void prefetch(int pageNum) {
+    if (this.bufferPool.getReadAheadWindow() <= 0) {
+      return;
+    }
+    submit(null, pageNum, pageNum, 0);
+  }
+
+  /**
+   * Removes and returns the prefetched page for pageNum, or null if there is
+   * none. Called by fetches that missed the buffer pool.
+   */
+  Page take(int pageNum) {
+    Prefetched entry = this.prefetched.remove(pageNum);
+    if (entry == null) {
+      return null;
+    }
+    this.bufferPool.recordReadAheadHit();
+    if (entry.stream != null) {
+      entry.stream.grow();
+    }
+    return entry.page;
+  }
+
+  /**
+   * Forgets the prefetched page for pageNum, if any, e.g. because it was
+   * freed.
+   */
+  void forget(int pageNum) {
+    this.prefetched.remove(pageNum);
+  }
+
+  /**
+   * Abandons outstanding loads and drops every prefetched page.
+   */
+  void close() {
+    this.closed = true;
+    int wasted = this.prefetched.size();
+    this.prefetched.clear();
+    this.bufferPool.recordReadAheadWaste(wasted);
+  }
+
+  private void submit(Stream stream, int from, int to, int gen) {
+    Executor executor = this.bufferPool.getReadAheadExecutor();
+    executor.execute(() -> load(stream, from, to, gen));
+  }
+
+  private boolean isCurrent(Stream stream, int gen) {
+    return !this.closed && (stream == null || stream.generation.get() == gen);
+  }
+
+  /**
+   * Loads pages from through to that are neither cached nor prefetched yet,
+   * for stream, stopping early at the first page that isn't allocated, once
+   * the loads have been abandoned, or once as many pages as the pool holds
+   * are waiting to be taken.
+   */
+  private void load(Stream stream, int from, int to, int gen) {
+    for (int pageNum = from; pageNum <= to; pageNum++) {
+      if (!isCurrent(stream, gen) ||
+          this.prefetched.size() >= this.bufferPool.getCacheCapacity()) {
+        return;
+      }
+      if (this.prefetched.containsKey(pageNum) ||
+          this.bufferPool.contains(this.allocator.translatePageNum(pageNum))) {
+        continue;
+      }
+      Page page;
+      try {
+        page = this.allocator.loadForReadAhead(pageNum);
+      } catch (PageException e) {
+        // The allocator was closed under us.
+        return;
+      }
+      if (page == null) {
+        return;
+      }
+      page.load();
+      this.bufferPool.recordReadAheadLoad();
+      Prefetched entry = new Prefetched(page, stream);
+      this.prefetched.putIfAbsent(pageNum, entry);
+      // The stream may have been reset between the check above and the put; don't keep pages for
+      // a pattern that is gone.
+      if (!isCurrent(stream, gen)) {
+        if (this.prefetched.remove(pageNum, entry)) {
+          this.bufferPool.recordReadAheadWaste(1);
+        }
+        return;
+      }
+    }
+  }
+
+  private static class Prefetched {
+    private final Page page;
+    private final Stream stream;
+
+    private Prefetched(Page page, Stream stream) {
+      this.page = page;
+      this.stream = stream;
+    }
+  }
+
+  /**
+   * The access pattern of one sequential reader. A stream is used by one
+   * thread at a time, which reports its fetches with recordAccess; only its
+   * window and generation are touched by others.
+   */
+  class Stream {
+    private int lastPageNum = -1;
+    private int runLength = 0;
+    private int issuedUpTo = -1;
+    private final AtomicInteger window = new AtomicInteger(INITIAL_WINDOW);
+    // Incremented whenever outstanding loads should be abandoned.
+    private final AtomicInteger generation = new AtomicInteger(0);
+
+    private Stream() {}
+
+    /**
+     * Records a fetch of pageNum, and starts loading the next window of
+     * pages if the fetches have been sequential for a while and the reader
+     * is half way through the current window.
+     */
+    void recordAccess(int pageNum) {
+      int maxWindow = ReadAhead.this.bufferPool.getReadAheadWindow();
+      if (maxWindow <= 0 || pageNum == this.lastPageNum) {
+        return;
+      }
+      if (pageNum != this.lastPageNum + 1) {
+        this.lastPageNum = pageNum;
+        if (this.runLength > 0) {
+          reset();
+        }
+        return;
+      }
+      this.lastPageNum = pageNum;
+      this.runLength++;
+      int window = Math.min(this.window.get(), maxWindow);
+      if (this.runLength < SEQUENTIAL_THRESHOLD || pageNum + window / 2 < this.issuedUpTo) {
+        return;
+      }
+      int from = Math.max(this.issuedUpTo + 1, pageNum + 1);
+      int to = pageNum + window;
+      this.issuedUpTo = to;
+      if (from <= to) {
+        submit(this, from, to, this.generation.get());
+      }
+    }
+
+    /**
+     * Starts over, e.g. after a non-sequential access or at the end of the
+     * file: abandons outstanding loads, drops the pages prefetched for this
+     * stream that nobody took, and shrinks the window back.
+     */
+    void reset() {
+      this.generation.incrementAndGet();
+      this.runLength = 0;
+      this.window.set(INITIAL_WINDOW);
+      this.issuedUpTo = -1;
+      int wasted = 0;
+      for (Map.Entry<Integer, Prefetched> e : ReadAhead.this.prefetched.entrySet()) {
+        if (e.getValue().stream == this &&
+            ReadAhead.this.prefetched.remove(e.getKey(), e.getValue())) {
+          wasted++;
+        }
+      }
+      ReadAhead.this.bufferPool.recordReadAheadWaste(wasted);
+    }
+
+    private void grow() {
+      int maxWindow = Math.max(INITIAL_WINDOW, ReadAhead.this.bufferPool.getReadAheadWindow());
+      this.window.updateAndGet(w -> Math.min(2 * w, maxWindow));
+    }
+  }
+}
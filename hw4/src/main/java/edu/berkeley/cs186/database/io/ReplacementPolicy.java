@@ -0,0 +1,64 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.function.LongPredicate;
+
+/**
+ * A page replacement policy decides which cached page a BufferPool evicts when
+ * it runs out of room. Every shard of a BufferPool owns its own policy
+ * instance and only calls it while holding the shard's lock, so policies don't
+ * need to be thread-safe.
+ *
+ * Pages are identified by their virtual page number. The pool tells the
+ * policy about every page that enters the cache (recordInsert), every hit on a
+ * cached page (recordHit), and every page that leaves the cache for a reason
+ * other than eviction (recordRemove). When the pool needs room it calls
+ * evict, and the policy picks and forgets a victim.
+ *
+ * A policy is picked per BufferPool with a Type:
+ *
+ *   BufferPool pool = new BufferPool(1024, ReplacementPolicy.Type.ARC);
+ */
+public interface ReplacementPolicy {
+  /** Returned by evict when no cached page may be evicted. */
+  long NO_VICTIM = -1;
+
+  enum Type {
+    LRU,
+    CLOCK,
+    TWO_Q,
+    ARC;
+
+    /**
+     * Create a policy of this type for a cache that is expected to hold about
+     * capacity pages.
+     */
+    public ReplacementPolicy create(int capacity) {
+      switch (this) {
+        case LRU: return new LRUPolicy();
+        case CLOCK: return new ClockPolicy();
+        case TWO_Q: return new TwoQPolicy(capacity);
+        case ARC: return new ARCPolicy(capacity);
+        default: throw new IllegalArgumentException("Unreachable code.");
+      }
+    }
+  }
+
+  /** A cached page was requested again. */
+  void recordHit(long vPageNum);
+
+  /** A page that was not cached has been added to the cache. */
+  void recordInsert(long vPageNum);
+
+  /**
+   * A cached page was dropped by the pool (e.g. because it was freed or its
+   * allocator was closed). The policy forgets everything it knows about it.
+   */
+  void recordRemove(long vPageNum);
+
+  /**
+   * Picks a cached page for which evictable returns true, forgets it as a
+   * cached page, and returns its virtual page number. Returns NO_VICTIM if no
+   * cached page is evictable.
+   */
+  long evict(LongPredicate evictable);
+}
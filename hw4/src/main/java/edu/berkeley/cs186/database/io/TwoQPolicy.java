@@ -0,0 +1,93 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.function.LongPredicate;
+
+/**
+ * The full 2Q replacement policy of Johnson and Shasha. Pages seen for the
+ * first time enter a small FIFO queue A1in. Pages evicted from A1in are
+ * remembered (without their contents) in a ghost FIFO queue A1out. Only a page
+ * that is requested again while it is remembered in A1out is admitted to the
+ * main LRU queue Am.
+ *
+ * A page touched once by a sequential scan therefore passes through A1in and
+ * A1out without ever displacing the frequently used pages in Am, which is what
+ * keeps hot B+ tree inner nodes cached while a large table is scanned.
+ */
+class TwoQPolicy implements ReplacementPolicy {
+  // The fraction of the capacity that A1in may hold before it gives up its
+  // pages, and the number of evicted pages A1out remembers, both as
+  // recommended in the 2Q paper.
+  private static final double IN_FRACTION = 0.25;
+  private static final double OUT_FRACTION = 0.5;
+
+  private final int maxIn;
+  private final int maxOut;
+
+  // All three queues iterate from oldest to newest.
+  private final LinkedHashSet<Long> a1in = new LinkedHashSet<Long>();
+  private final LinkedHashSet<Long> a1out = new LinkedHashSet<Long>();
+  private final LinkedHashSet<Long> am = new LinkedHashSet<Long>();
+
+  TwoQPolicy(int capacity) {
+    this.maxIn = Math.max(1, (int) (capacity * IN_FRACTION));
+    this.maxOut = Math.max(1, (int) (capacity * OUT_FRACTION));
+  }
+
+  @Override
+  public void recordHit(long vPageNum) {
+    // Hits in A1in are deliberately ignored: they are most likely correlated
+    // references (e.g. several records read off the same page in a row).
+    if (am.remove(vPageNum)) {
+      am.add(vPageNum);
+    }
+  }
+
+  @Override
+  public void recordInsert(long vPageNum) {
+    if (a1out.remove(vPageNum)) {
+      am.add(vPageNum);
+    } else {
+      a1in.add(vPageNum);
+    }
+  }
+
+  @Override
+  public void recordRemove(long vPageNum) {
+    a1in.remove(vPageNum);
+    a1out.remove(vPageNum);
+    am.remove(vPageNum);
+  }
+
+  @Override
+  public long evict(LongPredicate evictable) {
+    if (a1in.size() > maxIn || am.isEmpty()) {
+      long victim = LRUPolicy.removeFirstEvictable(a1in, evictable);
+      if (victim != NO_VICTIM) {
+        remember(victim);
+        return victim;
+      }
+    }
+    long victim = LRUPolicy.removeFirstEvictable(am, evictable);
+    if (victim != NO_VICTIM) {
+      return victim;
+    }
+    // Everything in Am is unevictable; fall back to A1in even though it is
+    // within its budget.
+    victim = LRUPolicy.removeFirstEvictable(a1in, evictable);
+    if (victim != NO_VICTIM) {
+      remember(victim);
+    }
+    return victim;
+  }
+
+  private void remember(long vPageNum) {
+    a1out.add(vPageNum);
+    if (a1out.size() > maxOut) {
+      Iterator<Long> iter = a1out.iterator();
+      iter.next();
+      iter.remove();
+    }
+  }
+}
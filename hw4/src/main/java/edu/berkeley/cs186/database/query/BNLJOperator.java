@@ -1,6 +1,6 @@
 package edu.berkeley.cs186.database.query;
 
-import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -9,10 +9,14 @@ import java.util.NoSuchElementException;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
+import edu.berkeley.cs186.database.common.BloomFilter;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.BufferPool;
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.table.PageLayout;
 import edu.berkeley.cs186.database.table.Record;
-import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.RecordView;
+import edu.berkeley.cs186.database.table.StringDictionary;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 public class BNLJOperator extends JoinOperator {
@@ -24,7 +28,17 @@ public class BNLJOperator extends JoinOperator {
                       String leftColumnName,
                       String rightColumnName,
                       Database.Transaction transaction) throws QueryPlanException, DatabaseException {
-    super(leftSource, rightSource, leftColumnName, rightColumnName, transaction, JoinType.BNLJ);
+    this(leftSource, rightSource, leftColumnName, rightColumnName, transaction, null);
+  }
+
+  public BNLJOperator(QueryOperator leftSource,
+                      QueryOperator rightSource,
+                      String leftColumnName,
+                      String rightColumnName,
+                      Database.Transaction transaction,
+                      List<String> outputColumns) throws QueryPlanException, DatabaseException {
+    super(leftSource, rightSource, leftColumnName, rightColumnName, transaction, JoinType.BNLJ,
+          outputColumns);
 
     this.numBuffers = transaction.getNumMemoryPages();
     this.stats = this.estimateStats();
@@ -50,18 +64,85 @@ public class BNLJOperator extends JoinOperator {
 
   /**
    * An implementation of Iterator that provides an iterator interface for this operator.
+   *
+   * The left table is read in blocks of numBuffers - 2 pages, and for every block the right table
+   * is read one page at a time, which leaves one buffer for the output. The iterator joins copies
+   * of the pages rather than the pages in the buffer pool: each page is copied under its latch
+   * together with its layout (see Table#copyPage), so that the join never reads a page that a
+   * writer is halfway through, and reads it right even if the table's columns are encoded while
+   * the join runs. The copies are made into numBuffers - 1 in-memory pages that are reused from
+   * block to block, and nothing is pinned, so an iterator that is abandoned halfway holds no
+   * pages of the pool.
+   *
+   * The numBuffers pages are reserved out of the buffer pool's budget for as long as the iterator
+   * runs, for the copies, and the block shrinks if the pool can't spare that many. The reservation
+   * is released once the join is done, or when the transaction ends.
+   *
+   * If the left table takes more than one block, so that the right table is read more than once,
+   * the right table is read once more up front, to build a Bloom filter of its join keys (see
+   * JoinOperator#buildKeyFilter). The left records that the filter rules out are dropped as their
+   * page is read, and a left page none of whose records are left doesn't join the block, so the
+   * blocks hold only records that may join, and there are fewer passes over the right table.
    */
-  private class BNLJIterator implements Iterator<Record> {
-    private Iterator<Record> leftIterator;
-    private Iterator<Record> rightIterator;
-    private Record leftRecord;
-    private Record nextRecord;
+  private class BNLJIterator extends JoinIterator {
+    private final BufferPool.Reservation reservation;
+    private final int blockSize;
+    private final Side left;
+    private final Side right;
+    private final Iterator<Page> leftPageIterator;
+    private Iterator<Page> rightPageIterator;
+    // The copies of the pages of the current block, of which the first leftBlockSize are in use.
+    private final PageCopy[] leftBlock;
+    private int leftBlockSize;
+    // The slots of the records of each page of the block that may join.
+    private final List<List<Integer>> leftBlockSlots;
+    private final PageCopy rightPage;
+    // The join keys of the right table, or null if the left table fits in a block.
+    private final BloomFilter rightKeys;
+    // Whether a page was copied with another layout than its table had when the join started, in
+    // which case join keys are compared as DataBoxes from then on, since the codes of the sides
+    // were set up for the dictionaries the join started with.
+    private boolean layoutChanged;
+    // The joined records of the current block and right page that are yet to be returned.
+    private final ArrayDeque<Record> output;
+    private boolean done;
 
     public BNLJIterator() throws QueryPlanException, DatabaseException {
-      this.leftIterator = BNLJOperator.this.getLeftSource().iterator();
-      this.rightIterator = null;
-      this.leftRecord = null;
-      this.nextRecord = null;
+      super();
+      this.reservation = BNLJOperator.this.getTransaction().reserveMemory(
+          3, Math.max(3, BNLJOperator.this.numBuffers));
+      this.blockSize = this.reservation.getNumPages() - 2;
+      this.left = new Side(getLeftTableName(), BNLJOperator.this.getLeftColumnIndex(),
+                           getLeftFields());
+      this.right = new Side(getRightTableName(), BNLJOperator.this.getRightColumnIndex(),
+                            getRightFields());
+      StringDictionary dictionary = JoinKeyCodes.pickDictionary(this.left.getDictionary(),
+                                                                this.right.getDictionary());
+      if (dictionary != null) {
+        this.left.compareCodes(dictionary);
+        this.right.compareCodes(dictionary);
+      }
+      this.leftPageIterator = pagesOf(this.left);
+      this.rightPageIterator = null;
+      this.leftBlock = new PageCopy[this.blockSize];
+      for (int b = 0; b < this.blockSize; b++) {
+        this.leftBlock[b] = new PageCopy();
+      }
+      this.leftBlockSize = 0;
+      this.leftBlockSlots = new ArrayList<List<Integer>>(this.blockSize);
+      this.rightPage = new PageCopy();
+      Database.Transaction transaction = BNLJOperator.this.getTransaction();
+      if (transaction.getNumDataPages(this.left.tableName) > this.blockSize) {
+        this.rightKeys = buildKeyFilter(
+            transaction.getRecordViewIterator(this.right.tableName, getRightFields()),
+            BNLJOperator.this.getRightColumnIndex(),
+            transaction.getNumRecords(this.right.tableName));
+      } else {
+        this.rightKeys = null;
+      }
+      this.layoutChanged = false;
+      this.output = new ArrayDeque<Record>();
+      this.done = false;
     }
 
     /**
@@ -70,38 +151,18 @@ public class BNLJOperator extends JoinOperator {
      * @return true if this iterator has another record to yield, otherwise false
      */
     public boolean hasNext() {
-      if (this.nextRecord != null) {
-        return true;
-      }
-      while (true) {
-        if (this.leftRecord == null) {
-          if (this.leftIterator.hasNext()) {
-            this.leftRecord = this.leftIterator.next();
-            try {
-              this.rightIterator = BNLJOperator.this.getRightSource().iterator();
-            } catch (QueryPlanException q) {
-              return false;
-            } catch (DatabaseException e) {
-              return false;
-            }
-          } else {
-            return false;
-          }
+      try {
+        while (this.output.isEmpty() && !this.done) {
+          advance();
         }
-        while (this.rightIterator.hasNext()) {
-          Record rightRecord = this.rightIterator.next();
-          DataBox leftJoinValue = this.leftRecord.getValues().get(BNLJOperator.this.getLeftColumnIndex());
-          DataBox rightJoinValue = rightRecord.getValues().get(BNLJOperator.this.getRightColumnIndex());
-          if (leftJoinValue.equals(rightJoinValue)) {
-            List<DataBox> leftValues = new ArrayList<DataBox>(this.leftRecord.getValues());
-            List<DataBox> rightValues = new ArrayList<DataBox>(rightRecord.getValues());
-            leftValues.addAll(rightValues);
-            this.nextRecord = new Record(leftValues);
-            return true;
-          }
-        }
-        this.leftRecord = null;
+      } catch (DatabaseException e) {
+        clearLeftBlock();
+        this.done = true;
+      }
+      if (this.done) {
+        this.reservation.close();
       }
+      return !this.output.isEmpty();
     }
 
     /**
@@ -112,9 +173,7 @@ public class BNLJOperator extends JoinOperator {
      */
     public Record next() {
       if (this.hasNext()) {
-        Record r = this.nextRecord;
-        this.nextRecord = null;
-        return r;
+        return this.output.poll();
       }
       throw new NoSuchElementException();
     }
@@ -122,5 +181,177 @@ public class BNLJOperator extends JoinOperator {
     public void remove() {
       throw new UnsupportedOperationException();
     }
+
+    /**
+     * Joins the current block with the next right page, moving on to the next block first if the
+     * right table has been read for the current one.
+     */
+    private void advance() throws DatabaseException {
+      if (this.rightPageIterator == null || !this.rightPageIterator.hasNext()) {
+        clearLeftBlock();
+        while (this.leftBlockSize < this.blockSize && this.leftPageIterator.hasNext()) {
+          PageCopy leftPage = this.leftBlock[this.leftBlockSize];
+          copy(this.left, this.leftPageIterator.next(), leftPage);
+          List<Integer> leftSlots = this.left.probeSlots(leftPage, this.rightKeys);
+          if (!leftSlots.isEmpty()) {
+            this.leftBlockSize++;
+            this.leftBlockSlots.add(leftSlots);
+          }
+        }
+        this.rightPageIterator = pagesOf(this.right);
+        if (this.leftBlockSize == 0 || !this.rightPageIterator.hasNext()) {
+          clearLeftBlock();
+          this.done = true;
+          return;
+        }
+      }
+
+      PageCopy rightPage = this.rightPage;
+      copy(this.right, this.rightPageIterator.next(), rightPage);
+      // Only the join keys are decoded up front, or read as codes if they are dictionary
+      // encoded; a record is materialized the first time it joins.
+      List<Integer> rightSlots = this.right.usedSlots(rightPage);
+      boolean byCode = this.right.keyCodes != null && !this.layoutChanged;
+      int numRight = rightSlots.size();
+      DataBox[] rightKeys = byCode ? null : new DataBox[numRight];
+      int[] rightCodes = byCode ? new int[numRight] : null;
+      Record[] rightRecords = new Record[numRight];
+      for (int j = 0; j < numRight; j++) {
+        if (byCode) {
+          rightCodes[j] = this.right.readKeyCode(rightPage, rightSlots.get(j));
+        } else {
+          rightKeys[j] = this.right.readKey(rightPage, rightSlots.get(j));
+        }
+      }
+      for (int b = 0; b < this.leftBlockSize; b++) {
+        PageCopy leftPage = this.leftBlock[b];
+        for (int leftSlot : this.leftBlockSlots.get(b)) {
+          DataBox leftJoinValue = byCode ? null : this.left.readKey(leftPage, leftSlot);
+          int leftCode = byCode ? this.left.readKeyCode(leftPage, leftSlot) : 0;
+          Record leftRecord = null;
+          for (int j = 0; j < numRight; j++) {
+            if (byCode ? leftCode == rightCodes[j] : leftJoinValue.equals(rightKeys[j])) {
+              if (leftRecord == null) {
+                leftRecord = this.left.readRecord(leftPage, leftSlot);
+              }
+              if (rightRecords[j] == null) {
+                rightRecords[j] = this.right.readRecord(rightPage, rightSlots.get(j));
+              }
+              this.output.add(BNLJOperator.this.joinRecords(leftRecord, rightRecords[j]));
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Copies page of side's table into copy, noting whether the table's layout changed.
+     */
+    private void copy(Side side, Page page, PageCopy copy) throws DatabaseException {
+      copy.layout = BNLJOperator.this.copyPage(side.tableName, page, copy.page);
+      if (copy.layout != side.layout) {
+        this.layoutChanged = true;
+      }
+    }
+
+    private void clearLeftBlock() {
+      this.leftBlockSize = 0;
+      this.leftBlockSlots.clear();
+    }
+
+    /**
+     * Returns an iterator over the data pages of side's table, i.e. without its header page.
+     */
+    private Iterator<Page> pagesOf(Side side) throws DatabaseException {
+      Iterator<Page> pages = BNLJOperator.this.getPageIterator(side.tableName);
+      if (pages.hasNext()) {
+        pages.next();
+      }
+      return pages;
+    }
+  }
+
+  /**
+   * A copy of a data page, and the layout the page had when it was copied.
+   */
+  private static class PageCopy {
+    private final Page page = new Page();
+    private PageLayout layout = null;
+  }
+
+  /**
+   * The table on one side of the join, and how to read the records on copies of its pages,
+   * whatever the table's format (see PageLayout). Records are read through a RecordView, so
+   * reading the join key of a record doesn't decode the rest of it, and only the fields that the
+   * side's source produces are decoded at all.
+   */
+  private class Side {
+    private final String tableName;
+    private final int columnIndex;
+    // The layout of the table when the join started.
+    private final PageLayout layout;
+    private final RecordView view;
+    // How to read join keys as codes, or null if they are compared as DataBoxes.
+    private JoinKeyCodes keyCodes;
+
+    private Side(String tableName, int columnIndex, int[] fields) throws DatabaseException {
+      this.tableName = tableName;
+      this.columnIndex = columnIndex;
+      this.layout = BNLJOperator.this.getPageLayout(tableName);
+      this.view = new RecordView(this.layout, fields);
+    }
+
+    private List<Integer> usedSlots(PageCopy copy) {
+      List<Integer> slots = new ArrayList<Integer>();
+      for (int i = 0; i < copy.layout.getNumSlots(copy.page); i++) {
+        if (copy.layout.isSlotUsed(copy.page, i)) {
+          slots.add(i);
+        }
+      }
+      return slots;
+    }
+
+    /**
+     * @return the used slots of copy whose join key may be in keys, or all of them if keys is null
+     */
+    private List<Integer> probeSlots(PageCopy copy, BloomFilter keys) {
+      List<Integer> slots = usedSlots(copy);
+      if (keys != null) {
+        slots.removeIf(slot -> !keys.mightContain(readKey(copy, slot)));
+      }
+      return slots;
+    }
+
+    private DataBox readKey(PageCopy copy, int slot) {
+      this.view.moveTo(copy.layout, copy.page, slot);
+      return this.view.getValue(this.columnIndex);
+    }
+
+    /**
+     * @return the dictionary the join column is encoded with when the join starts, or null
+     */
+    private StringDictionary getDictionary() {
+      return this.view.getDictionary(this.columnIndex);
+    }
+
+    /**
+     * Makes readKeyCode read join keys as codes of dictionary.
+     */
+    private void compareCodes(StringDictionary dictionary) {
+      this.keyCodes = new JoinKeyCodes(dictionary, getDictionary());
+    }
+
+    /**
+     * Reads the join key as a code. Only valid for a copy with the layout the join started with.
+     */
+    private int readKeyCode(PageCopy copy, int slot) {
+      this.view.moveTo(copy.layout, copy.page, slot);
+      return this.keyCodes.read(this.view, this.columnIndex);
+    }
+
+    private Record readRecord(PageCopy copy, int slot) {
+      this.view.moveTo(copy.layout, copy.page, slot);
+      return this.view.materialize();
+    }
   }
 }
@@ -10,6 +10,7 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -75,9 +76,12 @@ public class GroupByOperator extends QueryOperator {
 
   /**
    * An implementation of Iterator that provides an iterator interface for this operator.
+   *
+   * The source is read as views (see RecordView): the group of a record is found from its
+   * group-by column alone, and the record is only materialized to be added to its group.
    */
   private class GroupByIterator implements Iterator<Record> {
-    private Iterator<Record> sourceIterator;
+    private Iterator<RecordView> sourceIterator;
     private MarkerRecord markerRecord;
     private Map<String, String> hashGroupTempTables;
     private int currCount;
@@ -85,14 +89,14 @@ public class GroupByOperator extends QueryOperator {
     private Iterator<Record> rIter;
 
     public GroupByIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = GroupByOperator.this.getSource().iterator();
+      this.sourceIterator = GroupByOperator.this.getSource().viewIterator();
       this.markerRecord = MarkerRecord.getMarker();
       this.hashGroupTempTables = new HashMap<String, String>();
       this.currCount = 0;
       this.rIter = null;
       while (this.sourceIterator.hasNext()) {
-        Record record = this.sourceIterator.next();
-        DataBox groupByColumn = record.getValues().get(GroupByOperator.this.groupByColumnIndex);
+        RecordView view = this.sourceIterator.next();
+        DataBox groupByColumn = view.getValue(GroupByOperator.this.groupByColumnIndex);
         String tableName;
         if (!this.hashGroupTempTables.containsKey(groupByColumn.toString())) {
           tableName = "Temp" + GroupByOperator.this.groupByColumn + "GroupBy" + this.hashGroupTempTables.size();
@@ -101,7 +105,7 @@ public class GroupByOperator extends QueryOperator {
         } else {
           tableName = this.hashGroupTempTables.get(groupByColumn.toString());
         }
-        GroupByOperator.this.transaction.addRecord(tableName, record.getValues());
+        GroupByOperator.this.transaction.addRecord(tableName, view.materialize().getValues());
       }
       this.keyIter = hashGroupTempTables.keySet().iterator();
     }
@@ -19,8 +19,13 @@ public class IndexScanOperator extends QueryOperator {
   private String columnName;
   private QueryPlan.PredicateOperator predicate;
   private DataBox value;
+  private List<String> columns;
+  // The indices of the fields of the table that the scan produces, or null for all of them.
+  private int[] fields;
 
+  // The index of the column in the output of the scan, and in the table.
   private int columnIndex;
+  private int tableColumnIndex;
 
   /**
    * An index scan operator.
@@ -36,26 +41,55 @@ public class IndexScanOperator extends QueryOperator {
                            String columnName,
                            QueryPlan.PredicateOperator predicate,
                            DataBox value) throws QueryPlanException, DatabaseException {
+    this(transaction, tableName, columnName, predicate, value, null);
+  }
+
+  /**
+   * An index scan operator that only produces the columns of the table that are named in columns
+   * (see QueryOperator#projectFields), plus the column the index is on, and only decodes those.
+   *
+   * @param transaction the transaction containing this operator
+   * @param tableName the table to iterate over
+   * @param columnName the name of the column the index is on
+   * @param columns the columns needed above the scan, or null for all of them
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public IndexScanOperator(Database.Transaction transaction,
+                           String tableName,
+                           String columnName,
+                           QueryPlan.PredicateOperator predicate,
+                           DataBox value,
+                           List<String> columns) throws QueryPlanException, DatabaseException {
     super(OperatorType.INDEXSCAN);
     this.tableName = tableName;
     this.transaction = transaction;
     this.columnName = columnName;
     this.predicate = predicate;
     this.value = value;
+    if (columns != null) {
+      this.columns = new ArrayList<String>(columns);
+      this.columns.add(columnName);
+    }
     this.setOutputSchema(this.computeSchema());
     columnName = this.checkSchemaForColumn(this.getOutputSchema(), columnName);
     this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(columnName);
+    this.tableColumnIndex = this.fields == null ? this.columnIndex : this.fields[this.columnIndex];
 
     this.stats = this.estimateStats();
     this.cost = this.estimateIOCost();
   }
 
   public String str() {
-    return "type: " + this.getType() +
+    String s = "type: " + this.getType() +
         "\ntable: " + this.tableName +
         "\ncolumn: " + this.columnName +
         "\noperator: " + this.predicate +
         "\nvalue: " + this.value;
+    if (this.fields != null) {
+      s += "\ncolumns: " + String.join(", ", this.getOutputSchema().getFieldNames());
+    }
+    return s;
   }
 
   /**
@@ -81,9 +115,10 @@ public class IndexScanOperator extends QueryOperator {
       throw new QueryPlanException(de);
     }
 
-    return stats.copyWithPredicate(this.columnIndex,
-                                   this.predicate,
-                                   this.value);
+    stats = stats.copyWithPredicate(this.tableColumnIndex,
+                                    this.predicate,
+                                    this.value);
+    return this.fields == null ? stats : stats.copyWithProjection(this.fields);
   }
 
   /**
@@ -119,7 +154,7 @@ public class IndexScanOperator extends QueryOperator {
 
         }
 
-        return (int)(tableStats.getHistograms().get(columnIndex).getCount() + numIndexPages); //round up and cast to an int
+        return (int)(tableStats.getHistograms().get(tableColumnIndex).getCount() + numIndexPages); //round up and cast to an int
   }
 
   public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
@@ -127,11 +162,14 @@ public class IndexScanOperator extends QueryOperator {
   }
 
   public Schema computeSchema() throws QueryPlanException {
+    Schema schema;
     try {
-      return this.transaction.getFullyQualifiedSchema(this.tableName);
+      schema = this.transaction.getFullyQualifiedSchema(this.tableName);
     } catch (DatabaseException de) {
       throw new QueryPlanException(de);
     }
+    this.fields = this.projectFields(schema, this.columns);
+    return this.fields == null ? schema : schema.project(this.fields);
   }
 
   /**
@@ -147,17 +185,20 @@ public class IndexScanOperator extends QueryOperator {
         this.sourceIterator = IndexScanOperator.this.transaction.lookupKey(
                 IndexScanOperator.this.tableName,
                 IndexScanOperator.this.columnName,
-                IndexScanOperator.this.value);
+                IndexScanOperator.this.value,
+                IndexScanOperator.this.fields);
       } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN ||
               IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
         this.sourceIterator = IndexScanOperator.this.transaction.sortedScan(
                 IndexScanOperator.this.tableName,
-                IndexScanOperator.this.columnName);
+                IndexScanOperator.this.columnName,
+                IndexScanOperator.this.fields);
       } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.GREATER_THAN) {
         this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
                 IndexScanOperator.this.tableName,
                 IndexScanOperator.this.columnName,
-                IndexScanOperator.this.value);
+                IndexScanOperator.this.value,
+                IndexScanOperator.this.fields);
         while (this.sourceIterator.hasNext()) {
           Record r = this.sourceIterator.next();
 
@@ -171,7 +212,8 @@ public class IndexScanOperator extends QueryOperator {
         this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
                 IndexScanOperator.this.tableName,
                 IndexScanOperator.this.columnName,
-                IndexScanOperator.this.value);
+                IndexScanOperator.this.value,
+                IndexScanOperator.this.fields);
       }
     }
 
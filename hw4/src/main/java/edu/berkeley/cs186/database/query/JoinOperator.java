@@ -1,18 +1,24 @@
 package edu.berkeley.cs186.database.query;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.common.BloomFilter;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.table.PageLayout;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.RecordIterator;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.StringDictionary;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 public abstract class JoinOperator extends QueryOperator {
@@ -25,6 +31,9 @@ public abstract class JoinOperator extends QueryOperator {
     SORTMERGE
   }
 
+  // The fewest keys a runtime Bloom filter is sized for, see buildKeyFilter.
+  private static final int MIN_KEY_FILTER_SIZE = 1024;
+
   private JoinType joinType;
   private QueryOperator leftSource;
   private QueryOperator rightSource;
@@ -33,6 +42,10 @@ public abstract class JoinOperator extends QueryOperator {
   private String leftColumnName;
   private String rightColumnName;
   private Database.Transaction transaction;
+  private List<String> outputColumns;
+  // The indices of the fields of a left record followed by a right record that the join
+  // produces, or null for all of them.
+  private int[] outputFields;
 
   /**
    * Create a join operator that pulls tuples from leftSource and rightSource. Returns tuples for which
@@ -50,12 +63,30 @@ public abstract class JoinOperator extends QueryOperator {
                       String rightColumnName,
                       Database.Transaction transaction,
                       JoinType joinType) throws QueryPlanException {
+    this(leftSource, rightSource, leftColumnName, rightColumnName, transaction, joinType, null);
+  }
+
+  /**
+   * Create a join operator that only produces the columns of the joined records that are named in
+   * outputColumns (see QueryOperator#projectFields), i.e. the columns needed above the join. The
+   * join columns themselves are dropped unless they are named.
+   *
+   * @param outputColumns the columns needed above the join, or null for all of them
+   */
+  public JoinOperator(QueryOperator leftSource,
+                      QueryOperator rightSource,
+                      String leftColumnName,
+                      String rightColumnName,
+                      Database.Transaction transaction,
+                      JoinType joinType,
+                      List<String> outputColumns) throws QueryPlanException {
     super(OperatorType.JOIN);
     this.joinType = joinType;
     this.leftSource = leftSource;
     this.rightSource = rightSource;
     this.leftColumnName = leftColumnName;
     this.rightColumnName = rightColumnName;
+    this.outputColumns = outputColumns;
     this.setOutputSchema(this.computeSchema());
     this.transaction = transaction;
   }
@@ -102,7 +133,9 @@ public abstract class JoinOperator extends QueryOperator {
     }
     leftSchemaNames.addAll(rightSchemaNames);
     leftSchemaTypes.addAll(rightSchemaTypes);
-    return new Schema(leftSchemaNames, leftSchemaTypes);
+    Schema joinedSchema = new Schema(leftSchemaNames, leftSchemaTypes);
+    this.outputFields = this.projectFields(joinedSchema, this.outputColumns);
+    return this.outputFields == null ? joinedSchema : joinedSchema.project(this.outputFields);
   }
 
   public String str() {
@@ -136,9 +169,31 @@ public abstract class JoinOperator extends QueryOperator {
     TableStats rightStats = this.rightSource.getStats();
 
 
-    return leftStats.copyWithJoin(this.leftColumnIndex,
+    TableStats stats = leftStats.copyWithJoin(this.leftColumnIndex,
             rightStats,
             this.rightColumnIndex);
+    return this.outputFields == null ? stats : stats.copyWithProjection(this.outputFields);
+  }
+
+  /**
+   * Builds the output record for a left record and a right record that join, keeping only the
+   * columns this join produces.
+   */
+  protected Record joinRecords(Record leftRecord, Record rightRecord) {
+    List<DataBox> leftValues = leftRecord.getValues();
+    List<DataBox> rightValues = rightRecord.getValues();
+    List<DataBox> values;
+    if (this.outputFields == null) {
+      values = new ArrayList<DataBox>(leftValues.size() + rightValues.size());
+      values.addAll(leftValues);
+      values.addAll(rightValues);
+    } else {
+      values = new ArrayList<DataBox>(this.outputFields.length);
+      for (int i : this.outputFields) {
+        values.add(i < leftValues.size() ? leftValues.get(i) : rightValues.get(i - leftValues.size()));
+      }
+    }
+    return new Record(values);
   }
 
   public abstract int estimateIOCost() throws QueryPlanException;
@@ -153,6 +208,10 @@ public abstract class JoinOperator extends QueryOperator {
     return this.transaction.getPageIterator(tableName);
   }
 
+  public Iterator<Page> getPinnedPageIterator(String tableName) throws DatabaseException {
+    return this.transaction.getPinnedPageIterator(tableName);
+  }
+
   public byte[] getPageHeader(String tableName, Page p) throws DatabaseException {
     return this.transaction.readPageHeader(tableName, p);
   }
@@ -169,6 +228,14 @@ public abstract class JoinOperator extends QueryOperator {
     return this.transaction.getPageHeaderSize(tableName);
   }
 
+  public PageLayout getPageLayout(String tableName) throws DatabaseException {
+    return this.transaction.getPageLayout(tableName);
+  }
+
+  public PageLayout copyPage(String tableName, Page page, Page copy) throws DatabaseException {
+    return this.transaction.copyPage(tableName, page, copy);
+  }
+
   public String getLeftColumnName() {
     return this.leftColumnName;
   }
@@ -209,6 +276,113 @@ public abstract class JoinOperator extends QueryOperator {
     return this.joinType;
   }
 
+  /**
+   * Builds a runtime Bloom filter of the join keys of the build side of a join, field column of
+   * every view of views, sized for numKeys keys. The probe side then drops the records whose key
+   * the filter rules out as early as it can (see probeKeyFilter), since they join with nothing;
+   * the nested loop joins build the filter on their inner side, which they read many times, so
+   * that outer records that don't join don't cost a pass over it.
+   */
+  protected static BloomFilter buildKeyFilter(Iterator<RecordView> views, int column, long numKeys) {
+    BloomFilter filter = new BloomFilter(Math.max(numKeys, MIN_KEY_FILTER_SIZE));
+    while (views.hasNext()) {
+      filter.add(views.next().getValue(column));
+    }
+    return filter;
+  }
+
+  /**
+   * Returns the views of views whose field column may be a key of filter (see buildKeyFilter).
+   * The others are dropped before anything but their key is decoded.
+   */
+  protected static Iterator<RecordView> probeKeyFilter(Iterator<RecordView> views, int column,
+                                                       BloomFilter filter) {
+    return new Iterator<RecordView>() {
+      private RecordView next = null;
+
+      public boolean hasNext() {
+        while (this.next == null && views.hasNext()) {
+          RecordView view = views.next();
+          if (filter.mightContain(view.getValue(column))) {
+            this.next = view;
+          }
+        }
+        return this.next != null;
+      }
+
+      public RecordView next() {
+        if (!this.hasNext()) {
+          throw new NoSuchElementException();
+        }
+        RecordView view = this.next;
+        this.next = null;
+        return view;
+      }
+    };
+  }
+
+  /**
+   * Reads the join keys of one side of a join as codes of dictionary, the dictionary of a
+   * dictionary encoded join column of one of the sides (see StringDictionary), so that keys are
+   * compared as ints rather than decoded and compared as strings. The keys of the side that
+   * dictionary belongs to are read as they are stored. The keys of a side whose column is encoded
+   * with another dictionary are translated once per code, and those of a side whose column isn't
+   * encoded are looked up in dictionary. A key that isn't in dictionary reads as -1, which matches
+   * none of the keys of the side dictionary belongs to.
+   *
+   *   StringDictionary dictionary = JoinKeyCodes.pickDictionary(leftDictionary, rightDictionary);
+   *   JoinKeyCodes leftKeys = new JoinKeyCodes(dictionary, leftDictionary);
+   *   JoinKeyCodes rightKeys = new JoinKeyCodes(dictionary, rightDictionary);
+   *   if (leftKeys.read(leftView, leftColumnIndex) == rightKeys.read(rightView, rightColumnIndex))
+   */
+  protected static class JoinKeyCodes {
+    private final StringDictionary dictionary;
+    private final StringDictionary sideDictionary;
+    // translations[c] is 2 more than the code in dictionary of code c of sideDictionary, or 0 if
+    // it isn't known yet.
+    private int[] translations;
+
+    /**
+     * @param dictionary the dictionary whose codes keys are read as
+     * @param sideDictionary the dictionary the side's join column is encoded with, or null
+     */
+    protected JoinKeyCodes(StringDictionary dictionary, StringDictionary sideDictionary) {
+      this.dictionary = dictionary;
+      this.sideDictionary = sideDictionary;
+      this.translations = new int[0];
+    }
+
+    /**
+     * @return the dictionary whose codes the keys of a join should be read as, or null if
+     * neither join column is dictionary encoded
+     */
+    protected static StringDictionary pickDictionary(StringDictionary leftDictionary,
+                                                     StringDictionary rightDictionary) {
+      return leftDictionary != null ? leftDictionary : rightDictionary;
+    }
+
+    /**
+     * Reads field i of view, the join key, as a code of the dictionary.
+     */
+    protected int read(RecordView view, int i) {
+      if (this.sideDictionary == this.dictionary) {
+        return view.getCode(i);
+      }
+      if (this.sideDictionary == null) {
+        return this.dictionary.getCode(view.getValue(i));
+      }
+      int code = view.getCode(i);
+      if (code >= this.translations.length) {
+        this.translations = Arrays.copyOf(this.translations,
+                                          Math.max(code + 1, 2 * this.translations.length));
+      }
+      if (this.translations[code] == 0) {
+        this.translations[code] = this.dictionary.getCode(this.sideDictionary.decode(code)) + 2;
+      }
+      return this.translations[code] - 2;
+    }
+  }
+
   /**
    * All iterators for subclasses of JoinOperator should subclass from
    * JoinIterator; JoinIterator handles temp table creation as needed.
@@ -216,10 +390,16 @@ public abstract class JoinOperator extends QueryOperator {
   protected abstract class JoinIterator implements Iterator<Record> {
     private String leftTableName;
     private String rightTableName;
+    // The fields of the records of each table that the corresponding source produces, or null for
+    // all of them.
+    private int[] leftFields;
+    private int[] rightFields;
 
     public JoinIterator() throws QueryPlanException, DatabaseException {
       if (JoinOperator.this.getLeftSource().isSequentialScan()) {
-        this.leftTableName = ((SequentialScanOperator) JoinOperator.this.getLeftSource()).getTableName();
+        SequentialScanOperator scan = (SequentialScanOperator) JoinOperator.this.getLeftSource();
+        this.leftTableName = scan.getTableName();
+        this.leftFields = scan.getFields();
       } else {
         this.leftTableName = JoinOperator.this.createTempTable(JoinOperator.this.getLeftSource().getOutputSchema());
         Iterator<Record> leftIter = JoinOperator.this.getLeftSource().iterator();
@@ -228,7 +408,9 @@ public abstract class JoinOperator extends QueryOperator {
         }
       }
       if (JoinOperator.this.getRightSource().isSequentialScan()) {
-        this.rightTableName = ((SequentialScanOperator) JoinOperator.this.getRightSource()).getTableName();
+        SequentialScanOperator scan = (SequentialScanOperator) JoinOperator.this.getRightSource();
+        this.rightTableName = scan.getTableName();
+        this.rightFields = scan.getFields();
       } else {
         this.rightTableName = JoinOperator.this.createTempTable(JoinOperator.this.getRightSource().getOutputSchema());
         Iterator<Record> rightIter = JoinOperator.this.getRightSource().iterator();
@@ -245,5 +427,17 @@ public abstract class JoinOperator extends QueryOperator {
     protected String getRightTableName() {
       return this.rightTableName;
     }
+
+    /**
+     * @return the indices of the fields of the left table's records that the left source
+     * produces, or null if it produces all of them
+     */
+    protected int[] getLeftFields() {
+      return this.leftFields;
+    }
+
+    protected int[] getRightFields() {
+      return this.rightFields;
+    }
   }
 }
@@ -0,0 +1,147 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.berkeley.cs186.database.Database;
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.ZonePredicate;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * A scan of a partitioned table (see PartitionedTable), which reads the
+ * partitions that may hold records of the query, several at once. Like a
+ * sequential scan, it doesn't take a source operator.
+ */
+public class PartitionScanOperator extends QueryOperator {
+  private Database.Transaction transaction;
+  private String tableName;
+  private List<String> columns;
+  // The indices of the fields of the table that the scan produces, or null for all of them.
+  private int[] fields;
+  // The partitions that the scan reads, in ascending order.
+  private List<Integer> partitions;
+  // The predicates of the selects above the scan, which it uses to skip data pages.
+  private List<ZonePredicate> predicates;
+
+  /**
+   * Creates a new PartitionScanOperator that reads every partition of a partitioned table, and
+   * only produces the columns of the table that are named in columns, or all of them if columns
+   * is null (see SequentialScanOperator).
+   *
+   * @param transaction
+   * @param tableName
+   * @param columns the columns needed above the scan, or null for all of them
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public PartitionScanOperator(Database.Transaction transaction,
+                               String tableName,
+                               List<String> columns) throws QueryPlanException, DatabaseException {
+    super(OperatorType.PARTITIONSCAN);
+    this.transaction = transaction;
+    this.tableName = tableName;
+    this.columns = columns;
+    this.predicates = new ArrayList<ZonePredicate>();
+    this.setOutputSchema(this.computeSchema());
+    this.partitions = transaction.getPartitions(tableName, -1, null, null);
+    this.stats = this.estimateStats();
+    this.cost = this.estimateIOCost();
+  }
+
+  public String getTableName() {
+    return this.tableName;
+  }
+
+  /**
+   * @return the partitions that the scan reads
+   */
+  public List<Integer> getPartitions() {
+    return this.partitions;
+  }
+
+  /**
+   * Pushes the predicate of a select above the scan down into it. A predicate on the partition
+   * key prunes the partitions that can't hold a record that satisfies it (see
+   * Partitioning#partitionsFor), and any predicate skips data pages of the others like it does
+   * for a sequential scan (see SequentialScanOperator#addPredicate). The select stays.
+   */
+  void addPredicate(String column, QueryPlan.PredicateOperator operator, DataBox value)
+      throws QueryPlanException {
+    Schema schema = this.getOutputSchema();
+    int field = schema.getFieldNames().indexOf(this.checkSchemaForColumn(schema, column));
+    if (this.fields != null) {
+      field = this.fields[field];
+    }
+    List<Integer> partitions;
+    try {
+      partitions = this.transaction.getPartitions(this.tableName, field, operator, value);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+    partitions.retainAll(this.partitions);
+    this.partitions = partitions;
+    this.predicates.add(new ZonePredicate(field, operator, value));
+    this.cost = this.estimateIOCost();
+  }
+
+  public Iterator<Record> iterator() throws DatabaseException {
+    return this.transaction.getPartitionIterator(this.tableName, this.partitions, this.fields,
+                                                 this.predicates);
+  }
+
+  public Schema computeSchema() throws QueryPlanException {
+    Schema schema;
+    try {
+      schema = this.transaction.getFullyQualifiedSchema(this.tableName);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+    this.fields = this.projectFields(schema, this.columns);
+    return this.fields == null ? schema : schema.project(this.fields);
+  }
+
+  public String str() {
+    String s = "type: " + this.getType() +
+            "\ntable: " + this.tableName +
+            "\npartitions: " + this.partitions;
+    if (this.fields != null) {
+      s += "\ncolumns: " + String.join(", ", this.getOutputSchema().getFieldNames());
+    }
+    if (!this.predicates.isEmpty()) {
+      s += "\npages skipped by: " + this.predicates;
+    }
+    return s;
+  }
+
+  /**
+   * Estimates the table statistics for the result of executing this query operator, from the
+   * statistics of the whole table.
+   *
+   * @return estimated TableStats
+   */
+  public TableStats estimateStats() throws QueryPlanException {
+    try {
+      TableStats stats = this.transaction.getStats(this.tableName);
+      return this.fields == null ? stats : stats.copyWithProjection(this.fields);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+  }
+
+  /**
+   * A partition scan reads the data pages of the partitions it wasn't pruned to, but for the
+   * pages its predicates rule out.
+   */
+  public int estimateIOCost() throws QueryPlanException {
+    try {
+      return this.transaction.getNumDataPages(this.tableName, this.partitions, this.predicates);
+    } catch (DatabaseException de) {
+      throw new QueryPlanException(de);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.query;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -11,6 +12,7 @@ import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.table.ColumnChunk;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -123,7 +125,90 @@ public class ProjectOperator extends QueryOperator {
     return new Schema(this.columns, columnTypes);
   }
 
-  public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new ProjectIterator(); }
+  public Iterator<Record> iterator() throws QueryPlanException, DatabaseException {
+    if (this.hasAggregate && this.indices.isEmpty() && this.getSource().isSequentialScan()) {
+      return this.aggregateColumns((SequentialScanOperator) this.getSource());
+    }
+    return new ProjectIterator();
+  }
+
+  /**
+   * Computes the aggregates of a projection that has nothing but aggregates straight over a
+   * sequential scan. There is a single group then, and rather than reading the scan's records, the
+   * aggregates are computed from the column chunks of the columns they aggregate (see
+   * ColumnChunk), which only reads those columns of a PAX table.
+   */
+  private Iterator<Record> aggregateColumns(SequentialScanOperator scan)
+      throws QueryPlanException, DatabaseException {
+    int count = 0;
+    if (this.sumColumn != null) {
+      count = this.aggregateChunks(scan.columnChunkIterator(this.sumColumn), true, false);
+    }
+    if (this.averageColumn != null) {
+      count = this.aggregateChunks(scan.columnChunkIterator(this.averageColumn), false, true);
+    }
+    if (this.sumColumn == null && this.averageColumn == null) {
+      String anyColumn = scan.getOutputSchema().getFieldNames().get(0);
+      count = this.aggregateChunks(scan.columnChunkIterator(anyColumn), false, false);
+    }
+    if (count == 0) {
+      return Collections.<Record>emptyIterator();
+    }
+    this.countValue = count;
+    List<DataBox> values = new ArrayList<DataBox>();
+    this.addAggregates(values);
+    return Collections.singletonList(new Record(values)).iterator();
+  }
+
+  /**
+   * Adds the used slots of chunks to the sum or the average, and returns how many there were.
+   */
+  private int aggregateChunks(Iterator<ColumnChunk> chunks, boolean sum, boolean average) {
+    int count = 0;
+    while (chunks.hasNext()) {
+      ColumnChunk chunk = chunks.next();
+      if (!sum && !average) {
+        count += chunk.getNumValues();
+        continue;
+      }
+      boolean isInt = chunk.getType().getTypeId() == TypeId.INT;
+      for (int i = 0; i < chunk.getNumSlots(); ++i) {
+        if (!chunk.isSlotUsed(i)) {
+          continue;
+        }
+        count++;
+        if (sum) {
+          this.sumValue += this.sumIsFloat ? chunk.getFloat(i) : chunk.getInt(i);
+        }
+        if (average) {
+          this.averageCountValue++;
+          this.averageSumValue += isInt ? chunk.getInt(i) : chunk.getValue(i).getInt();
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Adds the values of the aggregates of the current group to values, and resets them.
+   */
+  private void addAggregates(List<DataBox> values) {
+    if (this.hasCount) {
+      values.add(new IntDataBox(this.getAndResetCount()));
+    }
+    if (this.sumColumnIndex != -1) {
+      double sum = this.getAndResetSum();
+      if (this.sumIsFloat) {
+        values.add(new FloatDataBox((float) sum));
+      } else {
+        values.add(new IntDataBox((int) sum));
+      }
+    }
+    if (this.averageColumnIndex != -1) {
+      double average = this.getAndResetAverage();
+      values.add(new FloatDataBox((float) average));
+    }
+  }
 
   private void addToCount() {
     this.countValue++;
@@ -227,23 +312,7 @@ public class ProjectOperator extends QueryOperator {
             // if the record is a MarkerRecord, that means we reached the end of a group... we reset
             // the aggregates and add the appropriate new record to the new Records
             if (r == this.markerRecord) {
-              if (ProjectOperator.this.hasCount) {
-                int count = ProjectOperator.this.getAndResetCount();
-                this.baseValues.add(new IntDataBox(count));
-              }
-              if (ProjectOperator.this.sumColumnIndex != -1) {
-                double sum = ProjectOperator.this.getAndResetSum();
-
-                if (ProjectOperator.this.sumIsFloat) {
-                  this.baseValues.add(new FloatDataBox((float) sum));
-                } else {
-                  this.baseValues.add(new IntDataBox((int) sum));
-                }
-              }
-              if (ProjectOperator.this.averageColumnIndex != -1) {
-                double average = (float) ProjectOperator.this.getAndResetAverage();
-                this.baseValues.add(new FloatDataBox((float) average));
-              }
+              ProjectOperator.this.addAggregates(this.baseValues);
               // record that we just saw a marker record
               this.prevWasMarker = true;
               return new Record(this.baseValues);
@@ -271,23 +340,7 @@ public class ProjectOperator extends QueryOperator {
 
           // at the very end, we need to make sure we add all the aggregated records to the result
           // either because there was no group by or to add the last group we saw
-          if (ProjectOperator.this.hasCount) {
-            int count = ProjectOperator.this.getAndResetCount();
-            this.baseValues.add(new IntDataBox(count));
-          }
-          if (ProjectOperator.this.sumColumnIndex != -1) {
-            double sum = ProjectOperator.this.getAndResetSum();
-
-            if (ProjectOperator.this.sumIsFloat) {
-              this.baseValues.add(new FloatDataBox((float) sum));
-            } else {
-              this.baseValues.add(new IntDataBox((int) sum));
-            }
-          }
-          if (ProjectOperator.this.averageColumnIndex != -1) {
-            double average = ProjectOperator.this.getAndResetAverage();
-            this.baseValues.add(new FloatDataBox((float) average));
-          }
+          ProjectOperator.this.addAggregates(this.baseValues);
           return new Record(this.baseValues);
         } else {
           Record r = this.sourceIterator.next();
@@ -1,10 +1,12 @@
 package edu.berkeley.cs186.database.query;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -21,7 +23,8 @@ public abstract class QueryOperator {
     SELECT,
     GROUPBY,
     SEQSCAN,
-    INDEXSCAN
+    INDEXSCAN,
+    PARTITIONSCAN
   }
 
   private OperatorType type;
@@ -68,6 +71,10 @@ public abstract class QueryOperator {
     return this.type.equals(OperatorType.INDEXSCAN);
   }
 
+  public boolean isPartitionScan() {
+    return this.type.equals(OperatorType.PARTITIONSCAN);
+  }
+
   public QueryOperator getSource() throws QueryPlanException {
     return this.source;
   }
@@ -101,6 +108,18 @@ public abstract class QueryOperator {
 
   public abstract Iterator<Record> iterator() throws QueryPlanException, DatabaseException;
 
+  /**
+   * Returns the output of this operator as views (see RecordView), for
+   * operators that only look at some of the fields of their input and
+   * materialize the rows they pass on. The iterator may return the same view
+   * for every record, so a view is only valid until the next call to next.
+   * By default, the views wrap the records of iterator; operators that read
+   * pages override this to read the records in place.
+   */
+  public Iterator<RecordView> viewIterator() throws QueryPlanException, DatabaseException {
+    return RecordView.of(this.getOutputSchema(), this.iterator());
+  }
+
   /**
    * Utility method that checks to see if a column is found in a schema using dot notation.
    *
@@ -153,6 +172,40 @@ public abstract class QueryOperator {
     return foundName;
   }
 
+  /**
+   * Utility method for operators that only produce the columns that are needed above them. Returns
+   * the indices of the fields of schema that are named in columns, using dot notation, in schema
+   * order. Returns null, i.e. keep every field, if columns is null, names all of the fields, or
+   * names none of them.
+   *
+   * @param schema the schema to project
+   * @param columns the columns needed above the operator
+   * @return the indices of the fields to keep, or null
+   */
+  protected int[] projectFields(Schema schema, List<String> columns) {
+    if (columns == null) {
+      return null;
+    }
+    List<String> fieldNames = schema.getFieldNames();
+    List<Integer> fields = new ArrayList<Integer>();
+    for (int i = 0; i < fieldNames.size(); i++) {
+      for (String column : columns) {
+        if (this.checkColumnNameEquality(fieldNames.get(i), column)) {
+          fields.add(i);
+          break;
+        }
+      }
+    }
+    if (fields.isEmpty() || fields.size() == fieldNames.size()) {
+      return null;
+    }
+    int[] result = new int[fields.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = fields.get(i);
+    }
+    return result;
+  }
+
   public String str() {
     return "type: " + this.getType();
   }
@@ -194,7 +194,7 @@ public class QueryPlan {
       this.generateIndexPlan(indexColumn);
     } else {
       // start off with the start table scan as the source
-      this.finalOperator = new SequentialScanOperator(this.transaction, this.startTableName);
+      this.finalOperator = this.newScan(this.startTableName, this.referencedColumns(-1, true));
 
       this.addJoins();
       this.addSelects();
@@ -375,13 +375,17 @@ public class QueryPlan {
      */
 
     QueryOperator minOp = null;
+    List<String> columns = this.referencedColumns(-1, true);
 
-    minOp = new SequentialScanOperator(this.transaction, table);
+    // The selects are pushed onto the scan before it is costed, so that its cost only counts the
+    // pages that its zone map doesn't rule out (see SequentialScanOperator#addPredicate).
+    QueryOperator scan = addEligibleSelections(this.newScan(table, columns), -1);
+    minOp = scan;
 
     //TODO: HW4 Implement
 
     // 1. Find the cost of a sequential scan of the table, number of page in that table
-    int minCost = minOp.estimateIOCost();
+    int minCost = scan.estimateIOCost();
     //System.out.println(minCost);
     int colIdx = 0;
 
@@ -390,7 +394,7 @@ public class QueryPlan {
     List<Integer> idxColumn = getEligibleIndexColumns(table);
     for(Integer column : idxColumn){
       QueryOperator op = new IndexScanOperator(this.transaction, table, this.selectColumnNames.get(column),
-              this.selectOperators.get(column), this.selectDataBoxes.get(column));
+              this.selectOperators.get(column), this.selectDataBoxes.get(column), columns);
       //System.out.println(op.estimateIOCost()+" "+minCost);
       if(op.estimateIOCost() < minCost){
         minCost = op.estimateIOCost();
@@ -404,8 +408,6 @@ public class QueryPlan {
     // used for an index scan
     if(minOp instanceof IndexScanOperator){
       minOp = addEligibleSelections(minOp, colIdx);
-    }else{
-      minOp = addEligibleSelections(minOp, -1);
     }
 
     assert(minOp != null);
@@ -424,14 +426,17 @@ public class QueryPlan {
   private QueryOperator minCostJoinType(QueryOperator leftOp,
                                         QueryOperator rightOp,
                                         String leftColumn,
-                                        String rightColumn) throws QueryPlanException,
+                                        String rightColumn,
+                                        List<String> outputColumns) throws QueryPlanException,
           DatabaseException {
     QueryOperator minOp = null;
 
     int minCost = Integer.MAX_VALUE;
     List<QueryOperator> allJoins = new ArrayList<QueryOperator>();
-    allJoins.add(new SNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
-    allJoins.add(new BNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+    allJoins.add(new SNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction,
+            outputColumns));
+    allJoins.add(new BNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction,
+            outputColumns));
 
     for (QueryOperator join : allJoins) {
       int joinCost = join.estimateIOCost();
@@ -539,7 +544,9 @@ public class QueryPlan {
         //System.out.println("right");
         //System.out.println(rightOp);
         //System.out.println();
-        QueryOperator ret = minCostJoinType(leftOp, rightOp, leftSide[1], rightSide[1]);
+        // The selects have all been pushed down to the single table accesses by now.
+        QueryOperator ret = minCostJoinType(leftOp, rightOp, leftSide[1], rightSide[1],
+                this.referencedColumns(idx, false));
         if(!map.keySet().contains(tmpTable)){
           map.put(tmpTable, ret);
         }else{
@@ -581,6 +588,20 @@ public class QueryPlan {
     return minOp;
   }
 
+  /**
+   * Returns a scan of table that produces columns: a partition scan if the table is partitioned,
+   * and a sequential scan otherwise. The selects that the plan puts right above the scan prune
+   * the partitions that it reads by the predicates on the partition key (see
+   * PartitionScanOperator#addPredicate), or skip data pages in either case.
+   */
+  private QueryOperator newScan(String table, List<String> columns)
+      throws QueryPlanException, DatabaseException {
+    if (this.transaction.isPartitioned(table)) {
+      return new PartitionScanOperator(this.transaction, table, columns);
+    }
+    return new SequentialScanOperator(this.transaction, table, columns);
+  }
+
   private String checkIndexEligible() {
     if (this.selectColumnNames.size() > 0
             && this.groupByColumn == null
@@ -607,7 +628,7 @@ public class QueryPlan {
     DataBox value = this.selectDataBoxes.get(selectIndex);
 
     this.finalOperator = new IndexScanOperator(this.transaction, this.startTableName, indexColumn, operator,
-            value);
+            value, this.referencedColumns(-1, true));
 
     this.selectColumnNames.remove(selectIndex);
     this.selectOperators.remove(selectIndex);
@@ -621,16 +642,53 @@ public class QueryPlan {
     int index = 0;
 
     for (String joinTable : this.joinTableNames) {
-      SequentialScanOperator scanOperator = new SequentialScanOperator(this.transaction, joinTable);
+      QueryOperator scanOperator = this.newScan(joinTable, this.referencedColumns(-1, true));
 
       SNLJOperator joinOperator = new SNLJOperator(finalOperator, scanOperator,
-              this.joinLeftColumnNames.get(index), this.joinRightColumnNames.get(index), this.transaction); //changed from new JoinOperator
+              this.joinLeftColumnNames.get(index), this.joinRightColumnNames.get(index), this.transaction,
+              this.referencedColumns(index, true)); //changed from new JoinOperator
 
       this.finalOperator = joinOperator;
       index++;
     }
   }
 
+  /**
+   * Returns the columns that the query refers to, which are the only ones the scans and joins of
+   * the plan need to produce: the projected and aggregated columns, the group by column, the
+   * columns of the join predicates other than the one at index exceptJoin, and the columns of the
+   * select predicates if withSelects is true. A join passes exceptJoin its own index, since it
+   * needs its join columns as input but not as output.
+   *
+   * @return the referenced column names, or null if the query returns every column
+   */
+  private List<String> referencedColumns(int exceptJoin, boolean withSelects) {
+    if (this.projectColumns.isEmpty() && !this.hasCount && this.sumColumnName == null
+            && this.averageColumnName == null) {
+      return null;
+    }
+    List<String> columns = new ArrayList<String>(this.projectColumns);
+    if (this.sumColumnName != null) {
+      columns.add(this.sumColumnName);
+    }
+    if (this.averageColumnName != null) {
+      columns.add(this.averageColumnName);
+    }
+    if (this.groupByColumn != null) {
+      columns.add(this.groupByColumn);
+    }
+    for (int i = 0; i < this.joinTableNames.size(); i++) {
+      if (i != exceptJoin) {
+        columns.add(this.joinLeftColumnNames.get(i));
+        columns.add(this.joinRightColumnNames.get(i));
+      }
+    }
+    if (withSelects) {
+      columns.addAll(this.selectColumnNames);
+    }
+    return columns;
+  }
+
   private void addSelects() throws QueryPlanException, DatabaseException {
     int index = 0;
 
@@ -1,14 +1,16 @@
 package edu.berkeley.cs186.database.query;
 
-import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.common.BloomFilter;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
+import edu.berkeley.cs186.database.table.StringDictionary;
 
 public class SNLJOperator extends JoinOperator {
   private QueryOperator leftSource;
@@ -24,12 +26,22 @@ public class SNLJOperator extends JoinOperator {
                       String leftColumnName,
                       String rightColumnName,
                       Database.Transaction transaction) throws QueryPlanException, DatabaseException {
+    this(leftSource, rightSource, leftColumnName, rightColumnName, transaction, null);
+  }
+
+  public SNLJOperator(QueryOperator leftSource,
+                      QueryOperator rightSource,
+                      String leftColumnName,
+                      String rightColumnName,
+                      Database.Transaction transaction,
+                      List<String> outputColumns) throws QueryPlanException, DatabaseException {
     super(leftSource,
           rightSource,
           leftColumnName,
           rightColumnName,
           transaction,
-          JoinType.SNLJ);
+          JoinType.SNLJ,
+          outputColumns);
 
     this.stats = this.estimateStats();
     this.cost = this.estimateIOCost();
@@ -61,15 +73,33 @@ public class SNLJOperator extends JoinOperator {
 
   /**
    * An implementation of Iterator that provides an iterator interface for this operator.
+   *
+   * The right source is read as views (see RecordView), so that only the join key of a right
+   * record is decoded unless the record joins; if the right join column is dictionary encoded, the
+   * left key is looked up in its dictionary once, and the codes are compared instead. The left
+   * record is kept while the right source is read, so it is materialized.
+   *
+   * The right source is read once more up front, to build a Bloom filter of its join keys (see
+   * JoinOperator#buildKeyFilter), which drops the left records that join with nothing before they
+   * are materialized, and before they cost a pass over the right source.
    */
   private class SNLJIterator implements Iterator<Record> {
     private Iterator<Record> leftIterator;
-    private Iterator<Record> rightIterator;
+    private Iterator<RecordView> rightIterator;
     private Record leftRecord;
+    private DataBox leftJoinValue;
     private Record nextRecord;
+    // The dictionary of the right join column, and the code of the left key in it.
+    private StringDictionary rightDictionary;
+    private int leftCode;
 
     public SNLJIterator() throws QueryPlanException, DatabaseException {
-      this.leftIterator = SNLJOperator.this.getLeftSource().iterator();
+      BloomFilter rightKeys = buildKeyFilter(SNLJOperator.this.getRightSource().viewIterator(),
+                                             SNLJOperator.this.getRightColumnIndex(),
+                                             SNLJOperator.this.getRightSource().getStats().getNumRecords());
+      this.leftIterator = RecordView.materialize(
+          probeKeyFilter(SNLJOperator.this.getLeftSource().viewIterator(),
+                         SNLJOperator.this.getLeftColumnIndex(), rightKeys));
       this.rightIterator = null;
       this.leftRecord = null;
       this.nextRecord = null;
@@ -88,8 +118,10 @@ public class SNLJOperator extends JoinOperator {
         if (this.leftRecord == null) {
           if (this.leftIterator.hasNext()) {
             this.leftRecord = this.leftIterator.next();
+            this.leftJoinValue = this.leftRecord.getValues().get(SNLJOperator.this.getLeftColumnIndex());
+            this.rightDictionary = null;
             try {
-              this.rightIterator = SNLJOperator.this.getRightSource().iterator();
+              this.rightIterator = SNLJOperator.this.getRightSource().viewIterator();
             } catch (QueryPlanException q) {
               return false;
             } catch (DatabaseException e) {
@@ -100,14 +132,9 @@ public class SNLJOperator extends JoinOperator {
           }
         }
         while (this.rightIterator.hasNext()) {
-          Record rightRecord = this.rightIterator.next();
-          DataBox leftJoinValue = this.leftRecord.getValues().get(SNLJOperator.this.getLeftColumnIndex());
-          DataBox rightJoinValue = rightRecord.getValues().get(SNLJOperator.this.getRightColumnIndex());
-          if (leftJoinValue.equals(rightJoinValue)) {
-            List<DataBox> leftValues = new ArrayList<DataBox>(this.leftRecord.getValues());
-            List<DataBox> rightValues = new ArrayList<DataBox>(rightRecord.getValues());
-            leftValues.addAll(rightValues);
-            this.nextRecord = new Record(leftValues);
+          RecordView rightView = this.rightIterator.next();
+          if (joins(rightView)) {
+            this.nextRecord = SNLJOperator.this.joinRecords(this.leftRecord, rightView.materialize());
             return true;
           }
         }
@@ -115,6 +142,19 @@ public class SNLJOperator extends JoinOperator {
       }
     }
 
+    private boolean joins(RecordView rightView) {
+      int columnIndex = SNLJOperator.this.getRightColumnIndex();
+      StringDictionary dictionary = rightView.getDictionary(columnIndex);
+      if (dictionary == null) {
+        return this.leftJoinValue.equals(rightView.getValue(columnIndex));
+      }
+      if (dictionary != this.rightDictionary) {
+        this.rightDictionary = dictionary;
+        this.leftCode = dictionary.getCode(this.leftJoinValue);
+      }
+      return this.leftCode != -1 && rightView.getCode(columnIndex) == this.leftCode;
+    }
+
     /**
      * Yields the next record of this iterator.
      *
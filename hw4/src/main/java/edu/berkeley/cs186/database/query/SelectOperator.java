@@ -7,7 +7,9 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.StringDictionary;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 public class SelectOperator extends QueryOperator {
@@ -15,11 +17,18 @@ public class SelectOperator extends QueryOperator {
   private String columnName;
   private QueryPlan.PredicateOperator operator;
   private DataBox value;
+  // The sequential or partition scan that the predicate is pushed down into, or null.
+  private QueryOperator scan;
 
   /**
    * Creates a new SelectOperator that pulls from source and only returns tuples for which the
    * predicate is satisfied.
    *
+   * If source is a sequential scan, or selects over one, the predicate is also pushed down into
+   * the scan, which skips the data pages that can't satisfy it (see
+   * SequentialScanOperator#addPredicate). A partition scan also skips the partitions that can't
+   * (see PartitionScanOperator#addPredicate).
+   *
    * @param source the source of this operator
    * @param columnName the name of the column to evaluate the predicate on
    * @param operator the actual comparator
@@ -37,6 +46,18 @@ public class SelectOperator extends QueryOperator {
     this.columnName = this.checkSchemaForColumn(source.getOutputSchema(), columnName);
     this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(this.columnName);
 
+    QueryOperator scan = source;
+    while (scan.isSelect()) {
+      scan = scan.getSource();
+    }
+    if (scan.isSequentialScan()) {
+      this.scan = scan;
+      ((SequentialScanOperator) scan).addPredicate(this.columnName, operator, value);
+    } else if (scan.isPartitionScan()) {
+      this.scan = scan;
+      ((PartitionScanOperator) scan).addPredicate(this.columnName, operator, value);
+    }
+
     this.stats = this.estimateStats();
     this.cost = this.estimateIOCost();
   }
@@ -65,22 +86,55 @@ public class SelectOperator extends QueryOperator {
   }
 
   public int estimateIOCost() throws QueryPlanException {
-    return this.getSource().getIOCost();
+    // The scan's cost counts the predicates of every select between it and this one.
+    return this.scan == null ? this.getSource().getIOCost() : this.scan.getIOCost();
   }
 
 
   public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new SelectIterator(); }
 
   /**
-   * An implementation of Iterator that provides an iterator interface for this operator.
+   * @return whether a value of the column satisfies the predicate
+   */
+  private boolean matches(DataBox columnValue) {
+    switch (this.operator) {
+      case EQUALS:
+        return columnValue.equals(this.value);
+      case NOT_EQUALS:
+        return !columnValue.equals(this.value);
+      case LESS_THAN:
+        return columnValue.compareTo(this.value) == -1;
+      case LESS_THAN_EQUALS: {
+        int c = columnValue.compareTo(this.value);
+        return c == -1 || c == 0;
+      }
+      case GREATER_THAN:
+        return columnValue.compareTo(this.value) == 1;
+      case GREATER_THAN_EQUALS: {
+        int c = columnValue.compareTo(this.value);
+        return c == 1 || c == 0;
+      }
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * An implementation of Iterator that provides an iterator interface for this operator. The
+   * predicate is evaluated on views of the source's records, so only the records that satisfy it
+   * are materialized. An equality predicate on a dictionary encoded column compares the codes of
+   * the records with the code of the value, which is looked up once (see StringDictionary).
    */
   private class SelectIterator implements Iterator<Record> {
-    private Iterator<Record> sourceIterator;
+    private Iterator<RecordView> sourceIterator;
     private MarkerRecord markerRecord;
     private Record nextRecord;
+    // The dictionary of the column, and the code of the value in it, or -1 if no record has it.
+    private StringDictionary dictionary;
+    private int code;
 
     public SelectIterator() throws QueryPlanException, DatabaseException {
-      this.sourceIterator = SelectOperator.this.getSource().iterator();
+      this.sourceIterator = SelectOperator.this.getSource().viewIterator();
       this.markerRecord = MarkerRecord.getMarker();
       this.nextRecord = null;
     }
@@ -95,61 +149,37 @@ public class SelectOperator extends QueryOperator {
         return true;
       }
       while (this.sourceIterator.hasNext()) {
-        Record r = this.sourceIterator.next();
-        if (r == this.markerRecord) {
-          this.nextRecord = r;
+        RecordView view = this.sourceIterator.next();
+        if (view.isMaterialized() && view.materialize() == this.markerRecord) {
+          this.nextRecord = this.markerRecord;
           return true;
         }
-        switch (SelectOperator.this.operator) {
-          case EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case NOT_EQUALS:
-            if (!r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN_EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN_EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          default:
-            break;
+        if (matches(view)) {
+          this.nextRecord = view.materialize();
+          return true;
         }
       }
       return false;
     }
 
+    private boolean matches(RecordView view) {
+      int columnIndex = SelectOperator.this.columnIndex;
+      QueryPlan.PredicateOperator operator = SelectOperator.this.operator;
+      if (operator == QueryPlan.PredicateOperator.EQUALS ||
+          operator == QueryPlan.PredicateOperator.NOT_EQUALS) {
+        StringDictionary dictionary = view.getDictionary(columnIndex);
+        if (dictionary != null) {
+          if (dictionary != this.dictionary) {
+            this.dictionary = dictionary;
+            this.code = dictionary.getCode(SelectOperator.this.value);
+          }
+          boolean equal = this.code != -1 && view.getCode(columnIndex) == this.code;
+          return operator == QueryPlan.PredicateOperator.EQUALS ? equal : !equal;
+        }
+      }
+      return SelectOperator.this.matches(view.getValue(columnIndex));
+    }
+
     /**
      * Yields the next record of this iterator.
      *
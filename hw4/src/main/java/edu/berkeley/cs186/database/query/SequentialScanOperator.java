@@ -1,16 +1,27 @@
 package edu.berkeley.cs186.database.query;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.ColumnChunk;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.ZonePredicate;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 public class SequentialScanOperator extends QueryOperator {
   private Database.Transaction transaction;
   private String tableName;
+  private List<String> columns;
+  // The indices of the fields of the table that the scan produces, or null for all of them.
+  private int[] fields;
+  // The predicates of the selects above the scan, which it uses to skip data pages.
+  private List<ZonePredicate> predicates;
 
   /**
    * Creates a new SequentialScanOperator that provides an iterator on all tuples in a table.
@@ -25,9 +36,28 @@ public class SequentialScanOperator extends QueryOperator {
    */
   public SequentialScanOperator(Database.Transaction transaction,
                                 String tableName) throws QueryPlanException, DatabaseException {
+    this(transaction, tableName, null);
+  }
+
+  /**
+   * Creates a new SequentialScanOperator that only produces the columns of the table that are
+   * named in columns (see QueryOperator#projectFields), and only decodes those. The columns come
+   * in table order.
+   *
+   * @param transaction
+   * @param tableName
+   * @param columns the columns needed above the scan, or null for all of them
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public SequentialScanOperator(Database.Transaction transaction,
+                                String tableName,
+                                List<String> columns) throws QueryPlanException, DatabaseException {
     super(OperatorType.SEQSCAN);
     this.transaction = transaction;
     this.tableName = tableName;
+    this.columns = columns;
+    this.predicates = new ArrayList<ZonePredicate>();
     this.setOutputSchema(this.computeSchema());
     this.stats = this.estimateStats();
     this.cost = this.estimateIOCost();
@@ -37,21 +67,85 @@ public class SequentialScanOperator extends QueryOperator {
     return this.tableName;
   }
 
+  /**
+   * @return the indices of the fields of the table that the scan produces, or null if it produces
+   * all of them
+   */
+  public int[] getFields() {
+    return this.fields;
+  }
+
+  /**
+   * @return the predicates that the scan skips data pages by
+   */
+  public List<ZonePredicate> getPredicates() {
+    return this.predicates;
+  }
+
+  /**
+   * Pushes the predicate of a select above the scan down into it: the scan skips the data pages
+   * whose zone map says they hold no record that satisfies it (see Table#viewIterator), and its
+   * cost only counts the pages it reads. The scan still returns records that don't satisfy the
+   * predicate, from the pages it reads, so the select stays.
+   */
+  void addPredicate(String column, QueryPlan.PredicateOperator operator, DataBox value)
+      throws QueryPlanException {
+    Schema schema = this.getOutputSchema();
+    int field = schema.getFieldNames().indexOf(this.checkSchemaForColumn(schema, column));
+    if (this.fields != null) {
+      field = this.fields[field];
+    }
+    this.predicates.add(new ZonePredicate(field, operator, value));
+    this.cost = this.estimateIOCost();
+  }
+
   public Iterator<Record> iterator() throws DatabaseException {
-    return this.transaction.getRecordIterator(tableName);
+    if (this.fields == null && this.predicates.isEmpty()) {
+      return this.transaction.getRecordIterator(tableName);
+    }
+    return RecordView.materialize(this.viewIterator());
+  }
+
+  @Override
+  public Iterator<RecordView> viewIterator() throws DatabaseException {
+    return this.transaction.getRecordViewIterator(tableName, this.fields, this.predicates);
+  }
+
+  /**
+   * Returns the values of column of the scan's output a data page at a time, without reading the
+   * other columns of the table (see ColumnChunk).
+   */
+  public Iterator<ColumnChunk> columnChunkIterator(String column) throws QueryPlanException,
+                                                                        DatabaseException {
+    Schema schema = this.getOutputSchema();
+    int field = schema.getFieldNames().indexOf(this.checkSchemaForColumn(schema, column));
+    if (this.fields != null) {
+      field = this.fields[field];
+    }
+    return this.transaction.getColumnChunkIterator(this.tableName, field);
   }
 
   public Schema computeSchema() throws QueryPlanException {
+    Schema schema;
     try {
-      return this.transaction.getFullyQualifiedSchema(this.tableName);
+      schema = this.transaction.getFullyQualifiedSchema(this.tableName);
     } catch (DatabaseException de) {
       throw new QueryPlanException(de);
     }
+    this.fields = this.projectFields(schema, this.columns);
+    return this.fields == null ? schema : schema.project(this.fields);
   }
 
   public String str() {
-    return "type: " + this.getType() +
+    String s = "type: " + this.getType() +
             "\ntable: " + this.tableName;
+    if (this.fields != null) {
+      s += "\ncolumns: " + String.join(", ", this.getOutputSchema().getFieldNames());
+    }
+    if (!this.predicates.isEmpty()) {
+      s += "\npages skipped by: " + this.predicates;
+    }
+    return s;
   }
 
 
@@ -62,17 +156,19 @@ public class SequentialScanOperator extends QueryOperator {
    */
   public TableStats estimateStats() throws QueryPlanException {
     try {
-      return this.transaction.getStats(this.tableName);
+      TableStats stats = this.transaction.getStats(this.tableName);
+      return this.fields == null ? stats : stats.copyWithProjection(this.fields);
     } catch (DatabaseException de) {
       throw new QueryPlanException(de);
     }
   }
 
+  /**
+   * A scan reads every data page of its table, but for the pages its predicates rule out.
+   */
   public int estimateIOCost() throws QueryPlanException {
     try {
-      
-      return this.transaction.getNumDataPages(this.tableName);
-
+      return this.transaction.getNumDataPages(this.tableName, this.predicates);
     } catch (DatabaseException de) {
       throw new QueryPlanException(de);
     }
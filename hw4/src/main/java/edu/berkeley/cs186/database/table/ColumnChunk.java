@@ -0,0 +1,103 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * A ColumnChunk is the values of one column on one data page of a table, read
+ * in place. It is the access path of scans that only need one column, like
+ * sums and averages:
+ *
+ *   Iterator<ColumnChunk> chunks = table.columnIterator(1);
+ *   while (chunks.hasNext()) {
+ *     ColumnChunk chunk = chunks.next();
+ *     for (int i = 0; i < chunk.getNumSlots(); ++i) {
+ *       if (chunk.isSlotUsed(i)) {
+ *         sum += chunk.getInt(i);
+ *       }
+ *     }
+ *   }
+ *
+ * How cheap a chunk is to read depends on the table's format: the values of
+ * a column are next to each other on a PAX page, a record apart on a ROW
+ * page, and must be found record by record on a SLOTTED page (see
+ * PageLayout).
+ *
+ * Like RecordViews, chunks are flyweights: an iterator of chunks hands out
+ * the same ColumnChunk for every page, so a chunk must not be kept after the
+ * next call to its iterator.
+ */
+public class ColumnChunk {
+  private PageLayout layout;
+  private final int field;
+  private final Type type;
+  private Page page;
+
+  ColumnChunk(PageLayout layout, int field) {
+    this.layout = layout;
+    this.field = field;
+    this.type = layout.getSchema().getFieldTypes().get(field);
+    this.page = null;
+  }
+
+  /**
+   * Points the chunk at page, which is laid out as layout says.
+   */
+  void moveTo(PageLayout layout, Page page) {
+    this.layout = layout;
+    this.page = page;
+  }
+
+  public int getPageNum() {
+    return this.page.getPageNum();
+  }
+
+  /**
+   * @return the type of the values of the chunk
+   */
+  public Type getType() {
+    return this.type;
+  }
+
+  /**
+   * @return the number of slots of the page, used or not
+   */
+  public int getNumSlots() {
+    return this.layout.getNumSlots(this.page);
+  }
+
+  /**
+   * @return the number of slots of the page that hold a record
+   */
+  public int getNumValues() {
+    return this.layout.numRecordsOnPage(this.page);
+  }
+
+  public boolean isSlotUsed(int slot) {
+    return this.layout.isSlotUsed(this.page, slot);
+  }
+
+  /**
+   * Decodes the value of slot slot. Whether the slot is in use isn't checked.
+   */
+  public DataBox getValue(int slot) {
+    return this.layout.readValue(this.page, slot, this.field);
+  }
+
+  /**
+   * Reads the value of slot slot of an integer column, without decoding it
+   * into a DataBox.
+   */
+  public int getInt(int slot) {
+    return this.layout.readInt(this.page, slot, this.field);
+  }
+
+  /**
+   * Reads the value of slot slot of a float column, without decoding it into
+   * a DataBox.
+   */
+  public float getFloat(int slot) {
+    return this.layout.readFloat(this.page, slot, this.field);
+  }
+}
@@ -0,0 +1,99 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
+
+/**
+ * The dictionaries of the dictionary encoded columns of a table (see
+ * StringDictionary), kept in the pages of a file of their own next to the
+ * table's file ("t.table.dict" for "t.table"). The file is a log of the
+ * values added to the dictionaries, in the order they were added. Every page
+ * begins with the number of bytes of entries that follow, and an entry is the
+ * 2-byte index of a column, the 2-byte length of a value and the value's
+ * bytes. The code of a value is its position among the entries of its
+ * column, so reading the log back gives every value its code again.
+ *
+ * Unlike the free-space map, the dictionaries can't be rebuilt from the data
+ * pages, so they are written back whenever the table's pages are.
+ */
+class DictionaryFile implements Closeable {
+  static final String FILENAME_EXTENSION = ".dict";
+  private static final int PAGE_HEADER_SIZE = 4;
+  private static final int ENTRY_HEADER_SIZE = 4;
+
+  private final PageAllocator allocator;
+
+  /**
+   * Opens the dictionaries in file filename, or creates an empty file if
+   * wipe is true.
+   */
+  DictionaryFile(String filename, boolean wipe, BufferPool bufferPool) {
+    this.allocator = new PageAllocator(filename, wipe, true, bufferPool);
+  }
+
+  /**
+   * Reads the dictionaries of the columns of a table of schema schema whose
+   * indices are in fields back from the file.
+   *
+   * @return the dictionary of every column, or null for the columns that
+   * aren't in fields
+   */
+  synchronized StringDictionary[] load(Schema schema, int[] fields) {
+    List<Type> types = schema.getFieldTypes();
+    StringDictionary[] dictionaries = new StringDictionary[types.size()];
+    for (int field : fields) {
+      dictionaries[field] = new StringDictionary(types.get(field), field, this);
+    }
+    for (int pageNum = 0; pageNum < this.allocator.getNumPages(); ++pageNum) {
+      Page page = this.allocator.fetchPage(pageNum);
+      ByteBuffer buf = ByteBuffer.wrap(page.readBytes(PAGE_HEADER_SIZE, page.getInt(0)));
+      while (buf.hasRemaining()) {
+        int field = buf.getShort();
+        byte[] bytes = new byte[buf.getShort()];
+        buf.get(bytes);
+        dictionaries[field].add(new String(bytes, Charset.forName("UTF-8")));
+      }
+    }
+    return dictionaries;
+  }
+
+  /**
+   * Appends value to the dictionary of column field.
+   */
+  synchronized void append(int field, String value) {
+    byte[] bytes = value.getBytes(Charset.forName("UTF-8"));
+    ByteBuffer entry = ByteBuffer.allocate(ENTRY_HEADER_SIZE + bytes.length);
+    entry.putShort((short) field);
+    entry.putShort((short) bytes.length);
+    entry.put(bytes);
+
+    int numPages = this.allocator.getNumPages();
+    Page page = numPages == 0 ? null : this.allocator.fetchPage(numPages - 1);
+    int used = page == null ? 0 : page.getInt(0);
+    if (page == null || PAGE_HEADER_SIZE + used + entry.capacity() > Page.pageSize) {
+      page = this.allocator.fetchPage(this.allocator.allocPage());
+      used = 0;
+    }
+    page.writeBytes(PAGE_HEADER_SIZE + used, entry.capacity(), entry.array());
+    page.writeInt(0, used + entry.capacity());
+  }
+
+  /**
+   * Writes the modified pages of the file back to disk.
+   */
+  void checkpoint() {
+    this.allocator.checkpoint();
+  }
+
+  @Override
+  public void close() {
+    this.allocator.close();
+  }
+}
@@ -0,0 +1,274 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * The layout of ROW and PAX pages: a bitmap of the page's slots, followed by
+ * the slots, which have room for a record of the schema's full size each
+ * (see Table#computeNumRecordsPerPage), counting the fields that are
+ * dictionary encoded as the 4-byte integers they are stored as. In both
+ * formats, the values of field f are getFieldStride(f) bytes apart, starting
+ * at getFieldOffset(0, f): a record apart in a ROW page, and next to each
+ * other in a PAX page.
+ */
+class FixedLengthPageLayout extends PageLayout {
+  private final List<Type> types;
+  private final StringDictionary[] dictionaries;
+  // Whether any field is dictionary encoded, in which case records can't be
+  // copied to and from pages as they are.
+  private final boolean encoded;
+  private final int bitmapSizeInBytes;
+  private final int numRecordsPerPage;
+  // The offset of field f of slot 0, and the distance between the field f of
+  // two consecutive slots.
+  private final int[] fieldOffsets;
+  private final int[] fieldStrides;
+
+  FixedLengthPageLayout(Format format, Schema schema, StringDictionary[] dictionaries) {
+    super(format, schema, dictionaries);
+    this.types = schema.getFieldTypes();
+    this.dictionaries = getDictionaries();
+    List<Type> storedTypes = new ArrayList<Type>(this.types);
+    boolean encoded = false;
+    for (int i = 0; i < this.types.size(); ++i) {
+      if (this.dictionaries[i] != null) {
+        storedTypes.set(i, Type.intType());
+        encoded = true;
+      }
+    }
+    this.encoded = encoded;
+    Schema storedSchema = new Schema(schema.getFieldNames(), storedTypes);
+    this.bitmapSizeInBytes = Table.computeBitmapSizeInBytes(Page.pageSize, storedSchema);
+    this.numRecordsPerPage = Table.computeNumRecordsPerPage(Page.pageSize, storedSchema);
+    this.fieldOffsets = new int[this.types.size()];
+    this.fieldStrides = new int[this.types.size()];
+    int offset = 0;
+    for (int i = 0; i < this.types.size(); ++i) {
+      int size = storedTypes.get(i).getSizeInBytes();
+      if (format == Format.ROW) {
+        this.fieldOffsets[i] = this.bitmapSizeInBytes + offset;
+        this.fieldStrides[i] = storedSchema.getSizeInBytes();
+      } else {
+        this.fieldOffsets[i] = this.bitmapSizeInBytes + this.numRecordsPerPage * offset;
+        this.fieldStrides[i] = size;
+      }
+      offset += size;
+    }
+  }
+
+  // Accessors /////////////////////////////////////////////////////////////////
+  @Override
+  public int getBitmapSizeInBytes() {
+    return this.bitmapSizeInBytes;
+  }
+
+  @Override
+  public int getNumRecordsPerPage() {
+    return this.numRecordsPerPage;
+  }
+
+  /**
+   * @return the offset in a data page of field field of slot entryNum
+   */
+  int getFieldOffset(int entryNum, int field) {
+    return this.fieldOffsets[field] + entryNum * this.fieldStrides[field];
+  }
+
+  /**
+   * @return the distance in bytes between field field of two consecutive
+   * slots
+   */
+  int getFieldStride(int field) {
+    return this.fieldStrides[field];
+  }
+
+  // Slots /////////////////////////////////////////////////////////////////////
+  @Override
+  public int getNumSlots(Page page) {
+    return this.numRecordsPerPage;
+  }
+
+  @Override
+  public boolean isSlotUsed(Page page, int entryNum) {
+    return Bits.getBit(page.getByte(entryNum / 8), entryNum % 8) == Bits.Bit.ONE;
+  }
+
+  /**
+   * @return the first slot of page that doesn't hold a record, or -1 if the
+   * page is full
+   */
+  private int firstFreeSlot(Page page) {
+    for (int i = 0; i < this.bitmapSizeInBytes; ++i) {
+      int bits = page.getByte(i) & 0xff;
+      if (bits != 0xff) {
+        for (int entryNum = 8 * i; entryNum < 8 * i + 8; ++entryNum) {
+          if (!isSlotUsed(page, entryNum)) {
+            return entryNum;
+          }
+        }
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  int numRecordsOnPage(Page page) {
+    // numRecordsPerPage is a multiple of 8, so the bitmap has no unused bits.
+    int numRecords = 0;
+    for (int i = 0; i < this.bitmapSizeInBytes; ++i) {
+      numRecords += Integer.bitCount(page.getByte(i) & 0xff);
+    }
+    return numRecords;
+  }
+
+  @Override
+  int getFillLevel(Page page) {
+    return FreeSpaceMap.fillLevel(numRecordsOnPage(page), this.numRecordsPerPage);
+  }
+
+  // Records ///////////////////////////////////////////////////////////////////
+  @Override
+  public DataBox readValue(Page page, int entryNum, int field) {
+    Type type = this.types.get(field);
+    int offset = getFieldOffset(entryNum, field);
+    if (this.dictionaries[field] != null) {
+      return this.dictionaries[field].decode(page.getInt(offset));
+    }
+    switch (type.getTypeId()) {
+      case BOOL:
+        return new BoolDataBox(page.getByte(offset) == 1);
+      case INT:
+        return new IntDataBox(page.getInt(offset));
+      case FLOAT:
+        return new FloatDataBox(page.getFloat(offset));
+      case STRING: {
+        byte[] bytes = new byte[type.getSizeInBytes()];
+        page.getBytes(offset, bytes, 0, bytes.length);
+        String s = new String(bytes, Charset.forName("UTF-8"));
+        return new StringDataBox(s, type.getSizeInBytes());
+      }
+      default:
+        return DataBox.fromBytes(page.slice(offset, type.getSizeInBytes()), type);
+    }
+  }
+
+  @Override
+  public Record readRecord(Page page, int entryNum) {
+    if (getFormat() == Format.ROW && !this.encoded) {
+      return Record.fromBytes(page.slice(getFieldOffset(entryNum, 0), getSchema().getSizeInBytes()),
+                              getSchema());
+    }
+    List<DataBox> values = new ArrayList<DataBox>(this.types.size());
+    for (int i = 0; i < this.types.size(); ++i) {
+      values.add(readValue(page, entryNum, i));
+    }
+    return new Record(values);
+  }
+
+  @Override
+  int readInt(Page page, int entryNum, int field) {
+    return page.getInt(getFieldOffset(entryNum, field));
+  }
+
+  @Override
+  float readFloat(Page page, int entryNum, int field) {
+    return page.getFloat(getFieldOffset(entryNum, field));
+  }
+
+  @Override
+  int insert(Page page, Record record) {
+    int entryNum = firstFreeSlot(page);
+    if (entryNum == -1) {
+      return -1;
+    }
+    writeRecord(page.getByteBuffer(), entryNum, record);
+    Bits.setBit(page.getByteBuffer(), entryNum, Bits.Bit.ONE);
+    page.markDirty();
+    return entryNum;
+  }
+
+  @Override
+  boolean update(Page page, int entryNum, Record record) {
+    writeRecord(page.getByteBuffer(), entryNum, record);
+    page.markDirty();
+    return true;
+  }
+
+  @Override
+  void delete(Page page, int entryNum) {
+    Bits.setBit(page.getByteBuffer(), entryNum, Bits.Bit.ZERO);
+    page.markDirty();
+  }
+
+  /**
+   * Writes record into slot entryNum of the page whose buffer is buf. Neither
+   * the bitmap nor the page's dirty flag are touched.
+   */
+  private void writeRecord(ByteBuffer buf, int entryNum, Record record) {
+    if (getFormat() == Format.ROW && !this.encoded) {
+      buf.position(getFieldOffset(entryNum, 0));
+      buf.put(record.toBytes(getSchema()));
+      return;
+    }
+    List<DataBox> values = record.getValues();
+    for (int i = 0; i < values.size(); ++i) {
+      if (this.dictionaries[i] != null) {
+        buf.putInt(getFieldOffset(entryNum, i), this.dictionaries[i].encode(values.get(i)));
+      } else {
+        buf.position(getFieldOffset(entryNum, i));
+        buf.put(values.get(i).toBytes());
+      }
+    }
+  }
+
+  @Override
+  void convert(Page page, PageLayout from) {
+    List<Integer> slots = new ArrayList<Integer>();
+    List<Record> records = new ArrayList<Record>();
+    for (int i = 0; i < from.getNumSlots(page); ++i) {
+      if (from.isSlotUsed(page, i)) {
+        assert i < this.numRecordsPerPage;
+        slots.add(i);
+        records.add(from.readRecord(page, i));
+      }
+    }
+    page.writeBytes(0, Page.pageSize, new byte[Page.pageSize]);
+    ByteBuffer buf = page.getByteBuffer();
+    for (int i = 0; i < slots.size(); ++i) {
+      writeRecord(buf, slots.get(i), records.get(i));
+      Bits.setBit(page.getByteBuffer(), slots.get(i), Bits.Bit.ONE);
+    }
+    page.markDirty();
+  }
+
+  // Bulk Loading //////////////////////////////////////////////////////////////
+  @Override
+  boolean appendRecord(ByteBuffer buf, int entryNum, Record record) {
+    if (entryNum >= this.numRecordsPerPage) {
+      return false;
+    }
+    writeRecord(buf, entryNum, record);
+    return true;
+  }
+
+  @Override
+  void finishAppending(Page page, int numRecords) {
+    byte[] bitmap = new byte[this.bitmapSizeInBytes];
+    for (int entryNum = 0; entryNum < numRecords; ++entryNum) {
+      bitmap[entryNum / 8] = Bits.setBit(bitmap[entryNum / 8], entryNum % 8, Bits.Bit.ONE);
+    }
+    page.writeBytes(0, this.bitmapSizeInBytes, bitmap);
+  }
+}
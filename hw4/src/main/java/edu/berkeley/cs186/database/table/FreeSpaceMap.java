@@ -0,0 +1,143 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.Closeable;
+
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
+
+/**
+ * The free-space map of a table: one byte per data page of the table that
+ * says how full the page is, kept in the pages of a file of its own next to
+ * the table's file ("t.table.fsm" for "t.table"). Byte j of page i of the map
+ * is the fill level of data page i * Page.pageSize + j. Levels go from 0 for
+ * an empty page to FULL for a page without a free slot; a page with any
+ * free slot is below FULL however full it is.
+ *
+ * The map is a hint. An insert that is sent to a page the map thinks has room
+ * but that turns out to be full marks it FULL and asks again, and the table
+ * rebuilds the map from its pages whenever it can't trust its metadata (see
+ * Table).
+ *
+ * Inserters don't all get the first page with room: findPage spreads them
+ * over the first NUM_CANDIDATES pages with room, so that concurrent inserts
+ * mostly work on different pages.
+ *
+ * The map's monitor is the latch of the whole map, which every insert,
+ * update and delete of the table takes, so it is held for as short a time
+ * as possible: a lookup fetches each page of the map once, and an update
+ * that leaves the level of a page as it was doesn't modify the map.
+ */
+class FreeSpaceMap implements Closeable {
+  static final int FULL = 255;
+  static final String FILENAME_EXTENSION = ".fsm";
+  private static final int NUM_CANDIDATES = 4;
+
+  private final PageAllocator allocator;
+
+  // Guarded by this. Levels are tracked for data pages below numPages, and
+  // no data page below firstNonFull has room.
+  private int numPages;
+  private int firstNonFull;
+
+  /**
+   * Opens the map in file filename, or creates an empty one if wipe is true.
+   *
+   * @param numPages the number of pages of the table's file
+   */
+  FreeSpaceMap(String filename, boolean wipe, int numPages, BufferPool bufferPool) {
+    this.allocator = new PageAllocator(filename, wipe, true, bufferPool);
+    this.numPages = numPages;
+    this.firstNonFull = 0;
+  }
+
+  /**
+   * Converts the number of used slots of a page into a fill level.
+   */
+  static int fillLevel(int numUsed, int numSlots) {
+    if (numUsed >= numSlots) {
+      return FULL;
+    }
+    return Math.min(FULL - 1, (int) ((long) numUsed * FULL / numSlots));
+  }
+
+  /**
+   * @return the fill level of data page pageNum; pages the map knows nothing
+   * about are FULL, so that they are never picked
+   */
+  synchronized int getLevel(int pageNum) {
+    if (pageNum >= this.numPages || !hasMapPage(pageNum)) {
+      return FULL;
+    }
+    return levelPage(pageNum).getByte(pageNum % Page.pageSize) & 0xff;
+  }
+
+  /**
+   * Records that data page pageNum is at fill level level.
+   */
+  synchronized void setLevel(int pageNum, int level) {
+    while (this.allocator.getNumPages() <= pageNum / Page.pageSize) {
+      this.allocator.allocPage();
+    }
+    Page levelPage = levelPage(pageNum);
+    if ((levelPage.getByte(pageNum % Page.pageSize) & 0xff) != level) {
+      levelPage.writeByte(pageNum % Page.pageSize, (byte) level);
+    }
+    this.numPages = Math.max(this.numPages, pageNum + 1);
+    if (level < FULL) {
+      this.firstNonFull = Math.min(this.firstNonFull, pageNum);
+    }
+  }
+
+  /**
+   * Returns a data page that has room for a record, or -1 if none has. Callers
+   * that pass different values of spread tend to get different pages, e.g. a
+   * thread id.
+   */
+  synchronized int findPage(long spread) {
+    int[] candidates = new int[NUM_CANDIDATES];
+    int numCandidates = 0;
+    Page levelPage = null;
+    for (int pageNum = this.firstNonFull;
+         pageNum < this.numPages && numCandidates < NUM_CANDIDATES; ++pageNum) {
+      if (!hasMapPage(pageNum)) {
+        // Neither this page nor those after it are known to have room.
+        break;
+      }
+      if (levelPage == null || pageNum % Page.pageSize == 0) {
+        levelPage = levelPage(pageNum);
+      }
+      if ((levelPage.getByte(pageNum % Page.pageSize) & 0xff) < FULL) {
+        if (numCandidates == 0) {
+          this.firstNonFull = pageNum;
+        }
+        candidates[numCandidates++] = pageNum;
+      }
+    }
+    if (numCandidates == 0) {
+      this.firstNonFull = this.numPages;
+      return -1;
+    }
+    return candidates[(int) Math.floorMod(spread, (long) numCandidates)];
+  }
+
+  /**
+   * Writes the modified pages of the map back to disk.
+   */
+  void checkpoint() {
+    this.allocator.checkpoint();
+  }
+
+  @Override
+  public void close() {
+    this.allocator.close();
+  }
+
+  private boolean hasMapPage(int pageNum) {
+    return pageNum / Page.pageSize < this.allocator.getNumPages();
+  }
+
+  private Page levelPage(int pageNum) {
+    return this.allocator.fetchPage(pageNum / Page.pageSize);
+  }
+}
@@ -0,0 +1,272 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * A PageLayout says where the records of a table go on its data pages. There
+ * are three formats:
+ *
+ *   - ROW pages begin with a bitmap of their slots, followed by fixed-size
+ *     slots, each of which holds the fields of a record next to each other:
+ *
+ *       | bitmap | a0 b0 c0 | a1 b1 c1 | a2 b2 c2 | ... |
+ *
+ *   - PAX pages have the same bitmap and number of slots, but store the
+ *     values of each column next to each other, in a minipage per column
+ *     that has room for a value of every slot:
+ *
+ *       | bitmap | a0 a1 a2 ... | b0 b1 b2 ... | c0 c1 c2 ... |
+ *
+ *   - SLOTTED pages hold variable-length records, in which strings take as
+ *     many bytes as they have characters rather than their declared width.
+ *     The page begins with a directory of slots that point at the records,
+ *     which fill the page from its end (see SlottedPageLayout).
+ *
+ * ROW and PAX pages fit as many records as each other (see
+ * FixedLengthPageLayout). A ROW page is cheaper to read whole records from,
+ * while a PAX page keeps the values of a column together, so that reading one
+ * column of a table, like an aggregate over a wide table does, reads one run
+ * of bytes per page rather than a few bytes of every record (see
+ * ColumnChunk). A SLOTTED page fits more records than either when strings
+ * are mostly shorter than their declared width, at the price of decoding
+ * them field by field.
+ *
+ * In ROW and PAX pages, a string column can also be dictionary encoded, in
+ * which case its slots hold the 4-byte code of the value rather than the
+ * value (see StringDictionary). SLOTTED pages store strings at their length
+ * already, and aren't encoded.
+ *
+ * The slots of a page are numbered from 0 to getNumSlots(page) - 1, and a
+ * record's id is its page and slot. Callers that modify a page must hold the
+ * table's lock on the page (see Table).
+ */
+public abstract class PageLayout {
+  public enum Format {
+    ROW(0),
+    PAX(1),
+    SLOTTED(2);
+
+    // How the format is written in the header page of a table. A header page
+    // written before there were formats has a 0 there.
+    private final int code;
+
+    Format(int code) {
+      this.code = code;
+    }
+
+    int getCode() {
+      return this.code;
+    }
+
+    static Format fromCode(int code) throws DatabaseException {
+      for (Format format : values()) {
+        if (format.code == code) {
+          return format;
+        }
+      }
+      throw new DatabaseException("Unknown table format " + code + ".");
+    }
+  }
+
+  private final Format format;
+  private final Schema schema;
+  // The dictionary of every field that is dictionary encoded, null for the others.
+  private final StringDictionary[] dictionaries;
+
+  PageLayout(Format format, Schema schema, StringDictionary[] dictionaries) {
+    this.format = format;
+    this.schema = schema;
+    this.dictionaries = dictionaries == null
+                        ? new StringDictionary[schema.getFieldTypes().size()]
+                        : dictionaries.clone();
+  }
+
+  /**
+   * Returns the layout of the data pages of a table of schema schema in
+   * format format.
+   */
+  public static PageLayout of(Format format, Schema schema) {
+    return of(format, schema, null);
+  }
+
+  /**
+   * Like of(format, schema), but the fields whose entry of dictionaries isn't
+   * null are encoded with that dictionary. dictionaries may be null if no
+   * field is encoded.
+   */
+  static PageLayout of(Format format, Schema schema, StringDictionary[] dictionaries) {
+    if (format == Format.SLOTTED) {
+      return new SlottedPageLayout(schema);
+    }
+    return new FixedLengthPageLayout(format, schema, dictionaries);
+  }
+
+  // Accessors /////////////////////////////////////////////////////////////////
+  public Format getFormat() {
+    return this.format;
+  }
+
+  public Schema getSchema() {
+    return this.schema;
+  }
+
+  /**
+   * @return the dictionary that field field is encoded with, or null if it
+   * isn't dictionary encoded
+   */
+  public StringDictionary getDictionary(int field) {
+    return this.dictionaries[field];
+  }
+
+  /**
+   * @return the dictionary of every field, null for the fields that aren't
+   * encoded
+   */
+  StringDictionary[] getDictionaries() {
+    return this.dictionaries.clone();
+  }
+
+  /**
+   * @return the size of the bitmap at the beginning of every data page, or 0
+   * if the pages of the format have none
+   */
+  public int getBitmapSizeInBytes() {
+    return 0;
+  }
+
+  /**
+   * @return the most records a data page can hold
+   */
+  public abstract int getNumRecordsPerPage();
+
+  // Slots /////////////////////////////////////////////////////////////////////
+  /**
+   * @return the number of slots of page, used or not
+   */
+  public abstract int getNumSlots(Page page);
+
+  /**
+   * @return whether slot entryNum of page holds a record. Every record of a
+   * table is in exactly one used slot, so a scan reads each record once by
+   * reading the used slots of every page.
+   */
+  public abstract boolean isSlotUsed(Page page, int entryNum);
+
+  /**
+   * @return the id of the record in used slot entryNum of page. It is the
+   * page and slot unless the record was moved there from another page (see
+   * getForward).
+   */
+  public RecordId getRecordId(Page page, int entryNum) {
+    return new RecordId(page.getPageNum(), (short) entryNum);
+  }
+
+  /**
+   * @return the number of records on page
+   */
+  abstract int numRecordsOnPage(Page page);
+
+  /**
+   * @return how full page is for the free-space map; only a page that has
+   * room for any record of the table is below FreeSpaceMap.FULL
+   */
+  abstract int getFillLevel(Page page);
+
+  /**
+   * @return where the record whose id is slot entryNum of page was moved to,
+   * or null if it wasn't moved. Only SLOTTED pages move records, when they
+   * grow too large for their page (see Table#updateRecord).
+   */
+  RecordId getForward(Page page, int entryNum) {
+    return null;
+  }
+
+  // Records ///////////////////////////////////////////////////////////////////
+  /**
+   * Decodes field field of the record in used slot entryNum of page.
+   */
+  public abstract DataBox readValue(Page page, int entryNum, int field);
+
+  /**
+   * Decodes the record in used slot entryNum of page.
+   */
+  public abstract Record readRecord(Page page, int entryNum);
+
+  /**
+   * Reads field field, an integer, of the record in used slot entryNum of
+   * page, without decoding it into a DataBox if the format allows. The
+   * integer of a dictionary encoded field is its code.
+   */
+  int readInt(Page page, int entryNum, int field) {
+    return readValue(page, entryNum, field).getInt();
+  }
+
+  /**
+   * Like readInt, for a float field.
+   */
+  float readFloat(Page page, int entryNum, int field) {
+    return readValue(page, entryNum, field).getFloat();
+  }
+
+  /**
+   * Puts record into a free slot of page and returns the slot, or -1 if the
+   * page has no room for it.
+   */
+  abstract int insert(Page page, Record record);
+
+  /**
+   * Overwrites the record in used slot entryNum of page with record, or, if
+   * entryNum holds a forward, replaces the forward with record. Returns false,
+   * leaving the page as it was, if record doesn't fit on the page.
+   */
+  abstract boolean update(Page page, int entryNum, Record record);
+
+  /**
+   * Frees slot entryNum of page, whatever it holds.
+   */
+  abstract void delete(Page page, int entryNum);
+
+  /**
+   * Like insert, for a record whose id is home that is moved to page
+   * because it doesn't fit on its own page any more.
+   */
+  int insertMoved(Page page, Record record, RecordId home) {
+    throw new UnsupportedOperationException(this.format + " pages don't move records.");
+  }
+
+  /**
+   * Replaces the record in slot entryNum of page with a forward to the slot
+   * that the record moved to.
+   */
+  void setForward(Page page, int entryNum, RecordId target) {
+    throw new UnsupportedOperationException(this.format + " pages don't move records.");
+  }
+
+  /**
+   * Rewrites page, laid out as from says, as this layout says, keeping every
+   * record in its slot, e.g. when columns of the table become dictionary
+   * encoded. Every slot of from must exist in this layout.
+   */
+  void convert(Page page, PageLayout from) {
+    throw new UnsupportedOperationException(this.format + " pages can't be converted.");
+  }
+
+  // Bulk Loading //////////////////////////////////////////////////////////////
+  /**
+   * Writes record into slot entryNum of a page that is being filled from
+   * scratch, one slot after the other, through buf (see Page#getByteBuffer),
+   * and returns false if the page has no room left for it. Nothing else may
+   * use the page until finishAppending is called.
+   */
+  abstract boolean appendRecord(ByteBuffer buf, int entryNum, Record record);
+
+  /**
+   * Marks the first numRecords slots of a page filled by appendRecord as
+   * used.
+   */
+  abstract void finishAppending(Page page, int numRecords);
+}
@@ -0,0 +1,605 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * A table whose records are spread over several partitions by the value of
+ * one of their columns, the partition key (see Partitioning). Every partition
+ * is a Table of its own, with its own file, allocator, free-space map and
+ * monitor, so that inserts into different partitions don't wait for each
+ * other, and a scan of the records whose key is in some range only reads the
+ * partitions that may hold them:
+ *
+ *   PartitionedTable t = new PartitionedTable("t", schema,
+ *       Partitioning.hash("x", 4), "t.parts", bufferPool, PageLayout.Format.ROW);
+ *   RecordId rid = t.addRecord(values);  // into partition partitionOf(x)
+ *   Iterator<Record> records = t.scan(t.partitionsFor(0, EQUALS, x), null, null, 4);
+ *   t.close();
+ *
+ * # Storage
+ * A partitioned table lives in a directory of its own ("t.parts" for table
+ * t), which holds the file of partition i under the name "i.table", along
+ * with the partition's metadata and free-space map (see Table), and the
+ * partitioning in the file "partitioning". The partitioning is written once,
+ * when the table is created, and never changes; the partitions open and
+ * close like any table.
+ *
+ * # Record Ids
+ * The record id of a record names its partition in the upper byte of its
+ * page number, above the page number of the record in the partition, so that
+ * the partitions of a table fit 2^24 pages each; a record that lands past
+ * them is deleted again and refused. Records can't move between
+ * partitions, so an update that changes the partition key of a record is
+ * refused; delete the record and add it again instead.
+ *
+ * # Parallel Scans
+ * scan reads several partitions at once on a shared pool of threads, a
+ * chunk of records at a time, and returns the records of every partition in
+ * order, but those of different partitions interleaved (see ParallelScan).
+ * The I/O of the pool's threads isn't charged to any transaction (see
+ * IOStats).
+ */
+public class PartitionedTable implements Closeable {
+  public static final String DIRECTORY_EXTENSION = ".parts";
+  public static final String PARTITIONING_FILENAME = "partitioning";
+
+  // The bits of a page number below the partition's number (see Record Ids).
+  private static final int PARTITION_SHIFT = 24;
+  private static final int LOCAL_PAGE_MASK = (1 << PARTITION_SHIFT) - 1;
+
+  // The number of records a thread of a parallel scan reads from a partition
+  // before it hands them over.
+  private static final int SCAN_CHUNK_SIZE = 1024;
+
+  private static ThreadPoolExecutor scanExecutor = null;
+
+  private final String name;
+  private final String dirname;
+  private final Schema schema;
+  private final Partitioning partitioning;
+  // The index of the partition key in the schema.
+  private final int keyField;
+  private final Table[] partitions;
+
+  // The statistics of the whole table. Guarded by itself.
+  private final TableStats stats;
+
+  // Constructors //////////////////////////////////////////////////////////////
+  /**
+   * Constructs a brand new table named name with schema schema, whose
+   * records are spread over partitions as told by partitioning, and whose
+   * files are kept in directory dirname, which is emptied first.
+   *
+   * @throws DatabaseException if partitioning doesn't fit the schema (see
+   * Partitioning#validate) or the directory can't be written
+   */
+  public PartitionedTable(String name, Schema schema, Partitioning partitioning, String dirname,
+                          BufferPool bufferPool, PageLayout.Format format)
+      throws DatabaseException {
+    this.name = name;
+    this.dirname = dirname;
+    this.schema = schema;
+    this.partitioning = partitioning;
+    this.keyField = partitioning.validate(schema);
+
+    File dir = new File(dirname);
+    File[] stale = dir.listFiles();
+    if (stale != null) {
+      for (File f : stale) {
+        f.delete();
+      }
+    }
+    dir.mkdirs();
+    writePartitioning();
+
+    this.partitions = new Table[partitioning.getNumPartitions()];
+    for (int i = 0; i < this.partitions.length; ++i) {
+      this.partitions[i] = new Table(partitionName(i), schema, partitionFilename(i), bufferPool,
+                                     format);
+    }
+    this.stats = new TableStats(schema);
+  }
+
+  /**
+   * Loads the table named name from directory dirname, along with its
+   * partitions.
+   *
+   * @throws DatabaseException if the directory doesn't hold a partitioned
+   * table
+   */
+  public PartitionedTable(String name, String dirname, BufferPool bufferPool)
+      throws DatabaseException {
+    this.name = name;
+    this.dirname = dirname;
+    this.partitioning = readPartitioning();
+    this.partitions = new Table[this.partitioning.getNumPartitions()];
+    long numRecords = 0;
+    for (int i = 0; i < this.partitions.length; ++i) {
+      this.partitions[i] = new Table(partitionName(i), partitionFilename(i), bufferPool);
+      numRecords += this.partitions[i].getNumRecords();
+    }
+    this.schema = this.partitions[0].getSchema();
+    this.keyField = this.partitioning.validate(this.schema);
+    this.stats = new TableStats(this.schema, (int) Math.min(Integer.MAX_VALUE, numRecords));
+  }
+
+  // Accessors /////////////////////////////////////////////////////////////////
+  public String getName() {
+    return this.name;
+  }
+
+  public String getDirname() {
+    return this.dirname;
+  }
+
+  public Schema getSchema() {
+    return this.schema;
+  }
+
+  public Partitioning getPartitioning() {
+    return this.partitioning;
+  }
+
+  public int getNumPartitions() {
+    return this.partitions.length;
+  }
+
+  /**
+   * @return partition i, e.g. to build an index or a Bloom filter of its own
+   */
+  public Table getPartition(int i) {
+    return this.partitions[i];
+  }
+
+  public TableStats getStats() {
+    return this.stats;
+  }
+
+  public long getNumRecords() {
+    long numRecords = 0;
+    for (Table partition : this.partitions) {
+      numRecords += partition.getNumRecords();
+    }
+    return numRecords;
+  }
+
+  public int getNumDataPages() {
+    int numPages = 0;
+    for (Table partition : this.partitions) {
+      numPages += partition.getNumDataPages();
+    }
+    return numPages;
+  }
+
+  /**
+   * @return the number of data pages that a scan of partitions with
+   * predicates reads (see Table#getNumDataPages(List))
+   */
+  public int getNumDataPages(List<Integer> partitions, List<ZonePredicate> predicates) {
+    int numPages = 0;
+    for (int i : partitions) {
+      numPages += this.partitions[i].getNumDataPages(predicates);
+    }
+    return numPages;
+  }
+
+  /**
+   * @return the partitions that may hold a record whose column field
+   * satisfies `field operator value`: all of them unless field is the
+   * partition key (see Partitioning#partitionsFor)
+   */
+  public List<Integer> partitionsFor(int field, QueryPlan.PredicateOperator operator,
+                                     DataBox value) {
+    if (field == this.keyField) {
+      return this.partitioning.partitionsFor(operator, value);
+    }
+    return allPartitions();
+  }
+
+  /**
+   * @return the numbers of all partitions, in order
+   */
+  public List<Integer> allPartitions() {
+    List<Integer> all = new ArrayList<Integer>();
+    for (int i = 0; i < this.partitions.length; ++i) {
+      all.add(i);
+    }
+    return all;
+  }
+
+  // Modifiers /////////////////////////////////////////////////////////////////
+  /**
+   * Builds the statistics of every partition, and histograms of the columns
+   * of the whole table from the records of all of them (see
+   * Table#buildStatistics).
+   */
+  public TableStats buildStatistics(int buckets) {
+    List<Table> tables = new ArrayList<Table>();
+    for (Table partition : this.partitions) {
+      partition.buildStatistics(buckets);
+      tables.add(partition);
+    }
+    synchronized (this.stats) {
+      this.stats.refreshHistograms(buckets, tables);
+    }
+    return this.stats;
+  }
+
+  /**
+   * Dictionary encodes the columns of every partition that its statistics
+   * say are worth it (see Table#encodeColumns).
+   *
+   * @return whether any column of any partition was encoded
+   */
+  public boolean encodeColumns() {
+    boolean encoded = false;
+    for (Table partition : this.partitions) {
+      encoded |= partition.encodeColumns();
+    }
+    return encoded;
+  }
+
+  /**
+   * Adds a record to the partition its partition key goes to, and returns
+   * its record id.
+   */
+  public RecordId addRecord(List<DataBox> values) throws DatabaseException {
+    Record record = this.schema.verify(values);
+    int partition = this.partitioning.partitionOf(values.get(this.keyField));
+    RecordId rid = this.partitions[partition].addRecord(values);
+    if (rid.getPageNum() > LOCAL_PAGE_MASK) {
+      // Its record id would name another partition.
+      this.partitions[partition].deleteRecord(rid);
+      throw new DatabaseException("Partition " + partition + " of table " + this.name +
+                                  " is full.");
+    }
+    synchronized (this.stats) {
+      this.stats.addRecord(record);
+    }
+    return toGlobal(partition, rid);
+  }
+
+  public Record getRecord(RecordId rid) throws DatabaseException {
+    return getRecord(rid, null);
+  }
+
+  /**
+   * Like getRecord(rid), but only decodes the fields whose indices are in
+   * fields, in that order, or all of them if fields is null.
+   */
+  public Record getRecord(RecordId rid, int[] fields) throws DatabaseException {
+    return partitionOf(rid).getRecord(toLocal(rid), fields);
+  }
+
+  /**
+   * Overwrites the record rid with values, and returns the old record.
+   *
+   * @throws DatabaseException if the record doesn't exist, or if values
+   * belong in another partition
+   */
+  public Record updateRecord(List<DataBox> values, RecordId rid) throws DatabaseException {
+    Record record = this.schema.verify(values);
+    Table partition = partitionOf(rid);
+    if (this.partitions[this.partitioning.partitionOf(values.get(this.keyField))] != partition) {
+      throw new DatabaseException("An update can't change the partition of record " + rid +
+                                  " of table " + this.name + ".");
+    }
+    Record old = partition.updateRecord(values, toLocal(rid));
+    synchronized (this.stats) {
+      this.stats.removeRecord(old);
+      this.stats.addRecord(record);
+    }
+    return old;
+  }
+
+  public Record deleteRecord(RecordId rid) throws DatabaseException {
+    Record old = partitionOf(rid).deleteRecord(toLocal(rid));
+    synchronized (this.stats) {
+      this.stats.removeRecord(old);
+    }
+    return old;
+  }
+
+  public void checkpoint() {
+    for (Table partition : this.partitions) {
+      partition.checkpoint();
+    }
+  }
+
+  public void close() {
+    for (Table partition : this.partitions) {
+      partition.close();
+    }
+  }
+
+  // Iterators /////////////////////////////////////////////////////////////////
+  /**
+   * Returns views of the records of the table, one partition after the
+   * other, that only expose the fields whose indices are in fields, or all of
+   * them if fields is null, and skips the data pages that predicates rule
+   * out, if it isn't null (see Table#viewIterator(int[], List)).
+   */
+  public Iterator<RecordView> viewIterator(int[] fields, List<ZonePredicate> predicates) {
+    List<Integer> all = allPartitions();
+    return new Iterator<RecordView>() {
+      private int next = 0;
+      private Iterator<RecordView> views = Collections.emptyIterator();
+
+      public boolean hasNext() {
+        while (!this.views.hasNext() && this.next < all.size()) {
+          Table partition = PartitionedTable.this.partitions[all.get(this.next++)];
+          this.views = partition.viewIterator(fields, predicates);
+        }
+        return this.views.hasNext();
+      }
+
+      public RecordView next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return this.views.next();
+      }
+    };
+  }
+
+  /**
+   * Returns the records of the given partitions, reading up to parallelism
+   * partitions at once (see ParallelScan). The records only have the fields
+   * whose indices are in fields, or all of them if fields is null, and the
+   * data pages that predicates rule out aren't read (see
+   * Table#viewIterator(int[], List)). A parallelism of 1 reads the
+   * partitions one after the other in the calling thread.
+   */
+  public Iterator<Record> scan(List<Integer> partitions, int[] fields,
+                               List<ZonePredicate> predicates, int parallelism) {
+    if (parallelism <= 1 || partitions.size() <= 1) {
+      return new Iterator<Record>() {
+        private int next = 0;
+        private Iterator<Record> records = Collections.emptyIterator();
+
+        public boolean hasNext() {
+          while (!this.records.hasNext() && this.next < partitions.size()) {
+            Table partition = PartitionedTable.this.partitions[partitions.get(this.next++)];
+            this.records = RecordView.materialize(partition.viewIterator(fields, predicates));
+          }
+          return this.records.hasNext();
+        }
+
+        public Record next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return this.records.next();
+        }
+      };
+    }
+    return new ParallelScan(partitions, fields, predicates, parallelism);
+  }
+
+  /**
+   * A scan of several partitions at once. Every partition has a cursor, and
+   * a thread of the scan pool reads SCAN_CHUNK_SIZE records from a cursor at
+   * a time. Up to parallelism cursors are read at once; when the scan takes
+   * the chunk of a cursor, the cursor is read again right away if it isn't
+   * exhausted, and replaced with the next cursor otherwise. A scan thus holds
+   * at most parallelism chunks that haven't been returned yet, besides the
+   * one it is returning.
+   *
+   * The threads never wait for the scan, so a scan that is dropped before
+   * it is done only leaves the chunks that are being read behind.
+   */
+  private class ParallelScan implements Iterator<Record> {
+    private final CompletionService<Chunk> chunks;
+    // The cursors that haven't been read from yet.
+    private final Deque<Cursor> waiting;
+    private int numInFlight;
+    private Iterator<Record> records;
+
+    ParallelScan(List<Integer> partitions, int[] fields, List<ZonePredicate> predicates,
+                 int parallelism) {
+      this.chunks = new ExecutorCompletionService<Chunk>(getScanExecutor());
+      this.waiting = new ArrayDeque<Cursor>();
+      for (int i : partitions) {
+        this.waiting.add(new Cursor(PartitionedTable.this.partitions[i], fields, predicates));
+      }
+      this.numInFlight = 0;
+      this.records = Collections.emptyIterator();
+      while (this.numInFlight < parallelism && !this.waiting.isEmpty()) {
+        submit(this.waiting.poll());
+      }
+    }
+
+    public boolean hasNext() {
+      while (!this.records.hasNext() && this.numInFlight > 0) {
+        Chunk chunk = take();
+        if (!chunk.exhausted) {
+          submit(chunk.cursor);
+        } else if (!this.waiting.isEmpty()) {
+          submit(this.waiting.poll());
+        }
+        this.records = chunk.records.iterator();
+      }
+      return this.records.hasNext();
+    }
+
+    public Record next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return this.records.next();
+    }
+
+    private void submit(Cursor cursor) {
+      this.chunks.submit(cursor::read);
+      this.numInFlight++;
+    }
+
+    private Chunk take() {
+      try {
+        Chunk chunk = this.chunks.take().get();
+        this.numInFlight--;
+        return chunk;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while scanning table " +
+                                        PartitionedTable.this.name + ".", e);
+      } catch (ExecutionException e) {
+        this.numInFlight--;
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+      }
+    }
+  }
+
+  /**
+   * Where a parallel scan is in a partition. The records are read by one
+   * thread of the scan pool at a time, which the completion of the previous
+   * read happens before.
+   */
+  private static class Cursor {
+    private final Table partition;
+    private final int[] fields;
+    private final List<ZonePredicate> predicates;
+    private Iterator<RecordView> views;
+
+    Cursor(Table partition, int[] fields, List<ZonePredicate> predicates) {
+      this.partition = partition;
+      this.fields = fields;
+      this.predicates = predicates;
+      this.views = null;
+    }
+
+    Chunk read() {
+      if (this.views == null) {
+        this.views = this.partition.viewIterator(this.fields, this.predicates);
+      }
+      List<Record> records = new ArrayList<Record>(SCAN_CHUNK_SIZE);
+      while (records.size() < SCAN_CHUNK_SIZE && this.views.hasNext()) {
+        records.add(this.views.next().materialize());
+      }
+      return new Chunk(this, records, !this.views.hasNext());
+    }
+  }
+
+  /**
+   * The records that were read from a cursor at once.
+   */
+  private static class Chunk {
+    private final Cursor cursor;
+    private final List<Record> records;
+    private final boolean exhausted;
+
+    Chunk(Cursor cursor, List<Record> records, boolean exhausted) {
+      this.cursor = cursor;
+      this.records = records;
+      this.exhausted = exhausted;
+    }
+  }
+
+  /**
+   * Returns the pool of threads that parallel scans read partitions on,
+   * which all partitioned tables share. It has a thread per processor, whose
+   * threads are daemons that go away when the pool is idle.
+   */
+  private static synchronized ThreadPoolExecutor getScanExecutor() {
+    if (scanExecutor == null) {
+      int numThreads = Runtime.getRuntime().availableProcessors();
+      AtomicInteger numCreated = new AtomicInteger(0);
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          numThreads, numThreads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+            Thread thread = new Thread(r, "partition-scan-" + numCreated.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+          });
+      executor.allowCoreThreadTimeOut(true);
+      scanExecutor = executor;
+    }
+    return scanExecutor;
+  }
+
+  // Helpers ///////////////////////////////////////////////////////////////////
+  private String partitionName(int i) {
+    return this.name + "#" + i;
+  }
+
+  private String partitionFilename(int i) {
+    return Paths.get(this.dirname, i + Table.FILENAME_EXTENSION).toString();
+  }
+
+  /**
+   * @return the partition that rid is a record of
+   */
+  private Table partitionOf(RecordId rid) throws DatabaseException {
+    int partition = rid.getPageNum() >>> PARTITION_SHIFT;
+    if (partition >= this.partitions.length) {
+      throw new DatabaseException("Record " + rid + " is not a record of table " +
+                                  this.name + ".");
+    }
+    return this.partitions[partition];
+  }
+
+  private static RecordId toGlobal(int partition, RecordId rid) {
+    return new RecordId((partition << PARTITION_SHIFT) | rid.getPageNum(), rid.getEntryNum());
+  }
+
+  private static RecordId toLocal(RecordId rid) {
+    return new RecordId(rid.getPageNum() & LOCAL_PAGE_MASK, rid.getEntryNum());
+  }
+
+  private void writePartitioning() throws DatabaseException {
+    byte[] bytes = this.partitioning.toBytes(this.schema.getFieldTypes().get(this.keyField));
+    Path path = Paths.get(this.dirname, PARTITIONING_FILENAME);
+    Path temp = Paths.get(this.dirname, PARTITIONING_FILENAME + ".tmp");
+    try {
+      Files.write(temp, bytes);
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new DatabaseException("Can't write the partitioning of table " + this.name + ": " +
+                                  e.getMessage());
+    }
+  }
+
+  private Partitioning readPartitioning() throws DatabaseException {
+    try {
+      byte[] bytes = Files.readAllBytes(Paths.get(this.dirname, PARTITIONING_FILENAME));
+      return Partitioning.fromBytes(ByteBuffer.wrap(bytes));
+    } catch (IOException | BufferUnderflowException | IllegalArgumentException |
+             IndexOutOfBoundsException | NegativeArraySizeException e) {
+      throw new DatabaseException("Can't read the partitioning of table " + this.name + ": " + e);
+    }
+  }
+}
@@ -0,0 +1,243 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.query.QueryPlan;
+
+/**
+ * How the records of a partitioned table are spread over its partitions (see
+ * PartitionedTable): by the hash of the value of one column, the partition
+ * key, or by the range that the value falls into.
+ *
+ *   // Four partitions, each with about a quarter of the sids.
+ *   Partitioning byHash = Partitioning.hash("sid", 4);
+ *
+ *   // Three partitions: gpa < 2.0, 2.0 <= gpa < 3.0, and 3.0 <= gpa.
+ *   Partitioning byRange = Partitioning.range("gpa",
+ *       Arrays.asList(new FloatDataBox(2.0f), new FloatDataBox(3.0f)));
+ *
+ * A range partitioning with n bounds has n + 1 partitions: partition i holds
+ * the keys from bound i - 1, included, up to bound i, excluded, and the first
+ * and last partitions are open on their outer side.
+ *
+ * A partitioning also says which partitions may hold the records that
+ * satisfy a predicate on the partition key (see partitionsFor), so that a
+ * scan needn't read the others.
+ */
+public class Partitioning {
+  /**
+   * The most partitions a table may have; a record id has room for the
+   * partition of a record in the upper byte of its page number (see
+   * PartitionedTable).
+   */
+  public static final int MAX_PARTITIONS = 128;
+
+  public enum Method {
+    HASH,
+    RANGE
+  }
+
+  private final Method method;
+  private final String column;
+  private final int numPartitions;
+  // The upper bounds of all partitions but the last, in ascending order, for
+  // a range partitioning, and none for a hash partitioning.
+  private final List<DataBox> bounds;
+
+  private Partitioning(Method method, String column, int numPartitions, List<DataBox> bounds) {
+    this.method = method;
+    this.column = column;
+    this.numPartitions = numPartitions;
+    this.bounds = Collections.unmodifiableList(new ArrayList<DataBox>(bounds));
+  }
+
+  /**
+   * @return a partitioning of the records into numPartitions partitions by
+   * the hash of their value of column
+   */
+  public static Partitioning hash(String column, int numPartitions) {
+    return new Partitioning(Method.HASH, column, numPartitions, new ArrayList<DataBox>());
+  }
+
+  /**
+   * @return a partitioning of the records into bounds.size() + 1 partitions
+   * by the range of bounds their value of column falls into
+   */
+  public static Partitioning range(String column, List<DataBox> bounds) {
+    return new Partitioning(Method.RANGE, column, bounds.size() + 1, bounds);
+  }
+
+  // Accessors /////////////////////////////////////////////////////////////////
+  public Method getMethod() {
+    return this.method;
+  }
+
+  public String getColumn() {
+    return this.column;
+  }
+
+  public int getNumPartitions() {
+    return this.numPartitions;
+  }
+
+  public List<DataBox> getBounds() {
+    return this.bounds;
+  }
+
+  /**
+   * Checks that the partitioning fits a table with schema schema, and returns
+   * the index of the partition key in the schema.
+   *
+   * @throws DatabaseException if the schema has no such column, the bounds
+   * aren't of its type or aren't in strictly ascending order, or there are
+   * too many or too few partitions
+   */
+  int validate(Schema schema) throws DatabaseException {
+    int field = schema.getFieldNames().indexOf(this.column);
+    if (field == -1) {
+      throw new DatabaseException("Partition key " + this.column + " is not a column.");
+    }
+    if (this.numPartitions < 1 || this.numPartitions > MAX_PARTITIONS) {
+      throw new DatabaseException("A table has between 1 and " + MAX_PARTITIONS +
+                                  " partitions, not " + this.numPartitions + ".");
+    }
+    Type keyType = schema.getFieldTypes().get(field);
+    for (int i = 0; i < this.bounds.size(); ++i) {
+      DataBox bound = this.bounds.get(i);
+      if (!bound.type().equals(keyType)) {
+        throw new DatabaseException("Bound " + bound + " is not of type " + keyType + ".");
+      }
+      if (i > 0 && this.bounds.get(i - 1).compareTo(bound) >= 0) {
+        throw new DatabaseException("Bounds must be in strictly ascending order.");
+      }
+    }
+    return field;
+  }
+
+  // Partitions ////////////////////////////////////////////////////////////////
+  /**
+   * @return the partition of the records whose partition key is key
+   */
+  public int partitionOf(DataBox key) {
+    if (this.method == Method.HASH) {
+      return Math.floorMod(spread(key.hashCode()), this.numPartitions);
+    }
+    // The number of bounds that are at most key.
+    int lo = 0;
+    int hi = this.bounds.size();
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (this.bounds.get(mid).compareTo(key) <= 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * @return the partitions, in ascending order, that may hold a record whose
+   * partition key satisfies `key operator value`. A hash partitioning can
+   * only rule partitions out for an equality, and neither kind can for a
+   * value of another type than the key's.
+   */
+  public List<Integer> partitionsFor(QueryPlan.PredicateOperator operator, DataBox value) {
+    int first = 0;
+    int last = this.numPartitions - 1;
+    boolean comparable = this.bounds.isEmpty() ||
+                         this.bounds.get(0).type().equals(value.type());
+    if (operator == QueryPlan.PredicateOperator.EQUALS && this.method == Method.HASH) {
+      first = last = partitionOf(value);
+    } else if (this.method == Method.RANGE && comparable) {
+      int p = partitionOf(value);
+      switch (operator) {
+        case EQUALS:
+          first = last = p;
+          break;
+        case LESS_THAN:
+          // The keys below a bound are all in the partitions before it.
+          last = p > 0 && this.bounds.get(p - 1).equals(value) ? p - 1 : p;
+          break;
+        case LESS_THAN_EQUALS:
+          last = p;
+          break;
+        case GREATER_THAN:
+        case GREATER_THAN_EQUALS:
+          first = p;
+          break;
+        default:
+          break;
+      }
+    }
+    List<Integer> partitions = new ArrayList<Integer>();
+    for (int i = first; i <= last; ++i) {
+      partitions.add(i);
+    }
+    return partitions;
+  }
+
+  /**
+   * Spreads the bits of a hash code. Those of small ints are the ints
+   * themselves, so keys that are a multiple of the number of partitions apart
+   * would otherwise all go to the same partition.
+   */
+  private static int spread(int h) {
+    h *= 0x9e3779b9;
+    return h ^ (h >>> 16);
+  }
+
+  // Serialization /////////////////////////////////////////////////////////////
+  /**
+   * Serializes the partitioning of a table whose partition key is of type
+   * keyType, which fromBytes reads back along with the bounds.
+   */
+  public byte[] toBytes(Type keyType) {
+    byte[] column = this.column.getBytes(Charset.forName("UTF-8"));
+    int size = 4 + 4 + column.length + 4 + 8 + 4;
+    for (DataBox bound : this.bounds) {
+      size += bound.toBytes().length;
+    }
+    ByteBuffer buf = ByteBuffer.allocate(size);
+    buf.putInt(this.method.ordinal());
+    buf.putInt(column.length);
+    buf.put(column);
+    buf.putInt(this.numPartitions);
+    buf.put(keyType.toBytes());
+    buf.putInt(this.bounds.size());
+    for (DataBox bound : this.bounds) {
+      buf.put(bound.toBytes());
+    }
+    return buf.array();
+  }
+
+  public static Partitioning fromBytes(ByteBuffer buf) {
+    Method method = Method.values()[buf.getInt()];
+    byte[] column = new byte[buf.getInt()];
+    buf.get(column);
+    int numPartitions = buf.getInt();
+    Type keyType = Type.fromBytes(buf);
+    List<DataBox> bounds = new ArrayList<DataBox>();
+    int numBounds = buf.getInt();
+    for (int i = 0; i < numBounds; ++i) {
+      bounds.add(DataBox.fromBytes(buf, keyType));
+    }
+    return new Partitioning(method, new String(column, Charset.forName("UTF-8")), numPartitions,
+                            bounds);
+  }
+
+  @Override
+  public String toString() {
+    if (this.method == Method.HASH) {
+      return "HASH(" + this.column + ") into " + this.numPartitions;
+    }
+    return "RANGE(" + this.column + ") at " + this.bounds;
+  }
+}
@@ -14,14 +14,27 @@ import edu.berkeley.cs186.database.DatabaseException;
  *   recordIterator.next(); // equivalent to t.getRecord(ridIterator.next())
  *   recordIterator.next(); // equivalent to t.getRecord(ridIterator.next())
  *   recordIterator.next(); // equivalent to t.getRecord(ridIterator.next())
+ *
+ * If ridIter is an iterator over a whole table (see Table#ridIterator), the
+ * records are read from the copy of the page that ridIter took instead of
+ * being fetched again, so that a scan only touches each page once.
+ *
+ * A RecordIterator can also be restricted to some of the fields of the
+ * records, in which case it only decodes those (see Table#getRecord).
  */
 public class RecordIterator implements BacktrackingIterator<Record> {
   private Iterator<RecordId> ridIter;
   private Table table;
+  private int[] fields;
 
   public RecordIterator(Table table, Iterator<RecordId> ridIter) {
+    this(table, ridIter, null);
+  }
+
+  public RecordIterator(Table table, Iterator<RecordId> ridIter, int[] fields) {
     this.ridIter = ridIter;
     this.table = table;
+    this.fields = fields;
   }
 
 
@@ -31,7 +44,11 @@ public class RecordIterator implements BacktrackingIterator<Record> {
 
   public Record next() {
     try {
-      return table.getRecord(ridIter.next());
+      RecordId rid = ridIter.next();
+      if (ridIter instanceof Table.TableIterator) {
+        return ((Table.TableIterator) ridIter).readRecord(fields);
+      }
+      return table.getRecord(rid, fields);
     } catch (DatabaseException e) {
       throw new IllegalStateException(e);
     }
@@ -0,0 +1,208 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * A RecordView is a record that is read in place. It points at a slot of a
+ * data page, laid out as told by a PageLayout, and decodes a field only when the field is asked for,
+ * so that an operator that looks at one or two columns of a row doesn't pay
+ * for building a DataBox for every one of them. For example,
+ *
+ *   Iterator<RecordView> views = table.viewIterator();
+ *   while (views.hasNext()) {
+ *     RecordView view = views.next();
+ *     if (view.getValue(0).equals(key)) {
+ *       result.add(view.materialize());
+ *     }
+ *   }
+ *
+ * only builds a Record for the rows that match.
+ *
+ * Views are flyweights: an iterator of views hands out the same RecordView
+ * for every row and moves it along, and a view points at a page that may be
+ * evicted and reused once the iterator has moved past it. A view must
+ * therefore not be kept after the next call to its iterator; call
+ * materialize to keep the row.
+ *
+ * A view can also be restricted to some of the fields of the records it
+ * reads, in which case it behaves as if the records only had those fields:
+ * field i of the view is field fields[i] of the record on the page, and
+ * materialize only decodes those fields.
+ *
+ * Finally, a view can stand in for a Record that is materialized already (see
+ * RecordView#of), so that operators can read every source the same way. Such
+ * a record is taken to have the fields of the view already.
+ */
+public class RecordView {
+  private PageLayout layout;
+  private final Schema schema;
+  // fields[i] is the field of the record on the page that is field i of the view, or null if the
+  // view has every field of the record.
+  private final int[] fields;
+
+  // The page and slot of the row, or the row itself if it is materialized.
+  private Page page;
+  private int entryNum;
+  private Record record;
+
+  /**
+   * Creates a view of the records of schema schema, laid out in rows.
+   */
+  public RecordView(Schema schema) {
+    this(PageLayout.of(PageLayout.Format.ROW, schema), null);
+  }
+
+  /**
+   * Creates a view of the fields whose indices are in fields of the records
+   * of pages laid out as layout says, or of all of their fields if fields is
+   * null.
+   */
+  public RecordView(PageLayout layout, int[] fields) {
+    this.layout = layout;
+    this.fields = fields;
+    this.schema = fields == null ? layout.getSchema() : layout.getSchema().project(fields);
+    this.page = null;
+    this.entryNum = 0;
+    this.record = null;
+  }
+
+  /**
+   * Points this view at the record in slot entryNum of page. The page must
+   * stay resident for as long as the view is read.
+   */
+  public void moveTo(Page page, int entryNum) {
+    this.page = page;
+    this.entryNum = entryNum;
+    this.record = null;
+  }
+
+  /**
+   * Like moveTo(page, entryNum), for a page laid out as layout says, which
+   * has the schema of the view's layout but may encode other columns (see
+   * Table#encodeColumns).
+   */
+  public void moveTo(PageLayout layout, Page page, int entryNum) {
+    this.layout = layout;
+    moveTo(page, entryNum);
+  }
+
+  /**
+   * Points this view at a record that is materialized already.
+   */
+  public void moveTo(Record record) {
+    this.page = null;
+    this.entryNum = 0;
+    this.record = record;
+  }
+
+  /**
+   * @return the schema of the view, i.e. of the fields it exposes
+   */
+  public Schema getSchema() {
+    return this.schema;
+  }
+
+  public int getNumFields() {
+    return this.schema.getFieldTypes().size();
+  }
+
+  /**
+   * @return whether this view stands for a Record that is materialized
+   * already, in which case materialize returns that very Record
+   */
+  public boolean isMaterialized() {
+    return this.record != null;
+  }
+
+  /**
+   * Decodes field i of the record.
+   */
+  public DataBox getValue(int i) {
+    if (this.record != null) {
+      return this.record.getValues().get(i);
+    }
+    return this.layout.readValue(this.page, this.entryNum, this.fields == null ? i : this.fields[i]);
+  }
+
+  /**
+   * @return the dictionary that field i is encoded with on the page, or null
+   * if it isn't dictionary encoded or the view stands for a materialized
+   * record (see StringDictionary). It is the same for every record of a
+   * page, but a scan may get to pages that were encoded after it started.
+   */
+  public StringDictionary getDictionary(int i) {
+    if (this.record != null) {
+      return null;
+    }
+    return this.layout.getDictionary(this.fields == null ? i : this.fields[i]);
+  }
+
+  /**
+   * Reads the code of field i, which must be dictionary encoded, without
+   * decoding it.
+   */
+  public int getCode(int i) {
+    return this.layout.readInt(this.page, this.entryNum, this.fields == null ? i : this.fields[i]);
+  }
+
+  /**
+   * Decodes the fields of the view. The Record returned is independent of
+   * the page, and can be kept after the view moves on.
+   */
+  public Record materialize() {
+    if (this.record != null) {
+      return this.record;
+    }
+    if (this.fields == null) {
+      return this.layout.readRecord(this.page, this.entryNum);
+    }
+    List<DataBox> values = new ArrayList<DataBox>(this.fields.length);
+    for (int i = 0; i < this.fields.length; ++i) {
+      values.add(getValue(i));
+    }
+    return new Record(values);
+  }
+
+  @Override
+  public String toString() {
+    return materialize().toString();
+  }
+
+  /**
+   * Materializes the views of an iterator of views one by one.
+   */
+  public static Iterator<Record> materialize(Iterator<RecordView> views) {
+    return new Iterator<Record>() {
+      public boolean hasNext() {
+        return views.hasNext();
+      }
+
+      public Record next() {
+        return views.next().materialize();
+      }
+    };
+  }
+
+  /**
+   * Wraps an iterator of materialized records into an iterator of views,
+   * all of them the same view.
+   */
+  public static Iterator<RecordView> of(Schema schema, Iterator<Record> records) {
+    RecordView view = new RecordView(schema);
+    return new Iterator<RecordView>() {
+      public boolean hasNext() {
+        return records.hasNext();
+      }
+
+      public RecordView next() {
+        view.moveTo(records.next());
+        return view;
+      }
+    };
+  }
+}
@@ -48,6 +48,21 @@ public class Schema {
     return sizeInBytes;
   }
 
+  /**
+   * Returns the schema of the fields of this schema whose indices are in
+   * fields, in that order. For example, projecting the schema (x: int, y:
+   * float, z: bool) on {2, 0} gives (z: bool, x: int).
+   */
+  public Schema project(int[] fields) {
+    List<String> names = new ArrayList<>();
+    List<Type> types = new ArrayList<>();
+    for (int i : fields) {
+      names.add(fieldNames.get(i));
+      types.add(fieldTypes.get(i));
+    }
+    return new Schema(names, types);
+  }
+
   // TODO(mwhittaker): Rename to something more descriptive.
   public Record verify(List<DataBox> values) throws DatabaseException {
     if (values.size() != fieldNames.size()) {
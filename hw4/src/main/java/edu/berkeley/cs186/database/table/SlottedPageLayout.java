@@ -0,0 +1,431 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * The layout of SLOTTED pages, which hold variable-length records:
+ *
+ *   +--------+--------+--------+-----+---------------+----------+----------+
+ *   | header | slot 0 | slot 1 | ... |  free space   | record 1 | record 0 |
+ *   +--------+--------+--------+-----+---------------+----------+----------+
+ *    \________________________________/               \____________________/
+ *          grows towards the end                     grows towards the start
+ *
+ * The header is a 4-byte int whose high 16 bits are the number of slots and
+ * whose low 16 bits are the offset of the start of the records (0 in a page
+ * that was never written, which stands for the end of the page). Every slot is
+ * a 4-byte int whose high 16 bits are the offset of its record and whose low
+ * 16 bits are its length, with the two top bits used as flags:
+ *
+ *   - a slot of 0 is free;
+ *   - a FORWARD slot holds the 8-byte id (page, slot) that the record with
+ *     the slot's id moved to when it grew too large for its page;
+ *   - a MOVED slot holds a record that moved there, preceded by the 8-byte id
+ *     of its home slot, which is the record's id.
+ *
+ * A record is its fields one after the other: booleans, integers and floats
+ * take their usual size, and strings a 2-byte length followed by their
+ * characters without the spaces that pad them to their declared width. A
+ * record takes at least 8 bytes, so that any record can be replaced by a
+ * forward in place.
+ *
+ * Records that shrink stay where they are, and records that grow move to the
+ * free space of the page; deletes just free the slot. The space freed is
+ * reclaimed by compacting the page the next time a record doesn't fit in the
+ * free space between the slots and the records. Slots are never moved, so a
+ * record's id stays the same for its lifetime.
+ */
+class SlottedPageLayout extends PageLayout {
+  private static final int HEADER_SIZE = 4;
+  private static final int SLOT_SIZE = 4;
+  private static final int FORWARD = 0x8000;
+  private static final int MOVED = 0x4000;
+  private static final int LENGTH_MASK = 0x3fff;
+  // The size of a record id: a page number and a slot, both ints.
+  private static final int RID_SIZE = 8;
+
+  private final List<Type> types;
+  private final int maxRecordSize;
+  private final int maxNumSlots;
+
+  SlottedPageLayout(Schema schema) {
+    super(Format.SLOTTED, schema, null);
+    this.types = schema.getFieldTypes();
+    int minRecordSize = 0;
+    int maxRecordSize = 0;
+    for (Type type : this.types) {
+      if (type.getTypeId() == TypeId.STRING) {
+        minRecordSize += 2;
+        maxRecordSize += 2 + type.getSizeInBytes();
+      } else {
+        minRecordSize += type.getSizeInBytes();
+        maxRecordSize += type.getSizeInBytes();
+      }
+    }
+    this.maxRecordSize = Math.max(RID_SIZE, maxRecordSize);
+    this.maxNumSlots = Math.min(Short.MAX_VALUE, (Page.pageSize - HEADER_SIZE) /
+                                (SLOT_SIZE + Math.max(RID_SIZE, minRecordSize)));
+  }
+
+  // Accessors /////////////////////////////////////////////////////////////////
+  @Override
+  public int getNumRecordsPerPage() {
+    return this.maxNumSlots;
+  }
+
+  // Slots /////////////////////////////////////////////////////////////////////
+  @Override
+  public int getNumSlots(Page page) {
+    return page.getInt(0) >>> 16;
+  }
+
+  private static int getRecordsStart(Page page) {
+    int start = page.getInt(0) & 0xffff;
+    return start == 0 ? Page.pageSize : start;
+  }
+
+  private static void setHeader(Page page, int numSlots, int recordsStart) {
+    page.writeInt(0, (numSlots << 16) | recordsStart);
+  }
+
+  private static int getSlot(Page page, int entryNum) {
+    return page.getInt(HEADER_SIZE + entryNum * SLOT_SIZE);
+  }
+
+  private static void setSlot(Page page, int entryNum, int offset, int flagsAndLength) {
+    page.writeInt(HEADER_SIZE + entryNum * SLOT_SIZE, (offset << 16) | flagsAndLength);
+  }
+
+  private static int offsetOf(int slot) {
+    return slot >>> 16;
+  }
+
+  private static int lengthOf(int slot) {
+    return slot & LENGTH_MASK;
+  }
+
+  private static boolean hasFlag(int slot, int flag) {
+    return (slot & flag) != 0;
+  }
+
+  @Override
+  public boolean isSlotUsed(Page page, int entryNum) {
+    if (entryNum >= getNumSlots(page)) {
+      return false;
+    }
+    int slot = getSlot(page, entryNum);
+    return slot != 0 && !hasFlag(slot, FORWARD);
+  }
+
+  @Override
+  public RecordId getRecordId(Page page, int entryNum) {
+    int slot = getSlot(page, entryNum);
+    if (hasFlag(slot, MOVED)) {
+      return readRecordId(page, offsetOf(slot));
+    }
+    return super.getRecordId(page, entryNum);
+  }
+
+  @Override
+  RecordId getForward(Page page, int entryNum) {
+    if (entryNum >= getNumSlots(page)) {
+      return null;
+    }
+    int slot = getSlot(page, entryNum);
+    return hasFlag(slot, FORWARD) ? readRecordId(page, offsetOf(slot)) : null;
+  }
+
+  private static RecordId readRecordId(Page page, int offset) {
+    return new RecordId(page.getInt(offset), (short) page.getInt(offset + 4));
+  }
+
+  @Override
+  int numRecordsOnPage(Page page) {
+    int numRecords = 0;
+    for (int i = 0; i < getNumSlots(page); ++i) {
+      if (isSlotUsed(page, i)) {
+        numRecords++;
+      }
+    }
+    return numRecords;
+  }
+
+  /**
+   * @return the number of bytes of page taken by the header, the slots and
+   * the records
+   */
+  private static int usedBytes(Page page) {
+    int numSlots = page.getInt(0) >>> 16;
+    int used = HEADER_SIZE + numSlots * SLOT_SIZE;
+    for (int i = 0; i < numSlots; ++i) {
+      used += lengthOf(getSlot(page, i));
+    }
+    return used;
+  }
+
+  /**
+   * @return the slot that a new record of page would go to, or -1 if all the
+   * slots a page can have are used
+   */
+  private int freeSlot(Page page) {
+    int numSlots = getNumSlots(page);
+    for (int i = 0; i < numSlots; ++i) {
+      if (getSlot(page, i) == 0) {
+        return i;
+      }
+    }
+    return numSlots < this.maxNumSlots ? numSlots : -1;
+  }
+
+  @Override
+  int getFillLevel(Page page) {
+    // A page is FULL unless it has room for the largest record that can move to it, and its slot.
+    int reserved = SLOT_SIZE + RID_SIZE + this.maxRecordSize;
+    int used = usedBytes(page);
+    if (Page.pageSize - used < reserved || freeSlot(page) == -1) {
+      return FreeSpaceMap.FULL;
+    }
+    return FreeSpaceMap.fillLevel(used, Page.pageSize - reserved);
+  }
+
+  // Records ///////////////////////////////////////////////////////////////////
+  /**
+   * @return the offset of the first field of the record in used slot
+   * entryNum of page
+   */
+  private static int recordStart(Page page, int entryNum) {
+    int slot = getSlot(page, entryNum);
+    return offsetOf(slot) + (hasFlag(slot, MOVED) ? RID_SIZE : 0);
+  }
+
+  private static int readShort(Page page, int offset) {
+    return ((page.getByte(offset) & 0xff) << 8) | (page.getByte(offset + 1) & 0xff);
+  }
+
+  /**
+   * @return the number of bytes taken by the field of type type that starts
+   * at offset of page
+   */
+  private static int fieldSize(Page page, int offset, Type type) {
+    if (type.getTypeId() == TypeId.STRING) {
+      return 2 + readShort(page, offset);
+    }
+    return type.getSizeInBytes();
+  }
+
+  private static DataBox decode(Page page, int offset, Type type) {
+    switch (type.getTypeId()) {
+      case BOOL:
+        return new BoolDataBox(page.getByte(offset) == 1);
+      case INT:
+        return new IntDataBox(page.getInt(offset));
+      case FLOAT:
+        return new FloatDataBox(page.getFloat(offset));
+      case STRING: {
+        byte[] bytes = new byte[readShort(page, offset)];
+        page.getBytes(offset + 2, bytes, 0, bytes.length);
+        String s = new String(bytes, Charset.forName("UTF-8"));
+        return new StringDataBox(s, type.getSizeInBytes());
+      }
+      default:
+        return DataBox.fromBytes(page.slice(offset, type.getSizeInBytes()), type);
+    }
+  }
+
+  @Override
+  public DataBox readValue(Page page, int entryNum, int field) {
+    int offset = recordStart(page, entryNum);
+    for (int i = 0; i < field; ++i) {
+      offset += fieldSize(page, offset, this.types.get(i));
+    }
+    return decode(page, offset, this.types.get(field));
+  }
+
+  @Override
+  public Record readRecord(Page page, int entryNum) {
+    int offset = recordStart(page, entryNum);
+    List<DataBox> values = new ArrayList<DataBox>(this.types.size());
+    for (Type type : this.types) {
+      values.add(decode(page, offset, type));
+      offset += fieldSize(page, offset, type);
+    }
+    return new Record(values);
+  }
+
+  /**
+   * Encodes record, preceded by home if it isn't null.
+   */
+  private byte[] encode(Record record, RecordId home) {
+    List<DataBox> values = record.getValues();
+    byte[][] strings = new byte[values.size()][];
+    int size = home == null ? 0 : RID_SIZE;
+    for (int i = 0; i < values.size(); ++i) {
+      if (this.types.get(i).getTypeId() == TypeId.STRING) {
+        String s = values.get(i).getString();
+        int length = s.length();
+        while (length > 0 && s.charAt(length - 1) == ' ') {
+          length--;
+        }
+        strings[i] = s.substring(0, length).getBytes(Charset.forName("UTF-8"));
+        size += 2 + strings[i].length;
+      } else {
+        size += this.types.get(i).getSizeInBytes();
+      }
+    }
+
+    ByteBuffer buf = ByteBuffer.allocate(Math.max(RID_SIZE, size));
+    if (home != null) {
+      buf.putInt(home.getPageNum());
+      buf.putInt(home.getEntryNum());
+    }
+    for (int i = 0; i < values.size(); ++i) {
+      if (strings[i] != null) {
+        buf.putShort((short) strings[i].length);
+        buf.put(strings[i]);
+      } else {
+        buf.put(values.get(i).toBytes());
+      }
+    }
+    return buf.array();
+  }
+
+  /**
+   * Puts bytes into a free slot of page, compacting the page first if the
+   * free space between the slots and the records is too small, and returns
+   * the slot, or -1 if the page has no room.
+   */
+  private int insertBytes(Page page, byte[] bytes, int flags) {
+    int entryNum = freeSlot(page);
+    if (entryNum == -1) {
+      return -1;
+    }
+    int numSlots = Math.max(getNumSlots(page), entryNum + 1);
+    int needed = bytes.length + (numSlots - getNumSlots(page)) * SLOT_SIZE;
+    if (Page.pageSize - usedBytes(page) < needed) {
+      return -1;
+    }
+    if (getRecordsStart(page) - HEADER_SIZE - getNumSlots(page) * SLOT_SIZE < needed) {
+      compact(page);
+    }
+    int offset = getRecordsStart(page) - bytes.length;
+    page.writeBytes(offset, bytes.length, bytes);
+    setSlot(page, entryNum, offset, flags | bytes.length);
+    setHeader(page, numSlots, offset);
+    return entryNum;
+  }
+
+  /**
+   * Moves the records of page next to each other at the end of the page, so
+   * that all of its free space is between the slots and the records.
+   */
+  private void compact(Page page) {
+    int numSlots = getNumSlots(page);
+    byte[][] records = new byte[numSlots][];
+    for (int i = 0; i < numSlots; ++i) {
+      int slot = getSlot(page, i);
+      if (slot != 0) {
+        records[i] = page.readBytes(offsetOf(slot), lengthOf(slot));
+      }
+    }
+    int offset = Page.pageSize;
+    for (int i = 0; i < numSlots; ++i) {
+      if (records[i] != null) {
+        offset -= records[i].length;
+        page.writeBytes(offset, records[i].length, records[i]);
+        setSlot(page, i, offset, getSlot(page, i) & 0xffff);
+      }
+    }
+    setHeader(page, numSlots, offset);
+  }
+
+  @Override
+  int insert(Page page, Record record) {
+    return insertBytes(page, encode(record, null), 0);
+  }
+
+  @Override
+  int insertMoved(Page page, Record record, RecordId home) {
+    return insertBytes(page, encode(record, home), MOVED);
+  }
+
+  @Override
+  boolean update(Page page, int entryNum, Record record) {
+    int slot = getSlot(page, entryNum);
+    int flags = hasFlag(slot, MOVED) ? MOVED : 0;
+    byte[] bytes = encode(record, flags == MOVED ? getRecordId(page, entryNum) : null);
+    if (bytes.length <= lengthOf(slot)) {
+      // The record fits where the old one was.
+      page.writeBytes(offsetOf(slot), bytes.length, bytes);
+      setSlot(page, entryNum, offsetOf(slot), flags | bytes.length);
+      return true;
+    }
+    if (Page.pageSize - usedBytes(page) + lengthOf(slot) < bytes.length) {
+      return false;
+    }
+    // Free the old record, so that compacting the page reclaims its space too.
+    setSlot(page, entryNum, 0, 0);
+    if (getRecordsStart(page) - HEADER_SIZE - getNumSlots(page) * SLOT_SIZE < bytes.length) {
+      compact(page);
+    }
+    int offset = getRecordsStart(page) - bytes.length;
+    page.writeBytes(offset, bytes.length, bytes);
+    setSlot(page, entryNum, offset, flags | bytes.length);
+    setHeader(page, getNumSlots(page), offset);
+    return true;
+  }
+
+  @Override
+  void delete(Page page, int entryNum) {
+    setSlot(page, entryNum, 0, 0);
+    int numSlots = getNumSlots(page);
+    while (numSlots > 0 && getSlot(page, numSlots - 1) == 0) {
+      numSlots--;
+    }
+    setHeader(page, numSlots, numSlots == 0 ? Page.pageSize : getRecordsStart(page));
+  }
+
+  @Override
+  void setForward(Page page, int entryNum, RecordId target) {
+    int offset = offsetOf(getSlot(page, entryNum));
+    page.writeInt(offset, target.getPageNum());
+    page.writeInt(offset + 4, target.getEntryNum());
+    setSlot(page, entryNum, offset, FORWARD | RID_SIZE);
+  }
+
+  // Bulk Loading //////////////////////////////////////////////////////////////
+  @Override
+  boolean appendRecord(ByteBuffer buf, int entryNum, Record record) {
+    int recordsStart = Page.pageSize;
+    if (entryNum > 0) {
+      recordsStart = buf.getInt(0) & 0xffff;
+    }
+    byte[] bytes = encode(record, null);
+    int slotsEnd = HEADER_SIZE + (entryNum + 1) * SLOT_SIZE;
+    if (entryNum >= this.maxNumSlots || recordsStart - bytes.length < slotsEnd) {
+      return false;
+    }
+    int offset = recordsStart - bytes.length;
+    buf.position(offset);
+    buf.put(bytes);
+    buf.putInt(HEADER_SIZE + entryNum * SLOT_SIZE, (offset << 16) | bytes.length);
+    buf.putInt(0, ((entryNum + 1) << 16) | offset);
+    return true;
+  }
+
+  @Override
+  void finishAppending(Page page, int numRecords) {
+    page.markDirty();
+  }
+}
@@ -0,0 +1,138 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+
+/**
+ * The dictionary of a dictionary encoded string column of a table: the
+ * distinct values of the column, numbered from 0 in the order they were first
+ * stored. The rows of the table store the code of their value instead of the
+ * value, which takes 4 bytes however wide the column is, and operators that
+ * only test values for equality compare codes rather than strings (see
+ * SelectOperator and JoinOperator):
+ *
+ *   StringDictionary dictionary = view.getDictionary(2);
+ *   int code = dictionary.getCode(new StringDataBox("Chemistry", 20));
+ *   if (code != -1 && view.getCode(2) == code) {
+ *     ...
+ *   }
+ *
+ * Codes follow the order in which values were first stored, not the order of
+ * the values, so range predicates still decode. A table picks the columns it
+ * encodes from its statistics when it is told to (see Table#encodeColumns),
+ * and new values are added to the dictionary as rows are stored. Dictionaries only
+ * grow: a value keeps its code after the last row that has it is deleted.
+ */
+public class StringDictionary {
+  // A column is only worth encoding if it has at most MAX_NUM_DISTINCT values,
+  // and at least MIN_ROWS_PER_VALUE rows per value on average.
+  static final int MAX_NUM_DISTINCT = 1 << 12;
+  static final int MIN_ROWS_PER_VALUE = 2;
+
+  private final Type type;
+  private final int field;
+  // Where values are persisted as they are added, or null.
+  private final DictionaryFile file;
+
+  private final Map<String, Integer> codes;
+  // values[c] is the value of code c. Guarded by this for writing; the array
+  // is replaced when it grows, so that it can be read without locking.
+  private volatile StringDataBox[] values;
+  private int size;
+
+  StringDictionary(Type type, int field, DictionaryFile file) {
+    this.type = type;
+    this.field = field;
+    this.file = file;
+    this.codes = new ConcurrentHashMap<String, Integer>();
+    this.values = new StringDataBox[16];
+    this.size = 0;
+  }
+
+  /**
+   * @return whether a column of type type, with numDistinct distinct values
+   * in numRecords rows, takes less room encoded than as it is
+   */
+  static boolean isWorthEncoding(Type type, int numDistinct, long numRecords) {
+    return type.getTypeId() == TypeId.STRING &&
+           type.getSizeInBytes() > Type.intType().getSizeInBytes() &&
+           numDistinct > 0 && numDistinct <= MAX_NUM_DISTINCT &&
+           (long) numDistinct * MIN_ROWS_PER_VALUE <= numRecords;
+  }
+
+  /**
+   * @return the index of the column this dictionary encodes in its table's
+   * schema
+   */
+  public int getField() {
+    return this.field;
+  }
+
+  /**
+   * @return the number of values in the dictionary
+   */
+  public synchronized int size() {
+    return this.size;
+  }
+
+  /**
+   * @return the code of value, or -1 if no row of the column ever had it
+   */
+  public int getCode(DataBox value) {
+    if (!(value instanceof StringDataBox)) {
+      return -1;
+    }
+    Integer code = this.codes.get(value.getString());
+    return code == null ? -1 : code;
+  }
+
+  /**
+   * @return the value of code. The same DataBox is returned every time.
+   */
+  public StringDataBox decode(int code) {
+    return this.values[code];
+  }
+
+  /**
+   * Returns the code of value, adding it to the dictionary, and persisting
+   * it, if it isn't there yet.
+   */
+  int encode(DataBox value) {
+    Integer code = this.codes.get(value.getString());
+    if (code != null) {
+      return code;
+    }
+    synchronized (this) {
+      code = this.codes.get(value.getString());
+      if (code != null) {
+        return code;
+      }
+      if (this.file != null) {
+        this.file.append(this.field, value.getString());
+      }
+      return add(value.getString());
+    }
+  }
+
+  /**
+   * Gives value the next code, without persisting it, e.g. when the
+   * dictionary is read back from its file.
+   */
+  synchronized int add(String value) {
+    StringDataBox[] values = this.values;
+    if (this.size == values.length) {
+      values = Arrays.copyOf(values, 2 * values.length);
+    }
+    values[this.size] = new StringDataBox(value, this.type.getSizeInBytes());
+    // Publish the value before its code, so that whoever reads a code can decode it.
+    this.values = values;
+    this.codes.put(value, this.size);
+    return this.size++;
+  }
+}
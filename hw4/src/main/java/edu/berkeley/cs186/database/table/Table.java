@@ -2,20 +2,37 @@ package edu.berkeley.cs186.database.table;
 
 import java.util.Arrays;
 import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.zip.CRC32;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.common.ArrayBacktrackingIterator;
 import edu.berkeley.cs186.database.common.BacktrackingIterator;
-import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.BloomFilter;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.io.PageAllocator.PageIterator;
+import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.table.stats.Histogram;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 /**
@@ -57,7 +74,7 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
  * Now, we discuss how tables serialize their data into files.
  *
  *   1. Each file begins with a header page into which tables serialize their
- *      schema.
+ *      schema, followed by a 4-byte code of their format (see below).
  *   2. All remaining pages are data pages. Every data page begins with an
  *      n-byte bitmap followed by m records. The bitmap indicates which records
  *      in the page are valid. The values of n and m are set to maximize the
@@ -92,12 +109,108 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
  *  - The third and fourth page (Page 2 and 3) are also data pages and are
  *    formatted similar to Page 1.
  *
- *  When we add a record to a table, we add it to the very first free slot in
- *  the table. See addRecord for more information.
+ *  When we add a record to a table, we add it to a free slot of one of the
+ *  first few data pages with room, as told by the table's free-space map.
+ *  See addRecord and FreeSpaceMap for more information.
+ *
+ *  The cartoon shows a table in the default ROW format, in which a record's
+ *  bytes are next to each other. A table can instead be created in the PAX
+ *  format, which keeps the same bitmap and number of records per page but
+ *  groups the values of each column together within the page, or in the
+ *  SLOTTED format, whose pages hold variable-length records behind a slot
+ *  directory, so that strings don't take their declared width:
+ *
+ *   Table t = new Table("t", schema, "t.table", bufferPool, PageLayout.Format.PAX);
+ *
+ *  Every method of a table works the same in any format; see PageLayout
+ *  for the details, and columnIterator for reading one column of a table.
+ *  A record of a SLOTTED table that grows too large for its page when it is
+ *  updated moves to another page, and leaves a forward behind in its slot,
+ *  so that its record id doesn't change (see updateRecord).
+ *
+ * # Metadata
+ * The number of records is kept in memory, and how full every data page is
+ * in the free-space map, which lives in a file of its own ("t.table.fsm" for
+ * "t.table"). Rebuilding them means reading every data page, so a table that
+ * is closed or checkpointed also persists the number of records in a
+ * metadata file next to its data file ("t.table.meta"):
+ *
+ *   +-------+---------+------------+----------+------------+---------+-------+
+ *   | magic | version | numRecords | numPages | numFilters | filters | CRC32 |
+ *   | (4)   | (4)     | (8)        | (4)      | (4)        |         | (8)   |
+ *   +-------+---------+------------+----------+------------+---------+-------+
+ *
+ * where every filter is the index of a column followed by its Bloom filter
+ * (see below and BloomFilter#toBytes).
+ *
+ * Opening a table reads the metadata file instead of the data pages if the
+ * file is intact and describes a file with as many pages as the table has.
+ * The first modification that changes the metadata deletes the file before
+ * it is made, so a table that is not closed cleanly is rebuilt from its data
+ * pages, free-space map included, when it is opened again.
+ *
+ * # Zone Maps
+ * A table also keeps, in memory, the smallest and largest value of every
+ * column on every data page (see ZoneMap). A scan that is given predicates
+ * on the table's columns skips the pages whose values can't satisfy them,
+ * without fetching them:
+ *
+ *   List<ZonePredicate> predicates = Arrays.asList(
+ *       new ZonePredicate(0, PredicateOperator.LESS_THAN, new IntDataBox(10)));
+ *   Iterator<RecordView> views = t.viewIterator(null, predicates);
+ *
+ * The pages it doesn't skip may still hold records that don't satisfy the
+ * predicates, so the caller filters the records as usual.
+ *
+ * # Bloom Filters
+ * Any column can also have a Bloom filter of its values (see BloomFilter),
+ * which says for sure when no record has a value there, so that a lookup of
+ * the value needn't read the table or its index:
+ *
+ *   t.buildBloomFilter(0);
+ *   t.mightContain(0, new IntDataBox(10)); // false unless some x is 10
+ *
+ * The columns that have filters are listed in the header page, after the
+ * encoded columns, and the filters themselves are kept in memory and saved
+ * with the metadata, which is only valid along with them. Inserts and
+ * updates add their values to the filters, but deletes don't take them out,
+ * so a filter only grows less precise; buildBloomFilter builds it anew,
+ * sized for the table as it is then. A table that is opened without its
+ * metadata rebuilds its filters as it reads its data pages.
+ *
+ * # Latching
+ * Records are read and written under the latch of their data page (see
+ * pageLatch): getRecord takes it to read, and so do scans while they copy a
+ * page, and addRecord, updateRecord and deleteRecord take it to write, so a
+ * reader of one page never waits for a writer of another. The free-space
+ * map and the zone map have latches of their own, which are only held for
+ * as long as a lookup or an update of a page's entry takes, and the counters
+ * and statistics of the table are guarded by its monitor, which writers only
+ * take to update them.
+ *
+ * A writer holds a single page latch at a time, except for an update or
+ * delete of a record of a SLOTTED table that moves or has moved: it needs the
+ * latches of the record's home page and of the page it is on, so it takes
+ * the table's move latch first, and only one such writer latches two pages at
+ * once. A reader that follows a forward latches one page, then the other,
+ * and starts over if the record moved in between. Scans don't hold a latch
+ * between calls to their iterators; see TableIterator.
  */
 public class Table implements Iterable<Record>, Closeable {
   public static final String FILENAME_PREFIX = "db";
   public static final String FILENAME_EXTENSION = ".table";
+  public static final String METADATA_EXTENSION = ".meta";
+  public static final String FREE_SPACE_EXTENSION = FreeSpaceMap.FILENAME_EXTENSION;
+  public static final String DICTIONARY_EXTENSION = DictionaryFile.FILENAME_EXTENSION;
+
+  private static final int METADATA_MAGIC = 0x54424c4d; // "TBLM"
+  private static final int METADATA_VERSION = 3;
+
+  // The number of latches that data pages are striped over, see pageLatch.
+  private static final int NUM_PAGE_LATCHES = 64;
+
+  // The number of data pages bulkLoad allocates at a time.
+  private static final int BULK_LOAD_BATCH_PAGES = 64;
 
   // The name of the database.
   private String name;
@@ -111,6 +224,9 @@ public class Table implements Iterable<Record>, Closeable {
   // The allocator used to persist the database.
   private PageAllocator allocator;
 
+  // Where the records go on a data page.
+  private PageLayout layout;
+
   // The size (in bytes) of the bitmap found at the beginning of each data page.
   private int bitmapSizeInBytes;
 
@@ -120,29 +236,83 @@ public class Table implements Iterable<Record>, Closeable {
   // Statistics about the contents of the database.
   private TableStats stats;
 
-  // The page numbers of all allocated pages which have room for more records.
-  private TreeSet<Integer> freePageNums;
+  // How full each data page is.
+  private FreeSpaceMap freeSpace;
+
+  // The dictionaries of the columns that are dictionary encoded.
+  private DictionaryFile dictionaryFile;
+
+  // The smallest and largest value of every column on every data page.
+  private ZoneMap zoneMap;
+
+  // The Bloom filter of every column that has one, null for the others. The
+  // array is replaced, rather than modified, when a filter is built.
+  private volatile BloomFilter[] bloomFilters;
+
+  // Latches that guard the contents of data pages; see pageLatch.
+  private final ReentrantReadWriteLock[] pageLatches = newPageLatches();
+
+  // Taken by a writer before it latches a second page; see Latching above.
+  private final Object moveLatch = new Object();
 
   // The number of records in the table.
   private long numRecords;
 
+  // Whether the metadata file describes the table as it is now.
+  private boolean metadataOnDisk;
+
+  // The number of inserts, updates, deletes and bulk loads that are underway.
+  // They may have changed a page but not numRecords yet, so the metadata
+  // isn't written while there are any. Guarded by this.
+  private int numWritesInFlight;
+
   // Constructors //////////////////////////////////////////////////////////////
   /**
    * Construct a brand new table named `name` with schema `schema` persisted in
    * file `filename`.
    */
   public Table(String name, Schema schema, String filename) {
+    this(name, schema, filename, BufferPool.getDefault());
+  }
+
+  /**
+   * Construct a brand new table named `name` with schema `schema` persisted in
+   * file `filename`, whose pages are cached in `bufferPool`.
+   */
+  public Table(String name, Schema schema, String filename, BufferPool bufferPool) {
+    this(name, schema, filename, bufferPool, PageLayout.Format.ROW);
+  }
+
+  /**
+   * Construct a brand new table named `name` with schema `schema` persisted in
+   * file `filename`, whose pages are cached in `bufferPool` and laid out in
+   * format `format`.
+   */
+  public Table(String name, Schema schema, String filename, BufferPool bufferPool,
+               PageLayout.Format format) {
     this.name = name;
     this.filename = filename;
     this.schema = schema;
-    this.allocator = new PageAllocator(filename, true);
-    this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, schema);
-    numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, schema);
+    this.allocator = new PageAllocator(filename, true, true, bufferPool);
+    this.layout = PageLayout.of(format, schema);
+    this.bitmapSizeInBytes = layout.getBitmapSizeInBytes();
+    numRecordsPerPage = layout.getNumRecordsPerPage();
     this.stats = new TableStats(this.schema);
-    this.freePageNums = new TreeSet<Integer>();
+    this.zoneMap = new ZoneMap(this.schema);
+    this.bloomFilters = new BloomFilter[schema.getFieldTypes().size()];
     this.numRecords = 0;
 
-    writeSchemaToHeaderPage(allocator, schema);
+    // A metadata file left behind by an earlier table in the same file describes a different table.
+    new File(getMetadataFilename()).delete();
+    this.metadataOnDisk = false;
+
+    Page headerPage = allocator.fetchPage(allocator.allocPage());
+    assert(0 == headerPage.getPageNum());
+    writeHeaderPage(headerPage, layout);
+    this.dictionaryFile = new DictionaryFile(getDictionaryFilename(), true, bufferPool);
+    this.freeSpace = new FreeSpaceMap(getFreeSpaceFilename(), true, allocator.getNumPages(),
+                                      bufferPool);
+    this.freeSpace.setLevel(0, FreeSpaceMap.FULL);
   }
 
   /**
@@ -150,37 +320,65 @@ public class Table implements Iterable<Record>, Closeable {
    * table will be read from the header page of the file.
    */
   public Table(String name, String filename) throws DatabaseException {
+    this(name, filename, BufferPool.getDefault());
+  }
+
+  /**
+   * Load a table named `name` from the file `filename`, caching its pages in
+   * `bufferPool`.
+   */
+  public Table(String name, String filename, BufferPool bufferPool) throws DatabaseException {
     this.name = name;
     this.filename = filename;
-    this.allocator = new PageAllocator(filename, false);
-    this.schema = readSchemaFromHeaderPage(this.allocator);
-    this.bitmapSizeInBytes = computeBitmapSizeInBytes(Page.pageSize, this.schema);
-    this.numRecordsPerPage = computeNumRecordsPerPage(Page.pageSize, this.schema);
-
-    // We compute the stats, free pages, and number of records naively. We
-    // iterate through every single data page of the file, and for each data
-    // data page, we use the bitmap to read every single record.
+    this.allocator = new PageAllocator(filename, false, true, bufferPool);
+    this.layout = readHeaderPage(bufferPool);
+    this.schema = this.layout.getSchema();
+    this.bitmapSizeInBytes = this.layout.getBitmapSizeInBytes();
+    this.numRecordsPerPage = this.layout.getNumRecordsPerPage();
+    this.zoneMap = new ZoneMap(this.schema);
+
+    this.metadataOnDisk = readMetadata();
+    this.freeSpace = new FreeSpaceMap(getFreeSpaceFilename(), !this.metadataOnDisk,
+                                      this.allocator.getNumPages(), bufferPool);
+    if (this.metadataOnDisk) {
+      this.stats = new TableStats(this.schema, (int) this.numRecords);
+      return;
+    }
+
+    // Without metadata, we compute the stats, free-space map, zone map, Bloom
+    // filters, and number of records naively. We iterate through every single data page of the file,
+    // and for each data page, we use the bitmap to read every single record.
+    // Records are read from the page the iterator returned, so that a table
+    // larger than the buffer pool is read through the iterator's ring rather
+    // than the pool.
     this.stats = new TableStats(this.schema);
-    this.freePageNums = new TreeSet<Integer>();
     this.numRecords = 0;
+    this.freeSpace.setLevel(0, FreeSpaceMap.FULL);
 
     Iterator<Page> iter = this.allocator.iterator();
     iter.next(); // Skip the header page.
+    int nextPageNum = 1;
     while(iter.hasNext()) {
       Page page = iter.next();
-      byte[] bitmap = getBitMap(page);
-
-      for (short i = 0; i < numRecordsPerPage; ++i) {
-        if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
-          Record r = getRecord(new RecordId(page.getPageNum(), i));
+      // The pages a bulk loader gave back leave holes, which the wiped map
+      // would call empty.
+      for (; nextPageNum < page.getPageNum(); ++nextPageNum) {
+        freeSpace.setLevel(nextPageNum, FreeSpaceMap.FULL);
+      }
+      nextPageNum = page.getPageNum() + 1;
+      ZoneMap.Zone zone = zoneMap.newZone();
+      for (int i = 0; i < layout.getNumSlots(page); ++i) {
+        if (isSlotUsed(page, i)) {
+          Record r = readRecord(page, i);
           stats.addRecord(r);
+          zone.add(r);
+          addToBloomFilters(r);
           numRecords++;
         }
       }
 
-      if (numRecordsOnPage(page) != numRecordsPerPage) {
-        freePageNums.add(page.getPageNum());
-      }
+      freeSpace.setLevel(page.getPageNum(), layout.getFillLevel(page));
+      zoneMap.setZone(page.getPageNum(), zone);
     }
   }
 
@@ -193,6 +391,28 @@ public class Table implements Iterable<Record>, Closeable {
     return filename;
   }
 
+  /**
+   * @return the name of the file the table's metadata is persisted in
+   */
+  public String getMetadataFilename() {
+    return filename + METADATA_EXTENSION;
+  }
+
+  /**
+   * @return the name of the file the table's free-space map is persisted in
+   */
+  public String getFreeSpaceFilename() {
+    return filename + FREE_SPACE_EXTENSION;
+  }
+
+  /**
+   * @return the name of the file the dictionaries of the table's dictionary
+   * encoded columns are persisted in
+   */
+  public String getDictionaryFilename() {
+    return filename + DICTIONARY_EXTENSION;
+  }
+
   public Schema getSchema() {
     return schema;
   }
@@ -201,6 +421,40 @@ public class Table implements Iterable<Record>, Closeable {
     return allocator;
   }
 
+  /**
+   * @return where the records of the table go on its data pages
+   */
+  public PageLayout getLayout() {
+    return layout;
+  }
+
+  /**
+   * Copies data page page of the table into copy, an in-memory page (see
+   * Page#copyFrom), under the page's read latch, so that the copy never has
+   * a write that is halfway through. The copy can then be read without the
+   * latch for as long as the caller likes, with the layout returned.
+   *
+   * @return the layout of the page when it was copied, which is the table's
+   * layout unless columns were encoded since (see encodeColumns)
+   */
+  public PageLayout copyPage(Page page, Page copy) {
+    Lock latch = pageLatch(page.getPageNum()).readLock();
+    latch.lock();
+    try {
+      copy.copyFrom(page);
+      return this.layout;
+    } finally {
+      latch.unlock();
+    }
+  }
+
+  /**
+   * @return the I/O counters of this table's file
+   */
+  public IOStats getIOStats() {
+    return allocator.getIOStats();
+  }
+
   public int getBitmapSizeInBytes() {
     return bitmapSizeInBytes;
   }
@@ -213,23 +467,68 @@ public class Table implements Iterable<Record>, Closeable {
     return stats;
   }
 
-  public long getNumRecords() {
+  public synchronized long getNumRecords() {
     return numRecords;
   }
 
+  /**
+   * @return how full data page pageNum is, from 0 for an empty page to 255
+   * for a full one
+   */
+  public int getFillLevel(int pageNum) {
+    return freeSpace.getLevel(pageNum);
+  }
+
   public int getNumDataPages() {
     // All pages but the first are data pages.
     return allocator.getNumPages() - 1;
   }
 
+  /**
+   * @return the number of data pages that a scan with predicates reads,
+   * i.e. those that the zone map doesn't rule out (see viewIterator). Pages
+   * whose zone isn't known yet are counted.
+   */
+  public int getNumDataPages(List<ZonePredicate> predicates) {
+    if (predicates == null || predicates.isEmpty()) {
+      return getNumDataPages();
+    }
+    return Math.max(0, getNumDataPages() - zoneMap.countExcluded(predicates));
+  }
+
+  /**
+   * @return whether column field has a Bloom filter (see buildBloomFilter)
+   */
+  public boolean hasBloomFilter(int field) {
+    return bloomFilters[field] != null;
+  }
+
+  /**
+   * @return false if no record of the table has value in column field, as
+   * told by the column's Bloom filter, and true if some record may, or if the
+   * column has no filter
+   */
+  public boolean mightContain(int field, DataBox value) {
+    BloomFilter filter = bloomFilters[field];
+    return filter == null || filter.mightContain(value);
+  }
+
   // elsewhere reads the bitmap of tables, so we're forced to make it public.
   // We should refactor to avoid this.
   public byte[] getBitMap(Page page) {
     byte[] bytes = new byte[bitmapSizeInBytes];
-    page.getByteBuffer().get(bytes);
+    page.getBytes(0, bytes, 0, bitmapSizeInBytes);
     return bytes;
   }
 
+  /**
+   * @return whether slot entryNum of data page page holds a record, read
+   * straight from the page's bitmap
+   */
+  boolean isSlotUsed(Page page, int entryNum) {
+    return layout.isSlotUsed(page, entryNum);
+  }
+
   public static int computeBitmapSizeInBytes(int pageSize, Schema schema) {
     // Dividing by 8 simultaneously (a) rounds down the number of records to a
     // multiple of 8 and (b) converts bits to bytes.
@@ -246,135 +545,784 @@ public class Table implements Iterable<Record>, Closeable {
   /**
    * buildStatistics builds histograms on each of the columns of a table. Running
    * it multiple times refreshes the statistics
+   *
+   * The histograms also tell encodeColumns which string columns are worth
+   * dictionary encoding, but building them doesn't encode any;
+   * Database#buildStatistics does both.
    */
   public TableStats buildStatistics(int buckets){
    this.stats.refreshHistograms(buckets, this);
    return this.stats;
   }
 
-  private synchronized void insertRecord(Page page, int entryNum, Record record) {
-    int offset = bitmapSizeInBytes + (entryNum * schema.getSizeInBytes());
-    byte[] bytes = record.toBytes(schema);
-    ByteBuffer buf = page.getByteBuffer();
-    buf.position(offset);
-    buf.put(bytes);
+  /**
+   * Dictionary encodes the string columns that the histograms of stats say
+   * are worth it (see StringDictionary#isWorthEncoding). The data pages are
+   * rewritten in place, one page at a time, and every record keeps its slot:
+   * an encoded record is smaller, so a page has at least as many slots as
+   * before.
+   *
+   * The statistics must have been built (see buildStatistics); a SLOTTED
+   * table is never encoded. It holds every page latch until the pages are
+   * rewritten and the table's layout swapped, so getRecord and the writes
+   * that start meanwhile wait for it, and a scan that is underway reads each
+   * page with the layout the page had when the scan copied it (see
+   * copyPage). It does nothing while a write is underway, or while a page of
+   * the table is pinned (see PageAllocator#pinPage), since whoever pinned it
+   * reads it in place with the layout it had then; Database#buildStatistics
+   * calls it once the statistics are built, which is when it is worth trying.
+   *
+   * @return whether any column was encoded
+   */
+  public synchronized boolean encodeColumns() {
+    List<Histogram> histograms = stats.getHistograms();
+    if (layout.getFormat() == PageLayout.Format.SLOTTED || numRecords == 0 ||
+        numWritesInFlight > 0 || histograms.size() != schema.getFieldTypes().size() ||
+        allocator.hasPinnedPages()) {
+      return false;
+    }
+    StringDictionary[] dictionaries = layout.getDictionaries();
+    boolean changed = false;
+    for (int i = 0; i < dictionaries.length; ++i) {
+      Type type = schema.getFieldTypes().get(i);
+      int numDistinct = histograms.get(i).getNumDistinct();
+      if (dictionaries[i] == null &&
+          StringDictionary.isWorthEncoding(type, numDistinct, numRecords)) {
+        dictionaries[i] = new StringDictionary(type, i, dictionaryFile);
+        changed = true;
+      }
+    }
+    if (!changed) {
+      return false;
+    }
+    try {
+      invalidateMetadata();
+    } catch (DatabaseException e) {
+      return false;
+    }
+
+    PageLayout encoded = PageLayout.of(layout.getFormat(), schema, dictionaries);
+    for (ReentrantReadWriteLock latch : pageLatches) {
+      latch.writeLock().lock();
+    }
+    try {
+      Iterator<Page> pages = allocator.pinnedIterator();
+      pages.next().unpin(); // Skip the header page.
+      while (pages.hasNext()) {
+        Page page = pages.next();
+        try {
+          encoded.convert(page, layout);
+          freeSpace.setLevel(page.getPageNum(), encoded.getFillLevel(page));
+        } finally {
+          page.unpin();
+        }
+      }
+      writeHeaderPage(allocator.fetchPage(0), encoded);
+      layout = encoded;
+      bitmapSizeInBytes = layout.getBitmapSizeInBytes();
+      numRecordsPerPage = layout.getNumRecordsPerPage();
+    } finally {
+      for (ReentrantReadWriteLock latch : pageLatches) {
+        latch.writeLock().unlock();
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Builds a Bloom filter of the values of column field from the records of
+   * the table, sized for as many records as the table has, and keeps it up
+   * to date from then on (see Bloom Filters above). A column that has a
+   * filter already gets a new one, which forgets the values of the records
+   * deleted since the old one was built, and fits the table if it has grown.
+   *
+   * The build waits for the writes and bulk loads underway, and holds the
+   * table's monitor while it reads the table, so that every record it misses
+   * adds itself to the new filter. It must not be called by a thread that
+   * has a bulk loader of the table open.
+   */
+  public synchronized void buildBloomFilter(int field) throws DatabaseException {
+    if (field < 0 || field >= schema.getFieldTypes().size()) {
+      throw new DatabaseException("Table " + name + " has no column " + field + ".");
+    }
+    while (numWritesInFlight > 0) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new DatabaseException("Interrupted while building a Bloom filter of table " +
+                                    name + ".");
+      }
+    }
+    invalidateMetadata();
+
+    BloomFilter filter = new BloomFilter(numRecords);
+    Iterator<Page> pages = allocator.iterator();
+    pages.next(); // Skip the header page.
+    while (pages.hasNext()) {
+      Page page = pages.next();
+      for (int i = 0; i < layout.getNumSlots(page); ++i) {
+        if (layout.isSlotUsed(page, i)) {
+          filter.add(layout.readValue(page, i, field));
+        }
+      }
+    }
+    BloomFilter[] filters = bloomFilters.clone();
+    boolean isNew = filters[field] == null;
+    filters[field] = filter;
+    bloomFilters = filters;
+    if (isNew) {
+      writeHeaderPage(allocator.fetchPage(0), layout);
+    }
   }
 
   /**
    * addRecord adds a record to this table and returns the record id of the
-   * newly added record. stats, freePageNums, and numRecords are updated
-   * accordingly. The record is added to the first free slot of the first free
-   * page (if one exists, otherwise one is allocated). For example, if the
-   * first free page has bitmap 0b11101000, then the record is inserted into
-   * the page with index 3 and the bitmap is updated to 0b11111000.
+   * newly added record. stats, the free-space map, and numRecords are updated
+   * accordingly. The record is added to the first free slot of a page the
+   * free-space map picks among the first few pages with room (if there is
+   * one, otherwise one is allocated). For example, if that page has bitmap
+   * 0b11101000, then the record is inserted into the page with index 3 and the
+   * bitmap is updated to 0b11111000.
+   *
+   * Inserts don't hold the table's monitor while they modify a page, only the
+   * page's latch, and the free-space map sends inserts from different threads
+   * to different pages, so concurrent inserts mostly proceed in parallel.
    */
-  public synchronized RecordId addRecord(List<DataBox> values) throws DatabaseException {
+  public RecordId addRecord(List<DataBox> values) throws DatabaseException {
     Record record = schema.verify(values);
+    synchronized (this) {
+      invalidateMetadata();
+      numWritesInFlight++;
+      // Before the record is on a page, so that the filters never miss it.
+      addToBloomFilters(record);
+    }
+
+    try {
+      RecordId rid = insertRecord(record, null);
 
-    // Get a free page, allocating a new one if necessary.
-    if (freePageNums.isEmpty()) {
-      freePageNums.add(allocator.allocPage());
+      // Update the metadata.
+      synchronized (this) {
+        stats.addRecord(record);
+        numRecords++;
+      }
+      return rid;
+    } finally {
+      synchronized (this) {
+        writeDone();
+      }
     }
-    Page page = allocator.fetchPage(freePageNums.first());
+  }
 
-    // Find the first empty slot in the bitmap.
-    // entry number of the first free slot and store it in entryNum; and (2) we
-    // count the total number of entries on this page.
-    byte[] bitmap = getBitMap(page);
-    int entryNum = 0;
-    for (; entryNum < numRecordsPerPage; ++entryNum) {
-      if (Bits.getBit(bitmap, entryNum) == Bits.Bit.ZERO) {
-        break;
+  /**
+   * Puts record into a free slot of a page with room, allocating a new page
+   * if there is none, and returns the slot. If home isn't null, record is
+   * the record whose id is home, which moves to the slot (see updateRecord).
+   * The caller may hold the latch of another page, but then it holds the
+   * move latch too.
+   */
+  private RecordId insertRecord(Record record, RecordId home) {
+    long spread = Thread.currentThread().getId();
+    while (true) {
+      // Get a page with room, allocating a new one if necessary.
+      int pageNum = freeSpace.findPage(spread);
+      if (pageNum == -1) {
+        pageNum = allocator.allocPage();
+        zoneMap.setZone(pageNum, zoneMap.newZone());
+        freeSpace.setLevel(pageNum, 0);
+      }
+      Page page = allocator.fetchPage(pageNum);
+
+      Lock latch = pageLatch(pageNum).writeLock();
+      latch.lock();
+      try {
+        // Insert the record into a free slot. The free-space map is only a
+        // hint, so the page may turn out to be full.
+        int entryNum = home == null ? layout.insert(page, record)
+                                    : layout.insertMoved(page, record, home);
+        if (entryNum == -1) {
+          freeSpace.setLevel(pageNum, FreeSpaceMap.FULL);
+          continue;
+        }
+        freeSpace.setLevel(pageNum, layout.getFillLevel(page));
+        zoneMap.add(pageNum, record);
+        return new RecordId(pageNum, (short) entryNum);
+      } finally {
+        latch.unlock();
       }
     }
-    assert(entryNum < numRecordsPerPage);
+  }
 
-    // Insert the record and update the bitmap.
-    insertRecord(page, entryNum, record);
-    Bits.setBit(page.getByteBuffer(), entryNum, Bits.Bit.ONE);
+  /**
+   * Adds every row of rows to this table and returns the number of rows added.
+   * Unlike calling addRecord once per row, bulkLoad
+   *
+   *   - fills brand new data pages one after the other, allocating them
+   *     BULK_LOAD_BATCH_PAGES at a time, and leaves the free slots of the
+   *     existing pages alone;
+   *   - writes each page's bitmap once, when the page is full; and
+   *   - updates stats, the free-space map, and numRecords once per page
+   *     rather than once per row.
+   *
+   * See BulkLoader for the details, and for loading a table from several
+   * threads at once. If a row doesn't match the schema, the rows before it
+   * stay loaded and a DatabaseException is thrown.
+   */
+  public long bulkLoad(Iterator<List<DataBox>> rows) throws DatabaseException {
+    return bulkLoad(rows, (rid, record) -> { });
+  }
 
-    // Update the metadata.
-    stats.addRecord(record);
-    if (numRecordsOnPage(page) == numRecordsPerPage) {
-      freePageNums.pollFirst();
+  /**
+   * Like bulkLoad(rows), but calls onLoad with the record id and record of
+   * every row as it is added, e.g. to collect the entries of an index.
+   */
+  public long bulkLoad(Iterator<List<DataBox>> rows, BiConsumer<RecordId, Record> onLoad)
+      throws DatabaseException {
+    if (!rows.hasNext()) {
+      return 0;
+    }
+    try (BulkLoader loader = newBulkLoader()) {
+      while (rows.hasNext()) {
+        Record record = schema.verify(rows.next());
+        onLoad.accept(loader.add(record), record);
+      }
+      return loader.getNumLoaded();
     }
-    numRecords++;
+  }
 
-    return new RecordId(page.getPageNum(), (short) entryNum);
+  /**
+   * Returns a new BulkLoader for this table. It must be closed.
+   */
+  public BulkLoader newBulkLoader() throws DatabaseException {
+    return new BulkLoader();
   }
 
   /**
    * Retrieves a record from the table, throwing an exception if no such record
    * exists.
    */
-  public synchronized Record getRecord(RecordId rid) throws DatabaseException {
+  public Record getRecord(RecordId rid) throws DatabaseException {
+    return getRecord(rid, null);
+  }
+
+  /**
+   * Like getRecord(rid), but only decodes the fields whose indices are in
+   * fields, in that order, or all of them if fields is null.
+   */
+  public Record getRecord(RecordId rid, int[] fields) throws DatabaseException {
     validateRecordId(rid);
+    Record record = readLatched(rid, (page, entryNum) -> readRecord(page, entryNum, fields));
+    if (record == null) {
+      String msg = String.format("Record %s does not exist.", rid);
+      throw new DatabaseException(msg);
+    }
+    return record;
+  }
+
+  /**
+   * Calls reader with the page that record rid is on and the record's slot
+   * there, under the page's read latch, and returns what it returns, or null
+   * if there is no such record. A record that moved off its home page is
+   * found through its forward. It may have moved again by the time its page
+   * is latched, in which case the slot there isn't its own any more, and it
+   * is looked for anew.
+   */
+  private <T> T readLatched(RecordId rid, BiFunction<Page, Integer, T> reader) {
     Page page = allocator.fetchPage(rid.getPageNum());
-    byte[] bitmap = getBitMap(page);
-    if (Bits.getBit(bitmap, rid.getEntryNum()) == Bits.Bit.ZERO) {
+    while (true) {
+      RecordId forward;
+      Lock latch = pageLatch(rid.getPageNum()).readLock();
+      latch.lock();
+      try {
+        forward = layout.getForward(page, rid.getEntryNum());
+        if (forward == null) {
+          // A slot that holds a record moved there from another page isn't the record's id.
+          if (!isSlotUsed(page, rid.getEntryNum()) ||
+              !layout.getRecordId(page, rid.getEntryNum()).equals(rid)) {
+            return null;
+          }
+          return reader.apply(page, (int) rid.getEntryNum());
+        }
+      } finally {
+        latch.unlock();
+      }
+
+      Page target = allocator.fetchPage(forward.getPageNum());
+      latch = pageLatch(forward.getPageNum()).readLock();
+      latch.lock();
+      try {
+        if (layout.isSlotUsed(target, forward.getEntryNum()) &&
+            layout.getRecordId(target, forward.getEntryNum()).equals(rid)) {
+          return reader.apply(target, (int) forward.getEntryNum());
+        }
+      } finally {
+        latch.unlock();
+      }
+    }
+  }
+
+  /**
+   * Throws an exception unless the slot of rid on page, its home page, holds
+   * the record. The caller holds the page's latch.
+   */
+  private void checkRecordExists(Page page, RecordId rid) throws DatabaseException {
+    // A slot that holds a record moved there from another page isn't the record's id.
+    if (!isSlotUsed(page, rid.getEntryNum()) ||
+        !layout.getRecordId(page, rid.getEntryNum()).equals(rid)) {
       String msg = String.format("Record %s does not exist.", rid);
       throw new DatabaseException(msg);
     }
+  }
 
-    int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
-    ByteBuffer buf = page.getByteBuffer();
-    buf.position(offset);
-    return Record.fromBytes(buf, schema);
+  /**
+   * Reads the record in slot entryNum of page, without checking whether the
+   * slot is in use.
+   */
+  Record readRecord(Page page, int entryNum) {
+    return layout.readRecord(page, entryNum);
+  }
+
+  /**
+   * Like readRecord(page, entryNum), but only decodes the fields whose
+   * indices are in fields, or all of them if fields is null.
+   */
+  Record readRecord(Page page, int entryNum, int[] fields) {
+    return readRecord(layout, page, entryNum, fields);
+  }
+
+  /**
+   * Like readRecord(page, entryNum, fields), for a page laid out as layout
+   * says.
+   */
+  private static Record readRecord(PageLayout layout, Page page, int entryNum, int[] fields) {
+    if (fields == null) {
+      return layout.readRecord(page, entryNum);
+    }
+    RecordView view = new RecordView(layout, fields);
+    view.moveTo(page, entryNum);
+    return view.materialize();
   }
 
   /**
    * Overwrites an existing record with new values and returns the existing
    * record. stats is updated accordingly. An exception is thrown if rid does
    * not correspond to an existing record in the table.
+   *
+   * The record is updated in place. In a SLOTTED table, where records have
+   * different sizes, a record that grows too large for its page moves to
+   * another page with room, and its slot is replaced with a forward to where
+   * it went; getRecord follows the forward, and scans read the record where
+   * it is. A record that moved and grows too large again moves back home if
+   * there is room there now, and to yet another page otherwise, so that a
+   * record is always at most one forward away from its slot.
    */
-  public synchronized Record updateRecord(List<DataBox> values, RecordId rid) throws DatabaseException {
+  public Record updateRecord(List<DataBox> values, RecordId rid) throws DatabaseException {
     validateRecordId(rid);
     Record newRecord = schema.verify(values);
-    Record oldRecord = getRecord(rid);
+    synchronized (this) {
+      if (hasBloomFilters()) {
+        // The metadata holds the filters, which the new values go into.
+        invalidateMetadata();
+        addToBloomFilters(newRecord);
+      }
+      numWritesInFlight++;
+    }
 
-    Page page = allocator.fetchPage(rid.getPageNum());
-    insertRecord(page, rid.getEntryNum(), newRecord);
-    this.stats.removeRecord(oldRecord);
-    this.stats.addRecord(newRecord);
-    return oldRecord;
+    try {
+      Record oldRecord = updateOnPage(newRecord, rid, false);
+      if (oldRecord == null) {
+        // The record has moved, or has to.
+        synchronized (moveLatch) {
+          oldRecord = updateOnPage(newRecord, rid, true);
+        }
+      }
+      synchronized (this) {
+        stats.removeRecord(oldRecord);
+        stats.addRecord(newRecord);
+      }
+      return oldRecord;
+    } finally {
+      synchronized (this) {
+        writeDone();
+      }
+    }
+  }
+
+  /**
+   * Overwrites record rid with newRecord under the latch of its page, and
+   * returns the old record. If the record has moved or doesn't fit where it
+   * is, that takes the latch of a second page too, so the caller must hold
+   * the move latch and pass mayMove; without it, nothing is changed and null
+   * is returned instead.
+   */
+  private Record updateOnPage(Record newRecord, RecordId rid, boolean mayMove)
+      throws DatabaseException {
+    int pageNum = rid.getPageNum();
+    int entryNum = rid.getEntryNum();
+    Page page = allocator.fetchPage(pageNum);
+    Lock latch = pageLatch(pageNum).writeLock();
+    latch.lock();
+    try {
+      RecordId forward = layout.getForward(page, entryNum);
+      if (forward == null) {
+        checkRecordExists(page, rid);
+        Record oldRecord = readRecord(page, entryNum);
+        // An update that fails leaves the page as it was.
+        if (layout.update(page, entryNum, newRecord)) {
+          zoneMap.remove(pageNum, oldRecord);
+          zoneMap.add(pageNum, newRecord);
+        } else if (mayMove) {
+          zoneMap.remove(pageNum, oldRecord);
+          RecordId target = insertRecord(newRecord, rid);
+          layout.setForward(page, entryNum, target);
+        } else {
+          return null;
+        }
+        freeSpace.setLevel(pageNum, layout.getFillLevel(page));
+        return oldRecord;
+      }
+      if (!mayMove) {
+        return null;
+      }
+
+      Record oldRecord;
+      boolean updated;
+      Page target = allocator.fetchPage(forward.getPageNum());
+      Lock targetLatch = pageLatch(forward.getPageNum()).writeLock();
+      targetLatch.lock();
+      try {
+        oldRecord = readRecord(target, forward.getEntryNum());
+        updated = layout.update(target, forward.getEntryNum(), newRecord);
+        if (!updated) {
+          layout.delete(target, forward.getEntryNum());
+        }
+        freeSpace.setLevel(forward.getPageNum(), layout.getFillLevel(target));
+        zoneMap.remove(forward.getPageNum(), oldRecord);
+        if (updated) {
+          zoneMap.add(forward.getPageNum(), newRecord);
+        }
+      } finally {
+        targetLatch.unlock();
+      }
+      if (!updated) {
+        // Move the record back home, or on to yet another page.
+        if (layout.update(page, entryNum, newRecord)) {
+          zoneMap.add(pageNum, newRecord);
+        } else {
+          RecordId moved = insertRecord(newRecord, rid);
+          layout.setForward(page, entryNum, moved);
+        }
+      }
+      freeSpace.setLevel(pageNum, layout.getFillLevel(page));
+      return oldRecord;
+    } finally {
+      latch.unlock();
+    }
   }
 
   /**
    * Deletes and returns the record specified by rid from the table and updates
-   * stats, freePageNums, and numRecords as necessary. An exception is thrown
+   * stats, the free-space map, and numRecords as necessary. An exception is thrown
    * if rid does not correspond to an existing record in the table.
    */
-  public synchronized Record deleteRecord(RecordId rid) throws DatabaseException {
+  public Record deleteRecord(RecordId rid) throws DatabaseException {
     validateRecordId(rid);
-    Page page = allocator.fetchPage(rid.getPageNum());
-    Record record = getRecord(rid);
-    Bits.setBit(page.getByteBuffer(), rid.getEntryNum(), Bits.Bit.ZERO);
+    synchronized (this) {
+      invalidateMetadata();
+      numWritesInFlight++;
+    }
 
-    stats.removeRecord(record);
-    if(numRecordsOnPage(page) == numRecordsPerPage - 1) {
-      freePageNums.add(page.getPageNum());
+    try {
+      Record record = deleteFromPage(rid, false);
+      if (record == null) {
+        synchronized (moveLatch) {
+          record = deleteFromPage(rid, true);
+        }
+      }
+      synchronized (this) {
+        stats.removeRecord(record);
+        numRecords--;
+      }
+      return record;
+    } finally {
+      synchronized (this) {
+        writeDone();
+      }
     }
-    numRecords--;
+  }
 
-    return record;
+  /**
+   * Deletes record rid under the latch of its page, and returns it. A record
+   * that has moved is deleted from the page it is on as well, which takes
+   * that page's latch too, so like updateOnPage this returns null without
+   * changing anything unless the caller holds the move latch and passes
+   * mayMove.
+   */
+  private Record deleteFromPage(RecordId rid, boolean mayMove) throws DatabaseException {
+    int pageNum = rid.getPageNum();
+    int entryNum = rid.getEntryNum();
+    Page page = allocator.fetchPage(pageNum);
+    Lock latch = pageLatch(pageNum).writeLock();
+    latch.lock();
+    try {
+      RecordId forward = layout.getForward(page, entryNum);
+      Record record;
+      if (forward != null) {
+        if (!mayMove) {
+          return null;
+        }
+        Page target = allocator.fetchPage(forward.getPageNum());
+        Lock targetLatch = pageLatch(forward.getPageNum()).writeLock();
+        targetLatch.lock();
+        try {
+          record = readRecord(target, forward.getEntryNum());
+          layout.delete(target, forward.getEntryNum());
+          freeSpace.setLevel(forward.getPageNum(), layout.getFillLevel(target));
+          zoneMap.remove(forward.getPageNum(), record);
+        } finally {
+          targetLatch.unlock();
+        }
+      } else {
+        checkRecordExists(page, rid);
+        record = readRecord(page, entryNum);
+        zoneMap.remove(pageNum, record);
+      }
+      layout.delete(page, entryNum);
+      freeSpace.setLevel(pageNum, layout.getFillLevel(page));
+      return record;
+    } finally {
+      latch.unlock();
+    }
+  }
+
+  /**
+   * Writes the table's modified pages back to disk, and then persists its
+   * metadata, so that the table opens without a scan even if it is never
+   * closed.
+   */
+  public synchronized void checkpoint() {
+    dictionaryFile.checkpoint();
+    allocator.checkpoint();
+    freeSpace.checkpoint();
+    writeMetadata();
   }
 
-  public void close() {
+  public synchronized void close() {
+    dictionaryFile.close();
     allocator.close();
+    freeSpace.close();
+    writeMetadata();
+  }
+
+  // Metadata //////////////////////////////////////////////////////////////////
+  /**
+   * Loads numRecords and the Bloom filters of the columns that the header
+   * page says have one from the metadata file.
+   *
+   * @return false, leaving them untouched, if there is no metadata file or it
+   * doesn't describe the data file as it is
+   */
+  private boolean readMetadata() {
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(Paths.get(getMetadataFilename()));
+    } catch (IOException e) {
+      return false;
+    }
+    if (bytes.length < 4 + 4 + 8 + 4 + 4 + 8) {
+      return false;
+    }
+    ByteBuffer buf = ByteBuffer.wrap(bytes, 0, bytes.length - 8);
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length - 8);
+    if (ByteBuffer.wrap(bytes).getLong(bytes.length - 8) != crc.getValue() ||
+        buf.getInt() != METADATA_MAGIC ||
+        buf.getInt() != METADATA_VERSION) {
+      return false;
+    }
+    long storedNumRecords = buf.getLong();
+    if (buf.getInt() != allocator.getNumPages()) {
+      return false;
+    }
+    BloomFilter[] filters = new BloomFilter[bloomFilters.length];
+    try {
+      int numFilters = buf.getInt();
+      for (int i = 0; i < numFilters; ++i) {
+        int field = buf.getInt();
+        if (field < 0 || field >= filters.length || bloomFilters[field] == null) {
+          return false;
+        }
+        filters[field] = BloomFilter.fromBytes(buf);
+      }
+    } catch (BufferUnderflowException | NegativeArraySizeException e) {
+      return false;
+    }
+    for (int i = 0; i < filters.length; ++i) {
+      if ((filters[i] == null) != (bloomFilters[i] == null)) {
+        return false;
+      }
+    }
+    this.numRecords = storedNumRecords;
+    this.bloomFilters = filters;
+    return true;
+  }
+
+  /**
+   * Persists numRecords and the Bloom filters to the metadata file, through a temporary file that
+   * replaces it atomically. The metadata is only a cache of what the data
+   * pages hold, so if it can't be written the table is simply rebuilt from its
+   * data pages the next time it is opened. Neither is it written while a
+   * write is half done, since the data pages may already hold its result.
+   */
+  private void writeMetadata() {
+    if (metadataOnDisk || numWritesInFlight > 0) {
+      return;
+    }
+    BloomFilter[] filters = bloomFilters;
+    int size = 4 + 4 + 8 + 4 + 4 + 8;
+    int numFilters = 0;
+    for (BloomFilter filter : filters) {
+      if (filter != null) {
+        size += 4 + filter.getSizeInBytes();
+        numFilters++;
+      }
+    }
+    ByteBuffer buf = ByteBuffer.allocate(size);
+    buf.putInt(METADATA_MAGIC);
+    buf.putInt(METADATA_VERSION);
+    buf.putLong(numRecords);
+    buf.putInt(allocator.getNumPages());
+    buf.putInt(numFilters);
+    for (int i = 0; i < filters.length; ++i) {
+      if (filters[i] != null) {
+        buf.putInt(i);
+        filters[i].toBytes(buf);
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buf.array(), 0, buf.position());
+    buf.putLong(crc.getValue());
+
+    Path path = Paths.get(getMetadataFilename());
+    Path temp = Paths.get(getMetadataFilename() + ".tmp");
+    try {
+      Files.write(temp, buf.array());
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      metadataOnDisk = true;
+    } catch (IOException e) {
+      new File(temp.toString()).delete();
+    }
+  }
+
+  /**
+   * Deletes the metadata file before a modification makes it stale.
+   */
+  private void invalidateMetadata() throws DatabaseException {
+    if (!metadataOnDisk) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(Paths.get(getMetadataFilename()));
+    } catch (IOException e) {
+      throw new DatabaseException("Can't delete the metadata of table " + name + ": " +
+                                  e.getMessage());
+    }
+    metadataOnDisk = false;
   }
 
   // Helpers ///////////////////////////////////////////////////////////////////
-  private static Schema readSchemaFromHeaderPage(PageAllocator allocator) {
+  /**
+   * Reads the layout of the table's data pages from its header page, which
+   * holds the table's schema, its format, the indices of its dictionary
+   * encoded columns, and the indices of the columns that have Bloom filters,
+   * and opens the file of the dictionaries. The filters start out empty,
+   * sized for as many records as the data pages can hold, until they are
+   * read from the metadata or rebuilt from the data pages.
+   */
+  private PageLayout readHeaderPage(BufferPool bufferPool) throws DatabaseException {
     Page headerPage = allocator.fetchPage(0);
-    ByteBuffer buf = headerPage.getByteBuffer();
-    return Schema.fromBytes(buf);
+    ByteBuffer buf = headerPage.asReadOnlyBuffer();
+    Schema schema = Schema.fromBytes(buf);
+    PageLayout.Format format = PageLayout.Format.fromCode(buf.getInt());
+    int[] encodedFields = new int[buf.getInt()];
+    for (int i = 0; i < encodedFields.length; ++i) {
+      encodedFields[i] = buf.getInt();
+    }
+    // A table without encoded columns may predate dictionaries, and have no file for them.
+    this.dictionaryFile = new DictionaryFile(getDictionaryFilename(), encodedFields.length == 0,
+                                             bufferPool);
+    PageLayout layout = PageLayout.of(format, schema, dictionaryFile.load(schema, encodedFields));
+
+    // A header page written before there were Bloom filters has a 0 here.
+    long maxNumRecords = (long) (allocator.getNumPages() - 1) * layout.getNumRecordsPerPage();
+    this.bloomFilters = new BloomFilter[schema.getFieldTypes().size()];
+    int numFiltered = buf.getInt();
+    for (int i = 0; i < numFiltered; ++i) {
+      this.bloomFilters[buf.getInt()] = new BloomFilter(maxNumRecords);
+    }
+    return layout;
   }
 
-  private static void writeSchemaToHeaderPage(PageAllocator allocator, Schema schema) {
-    Page headerPage = allocator.fetchPage(allocator.allocPage());
-    assert(0 == headerPage.getPageNum());
+  private void writeHeaderPage(Page headerPage, PageLayout layout) {
     ByteBuffer buf = headerPage.getByteBuffer();
-    buf.put(schema.toBytes());
+    buf.put(layout.getSchema().toBytes());
+    buf.putInt(layout.getFormat().getCode());
+    int numFields = layout.getSchema().getFieldTypes().size();
+    int numEncoded = 0;
+    for (int i = 0; i < numFields; ++i) {
+      numEncoded += layout.getDictionary(i) == null ? 0 : 1;
+    }
+    buf.putInt(numEncoded);
+    for (int i = 0; i < numFields; ++i) {
+      if (layout.getDictionary(i) != null) {
+        buf.putInt(i);
+      }
+    }
+    BloomFilter[] filters = bloomFilters;
+    int numFiltered = 0;
+    for (BloomFilter filter : filters) {
+      numFiltered += filter == null ? 0 : 1;
+    }
+    buf.putInt(numFiltered);
+    for (int i = 0; i < filters.length; ++i) {
+      if (filters[i] != null) {
+        buf.putInt(i);
+      }
+    }
+    headerPage.markDirty();
+  }
+
+  private boolean hasBloomFilters() {
+    for (BloomFilter filter : bloomFilters) {
+      if (filter != null) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds the values of record to the Bloom filters of their columns.
+   */
+  private void addToBloomFilters(Record record) {
+    BloomFilter[] filters = bloomFilters;
+    List<DataBox> values = record.getValues();
+    for (int i = 0; i < filters.length; ++i) {
+      if (filters[i] != null) {
+        filters[i].add(values.get(i));
+      }
+    }
+  }
+
+  /**
+   * Records that a write or bulk load is done, and wakes buildBloomFilter
+   * up if it waits for it. The caller holds the table's monitor.
+   */
+  private void writeDone() {
+    numWritesInFlight--;
+    if (numWritesInFlight == 0) {
+      notifyAll();
+    }
   }
 
   /**
@@ -403,15 +1351,24 @@ public class Table implements Iterable<Record>, Closeable {
     return pageSizeInBits / recordOverheadInBits;
   }
 
-  private int numRecordsOnPage(Page page) {
-    byte[] bitmap = getBitMap(page);
-    int numRecords = 0;
-    for (int i = 0; i < numRecordsPerPage; ++i) {
-      if (Bits.getBit(bitmap, i) == Bits.Bit.ONE) {
-        numRecords++;
-      }
+  /**
+   * Returns the latch that guards the contents of data page pageNum: readers
+   * of the page hold it shared and writers exclusively. A page can be fetched
+   * into several Page objects over time, so the latch can't belong to the
+   * Page itself; pages are striped over a fixed set of latches instead. The
+   * latches are reentrant, so a writer that latches two pages (see Latching
+   * above) is fine when they share a stripe.
+   */
+  private ReentrantReadWriteLock pageLatch(int pageNum) {
+    return pageLatches[pageNum % NUM_PAGE_LATCHES];
+  }
+
+  private static ReentrantReadWriteLock[] newPageLatches() {
+    ReentrantReadWriteLock[] latches = new ReentrantReadWriteLock[NUM_PAGE_LATCHES];
+    for (int i = 0; i < NUM_PAGE_LATCHES; ++i) {
+      latches[i] = new ReentrantReadWriteLock();
     }
-    return numRecords;
+    return latches;
   }
 
   private void validateRecordId(RecordId rid) throws DatabaseException {
@@ -435,6 +1392,141 @@ public class Table implements Iterable<Record>, Closeable {
     }
   }
 
+  // Bulk Loading //////////////////////////////////////////////////////////////
+  /**
+   * Appends records to brand new data pages of a table, one page after the
+   * other. A loader allocates its pages BULK_LOAD_BATCH_PAGES at a time, fills
+   * each page without looking at its slots, and marks the slots as used once
+   * the page is full (see PageLayout#appendRecord). Nobody else inserts into the pages of a loader until it is
+   * done with them, so a loader holds neither the table's monitor nor page
+   * latches while it fills a page, and several loaders of the same table, e.g.
+   * one per thread, fill disjoint page ranges in parallel.
+   *
+   * Each page is published when it is full: its records are counted in
+   * numRecords and stats, and its fill level is set in the free-space map.
+   * close publishes the last page and gives back the pages of the last batch
+   * that weren't used.
+   *
+   *   try (Table.BulkLoader loader = table.newBulkLoader()) {
+   *     for (List<DataBox> values : rows) {
+   *       loader.add(table.getSchema().verify(values));
+   *     }
+   *   }
+   *
+   * A loader is not thread safe; use one per thread.
+   */
+  public class BulkLoader implements Closeable {
+    private int[] pageNums = new int[0];
+    private int pageIndex = 0;
+    private Page page = null;
+    private ByteBuffer buf = null;
+    // The zone of the records added to the current page.
+    private ZoneMap.Zone zone = null;
+    private int entryNum = 0;
+    private long numLoaded = 0;
+    private boolean closed = false;
+
+    private BulkLoader() throws DatabaseException {
+      synchronized (Table.this) {
+        invalidateMetadata();
+        numWritesInFlight++;
+      }
+    }
+
+    /**
+     * Adds record, which must match the table's schema (see Schema#verify),
+     * and returns its record id.
+     */
+    public RecordId add(Record record) {
+      if (closed) {
+        throw new IllegalStateException("The bulk loader of table " + name + " is closed.");
+      }
+      // Move on to the next page when the current one has no room for record.
+      if (page != null && !layout.appendRecord(buf, entryNum, record)) {
+        finishPage();
+      }
+      if (page == null) {
+        if (pageIndex == pageNums.length) {
+          pageNums = allocator.allocPages(BULK_LOAD_BATCH_PAGES);
+          pageIndex = 0;
+          // Keep addRecord away from the batch until its pages are published.
+          for (int pageNum : pageNums) {
+            freeSpace.setLevel(pageNum, FreeSpaceMap.FULL);
+            zoneMap.setZone(pageNum, zoneMap.newZone());
+          }
+        }
+        page = allocator.fetchPage(pageNums[pageIndex]);
+        buf = page.getByteBuffer();
+        zone = zoneMap.newZone();
+        entryNum = 0;
+        if (!layout.appendRecord(buf, entryNum, record)) {
+          String msg = "A record doesn't fit on an empty page of table " + name + ".";
+          throw new IllegalStateException(msg);
+        }
+      }
+
+      RecordId rid = new RecordId(pageNums[pageIndex], (short) entryNum);
+      zone.add(record);
+      addToBloomFilters(record);
+      entryNum++;
+      if (entryNum == numRecordsPerPage) {
+        finishPage();
+      }
+      return rid;
+    }
+
+    /**
+     * @return the number of records added by this loader
+     */
+    public long getNumLoaded() {
+      return numLoaded + (page == null ? 0 : entryNum);
+    }
+
+    @Override
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (page != null) {
+        finishPage();
+      }
+      // Give back the pages of the last batch that weren't needed.
+      for (; pageIndex < pageNums.length; ++pageIndex) {
+        freeSpace.setLevel(pageNums[pageIndex], FreeSpaceMap.FULL);
+        zoneMap.setZone(pageNums[pageIndex], null);
+        allocator.freePage(pageNums[pageIndex]);
+      }
+      synchronized (Table.this) {
+        writeDone();
+      }
+    }
+
+    /**
+     * Marks the slots of the current page as used and publishes its records.
+     */
+    private void finishPage() {
+      Lock latch = pageLatch(pageNums[pageIndex]).writeLock();
+      latch.lock();
+      try {
+        layout.finishAppending(page, entryNum);
+      } finally {
+        latch.unlock();
+      }
+      zoneMap.setZone(pageNums[pageIndex], zone);
+      freeSpace.setLevel(pageNums[pageIndex], layout.getFillLevel(page));
+      synchronized (Table.this) {
+        stats.addRecords(entryNum);
+        numRecords += entryNum;
+      }
+      numLoaded += entryNum;
+      pageIndex++;
+      page = null;
+      buf = null;
+      zone = null;
+    }
+  }
+
   // Iterators /////////////////////////////////////////////////////////////////
   public TableIterator ridIterator() {
       return new TableIterator();
@@ -444,6 +1536,98 @@ public class Table implements Iterable<Record>, Closeable {
       return new RecordIterator(this, ridIterator());
   }
 
+  /**
+   * Returns an iterator over the records of the table that reads them in
+   * place, see RecordView. The iterator returns the same view for every
+   * record, and a view is only valid until the next call to next.
+   */
+  public Iterator<RecordView> viewIterator() {
+    return viewIterator(null);
+  }
+
+  /**
+   * Like viewIterator(), but the views only expose the fields whose indices
+   * are in fields, or all of them if fields is null.
+   */
+  public Iterator<RecordView> viewIterator(int[] fields) {
+    return viewIterator(fields, null);
+  }
+
+  /**
+   * Like viewIterator(fields), but skips the data pages that the zone map
+   * says hold no record that satisfies every predicate of predicates, or none
+   * if predicates is null. The other pages are read in full, so the records
+   * still have to be checked against the predicates.
+   */
+  public Iterator<RecordView> viewIterator(int[] fields, List<ZonePredicate> predicates) {
+    TableIterator rids = new TableIterator(predicates);
+    RecordView view = new RecordView(this.layout, fields);
+    return new Iterator<RecordView>() {
+      public boolean hasNext() {
+        return rids.hasNext();
+      }
+
+      public RecordView next() {
+        rids.next();
+        view.moveTo(rids.getLayout(), rids.getPage(), rids.getEntryNum());
+        return view;
+      }
+    };
+  }
+
+  /**
+   * Returns the ids of the records whose column field is value, for an
+   * equality lookup on a column without an index. The lookup is a scan, but
+   * it returns nothing without reading the table if the column's Bloom
+   * filter says no record has value, and it skips the data pages whose zone
+   * says they hold none.
+   */
+  public Iterator<RecordId> ridsEqual(int field, DataBox value) {
+    List<RecordId> rids = new ArrayList<RecordId>();
+    if (!mightContain(field, value)) {
+      return rids.iterator();
+    }
+    List<ZonePredicate> predicates = Arrays.asList(
+        new ZonePredicate(field, QueryPlan.PredicateOperator.EQUALS, value));
+    TableIterator iter = new TableIterator(predicates);
+    while (iter.hasNext()) {
+      RecordId rid = iter.next();
+      if (iter.getLayout().readValue(iter.getPage(), iter.getEntryNum(), field).equals(value)) {
+        rids.add(rid);
+      }
+    }
+    return rids.iterator();
+  }
+
+  /**
+   * Returns an iterator over the values of field field of the table, a data
+   * page at a time (see ColumnChunk). The iterator returns the same chunk for
+   * every page, and a chunk is only valid until the next call to next.
+   *
+   * A chunk reads a copy of its page taken under the page's latch, with the
+   * layout the page had then (see encodeColumns). A record
+   * of a SLOTTED table is read where it is, so one that moves while the
+   * table is read may be seen twice or not at all, which is fine for the
+   * statistics that chunks are read for.
+   */
+  public Iterator<ColumnChunk> columnIterator(int field) {
+    Iterator<Page> pages = allocator.iterator();
+    pages.next(); // Skip the header page.
+    Page copy = new Page();
+    ColumnChunk chunk = new ColumnChunk(this.layout, field);
+    return new Iterator<ColumnChunk>() {
+      public boolean hasNext() {
+        return pages.hasNext();
+      }
+
+      public ColumnChunk next() {
+        PageLayout layout = copyPage(pages.next(), copy);
+        chunk.moveTo(layout, copy);
+        return chunk;
+      }
+    };
+  }
+
 
   /**
    * Helper function to create a BacktrackingIterator from an Iterator of
@@ -475,42 +1659,177 @@ public class Table implements Iterable<Record>, Closeable {
     return iter;
   }
 
-    /** An iterator over the record ids of a table. */
-  private class TableIterator implements Iterator<RecordId> {
-    private Iterator<Page> iter;
-    private Page page = null;
-    private byte[] bitmap = null;
-    private int entryNum;
-    private long numRecordsReturned = 0;
+  /**
+   * An iterator over the record ids of a table. It reads the table's pages
+   * with a PageIterator, so a scan of a large table uses a ring (see
+   * PageAllocator.PageIterator).
+   *
+   * The iterator copies each page under the page's read latch as it gets to
+   * it, and reads the copy, so that it never sees a page that a writer is
+   * halfway through. Holding the latch until the iterator moves on instead
+   * would keep the page's writers waiting for as long as the caller takes,
+   * or for good if the caller stops iterating. A record that moved off its
+   * home page (see updateRecord) is returned when the iterator gets to its
+   * home slot, from a copy of the page it is on then, and the slot it moved
+   * to is skipped, so that a record that moves while the table is scanned is
+   * still returned exactly once. Each copy is read with the layout that the
+   * table had when it was taken, since encodeColumns may change the layout
+   * of the pages while the table is scanned.
+   *
+   * An iterator with predicates skips the pages that the zone map rules out
+   * without fetching them, and summarizes the pages whose zone isn't known
+   * as it reads them. The iterator looks for the next record in hasNext,
+   * since the number of records changes as others write the table.
+   */
+  class TableIterator implements Iterator<RecordId> {
+    private PageIterator iter;
+    private final List<ZonePredicate> predicates;
+    // The copy of the page the iterator is on, its layout, and the next slot to look at.
+    private final Page page = new Page();
+    private PageLayout pageLayout = null;
+    private boolean onPage = false;
+    private int entryNum = -1;
+    // The copy of the page that the last record found moved to, if it moved.
+    private final Page movedPage = new Page();
+    private PageLayout movedLayout = null;
+    // The last record found, and the page, layout and slot that it was read from.
+    private RecordId rid = null;
+    private Page recordPage = null;
+    private PageLayout recordLayout = null;
+    private int recordEntryNum = -1;
+    // Whether rid is a record that next hasn't returned yet.
+    private boolean found = false;
 
     public TableIterator() {
+      this(null);
+    }
+
+    /**
+     * @param predicates the predicates that the records of the pages that
+     * aren't skipped may satisfy, or null to read every page
+     */
+    TableIterator(List<ZonePredicate> predicates) {
       this.iter = Table.this.allocator.iterator();
-      this.entryNum = Table.this.numRecordsPerPage;
+      this.predicates = predicates == null || predicates.isEmpty() ? null : predicates;
       iter.next(); // Skip the header page.
     }
 
     public boolean hasNext() {
-      return numRecordsReturned < Table.this.numRecords;
+      if (!found) {
+        found = advance();
+      }
+      return found;
     }
 
     public RecordId next() {
       if (!hasNext()) {
         throw new NoSuchElementException();
       }
+      found = false;
+      return rid;
+    }
 
+    /**
+     * Moves to the next record of a page that isn't skipped.
+     *
+     * @return false if there is none
+     */
+    private boolean advance() {
       while (true) {
         entryNum++;
-        if (entryNum >= Table.this.numRecordsPerPage) {
-          page = iter.next();
-          bitmap = Table.this.getBitMap(page);
+        while (!onPage || entryNum >= pageLayout.getNumSlots(page)) {
+          if (!nextPage()) {
+            return false;
+          }
           entryNum = 0;
         }
 
-        if (Bits.getBit(bitmap, entryNum) == Bits.Bit.ONE) {
-          numRecordsReturned++;
-          return new RecordId(page.getPageNum(), (short) entryNum);
+        PageLayout layout = pageLayout;
+        RecordId home = new RecordId(page.getPageNum(), (short) entryNum);
+        if (layout.isSlotUsed(page, entryNum)) {
+          // A record that moved here is returned at its home slot instead.
+          if (layout.getRecordId(page, entryNum).equals(home)) {
+            rid = home;
+            recordPage = page;
+            recordLayout = layout;
+            recordEntryNum = entryNum;
+            return true;
+          }
+        } else if (layout.getForward(page, entryNum) != null) {
+          Integer moved = readLatched(home, (target, slot) -> {
+            movedPage.copyFrom(target);
+            movedLayout = Table.this.layout;
+            return slot;
+          });
+          // The record is gone if it was deleted since the page was copied.
+          if (moved != null) {
+            rid = home;
+            recordPage = movedPage;
+            recordLayout = movedLayout;
+            recordEntryNum = moved;
+            return true;
+          }
+        }
+      }
+    }
+
+    private boolean nextPage() {
+      if (predicates != null) {
+        while (iter.hasNext() && !zoneMap.mayMatch(iter.peekPageNum(), predicates)) {
+          iter.skip();
         }
       }
+      if (!iter.hasNext()) {
+        return false;
+      }
+      Page next = iter.next();
+      int pageNum = next.getPageNum();
+      Lock latch = pageLatch(pageNum).readLock();
+      latch.lock();
+      try {
+        page.copyFrom(next);
+        pageLayout = Table.this.layout;
+        // Under the latch, so that no insert into the page is missed.
+        if (predicates != null && !zoneMap.isKnown(pageNum)) {
+          zoneMap.setZone(pageNum, zoneMap.summarize(pageLayout, page));
+        }
+      } finally {
+        latch.unlock();
+      }
+      onPage = true;
+      return true;
+    }
+
+    /**
+     * @return a copy of the page that the record last returned by next was
+     * read from, which stays valid until the next call to hasNext or next
+     */
+    Page getPage() {
+      return recordPage;
+    }
+
+    /**
+     * @return the slot of the record last returned by next on getPage(). It
+     * is the record id's slot unless the record moved (see updateRecord).
+     */
+    int getEntryNum() {
+      return recordEntryNum;
+    }
+
+    /**
+     * @return the layout of getPage(), which is the table's layout unless
+     * columns were encoded since the page was read (see encodeColumns)
+     */
+    PageLayout getLayout() {
+      return recordLayout;
+    }
+
+    /**
+     * Reads the record last returned by next, decoding only the fields whose
+     * indices are in fields, or all of them if fields is null.
+     */
+    Record readRecord(int[] fields) {
+      return Table.readRecord(recordLayout, recordPage, recordEntryNum, fields);
     }
   }
 }
@@ -0,0 +1,191 @@
+package edu.berkeley.cs186.database.table;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * The zone map of a table: for every data page, the smallest and largest
+ * value of every column among the records on the page. A scan that is only
+ * after the records that satisfy some predicates skips the pages whose zone
+ * says they hold none (see ZonePredicate), without fetching them.
+ *
+ * Zones are kept in memory only. The zone of a page is
+ *
+ *   - known, and empty, for a page that was just allocated;
+ *   - widened by every record that is put on the page, and only narrowed by
+ *     deleting a record whose value is the smallest or largest of a column,
+ *     which makes the zone unknown; and
+ *   - unknown after the table is opened from its metadata, since the data
+ *     pages aren't read then.
+ *
+ * A page whose zone is unknown may hold anything, so scans read it, and
+ * summarize it while they are at it, so that the next scan knows (see
+ * Table.TableIterator). A zone is only modified under the write latch of its
+ * page (see Table#pageLatch), and a scan that summarizes a page holds its
+ * read latch, which keeps the page's writers out just the same.
+ */
+class ZoneMap {
+  private final int numFields;
+
+  // zones.get(pageNum) is the zone of data page pageNum, or null if it is
+  // unknown. Guarded by this.
+  private final List<Zone> zones;
+
+  ZoneMap(Schema schema) {
+    this.numFields = schema.getFieldTypes().size();
+    this.zones = new ArrayList<Zone>();
+  }
+
+  /**
+   * The smallest and largest value of every column of a set of records, or
+   * nothing if the set is empty.
+   */
+  static class Zone {
+    private final DataBox[] mins;
+    private final DataBox[] maxs;
+    private boolean empty;
+
+    Zone(int numFields) {
+      this.mins = new DataBox[numFields];
+      this.maxs = new DataBox[numFields];
+      this.empty = true;
+    }
+
+    /**
+     * Widens the zone to include record.
+     */
+    void add(Record record) {
+      List<DataBox> values = record.getValues();
+      for (int i = 0; i < this.mins.length; ++i) {
+        DataBox value = values.get(i);
+        if (this.empty || value.compareTo(this.mins[i]) < 0) {
+          this.mins[i] = value;
+        }
+        if (this.empty || value.compareTo(this.maxs[i]) > 0) {
+          this.maxs[i] = value;
+        }
+      }
+      this.empty = false;
+    }
+
+    /**
+     * @return whether record has the smallest or largest value of a column,
+     * so that the zone may be too wide without it
+     */
+    boolean isOnEdge(Record record) {
+      List<DataBox> values = record.getValues();
+      for (int i = 0; i < this.mins.length; ++i) {
+        if (values.get(i).compareTo(this.mins[i]) == 0 ||
+            values.get(i).compareTo(this.maxs[i]) == 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * @return whether a record in the zone may satisfy every predicate
+     */
+    boolean mayMatch(List<ZonePredicate> predicates) {
+      if (this.empty) {
+        return false;
+      }
+      for (ZonePredicate predicate : predicates) {
+        int field = predicate.getField();
+        if (!predicate.mayMatch(this.mins[field], this.maxs[field])) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * @return the zone of the records in the used slots of page
+   */
+  Zone summarize(PageLayout layout, Page page) {
+    Zone zone = new Zone(this.numFields);
+    for (int i = 0; i < layout.getNumSlots(page); ++i) {
+      if (layout.isSlotUsed(page, i)) {
+        zone.add(layout.readRecord(page, i));
+      }
+    }
+    return zone;
+  }
+
+  /**
+   * @return a zone without records, to widen with Zone#add
+   */
+  Zone newZone() {
+    return new Zone(this.numFields);
+  }
+
+  /**
+   * Sets the zone of data page pageNum, or makes it unknown if zone is null.
+   */
+  synchronized void setZone(int pageNum, Zone zone) {
+    while (this.zones.size() <= pageNum) {
+      this.zones.add(null);
+    }
+    this.zones.set(pageNum, zone);
+  }
+
+  /**
+   * @return whether the zone of data page pageNum is known
+   */
+  synchronized boolean isKnown(int pageNum) {
+    return getZone(pageNum) != null;
+  }
+
+  /**
+   * Records that record was put on data page pageNum.
+   */
+  synchronized void add(int pageNum, Record record) {
+    Zone zone = getZone(pageNum);
+    if (zone != null) {
+      zone.add(record);
+    }
+  }
+
+  /**
+   * Records that record was taken off data page pageNum. The zone doesn't
+   * narrow, unless record was on its edge, in which case it becomes unknown
+   * until the page is summarized again.
+   */
+  synchronized void remove(int pageNum, Record record) {
+    Zone zone = getZone(pageNum);
+    if (zone != null && !zone.empty && zone.isOnEdge(record)) {
+      this.zones.set(pageNum, null);
+    }
+  }
+
+  /**
+   * @return whether data page pageNum may hold a record that satisfies every
+   * predicate; it may if its zone is unknown
+   */
+  synchronized boolean mayMatch(int pageNum, List<ZonePredicate> predicates) {
+    Zone zone = getZone(pageNum);
+    return zone == null || zone.mayMatch(predicates);
+  }
+
+  /**
+   * @return the number of data pages whose zone is known and says they hold
+   * no record that satisfies every predicate
+   */
+  synchronized int countExcluded(List<ZonePredicate> predicates) {
+    int numExcluded = 0;
+    for (Zone zone : this.zones) {
+      if (zone != null && !zone.mayMatch(predicates)) {
+        numExcluded++;
+      }
+    }
+    return numExcluded;
+  }
+
+  private Zone getZone(int pageNum) {
+    return pageNum < this.zones.size() ? this.zones.get(pageNum) : null;
+  }
+}
@@ -0,0 +1,72 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.query.QueryPlan;
+
+/**
+ * A predicate on a column of a table, `column operator value`, that a scan of
+ * the table checks against the zone map of every data page before reading the
+ * page, so that it can skip the pages that hold no record that satisfies it
+ * (see ZoneMap and Table#viewIterator). A scan still returns records that
+ * don't satisfy its predicates, from the pages it can't skip; the predicates
+ * only spare it pages.
+ */
+public class ZonePredicate {
+  private final int field;
+  private final QueryPlan.PredicateOperator operator;
+  private final DataBox value;
+
+  /**
+   * @param field the index of the column in the table's schema
+   */
+  public ZonePredicate(int field, QueryPlan.PredicateOperator operator, DataBox value) {
+    this.field = field;
+    this.operator = operator;
+    this.value = value;
+  }
+
+  public int getField() {
+    return this.field;
+  }
+
+  public QueryPlan.PredicateOperator getOperator() {
+    return this.operator;
+  }
+
+  public DataBox getValue() {
+    return this.value;
+  }
+
+  /**
+   * @return whether a record whose value of the column is between min and
+   * max, both included, may satisfy the predicate
+   */
+  boolean mayMatch(DataBox min, DataBox max) {
+    // A value of another type can't be compared with the column's; leave it
+    // to the operator above the scan.
+    if (this.value.getClass() != min.getClass()) {
+      return true;
+    }
+    switch (this.operator) {
+      case EQUALS:
+        return min.compareTo(this.value) <= 0 && max.compareTo(this.value) >= 0;
+      case NOT_EQUALS:
+        return !(min.equals(this.value) && max.equals(this.value));
+      case LESS_THAN:
+        return min.compareTo(this.value) < 0;
+      case LESS_THAN_EQUALS:
+        return min.compareTo(this.value) <= 0;
+      case GREATER_THAN:
+        return max.compareTo(this.value) > 0;
+      case GREATER_THAN_EQUALS:
+        return max.compareTo(this.value) >= 0;
+      default:
+        return true;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return this.field + " " + this.operator + " " + this.value;
+  }
+}
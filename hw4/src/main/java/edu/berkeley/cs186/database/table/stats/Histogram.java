@@ -2,14 +2,16 @@ package edu.berkeley.cs186.database.table.stats;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.query.QueryPlan.PredicateOperator;
 import edu.berkeley.cs186.database.DatabaseException;
-import edu.berkeley.cs186.database.table.RecordIterator;
+import edu.berkeley.cs186.database.table.ColumnChunk;
 import edu.berkeley.cs186.database.table.Table;
-import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.databox.TypeId;
 import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
@@ -85,16 +87,11 @@ public class Histogram {
 
 
 
-  /** We only consider float histograms, and these two methods turn every data type into a float.
+  /** We only consider float histograms, and this method turns every data type into a float.
    *  We call this mapping quantization. That means given any DataBox, we turn it into a float number.
    *  For Booleans, Integers, Floats, order is preserved in the mapping. But for strings, only equalities
    *  are preserved.
    */
-  private float quantization(Record record, int attribute){
-        DataBox d = record.getValues().get(attribute);
-        return quantization(d);
-  }
-
   private float quantization(DataBox d){
 
         switch (d.type().getTypeId()) {
@@ -125,21 +122,45 @@ public class Histogram {
    *              final bucket is inclusive on the last value.
    */
   public void buildHistogram(Table table, int attribute){
+    buildHistogram(Collections.singletonList(table), attribute);
+  }
+
+  /**
+   * Like buildHistogram(table, attribute), but builds the histogram of the
+   * values of the attribute in several tables, e.g. the partitions of a
+   * partitioned table.
+   */
+  public void buildHistogram(List<Table> tables, int attribute){
 
     // TODO: HW4 implement
 
-    //1. first calculate the min and the max values
-    RecordIterator riter = table.iterator();
-    if(riter.hasNext() == false){
+    //1. first calculate the min and the max values. Both passes only read the
+    //   attribute's column of each page (see ColumnChunk).
+    long numRecords = 0;
+    for(Table table : tables){
+      numRecords += table.getNumRecords();
+    }
+    if(numRecords == 0){
       return;
     }
-    this.minValue = quantization(riter.next(), attribute);
-    this.maxValue = minValue;
+    boolean first = true;
     float quant;
-    while(riter.hasNext()){
-      quant = quantization(riter.next(), attribute);
-      this.minValue = quant < this.minValue?quant:this.minValue;
-      this.maxValue = quant > this.maxValue?quant:this.maxValue;
+    Iterator<ColumnChunk> chunks = columnIterator(tables, attribute);
+    while(chunks.hasNext()){
+      ColumnChunk chunk = chunks.next();
+      for(int i = 0;i<chunk.getNumSlots();i++){
+        if(!chunk.isSlotUsed(i)){
+          continue;
+        }
+        quant = quantization(chunk.getValue(i));
+        if(first){
+          this.minValue = quant;
+          this.maxValue = quant;
+          first = false;
+        }
+        this.minValue = quant < this.minValue?quant:this.minValue;
+        this.maxValue = quant > this.maxValue?quant:this.maxValue;
+      }
     }
 
     //2. calculate the width of each bin
@@ -151,23 +172,53 @@ public class Histogram {
     }
 
     //4. populate the data using the increment(value) method
-    riter = table.iterator();
+    chunks = columnIterator(tables, attribute);
     int idx;
-    while(riter.hasNext()){
-      quant = quantization(riter.next(), attribute);
-      if(Math.abs(this.width) < 0.00001){
-        idx = numBuckets-1;
-      }else{
-        idx = bucketIndex(quant);
-      }
+    while(chunks.hasNext()){
+      ColumnChunk chunk = chunks.next();
+      for(int i = 0;i<chunk.getNumSlots();i++){
+        if(!chunk.isSlotUsed(i)){
+          continue;
+        }
+        quant = quantization(chunk.getValue(i));
+        if(Math.abs(this.width) < 0.00001){
+          idx = numBuckets-1;
+        }else{
+          idx = bucketIndex(quant);
+        }
 
-      buckets[idx].increment(quant);
+        buckets[idx].increment(quant);
+      }
     }
 
     //throw new NotImplementedException();
 
   }
 
+  /**
+   * @return the chunks of column attribute of every table, one table after the other
+   */
+  private static Iterator<ColumnChunk> columnIterator(List<Table> tables, int attribute) {
+    Iterator<Table> tableIter = tables.iterator();
+    return new Iterator<ColumnChunk>() {
+      private Iterator<ColumnChunk> chunks = Collections.emptyIterator();
+
+      public boolean hasNext() {
+        while (!this.chunks.hasNext() && tableIter.hasNext()) {
+          this.chunks = tableIter.next().columnIterator(attribute);
+        }
+        return this.chunks.hasNext();
+      }
+
+      public ColumnChunk next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return this.chunks.next();
+      }
+    };
+  }
+
   private int bucketIndex(float v) {
     if (Math.abs(v - maxValue) < 0.00001) return buckets.length - 1;
     return (int) Math.floor((v - minValue) / width);
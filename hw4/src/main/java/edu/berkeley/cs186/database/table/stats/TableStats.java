@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.table.stats;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import edu.berkeley.cs186.database.databox.DataBox;
@@ -47,6 +48,10 @@ import edu.berkeley.cs186.database.table.Table;
  */
 public class TableStats {
   private Schema tableSchema;
+  // The schema of the rows that are read to produce the table, which the
+  // number of pages is estimated from. It is tableSchema unless the table is
+  // a projection of another one (see copyWithProjection).
+  private Schema pageSchema;
   private int numRecords;
   private List<Histogram> histograms;
 
@@ -54,13 +59,29 @@ public class TableStats {
   public TableStats(Schema tableSchema) {
 
     this.tableSchema = tableSchema;
+    this.pageSchema = tableSchema;
     this.numRecords = 0;
     this.histograms = new ArrayList<Histogram>();
 
   }
 
+  /**
+   * Construct a TableStats for a table with schema `tableSchema` that holds
+   * `numRecords` records, e.g. when a table is opened from its persisted
+   * metadata. The histograms are empty until they are refreshed.
+   */
+  public TableStats(Schema tableSchema, int numRecords) {
+    this(tableSchema, numRecords, new ArrayList<Histogram>());
+  }
+
   private TableStats(Schema tableSchema, int numRecords, List<Histogram> histograms) {
+    this(tableSchema, tableSchema, numRecords, histograms);
+  }
+
+  private TableStats(Schema tableSchema, Schema pageSchema, int numRecords,
+                     List<Histogram> histograms) {
     this.tableSchema = tableSchema;
+    this.pageSchema = pageSchema;
     this.numRecords = numRecords;
     this.histograms = histograms;
   }
@@ -71,14 +92,32 @@ public class TableStats {
 
   }
 
+  /**
+   * Accounts for n records added at once, e.g. by a bulk load, without
+   * looking at them.
+   */
+  public void addRecords(long n) {
+    numRecords = (int) Math.min(Integer.MAX_VALUE, numRecords + n);
+  }
+
   public void refreshHistograms(int buckets, Table tab) {
+    refreshHistograms(buckets, Collections.singletonList(tab));
+  }
 
+  /**
+   * Like refreshHistograms(buckets, tab), but builds histograms of the
+   * records of several tables with this schema, e.g. the partitions of a
+   * partitioned table.
+   */
+  public void refreshHistograms(int buckets, List<Table> tables) {
+
+    this.histograms = new ArrayList<Histogram>();
     int count = 0;
     int totalRecords = 0;
     for (Type t : tableSchema.getFieldTypes()) {
 
       Histogram h = new Histogram(buckets);
-      h.buildHistogram(tab, count);
+      h.buildHistogram(tables, count);
       this.histograms.add(h);
       totalRecords += h.getCount();
       count++;
@@ -106,7 +145,7 @@ public class TableStats {
    * assuming that all records are stored as densely as possible in the pages.
    */
   public int getNumPages() {
-    int numRecordsPerPage = Table.computeNumRecordsPerPage(Page.pageSize, tableSchema);
+    int numRecordsPerPage = Table.computeNumRecordsPerPage(Page.pageSize, pageSchema);
     if (numRecords % numRecordsPerPage == 0) {
       return numRecords / numRecordsPerPage;
     } else {
@@ -174,7 +213,23 @@ public class TableStats {
 
     Histogram qhistogram = histograms.get(column);
     int numRecords = qhistogram.getCount();
-    return new TableStats(this.tableSchema, numRecords, copyHistograms);
+    return new TableStats(this.tableSchema, this.pageSchema, numRecords, copyHistograms);
+  }
+
+  /**
+   * Estimates the table statistics for the table that keeps the columns of
+   * this one whose indices are in `fields`, in that order. The number of
+   * records is the same, and so is the number of pages: the rows are still
+   * read whole, only fewer of their columns are decoded.
+   */
+  public TableStats copyWithProjection(int[] fields) {
+    List<Histogram> copyHistograms = new ArrayList<>();
+    if (!histograms.isEmpty()) {
+      for (int i : fields) {
+        copyHistograms.add(histograms.get(i));
+      }
+    }
+    return new TableStats(tableSchema.project(fields), pageSchema, numRecords, copyHistograms);
   }
 
   /**
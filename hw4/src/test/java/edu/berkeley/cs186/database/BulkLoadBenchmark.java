@@ -0,0 +1,131 @@
+package edu.berkeley.cs186.database;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * Measures the throughput, in rows per second, of loading a CSV file shaped
+ * like students.csv (id, name, major, gpa) into a table, in four ways:
+ *
+ *   - addRecord: one Transaction#addRecord per row, which is what loading the
+ *     course's CSV files used to take, into a table with an index on its id;
+ *   - bulkLoad: Table#bulkLoad fed by a single thread, without an index;
+ *   - ingest: a CsvIngest with one parser per processor and two writers,
+ *     without an index, printing its progress as it goes; and
+ *   - loadCsv: Database#loadCsv, i.e. an ingest that also collects the
+ *     index's entries and builds the index bottom-up.
+ *
+ * The ids are shuffled, so the index sees them out of order.
+ *
+ * This is not a unit test. Run it after `mvn test-compile` with
+ *
+ *   java -cp target/classes:target/test-classes \
+ *     edu.berkeley.cs186.database.BulkLoadBenchmark [rows]
+ */
+public class BulkLoadBenchmark {
+  private static final int POOL_CAPACITY = 1024;
+  private static final String[] MAJORS = {"Chemistry", "Art History", "Computer Science",
+                                          "Biology", "Physics"};
+
+  public static void main(String[] args) throws Exception {
+    int numRows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    File dir = Files.createTempDirectory("BulkLoadBenchmark").toFile();
+    Path csv = new File(dir, "students.csv").toPath();
+    writeCsv(csv, numRows);
+    Schema schema = new Schema(Arrays.asList("sid", "name", "major", "gpa"),
+                               Arrays.asList(Type.intType(), Type.stringType(20),
+                                             Type.stringType(20), Type.floatType()));
+
+    System.out.printf("%-12s %10s %14s%n", "load", "ms", "rows/s");
+
+    // One addRecord per row, parsing each line the way the tests do.
+    Database db = newDatabase(new File(dir, "rows"), schema);
+    long start = System.nanoTime();
+    Database.Transaction t = db.beginTransaction();
+    try (CsvReader reader = new CsvReader(csv, schema)) {
+      while (reader.hasNext()) {
+        t.addRecord("Students", reader.next());
+      }
+    }
+    t.end();
+    report("addRecord", start, numRows);
+    db.deleteAllTables();
+    db.close();
+
+    db = new Database(new File(dir, "bulk").getAbsolutePath(), 5, new BufferPool(POOL_CAPACITY));
+    db.createTable(schema, "Students");
+    start = System.nanoTime();
+    try (CsvReader reader = new CsvReader(csv, schema)) {
+      report("bulkLoad", start, db.getTable("Students").bulkLoad(reader));
+    }
+    db.deleteAllTables();
+    db.close();
+
+    db = new Database(new File(dir, "ingest").getAbsolutePath(), 5, new BufferPool(POOL_CAPACITY));
+    db.createTable(schema, "Students");
+    CsvIngest ingest = new CsvIngest(db.getTable("Students"), csv);
+    ingest.setProgressListener(p -> System.err.println("  " + p), 500);
+    start = System.nanoTime();
+    report("ingest", start, ingest.run());
+    db.deleteAllTables();
+    db.close();
+
+    db = newDatabase(new File(dir, "loadCsv"), schema);
+    start = System.nanoTime();
+    report("loadCsv", start, db.loadCsv("Students", csv));
+    db.deleteAllTables();
+    db.close();
+
+    deleteRecursively(dir);
+  }
+
+  private static Database newDatabase(File dir, Schema schema) throws DatabaseException {
+    Database db = new Database(dir.getAbsolutePath(), 5, new BufferPool(POOL_CAPACITY));
+    db.createTableWithIndices(schema, "Students", Arrays.asList("sid"));
+    return db;
+  }
+
+  private static void writeCsv(Path csv, int numRows) throws Exception {
+    int[] ids = new int[numRows];
+    for (int i = 0; i < numRows; i++) {
+      ids[i] = i + 1;
+    }
+    Random random = new Random(186);
+    for (int i = numRows - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int id = ids[i];
+      ids[i] = ids[j];
+      ids[j] = id;
+    }
+    try (BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+      for (int id : ids) {
+        writer.write(String.format("%d,Student %d,%s,%f%n", id, id,
+                                   MAJORS[id % MAJORS.length], 4 * random.nextFloat()));
+      }
+    }
+  }
+
+  private static void report(String label, long start, long numRows) {
+    long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+    System.out.printf("%-12s %10d %14d%n", label, elapsedMillis, numRows * 1000 / elapsedMillis);
+  }
+
+  private static void deleteRecursively(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    f.delete();
+  }
+}
@@ -0,0 +1,120 @@
+package edu.berkeley.cs186.database;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+
+public class TestCsvIngest {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static Schema schema() {
+    return new Schema(Arrays.asList("id", "name"),
+                      Arrays.asList(Type.intType(), Type.stringType(10)));
+  }
+
+  private Table newTable() throws Exception {
+    BufferPool pool = new BufferPool(64);
+    pool.setWriterInterval(0);
+    String path = tempFolder.newFile("t" + Table.FILENAME_EXTENSION).getAbsolutePath();
+    return new Table("t", schema(), path, pool);
+  }
+
+  private Path writeCsv(int numRows) throws Exception {
+    List<String> lines = new ArrayList<String>();
+    for (int i = 0; i < numRows; ++i) {
+      lines.add(i + ",name " + i);
+      if (i % 100 == 0) {
+        lines.add("");
+      }
+    }
+    File csv = tempFolder.newFile("rows.csv");
+    Files.write(csv.toPath(), lines);
+    return csv.toPath();
+  }
+
+  @Test
+  public void testIngest() throws Exception {
+    int numRows = 20000;
+    Path csv = writeCsv(numRows);
+    Table table = newTable();
+
+    CsvIngest ingest = new CsvIngest(table, csv);
+    ingest.setNumParsers(3);
+    ingest.setNumWriters(2);
+    ingest.setChunkLines(100);
+    ingest.setQueueCapacity(2);
+    List<CsvIngest.Progress> reports = new ArrayList<CsvIngest.Progress>();
+    ingest.setProgressListener(reports::add, 1);
+    assertEquals(numRows, ingest.run());
+
+    // Every row is loaded exactly once, in some order.
+    assertEquals(numRows, table.getNumRecords());
+    BitSet seen = new BitSet(numRows);
+    for (Record record : table) {
+      int id = record.getValues().get(0).getInt();
+      assertFalse(seen.get(id));
+      seen.set(id);
+      assertEquals("name " + id, record.getValues().get(1).getString().trim());
+    }
+    assertEquals(numRows, seen.cardinality());
+
+    // The last report describes the whole load.
+    CsvIngest.Progress last = reports.get(reports.size() - 1);
+    assertEquals(numRows, last.getRowsLoaded());
+    assertEquals(1.0, last.getFractionRead(), 0.0);
+    for (int i = 1; i < reports.size(); ++i) {
+      assertTrue(reports.get(i - 1).getRowsLoaded() <= reports.get(i).getRowsLoaded());
+    }
+    table.close();
+  }
+
+  @Test
+  public void testBadLineStopsTheIngest() throws Exception {
+    File csv = tempFolder.newFile("rows.csv");
+    List<String> lines = new ArrayList<String>();
+    for (int i = 0; i < 5000; ++i) {
+      lines.add(i == 4321 ? "oops,name" : i + ",name");
+    }
+    Files.write(csv.toPath(), lines);
+    Table table = newTable();
+
+    CsvIngest ingest = new CsvIngest(table, csv.toPath());
+    ingest.setChunkLines(50);
+    try {
+      ingest.run();
+      fail();
+    } catch (DatabaseException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains(":4322:"));
+    }
+
+    // Whatever was loaded is consistent.
+    long n = 0;
+    for (Record record : table) {
+      n++;
+    }
+    assertEquals(table.getNumRecords(), n);
+    assertTrue(n < 5000);
+
+    // The table is usable afterwards.
+    table.addRecord(Arrays.asList(new IntDataBox(0), new StringDataBox("x", 10)));
+    table.close();
+  }
+}
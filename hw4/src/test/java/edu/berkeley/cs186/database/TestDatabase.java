@@ -4,6 +4,10 @@ import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageStore;
+import edu.berkeley.cs186.database.query.QueryPlan;
 
 import org.junit.After;
 import org.junit.Before;
@@ -17,6 +21,8 @@ import org.junit.experimental.categories.Category;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -110,6 +116,49 @@ public class TestDatabase {
     t2.end();
   }
 
+  @Test
+  public void testTempTablesAreDeleted() throws Exception {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    String tableName = "testTable1";
+    db.createTable(s, tableName);
+
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 100; i++) {
+      t1.addRecord(tableName, TestUtils.createRecordWithAllTypesWithValue(i % 10).getValues());
+    }
+    // A group by goes through a temp table.
+    QueryPlan queryPlan = t1.query(tableName);
+    queryPlan.groupBy("int");
+    Iterator<Record> records = queryPlan.execute();
+    while (records.hasNext()) {
+      records.next();
+    }
+    File tempDir = new File(filename, "temp");
+    assertTrue(tempDir.list().length > 0);
+    t1.end();
+
+    // Every file of every temp table is gone once the transaction ends.
+    assertEquals(Arrays.asList(), Arrays.asList(tempDir.list()));
+  }
+
+  @Test
+  public void testDeleteTable() throws Exception {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    String tableName = "testTable1";
+    db.createTable(s, tableName);
+    Database.Transaction t1 = db.beginTransaction();
+    t1.addRecord(tableName, TestUtils.createRecordWithAllTypes().getValues());
+    t1.end();
+    db.checkpoint();
+    assertTrue(new File(filename, tableName + Table.FILENAME_EXTENSION).exists());
+
+    // The table file goes, and so do its metadata and free-space map.
+    assertTrue(db.deleteTable(tableName));
+    for (String name : new File(filename).list()) {
+      assertFalse(name, name.startsWith(tableName));
+    }
+  }
+
   @Test
   public void testDatabaseDurablity() throws DatabaseException {
     Schema s = TestUtils.createSchemaWithAllTypes();
@@ -181,4 +230,184 @@ public class TestDatabase {
 
     assertEquals(table.getNumRecords(),200);
   }
+
+  @Test
+  public void testPartitionedTableDurability() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "parts", Partitioning.hash("int", 3));
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 30; i++) {
+      rids.add(t1.addRecord("parts", TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    t1.deleteRecord("parts", rids.get(3));
+    t1.end();
+
+    // The partitions aren't tables of their own.
+    assertNull(db.getTable("parts"));
+    try {
+      db.createTable(s, "parts");
+      fail();
+    } catch (DatabaseException e) {
+      // As expected.
+    }
+
+    db.close();
+    db = new Database(this.filename);
+    assertNull(db.getTable("parts#0"));
+    assertEquals(3, db.getPartitionedTable("parts").getNumPartitions());
+    t1 = db.beginTransaction();
+    assertEquals(29, t1.getNumRecords("parts"));
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(7),
+                 t1.getRecord("parts", rids.get(7)));
+    t1.end();
+
+    assertTrue(db.deleteTable("parts"));
+    assertFalse(new File(this.filename, "parts" + PartitionedTable.DIRECTORY_EXTENSION).exists());
+  }
+
+  @Test
+  public void testCheckpoint() throws Exception {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+
+    // With PREAD pages and no background writer, modifications only reach
+    // the files through checkpoints.
+    BufferPool pool = new BufferPool(16);
+    pool.setStoreType(PageStore.Type.PREAD);
+    pool.setWriterInterval(0);
+    String dir = tempFolder.newFolder("testCheckpoint").getAbsolutePath();
+    Database writer = new Database(dir, 5, pool);
+    writer.createTable(s, "testTable1");
+    Database.Transaction t1 = writer.beginTransaction();
+    for (int i = 0; i < 200; i++) {
+      t1.addRecord("testTable1", input.getValues());
+    }
+    t1.end();
+    assertTrue(writer.getTable("testTable1").getAllocator().getNumDirtyPages() > 0);
+
+    writer.checkpoint();
+    assertEquals(0, writer.getTable("testTable1").getAllocator().getNumDirtyPages());
+
+    Database reader = new Database(dir, 5, new BufferPool(16));
+    assertEquals(200, reader.getTable("testTable1").getNumRecords());
+    reader.close();
+    writer.close();
+  }
+
+  @Test
+  public void testLoadCsv() throws Exception {
+    File csv = tempFolder.newFile("rows.csv");
+    List<String> lines = new ArrayList<String>();
+    for (int i = 0; i < 500; i++) {
+      // Out of order, so that the index has to sort its entries.
+      int key = (i * 7) % 500;
+      lines.add(String.format("true, %d, s%d ,%d.5", key, key, key));
+    }
+    Files.write(csv.toPath(), lines);
+
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTableWithIndices(s, "testTable1", Arrays.asList("int"));
+    assertEquals(500, db.loadCsv("testTable1", csv.toPath()));
+
+    Database.Transaction t1 = db.beginTransaction();
+    assertEquals(500, t1.getNumRecords("testTable1"));
+    Iterator<Record> sorted = t1.sortedScan("testTable1", "int");
+    for (int i = 0; i < 500; i++) {
+      List<DataBox> values = sorted.next().getValues();
+      assertEquals(new IntDataBox(i), values.get(1));
+      assertEquals(new StringDataBox("s" + i, 5), values.get(2));
+      assertEquals(new FloatDataBox(i + 0.5f), values.get(3));
+    }
+    assertFalse(sorted.hasNext());
+
+    // Later rows go through the index's puts, since it isn't empty anymore.
+    Files.write(csv.toPath(), Arrays.asList("false,1000,x,0"));
+    assertEquals(1, db.loadCsv("testTable1", csv.toPath()));
+    assertTrue(t1.contains("testTable1", "int", new IntDataBox(1000)));
+
+    Files.write(csv.toPath(), Arrays.asList("true,1,x,0", "true,x,x,0"));
+    try {
+      db.loadCsv("testTable1", csv.toPath());
+      fail();
+    } catch (DatabaseException e) {
+      assertTrue(e.getMessage().contains(":2:"));
+    }
+    t1.end();
+  }
+
+  @Test
+  public void testBuildStatisticsEncodesColumns() throws Exception {
+    Schema s = new Schema(Arrays.asList("id", "color"),
+                          Arrays.asList(Type.intType(), Type.stringType(50)));
+    db.createTable(s, "colors");
+    String[] colors = {"red", "green", "blue", "cyan", "magenta"};
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 500; i++) {
+      t1.addRecord("colors", Arrays.asList(new IntDataBox(i), new StringDataBox(colors[i % 5], 50)));
+    }
+
+    // While a page of the table is pinned, the statistics are built but nothing is encoded.
+    Iterator<Page> pinned = t1.getPinnedPageIterator("colors");
+    Page header = pinned.next();
+    assertFalse(db.buildStatistics("colors", 10));
+    assertNull(db.getTable("colors").getLayout().getDictionary(1));
+    assertEquals(2, t1.getStats("colors").getHistograms().size());
+    header.unpin();
+
+    // Once nothing is pinned, the colors are encoded, and read back as they were.
+    assertTrue(db.buildStatistics("colors", 10));
+    assertEquals(5, db.getTable("colors").getLayout().getDictionary(1).size());
+    Iterator<Record> records = t1.getRecordIterator("colors");
+    int count = 0;
+    while (records.hasNext()) {
+      List<DataBox> values = records.next().getValues();
+      assertEquals(new StringDataBox(colors[values.get(0).getInt() % 5], 50), values.get(1));
+      count++;
+    }
+    assertEquals(500, count);
+    t1.end();
+  }
+
+  @Test
+  public void testFailedLoadCsvStillIndexesTheLoadedRows() throws Exception {
+    File csv = tempFolder.newFile("rows.csv");
+    List<String> lines = new ArrayList<String>();
+    // Long enough that the ingest's queues fill up, so rows are written before the bad line is
+    // parsed.
+    for (int i = 0; i < 20000; i++) {
+      lines.add(String.format("true, %d, s%d ,%d.5", i, i, i));
+    }
+    lines.add("true,x,x,0");
+    Files.write(csv.toPath(), lines);
+
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTableWithIndices(s, "testTable1", Arrays.asList("int"));
+    try {
+      db.loadCsv("testTable1", csv.toPath());
+      fail();
+    } catch (DatabaseException e) {
+      assertTrue(e.getMessage().contains(":20001:"));
+    }
+
+    // However many rows made it in before the load stopped, each of them is in the index.
+    Database.Transaction t1 = db.beginTransaction();
+    long numRecords = t1.getNumRecords("testTable1");
+    assertTrue(numRecords > 0);
+    Iterator<Record> records = t1.getRecordIterator("testTable1");
+    long numIndexed = 0;
+    while (records.hasNext()) {
+      DataBox key = records.next().getValues().get(1);
+      assertTrue(t1.contains("testTable1", "int", key));
+      numIndexed++;
+    }
+    assertEquals(numRecords, numIndexed);
+    Iterator<Record> sorted = t1.sortedScan("testTable1", "int");
+    long numSorted = 0;
+    for (; sorted.hasNext(); sorted.next()) {
+      numSorted++;
+    }
+    assertEquals(numRecords, numSorted);
+    t1.end();
+  }
 }
@@ -14,15 +14,31 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.io.IOStats;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.query.BNLJOperator;
+import edu.berkeley.cs186.database.query.IndexScanOperator;
+import edu.berkeley.cs186.database.query.JoinOperator;
+import edu.berkeley.cs186.database.query.QueryOperator;
 import edu.berkeley.cs186.database.query.QueryPlan;
+import edu.berkeley.cs186.database.query.PartitionScanOperator;
 import edu.berkeley.cs186.database.query.QueryPlanException;
+import edu.berkeley.cs186.database.query.SNLJOperator;
+import edu.berkeley.cs186.database.query.SelectOperator;
+import edu.berkeley.cs186.database.query.SequentialScanOperator;
+import edu.berkeley.cs186.database.table.PageLayout;
+import edu.berkeley.cs186.database.table.PartitionedTable;
+import edu.berkeley.cs186.database.table.Partitioning;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 import static org.junit.Assert.*;
 
 public class TestDatabaseQueries {
@@ -76,6 +92,481 @@ public class TestDatabaseQueries {
     assertEquals(1000, count);
   }
 
+  @Test
+  public void testProjectionPushdown() throws DatabaseException, QueryPlanException {
+    this.transaction.queryAs("Students", "S");
+    this.transaction.queryAs("Enrollments", "E");
+    this.transaction.queryAs("Courses", "C");
+
+    // The same join, once with every column and once with a projection.
+    QueryPlan fullPlan = this.transaction.query("S");
+    fullPlan.join("E", "S.sid", "E.sid");
+    fullPlan.join("C", "E.cid", "C.cid");
+    Iterator<Record> fullIterator = fullPlan.execute();
+    List<String> fullNames = fullPlan.getFinalOperator().getOutputSchema().getFieldNames();
+    int studentName = fullNames.indexOf("S.name");
+    int courseName = fullNames.indexOf("C.name");
+    List<String> expected = new ArrayList<String>();
+    while (fullIterator.hasNext()) {
+      List<DataBox> values = fullIterator.next().getValues();
+      expected.add(values.get(studentName) + "/" + values.get(courseName));
+    }
+
+    QueryPlan queryPlan = this.transaction.query("S");
+    queryPlan.join("E", "S.sid", "E.sid");
+    queryPlan.join("C", "E.cid", "C.cid");
+    queryPlan.project(new ArrayList<String>(Arrays.asList("S.name", "C.name")));
+    Iterator<Record> recordIterator = queryPlan.execute();
+    List<String> actual = new ArrayList<String>();
+    while (recordIterator.hasNext()) {
+      List<DataBox> values = recordIterator.next().getValues();
+      actual.add(values.get(0) + "/" + values.get(1));
+    }
+    Collections.sort(expected);
+    Collections.sort(actual);
+    assertEquals(1000, actual.size());
+    assertEquals(expected, actual);
+
+    // The scans only produce the columns used above them, and each join drops its join columns.
+    JoinOperator outerJoin = (JoinOperator) queryPlan.getFinalOperator().getSource();
+    JoinOperator innerJoin = (JoinOperator) outerJoin.getLeftSource();
+    assertEquals(Arrays.asList("S.name", "C.name"), outerJoin.getOutputSchema().getFieldNames());
+    assertEquals(Arrays.asList("S.name", "E.cid"), innerJoin.getOutputSchema().getFieldNames());
+    assertEquals(Arrays.asList("S.sid", "S.name"),
+                 innerJoin.getLeftSource().getOutputSchema().getFieldNames());
+    assertEquals(Arrays.asList("E.sid", "E.cid"),
+                 innerJoin.getRightSource().getOutputSchema().getFieldNames());
+    assertEquals(Arrays.asList("C.cid", "C.name"),
+                 outerJoin.getRightSource().getOutputSchema().getFieldNames());
+
+    // A block nested loop join reads projected scans straight from their pages.
+    List<String> scanColumns = Arrays.asList("sid", "name", "cid");
+    QueryOperator left = new SequentialScanOperator(this.transaction, "S", scanColumns);
+    QueryOperator right = new SequentialScanOperator(this.transaction, "E", scanColumns);
+    QueryOperator join = new BNLJOperator(left, right, "S.sid", "E.sid", this.transaction,
+                                          Arrays.asList("S.name", "E.cid"));
+    Iterator<Record> joined = join.iterator();
+    int count = 0;
+    while (joined.hasNext()) {
+      assertEquals(2, joined.next().getValues().size());
+      count++;
+    }
+    assertEquals(1000, count);
+  }
+
+  @Test
+  public void testBNLJLeavesNoPagesPinned() throws DatabaseException, QueryPlanException {
+    this.transaction.queryAs("Students", "S");
+    this.transaction.queryAs("Enrollments", "E");
+
+    int numReserved = database.getBufferPool().getNumReserved();
+    int[] counts = new int[2];
+    for (int i = 0; i < 2; i++) {
+      QueryOperator left = new SequentialScanOperator(this.transaction, "S");
+      QueryOperator right = new SequentialScanOperator(this.transaction, "E");
+      QueryOperator join = i == 0
+          ? new SNLJOperator(left, right, "S.sid", "E.sid", this.transaction)
+          : new BNLJOperator(left, right, "S.sid", "E.sid", this.transaction);
+      Iterator<Record> recordIterator = join.iterator();
+      while (recordIterator.hasNext()) {
+        recordIterator.next();
+        counts[i]++;
+      }
+    }
+    assertEquals(1000, counts[0]);
+    assertEquals(counts[0], counts[1]);
+    // The join gave back the memory it reserved.
+    assertEquals(numReserved, database.getBufferPool().getNumReserved());
+
+    for (String tableName : new String[] {"Students", "Enrollments"}) {
+      for (Page page : database.getTable(tableName).getAllocator()) {
+        assertFalse(page.isPinned());
+      }
+    }
+  }
+
+  @Test
+  public void testTransactionIOStats() throws DatabaseException, QueryPlanException {
+    Table students = database.getTable("Students");
+    long tableReadsBefore = students.getIOStats().getNumLogicalReads();
+    IOStats stats = this.transaction.getIOStats();
+    long readsBefore = stats.getNumLogicalReads();
+
+    QueryOperator scan = new SequentialScanOperator(this.transaction, "Students");
+    Iterator<Record> records = scan.iterator();
+    while (records.hasNext()) {
+      records.next();
+    }
+
+    // The scan fetched every data page of the table at least once, and
+    // nobody else touched the table meanwhile.
+    long reads = stats.getNumLogicalReads() - readsBefore;
+    assertTrue(reads >= students.getNumDataPages());
+    assertEquals(reads, students.getIOStats().getNumLogicalReads() - tableReadsBefore);
+  }
+
+  @Test
+  public void testPaxTable() throws DatabaseException, QueryPlanException {
+    Schema schema = database.getTable("Students").getSchema();
+    database.createTable(schema, "StudentsPax", PageLayout.Format.PAX);
+    int numStudents = 0;
+    int sumOfSids = 0;
+    Iterator<Record> students = this.transaction.getRecordIterator("Students");
+    while (students.hasNext()) {
+      List<DataBox> values = students.next().getValues();
+      this.transaction.addRecord("StudentsPax", values);
+      numStudents++;
+      sumOfSids += values.get(0).getInt();
+    }
+    this.transaction.queryAs("Students", "S");
+    this.transaction.queryAs("StudentsPax", "P");
+    this.transaction.queryAs("Enrollments", "E");
+
+    // Aggregates straight over a scan read the column chunks of the table, in either format.
+    List<List<DataBox>> results = new ArrayList<List<DataBox>>();
+    for (String alias : new String[] {"S", "P"}) {
+      QueryPlan queryPlan = this.transaction.query(alias);
+      queryPlan.count();
+      queryPlan.sum("sid");
+      queryPlan.average("sid");
+      Iterator<Record> records = queryPlan.execute();
+      results.add(records.next().getValues());
+      assertFalse(records.hasNext());
+    }
+    assertEquals(results.get(0), results.get(1));
+    assertEquals(new IntDataBox(numStudents), results.get(1).get(0));
+    assertEquals(new IntDataBox(sumOfSids), results.get(1).get(1));
+
+    // Joins read PAX pages too.
+    QueryPlan queryPlan = this.transaction.query("P");
+    queryPlan.join("E", "P.sid", "E.sid");
+    queryPlan.project(new ArrayList<String>(Arrays.asList("P.name", "E.cid")));
+    Iterator<Record> recordIterator = queryPlan.execute();
+    int count = 0;
+    while (recordIterator.hasNext()) {
+      recordIterator.next();
+      count++;
+    }
+    assertEquals(1000, count);
+  }
+
+  @Test
+  public void testSlottedTables() throws DatabaseException, QueryPlanException {
+    for (String tableName : new String[] {"Students", "Courses"}) {
+      Table table = database.getTable(tableName);
+      database.createTable(table.getSchema(), tableName + "Slotted", PageLayout.Format.SLOTTED);
+      Iterator<Record> records = this.transaction.getRecordIterator(tableName);
+      while (records.hasNext()) {
+        this.transaction.addRecord(tableName + "Slotted", records.next().getValues());
+      }
+
+      // Names take as many bytes as they have characters, so the copies take
+      // fewer pages, or at least fill their page less.
+      Table slotted = database.getTable(tableName + "Slotted");
+      assertEquals(table.getNumRecords(), slotted.getNumRecords());
+      assertTrue(slotted.getNumDataPages() <= table.getNumDataPages());
+      assertTrue(slotted.getNumDataPages() < table.getNumDataPages() ||
+                 slotted.getFillLevel(1) < table.getFillLevel(1));
+    }
+    assertTrue(database.getTable("StudentsSlotted").getNumDataPages() <
+               database.getTable("Students").getNumDataPages());
+
+    // Queries over the copies return what they do over the originals.
+    this.transaction.queryAs("StudentsSlotted", "S");
+    this.transaction.queryAs("Enrollments", "E");
+    this.transaction.queryAs("CoursesSlotted", "C");
+    QueryPlan queryPlan = this.transaction.query("S");
+    queryPlan.join("E", "S.sid", "E.sid");
+    queryPlan.join("C", "E.cid", "C.cid");
+    queryPlan.project(new ArrayList<String>(Arrays.asList("S.name", "C.name")));
+    Iterator<Record> recordIterator = queryPlan.execute();
+    int count = 0;
+    while (recordIterator.hasNext()) {
+      recordIterator.next();
+      count++;
+    }
+    assertEquals(1000, count);
+  }
+
+  @Test
+  public void testDictionaryEncoding() throws DatabaseException, QueryPlanException {
+    for (String tableName : new String[] {"Students", "Courses"}) {
+      database.createTable(database.getTable(tableName).getSchema(), tableName + "Encoded");
+      Iterator<Record> records = this.transaction.getRecordIterator(tableName);
+      while (records.hasNext()) {
+        this.transaction.addRecord(tableName + "Encoded", records.next().getValues());
+      }
+      database.getTable(tableName + "Encoded").buildStatistics(10);
+      assertTrue(database.getTable(tableName + "Encoded").encodeColumns());
+    }
+
+    // Encoding from the statistics encoded the majors and departments, which
+    // repeat, but not the names.
+    Table students = database.getTable("StudentsEncoded");
+    Table courses = database.getTable("CoursesEncoded");
+    assertNull(students.getLayout().getDictionary(1));
+    assertEquals(6, students.getLayout().getDictionary(2).size());
+    assertNull(courses.getLayout().getDictionary(1));
+    assertEquals(6, courses.getLayout().getDictionary(2).size());
+    assertTrue(students.getNumRecordsPerPage() >
+               database.getTable("Students").getNumRecordsPerPage());
+    this.transaction.queryAs("Students", "S");
+    this.transaction.queryAs("StudentsEncoded", "SE");
+    this.transaction.queryAs("Courses", "C");
+    this.transaction.queryAs("CoursesEncoded", "CE");
+
+    // Equality predicates on an encoded column compare codes, and find what they find on strings.
+    QueryPlan.PredicateOperator[] operators = {
+      QueryPlan.PredicateOperator.EQUALS, QueryPlan.PredicateOperator.NOT_EQUALS
+    };
+    for (String major : new String[] {"CS", "Astrology"}) {
+      DataBox value = new StringDataBox(major, 20);
+      int[] expected = new int[operators.length];
+      Iterator<Record> records = this.transaction.getRecordIterator("Students");
+      while (records.hasNext()) {
+        boolean equal = records.next().getValues().get(2).equals(value);
+        expected[0] += equal ? 1 : 0;
+        expected[1] += equal ? 0 : 1;
+      }
+      assertEquals(major.equals("Astrology"), expected[0] == 0);
+      for (int i = 0; i < operators.length; i++) {
+        QueryOperator scan = new SequentialScanOperator(this.transaction, "SE");
+        assertEquals(expected[i], count(new SelectOperator(scan, "major", operators[i], value).iterator()));
+      }
+    }
+
+    // So do join keys, whether one or both sides are encoded.
+    String[][] sides = {{"S", "C"}, {"SE", "C"}, {"S", "CE"}, {"SE", "CE"}};
+    int numJoined = -1;
+    for (String[] side : sides) {
+      for (int i = 0; i < 2; i++) {
+        QueryOperator left = new SequentialScanOperator(this.transaction, side[0]);
+        QueryOperator right = new SequentialScanOperator(this.transaction, side[1]);
+        String leftColumn = side[0] + ".major";
+        String rightColumn = side[1] + ".department";
+        QueryOperator join = i == 0
+            ? new SNLJOperator(left, right, leftColumn, rightColumn, this.transaction)
+            : new BNLJOperator(left, right, leftColumn, rightColumn, this.transaction);
+        int count = count(join.iterator());
+        if (numJoined == -1) {
+          numJoined = count;
+          assertTrue(numJoined > 0);
+        }
+        assertEquals(numJoined, count);
+      }
+    }
+  }
+
+  @Test
+  public void testBNLJReadsPagesEncodedWhileItRuns() throws DatabaseException, QueryPlanException {
+    for (String tableName : new String[] {"Courses", "Students"}) {
+      database.createTable(database.getTable(tableName).getSchema(), tableName + "Midway");
+      Iterator<Record> records = this.transaction.getRecordIterator(tableName);
+      while (records.hasNext()) {
+        this.transaction.addRecord(tableName + "Midway", records.next().getValues());
+      }
+    }
+    this.transaction.queryAs("CoursesMidway", "CM");
+    this.transaction.queryAs("StudentsMidway", "SM");
+    QueryOperator left = new SequentialScanOperator(this.transaction, "CM");
+    QueryOperator right = new SequentialScanOperator(this.transaction, "SM");
+    QueryOperator join = new BNLJOperator(left, right, "CM.department", "SM.major",
+                                          this.transaction);
+    assertTrue(database.getTable("StudentsMidway").getNumDataPages() > 1);
+    int numJoined = count(join.iterator());
+    assertTrue(numJoined > 0);
+
+    // The right pages that the join copies once the majors are encoded are read with the new
+    // layout.
+    Iterator<Record> records = join.iterator();
+    assertTrue(records.hasNext());
+    records.next();
+    Table students = database.getTable("StudentsMidway");
+    students.buildStatistics(10);
+    assertTrue(students.encodeColumns());
+    assertEquals(numJoined, 1 + count(records));
+  }
+
+  @Test
+  public void testZoneMapPruning() throws DatabaseException, QueryPlanException {
+    database.createTable(database.getTable("Students").getSchema(), "StudentsZoned");
+    Iterator<Record> records = this.transaction.getRecordIterator("Students");
+    int expected = 0;
+    while (records.hasNext()) {
+      List<DataBox> values = records.next().getValues();
+      this.transaction.addRecord("StudentsZoned", values);
+      expected += values.get(0).getInt() < 20 ? 1 : 0;
+    }
+    database.getTable("StudentsZoned").buildStatistics(10);
+    int numPages = this.transaction.getNumDataPages("StudentsZoned");
+    assertTrue(numPages > 1);
+
+    // Students were added in sid order, so the first few sids are all on the first page, and a
+    // scan under a select on them reads that page only.
+    QueryOperator scan = new SequentialScanOperator(this.transaction, "StudentsZoned");
+    assertEquals(numPages, scan.getIOCost());
+    DataBox value = new IntDataBox(20);
+    QueryOperator select = new SelectOperator(scan, "sid", QueryPlan.PredicateOperator.LESS_THAN,
+                                              value);
+    assertEquals(1, scan.getIOCost());
+    assertEquals(1, select.getIOCost());
+    assertEquals(expected, count(select.iterator()));
+
+    // So does the scan the optimizer picks.
+    QueryPlan queryPlan = this.transaction.query("StudentsZoned");
+    queryPlan.select("sid", QueryPlan.PredicateOperator.LESS_THAN, value);
+    assertEquals(expected, count(queryPlan.executeOptimal()));
+    QueryOperator operator = queryPlan.getFinalOperator();
+    assertEquals(1, operator.getIOCost());
+    while (!operator.isSequentialScan()) {
+      operator = operator.getSource();
+    }
+    assertEquals(1, ((SequentialScanOperator) operator).getPredicates().size());
+  }
+
+  @Test
+  public void testZoneMapPruningBeatsIndex() throws DatabaseException, QueryPlanException {
+    Schema schema = new Schema(Arrays.asList("id", "name"),
+                               Arrays.asList(Type.intType(), Type.stringType(100)));
+    database.createTableWithIndices(schema, "Zoned", Arrays.asList("id"));
+    for (int i = 0; i < 2000; ++i) {
+      this.transaction.addRecord("Zoned", Arrays.asList(new IntDataBox(i),
+                                                        new StringDataBox("name" + i, 100)));
+    }
+    database.getTable("Zoned").buildStatistics(10);
+
+    // An index lookup of one id costs less than reading every page, but more than the one page
+    // that the zone map leaves a scan to read, so the optimizer picks the scan.
+    QueryPlan queryPlan = this.transaction.query("Zoned");
+    queryPlan.select("id", QueryPlan.PredicateOperator.EQUALS, new IntDataBox(5));
+    assertTrue(new IndexScanOperator(this.transaction, "Zoned", "id",
+                                     QueryPlan.PredicateOperator.EQUALS, new IntDataBox(5))
+               .getIOCost() < this.transaction.getNumDataPages("Zoned"));
+    assertEquals(1, count(queryPlan.executeOptimal()));
+    QueryOperator operator = queryPlan.getFinalOperator();
+    assertEquals(1, operator.getIOCost());
+    while (operator.getSource() != null) {
+      operator = operator.getSource();
+    }
+    assertTrue(operator.isSequentialScan());
+  }
+
+  @Test
+  public void testBloomFilters() throws DatabaseException, QueryPlanException {
+    database.createTable(database.getTable("Students").getSchema(), "StudentsBloom");
+    Iterator<Record> records = this.transaction.getRecordIterator("Students");
+    while (records.hasNext()) {
+      this.transaction.addRecord("StudentsBloom", records.next().getValues());
+    }
+
+    // Without an index or a Bloom filter, the column can't be looked up.
+    try {
+      this.transaction.contains("StudentsBloom", "sid", new IntDataBox(5));
+      fail();
+    } catch (DatabaseException e) {
+      // As expected.
+    }
+
+    // With a filter, misses are answered by the filter and hits by a scan.
+    database.buildBloomFilter("StudentsBloom", "sid");
+    assertTrue(this.transaction.contains("StudentsBloom", "sid", new IntDataBox(5)));
+    assertTrue(this.transaction.contains("StudentsBloom", "StudentsBloom.sid", new IntDataBox(200)));
+    assertFalse(this.transaction.contains("StudentsBloom", "sid", new IntDataBox(1000)));
+    this.transaction.addRecord("StudentsBloom", Arrays.asList(
+        new IntDataBox(1000), new StringDataBox("Bloom", 20), new StringDataBox("CS", 20),
+        new FloatDataBox(4.0f)));
+    assertTrue(this.transaction.contains("StudentsBloom", "sid", new IntDataBox(1000)));
+    Iterator<Record> found = this.transaction.lookupKey("StudentsBloom", "sid", new IntDataBox(1000));
+    assertEquals(new StringDataBox("Bloom", 20), found.next().getValues().get(1));
+    assertFalse(found.hasNext());
+    assertFalse(this.transaction.lookupKey("StudentsBloom", "sid", new IntDataBox(-1)).hasNext());
+
+    // Nested loop joins drop the outer records whose key isn't among the inner keys, but join the
+    // others as usual, whether the outer table fits in a block or not.
+    List<String> names = Arrays.asList("id", "pad");
+    Schema probeSchema = new Schema(names, Arrays.asList(Type.intType(), Type.stringType(100)));
+    database.createTable(probeSchema, "BloomProbe");
+    for (int i = 0; i < 300; i++) {
+      this.transaction.addRecord("BloomProbe", Arrays.asList(new IntDataBox(i),
+                                                             new StringDataBox("p" + i, 100)));
+    }
+    assertTrue(this.transaction.getNumDataPages("BloomProbe") > this.transaction.getNumMemoryPages());
+    database.createTable(probeSchema, "BloomBuild");
+    for (int id : new int[] {5, 250, 1000, 5}) {
+      this.transaction.addRecord("BloomBuild", Arrays.asList(new IntDataBox(id),
+                                                             new StringDataBox("b" + id, 100)));
+    }
+    for (int i = 0; i < 2; i++) {
+      QueryOperator left = new SequentialScanOperator(this.transaction, "BloomProbe");
+      QueryOperator right = new SequentialScanOperator(this.transaction, "BloomBuild");
+      QueryOperator join = i == 0
+          ? new SNLJOperator(left, right, "BloomProbe.id", "BloomBuild.id", this.transaction)
+          : new BNLJOperator(left, right, "BloomProbe.id", "BloomBuild.id", this.transaction);
+      List<Integer> ids = new ArrayList<Integer>();
+      Iterator<Record> joined = join.iterator();
+      while (joined.hasNext()) {
+        List<DataBox> values = joined.next().getValues();
+        assertEquals(values.get(0), values.get(2));
+        assertEquals(new StringDataBox("p" + values.get(0).getInt(), 100), values.get(1));
+        ids.add(values.get(0).getInt());
+      }
+      Collections.sort(ids);
+      assertEquals(Arrays.asList(5, 5, 250), ids);
+    }
+  }
+
+  @Test
+  public void testPartitionPruning() throws DatabaseException, QueryPlanException {
+    List<DataBox> bounds = Arrays.<DataBox>asList(new IntDataBox(50), new IntDataBox(100),
+                                                  new IntDataBox(150));
+    database.createTable(database.getTable("Students").getSchema(), "StudentsParts",
+                         Partitioning.range("sid", bounds));
+    Iterator<Record> records = this.transaction.getRecordIterator("Students");
+    int expected = 0;
+    while (records.hasNext()) {
+      List<DataBox> values = records.next().getValues();
+      this.transaction.addRecord("StudentsParts", values);
+      expected += values.get(0).getInt() < 50 ? 1 : 0;
+    }
+    PartitionedTable table = database.getPartitionedTable("StudentsParts");
+    table.buildStatistics(10);
+    assertEquals(200, this.transaction.getNumRecords("StudentsParts"));
+
+    // A select on the partition key only reads the partitions that may hold its records, both in
+    // the plan that execute builds and in the one the optimizer picks.
+    for (int i = 0; i < 2; i++) {
+      QueryPlan queryPlan = this.transaction.query("StudentsParts");
+      queryPlan.select("sid", QueryPlan.PredicateOperator.LESS_THAN, new IntDataBox(50));
+      assertEquals(expected, count(i == 0 ? queryPlan.execute() : queryPlan.executeOptimal()));
+      QueryOperator operator = queryPlan.getFinalOperator();
+      while (!operator.isPartitionScan()) {
+        operator = operator.getSource();
+      }
+      assertEquals(Arrays.asList(0), ((PartitionScanOperator) operator).getPartitions());
+      assertEquals(table.getPartition(0).getNumDataPages(), operator.getIOCost());
+    }
+
+    // A query without a select on the key reads every partition, and joins like any table.
+    this.transaction.queryAs("StudentsParts", "P");
+    this.transaction.queryAs("Enrollments", "E");
+    QueryPlan queryPlan = this.transaction.query("P");
+    queryPlan.join("E", "P.sid", "E.sid");
+    queryPlan.select("P.major", QueryPlan.PredicateOperator.NOT_EQUALS, new StringDataBox("", 20));
+    assertEquals(1000, count(queryPlan.execute()));
+    queryPlan = this.transaction.query("P");
+    queryPlan.select("P.sid", QueryPlan.PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(0));
+    assertEquals(200, count(queryPlan.executeOptimal()));
+  }
+
+  private static int count(Iterator<Record> records) {
+    int count = 0;
+    while (records.hasNext()) {
+      records.next();
+      count++;
+    }
+    return count;
+  }
+
   private static void createSchemas() throws DatabaseException {
     List<String> studentSchemaNames = new ArrayList<String>();
     studentSchemaNames.add("sid");
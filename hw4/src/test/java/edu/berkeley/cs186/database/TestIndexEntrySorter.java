@@ -0,0 +1,67 @@
+package edu.berkeley.cs186.database;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Iterator;
+
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.RecordId;
+
+public class TestIndexEntrySorter {
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testSortsInMemory() throws Exception {
+    File dir = tempFolder.newFolder();
+    try (IndexEntrySorter sorter = new IndexEntrySorter(Type.intType(), dir.toPath())) {
+      for (int i = 0; i < 100; ++i) {
+        sorter.add(new IntDataBox((i * 37) % 100), new RecordId(i, (short) 0));
+      }
+      assertEquals(0, sorter.getNumSpilledRuns());
+      Iterator<Pair<DataBox, RecordId>> entries = sorter.iterator();
+      for (int i = 0; i < 100; ++i) {
+        assertEquals(new IntDataBox(i), entries.next().getFirst());
+      }
+      assertFalse(entries.hasNext());
+    }
+  }
+
+  @Test
+  public void testMergesSpilledRuns() throws Exception {
+    File dir = tempFolder.newFolder();
+    int numEntries = 1000;
+    try (IndexEntrySorter sorter = new IndexEntrySorter(Type.stringType(5), dir.toPath(), 64)) {
+      for (int i = 0; i < numEntries; ++i) {
+        // Each key twice, so that the record ids decide the order of equal keys.
+        int key = (i * 7) % (numEntries / 2);
+        sorter.add(new StringDataBox(String.format("%05d", key), 5),
+                   new RecordId(numEntries - i, (short) (i % 3)));
+      }
+      assertEquals(numEntries / 64, sorter.getNumSpilledRuns());
+      assertEquals(numEntries / 64, dir.list().length);
+
+      Iterator<Pair<DataBox, RecordId>> entries = sorter.iterator();
+      Pair<DataBox, RecordId> prev = null;
+      for (int i = 0; i < numEntries; ++i) {
+        Pair<DataBox, RecordId> entry = entries.next();
+        assertEquals(String.format("%05d", i / 2), entry.getFirst().getString());
+        if (i % 2 == 1) {
+          assertTrue(prev.getSecond().compareTo(entry.getSecond()) < 0);
+        }
+        prev = entry;
+      }
+      assertFalse(entries.hasNext());
+    }
+    // The spill files are gone once the sorter is closed.
+    assertEquals(0, dir.list().length);
+  }
+}
@@ -0,0 +1,62 @@
+package edu.berkeley.cs186.database.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+
+public class TestBloomFilter {
+  @Test
+  public void testNoFalseNegatives() {
+    BloomFilter filter = new BloomFilter(10000);
+    for (int i = 0; i < 10000; ++i) {
+      filter.add(new IntDataBox(3 * i));
+      filter.add(new StringDataBox("s" + i, 10));
+    }
+    for (int i = 0; i < 10000; ++i) {
+      assertTrue(filter.mightContain(new IntDataBox(3 * i)));
+      // Equal values hash alike, whoever built them.
+      assertTrue(filter.mightContain(new StringDataBox("s" + i, 10)));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    BloomFilter filter = new BloomFilter(10000);
+    for (int i = 0; i < 10000; ++i) {
+      filter.add(new IntDataBox(2 * i));
+    }
+    int numFalsePositives = 0;
+    for (int i = 0; i < 10000; ++i) {
+      if (filter.mightContain(new IntDataBox(2 * i + 1))) {
+        numFalsePositives++;
+      }
+    }
+    // About 1% for a filter that holds as many values as it was sized for.
+    assertTrue("" + numFalsePositives, numFalsePositives < 300);
+  }
+
+  @Test
+  public void testToAndFromBytes() {
+    BloomFilter filter = new BloomFilter(100);
+    for (int i = 0; i < 100; ++i) {
+      filter.add(new IntDataBox(i));
+    }
+    ByteBuffer buf = ByteBuffer.allocate(filter.getSizeInBytes() + 4);
+    filter.toBytes(buf);
+    assertEquals(filter.getSizeInBytes(), buf.position());
+    buf.putInt(42);
+    buf.flip();
+
+    BloomFilter read = BloomFilter.fromBytes(buf);
+    assertEquals(42, buf.getInt());
+    for (int i = 0; i < 1000; ++i) {
+      assertEquals(filter.mightContain(new IntDataBox(i)), read.mightContain(new IntDataBox(i)));
+    }
+  }
+}
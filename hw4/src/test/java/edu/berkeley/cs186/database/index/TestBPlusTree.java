@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.index;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
@@ -18,6 +19,7 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.Type;
@@ -565,4 +567,56 @@ public class TestBPlusTree {
       assertEquals(5, InnerNode.maxOrder(pageSizeInBytes, keySchema));
       assertEquals(4, BPlusTree.maxOrder(pageSizeInBytes, keySchema));
     }
+
+    @Test
+    public void testBulkLoad() throws BPlusTreeException, IOException {
+      BPlusTree tree = getBPlusTree(Type.intType(), 2);
+      List<Pair<DataBox, RecordId>> data = new ArrayList<>();
+      List<RecordId> rids = new ArrayList<>();
+      for (int i = 0; i < 1000; ++i) {
+        RecordId rid = new RecordId(i, (short) i);
+        data.add(new Pair<>(new IntDataBox(2 * i), rid));
+        rids.add(rid);
+      }
+      tree.bulkLoad(data.iterator(), 0.75f);
+
+      assertEquals(rids, iteratorToList(tree.scanAll()));
+      for (int i = 0; i < 1000; ++i) {
+        assertEquals(Optional.of(rids.get(i)), tree.get(new IntDataBox(2 * i)));
+        assertEquals(Optional.empty(), tree.get(new IntDataBox(2 * i + 1)));
+      }
+      assertEquals(rids.subList(500, 1000),
+                   iteratorToList(tree.scanGreaterEqual(new IntDataBox(999))));
+
+      // The tree survives a reload, and takes puts like any other.
+      BPlusTree fromDisk = new BPlusTree(file.getAbsolutePath());
+      assertEquals(rids, iteratorToList(fromDisk.scanAll()));
+      for (int i = 0; i < 1000; ++i) {
+        fromDisk.put(new IntDataBox(2 * i + 1), new RecordId(i, (short) 0));
+      }
+      assertEquals(2000, iteratorToList(fromDisk.scanAll()).size());
+    }
+
+    @Test
+    public void testBulkLoadChecksItsInput() throws BPlusTreeException, IOException {
+      BPlusTree tree = getBPlusTree(Type.intType(), 2);
+      List<Pair<DataBox, RecordId>> unsorted = new ArrayList<>();
+      unsorted.add(new Pair<>(new IntDataBox(2), new RecordId(0, (short) 0)));
+      unsorted.add(new Pair<>(new IntDataBox(1), new RecordId(0, (short) 1)));
+      try {
+        tree.bulkLoad(unsorted.iterator(), 1.0f);
+        fail();
+      } catch (BPlusTreeException e) {
+        // Expected.
+      }
+      assertEquals(Collections.emptyList(), iteratorToList(tree.scanAll()));
+
+      tree.put(new IntDataBox(0), new RecordId(0, (short) 0));
+      try {
+        tree.bulkLoad(Collections.<Pair<DataBox, RecordId>>emptyIterator(), 1.0f);
+        fail();
+      } catch (BPlusTreeException e) {
+        // Expected.
+      }
+    }
 }
@@ -0,0 +1,86 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.table.Table;
+
+/**
+ * Measures page allocation throughput: allocating pages one allocPage call at
+ * a time, allocating them in batches with allocPages, and inserting records
+ * into a Table (which allocates a page whenever its last page fills up). The
+ * first two are run with durable and non-durable allocators; tables are
+ * always durable. Records are two ints, about 500 to a page, so that
+ * serializing them doesn't drown out the cost of allocating pages.
+ *
+ * This is not a unit test. Run it after `mvn test-compile` with
+ *
+ *   java -cp target/classes:target/test-classes \
+ *     edu.berkeley.cs186.database.io.AllocationBenchmark [pages] [records]
+ */
+public class AllocationBenchmark {
+  private static final int BATCH_SIZE = 64;
+
+  public static void main(String[] args) throws Exception {
+    int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 4000;
+    int numRecords = args.length > 1 ? Integer.parseInt(args[1]) : 500000;
+    File dir = Files.createTempDirectory("AllocationBenchmark").toFile();
+
+    for (boolean durable : new boolean[] {false, true}) {
+      String label = durable ? "durable" : "non-durable";
+      double single = allocOneAtATime(dir, numPages, durable);
+      System.out.printf("%-12s allocPage:      %10.0f pages/s%n", label, single);
+      double batched = allocInBatches(dir, numPages, durable);
+      System.out.printf("%-12s allocPages(%d): %10.0f pages/s%n", label, BATCH_SIZE, batched);
+    }
+    System.out.printf("%-12s addRecord:      %10.0f records/s%n", "table", insert(dir, numRecords));
+
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  private static double allocOneAtATime(File dir, int numPages, boolean durable) {
+    String fName = new File(dir, "single").getAbsolutePath();
+    PageAllocator allocator = new PageAllocator(fName, true, durable, new BufferPool(1024));
+    long start = System.nanoTime();
+    for (int i = 0; i < numPages; i++) {
+      allocator.allocPage();
+    }
+    long elapsed = System.nanoTime() - start;
+    allocator.close();
+    return numPages / (elapsed / 1e9);
+  }
+
+  private static double allocInBatches(File dir, int numPages, boolean durable) {
+    String fName = new File(dir, "batched").getAbsolutePath();
+    PageAllocator allocator = new PageAllocator(fName, true, durable, new BufferPool(1024));
+    long start = System.nanoTime();
+    for (int i = 0; i < numPages; i += BATCH_SIZE) {
+      allocator.allocPages(Math.min(BATCH_SIZE, numPages - i));
+    }
+    long elapsed = System.nanoTime() - start;
+    allocator.close();
+    return numPages / (elapsed / 1e9);
+  }
+
+  private static double insert(File dir, int numRecords) throws Exception {
+    String fName = new File(dir, "table").getAbsolutePath();
+    Table table = new Table("table", TestUtils.createSchemaWithTwoInts(), fName,
+                            new BufferPool(1024));
+    List<DataBox> values = Arrays.<DataBox>asList(new IntDataBox(1), new IntDataBox(2));
+    long start = System.nanoTime();
+    for (int i = 0; i < numRecords; i++) {
+      table.addRecord(values);
+    }
+    long elapsed = System.nanoTime() - start;
+    table.close();
+    return numRecords / (elapsed / 1e9);
+  }
+}
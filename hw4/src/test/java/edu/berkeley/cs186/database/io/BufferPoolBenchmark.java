@@ -0,0 +1,100 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures buffer pool hit throughput against thread count. Every thread
+ * reads random pages of its own allocator (i.e. its own table), and every
+ * page is cached, so the benchmark measures nothing but the cost of a hit.
+ * Each thread count is run twice: once against a single-shard pool, which
+ * behaves like the old global page LRU behind one lock, and once against a
+ * sharded pool.
+ *
+ * This is not a unit test. Run it after `mvn test-compile` with
+ *
+ *   java -cp target/classes:target/test-classes \
+ *     edu.berkeley.cs186.database.io.BufferPoolBenchmark [seconds per run]
+ */
+public class BufferPoolBenchmark {
+  private static final int PAGES_PER_TABLE = 64;
+
+  public static void main(String[] args) throws Exception {
+    double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+    int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+    File dir = Files.createTempDirectory("BufferPoolBenchmark").toFile();
+
+    System.out.printf("%8s %18s %18s %8s%n", "threads", "1 shard (hits/s)", "sharded (hits/s)", "speedup");
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      int capacity = threads * PAGES_PER_TABLE;
+      double global = run(dir, new BufferPool(capacity, 1), threads, seconds);
+      double sharded = run(dir, new BufferPool(capacity), threads, seconds);
+      System.out.printf("%8d %18.0f %18.0f %7.2fx%n", threads, global, sharded, sharded / global);
+    }
+
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  private static double run(File dir, BufferPool pool, int numThreads, double seconds)
+      throws IOException, InterruptedException {
+    final List<PageAllocator> allocators = new ArrayList<PageAllocator>();
+    for (int i = 0; i < numThreads; i++) {
+      String fName = new File(dir, "table" + i).getAbsolutePath();
+      PageAllocator allocator = new PageAllocator(fName, true, false, pool);
+      for (int j = 0; j < PAGES_PER_TABLE; j++) {
+        allocator.fetchPage(allocator.allocPage());
+      }
+      allocators.add(allocator);
+    }
+
+    final AtomicLong hits = new AtomicLong(0);
+    final CountDownLatch start = new CountDownLatch(1);
+    final long durationNanos = (long) (seconds * 1e9);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (final PageAllocator allocator : allocators) {
+      Thread t = new Thread(new Runnable() {
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          long n = 0;
+          long end = System.nanoTime() + durationNanos;
+          while (true) {
+            // Check the clock every 1024 fetches to keep it off the hot path.
+            for (int i = 0; i < 1024; i++) {
+              allocator.fetchPage(random.nextInt(PAGES_PER_TABLE));
+            }
+            n += 1024;
+            if (System.nanoTime() >= end) {
+              break;
+            }
+          }
+          hits.addAndGet(n);
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+
+    start.countDown();
+    for (Thread t : threads) {
+      t.join();
+    }
+    for (PageAllocator allocator : allocators) {
+      allocator.close();
+    }
+    return hits.get() / seconds;
+  }
+}
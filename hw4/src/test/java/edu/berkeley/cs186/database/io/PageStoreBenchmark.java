@@ -0,0 +1,105 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the page stores on a file several times larger than the buffer
+ * pool: the latency of a full sequential scan of the file (per page), and the
+ * latency distribution of fetches of random pages. The stores measured are
+ * MMAP with one mapping per page, MMAP with 64MB segments, and PREAD. Pages
+ * are only read, so no store writes anything back.
+ *
+ * The file is written once and then stays in the OS page cache, so the
+ * numbers show what each store costs on top of the page cache rather than
+ * disk latency.
+ *
+ * Every page mapped on its own stays mapped until its Page is garbage
+ * collected, and Linux limits a process to about 65k mappings by default
+ * (vm.max_map_count). Large page or lookup counts can therefore crash the
+ * per-page MMAP run, which is one reason to prefer segments.
+ *
+ * This is not a unit test. Run it after `mvn test-compile` with
+ *
+ *   java -cp target/classes:target/test-classes \
+ *     edu.berkeley.cs186.database.io.PageStoreBenchmark [pages] [lookups]
+ */
+public class PageStoreBenchmark {
+  private static final int POOL_CAPACITY = 1024;
+  private static final int SCAN_PASSES = 3;
+
+  public static void main(String[] args) throws Exception {
+    int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+    int numLookups = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+    File dir = Files.createTempDirectory("PageStoreBenchmark").toFile();
+    String fName = new File(dir, "table").getAbsolutePath();
+
+    PageAllocator writer = new PageAllocator(fName, true, false, new BufferPool(POOL_CAPACITY));
+    for (int i = 0; i < numPages; i += 256) {
+      for (int pageNum : writer.allocPages(Math.min(256, numPages - i))) {
+        writer.fetchPage(pageNum).writeInt(0, pageNum);
+      }
+    }
+    writer.close();
+    System.gc();
+
+    System.out.printf("%-14s %14s %14s %14s %14s%n",
+                      "store", "scan (ns/pg)", "lookup p50", "lookup p99", "lookup max");
+    run("mmap (page)", fName, PageStore.Type.MMAP, Page.pageSize, numPages, numLookups);
+    run("mmap (64MB)", fName, PageStore.Type.MMAP, BufferPool.DEFAULT_SEGMENT_SIZE, numPages,
+        numLookups);
+    run("pread", fName, PageStore.Type.PREAD, Page.pageSize, numPages, numLookups);
+
+    new File(fName).delete();
+    dir.delete();
+  }
+
+  private static void run(String label, String fName, PageStore.Type type, int segmentSize,
+                          int numPages, int numLookups) {
+    BufferPool pool = new BufferPool(POOL_CAPACITY);
+    pool.setStoreType(type);
+    pool.setSegmentSize(segmentSize);
+    PageAllocator allocator = new PageAllocator(fName, false, false, pool);
+
+    // Scans. The first pass warms up the JIT; the best remaining pass counts.
+    long bestScan = Long.MAX_VALUE;
+    for (int pass = 0; pass < SCAN_PASSES; pass++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < numPages; i++) {
+        check(allocator.fetchPage(i), i);
+      }
+      long elapsed = System.nanoTime() - start;
+      if (pass > 0) {
+        bestScan = Math.min(bestScan, elapsed);
+      }
+    }
+
+    // Random lookups; with the pool holding an eighth of the file, most of
+    // them miss.
+    Random random = new Random(186);
+    long[] latencies = new long[numLookups];
+    for (int i = 0; i < numLookups; i++) {
+      int pageNum = random.nextInt(numPages);
+      long start = System.nanoTime();
+      check(allocator.fetchPage(pageNum), pageNum);
+      latencies[i] = System.nanoTime() - start;
+    }
+    Arrays.sort(latencies);
+    allocator.close();
+    // Unmap the pages of this run before the next one starts.
+    System.gc();
+
+    System.out.printf("%-14s %14d %11d ns %11d ns %11d ns%n",
+                      label, bestScan / numPages,
+                      latencies[numLookups / 2], latencies[numLookups * 99 / 100],
+                      latencies[numLookups - 1]);
+  }
+
+  private static void check(Page page, int pageNum) {
+    if (page.readInt(0) != pageNum) {
+      throw new IllegalStateException("page " + pageNum + " has the wrong contents");
+    }
+  }
+}
@@ -0,0 +1,230 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TestBufferPool {
+  private final String fName = "TestBufferPool.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Page newPage(int pageNum) throws IOException {
+    File tempFile = tempFolder.newFile(fName + pageNum);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    return new Page(fc, 0, pageNum, false);
+  }
+
+  private static long vPageNum(int allocID, int pageNum) {
+    return (((long) allocID) << 32) | pageNum;
+  }
+
+  @Test
+  public void testShardCount() {
+    assertEquals(1, new BufferPool(64, 1).getNumShards());
+    assertEquals(8, new BufferPool(64, 5).getNumShards());
+    // Never more shards than pages.
+    assertEquals(4, new BufferPool(6, 64).getNumShards());
+    assertEquals(1, new BufferPool(1, 64).getNumShards());
+  }
+
+  @Test
+  public void testCapacity() throws IOException {
+    BufferPool pool = new BufferPool(10, 4);
+    Page p = newPage(0);
+    for (int i = 0; i < 100; i++) {
+      pool.putIfAbsent(vPageNum(0, i), p);
+      assertTrue(pool.size() <= 10);
+    }
+    assertEquals(10, pool.size());
+  }
+
+  @Test
+  public void testPutIfAbsentKeepsFirstPage() throws IOException {
+    BufferPool pool = new BufferPool(16);
+    Page first = newPage(0);
+    Page second = newPage(1);
+    assertSame(first, pool.putIfAbsent(vPageNum(0, 7), first));
+    assertSame(first, pool.putIfAbsent(vPageNum(0, 7), second));
+    assertSame(first, pool.get(vPageNum(0, 7)));
+    assertSame(first, pool.remove(vPageNum(0, 7)));
+    assertNull(pool.get(vPageNum(0, 7)));
+  }
+
+  @Test
+  public void testRemoveAllOnlyRemovesOneAllocator() throws IOException {
+    BufferPool pool = new BufferPool(64);
+    Page p = newPage(0);
+    for (int i = 0; i < 10; i++) {
+      pool.putIfAbsent(vPageNum(1, i), p);
+      pool.putIfAbsent(vPageNum(2, i), p);
+    }
+    assertEquals(10, pool.removeAll(1).size());
+    assertEquals(10, pool.size());
+    for (int i = 0; i < 10; i++) {
+      assertFalse(pool.contains(vPageNum(1, i)));
+      assertTrue(pool.contains(vPageNum(2, i)));
+    }
+  }
+
+  @Test
+  public void testConcurrentFetchesShareOnePage() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(64);
+    final PageAllocator allocator = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+    final int pageNum = allocator.allocPage();
+    pool.remove(allocator.translatePageNum(pageNum));
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Page>> futures = new ArrayList<Future<Page>>();
+    for (int i = 0; i < 16; i++) {
+      futures.add(executor.submit(new Callable<Page>() {
+        public Page call() {
+          return allocator.fetchPage(pageNum);
+        }
+      }));
+    }
+    Page expected = futures.get(0).get();
+    for (Future<Page> f : futures) {
+      assertSame(expected, f.get());
+    }
+    executor.shutdown();
+    allocator.close();
+    assertEquals(0, pool.size());
+  }
+
+  @Test
+  public void testEvictionSkipsPinnedPages() throws IOException {
+    BufferPool pool = new BufferPool(4, 1);
+    PageAllocator allocator = new PageAllocator(tempFolder.newFile(fName).getAbsolutePath(), true,
+                                                false, pool);
+    allocator.allocPages(20);
+    Page pinned = allocator.pinPage(0);
+    assertSame(pinned, allocator.pinPage(0));
+    assertEquals(2, pinned.getPinCount());
+
+    for (int i = 1; i < 20; i++) {
+      allocator.fetchPage(i);
+    }
+    assertTrue(pool.contains(allocator.translatePageNum(0)));
+    assertSame(pinned, allocator.fetchPage(0));
+
+    // Once every pin is gone the page is evictable again.
+    pinned.unpin();
+    pinned.unpin();
+    assertFalse(pinned.isPinned());
+    for (int i = 1; i < 20; i++) {
+      allocator.fetchPage(i);
+    }
+    assertFalse(pool.contains(allocator.translatePageNum(0)));
+    allocator.close();
+  }
+
+  @Test
+  public void testPinnedPagesCanOverfillThePool() throws IOException {
+    BufferPool pool = new BufferPool(4, 1);
+    PageAllocator allocator = new PageAllocator(tempFolder.newFile(fName).getAbsolutePath(), true,
+                                                false, pool);
+    allocator.allocPages(8);
+    List<Page> pinned = new ArrayList<Page>();
+    for (int i = 0; i < 6; i++) {
+      pinned.add(allocator.pinPage(i));
+    }
+    assertEquals(6, pool.size());
+
+    for (Page page : pinned) {
+      page.unpin();
+    }
+    allocator.fetchPage(6);
+    assertEquals(4, pool.size());
+    allocator.close();
+  }
+
+  @Test
+  public void testReservationsShrinkTheCache() throws IOException {
+    BufferPool pool = new BufferPool(16, 1);
+    PageAllocator allocator = new PageAllocator(tempFolder.newFile(fName).getAbsolutePath(), true,
+                                                false, pool);
+    for (int pageNum : allocator.allocPages(16)) {
+      allocator.fetchPage(pageNum);
+    }
+    assertEquals(16, pool.size());
+
+    BufferPool.Reservation reservation = pool.reserve(2, 10);
+    assertEquals(10, reservation.getNumPages());
+    assertEquals(10, pool.getNumReserved());
+    assertEquals(6, pool.getCacheCapacity());
+    assertEquals(6, pool.size());
+
+    // A quarter of the budget stays with the cache, so only 2 more pages are
+    // left to reserve.
+    BufferPool.Reservation second = pool.reserve(1, 10);
+    assertEquals(2, second.getNumPages());
+    try {
+      pool.reserve(1, 1);
+      fail();
+    } catch (PageException e) {
+      // Expected.
+    }
+
+    reservation.close();
+    reservation.close();
+    second.close();
+    assertEquals(0, pool.getNumReserved());
+    for (int pageNum = 0; pageNum < 16; pageNum++) {
+      allocator.fetchPage(pageNum);
+    }
+    assertEquals(16, pool.size());
+    allocator.close();
+  }
+
+  @Test
+  public void testSetCapacity() throws IOException {
+    BufferPool pool = new BufferPool(16, 1);
+    PageAllocator allocator = new PageAllocator(tempFolder.newFile(fName).getAbsolutePath(), true,
+                                                false, pool);
+    for (int pageNum : allocator.allocPages(16)) {
+      allocator.fetchPage(pageNum);
+    }
+    pool.setCapacity(8);
+    assertEquals(8, pool.getCapacity());
+    assertEquals(8, pool.size());
+
+    pool.setCapacity(32);
+    for (int pageNum = 0; pageNum < 16; pageNum++) {
+      allocator.fetchPage(pageNum);
+    }
+    assertEquals(16, pool.size());
+
+    // The budget can't shrink below what reservations need.
+    BufferPool.Reservation reservation = pool.reserve(20, 20);
+    try {
+      pool.setCapacity(16);
+      fail();
+    } catch (PageException e) {
+      // Expected.
+    }
+    assertEquals(32, pool.getCapacity());
+    reservation.close();
+    pool.setCapacity(16);
+    allocator.close();
+  }
+
+  @Test(expected = PageException.class)
+  public void testUnpinUnpinnedPage() throws IOException {
+    newPage(0).unpin();
+  }
+}
@@ -0,0 +1,118 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+public class TestIOStats {
+  private final String fName = "TestIOStats.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static BufferPool newPool() {
+    BufferPool pool = new BufferPool(64);
+    pool.setWriterInterval(0);
+    pool.setReadAheadWindow(0);
+    return pool;
+  }
+
+  private PageAllocator newAllocator(String name, boolean durable) throws IOException {
+    return new PageAllocator(tempFolder.newFile(name).getAbsolutePath(), true, durable, newPool());
+  }
+
+  @Test
+  public void testAllocatorCounters() throws IOException {
+    String path = tempFolder.newFile(fName).getAbsolutePath();
+    PageAllocator allocator = new PageAllocator(path, true, true, newPool());
+    int[] pageNums = allocator.allocPages(10);
+    allocator.close();
+
+    // Reopen the file with an empty pool, so that the first fetch of every page misses.
+    allocator = new PageAllocator(path, false, true, newPool());
+    IOStats stats = allocator.getIOStats();
+    stats.reset();
+
+    for (int round = 0; round < 2; round++) {
+      for (int pageNum : pageNums) {
+        allocator.fetchPage(pageNum).writeInt(0, pageNum);
+      }
+    }
+    assertEquals(20, stats.getNumLogicalReads());
+    assertEquals(10, stats.getNumCacheMisses());
+    assertEquals(10, stats.getNumPageReads());
+    assertEquals(0.5, stats.getMissRatio(), 1e-9);
+    assertEquals(20, stats.getFetchLatency().getCount());
+
+    allocator.checkpoint();
+    assertTrue(stats.getNumPageWrites() >= 10);
+    assertEquals(1, stats.getNumFlushes());
+    allocator.close();
+  }
+
+  @Test
+  public void testAllocatorsCountSeparately() throws IOException {
+    PageAllocator a = newAllocator(fName + "a", false);
+    PageAllocator b = newAllocator(fName + "b", false);
+    int pageNum = a.allocPage();
+    b.allocPage();
+    a.getIOStats().reset();
+    b.getIOStats().reset();
+
+    a.fetchPage(pageNum);
+    a.fetchPage(pageNum);
+    assertEquals(2, a.getIOStats().getNumLogicalReads());
+    assertEquals(0, b.getIOStats().getNumLogicalReads());
+    a.close();
+    b.close();
+  }
+
+  @Test
+  public void testAttachedStats() throws Exception {
+    PageAllocator allocator = newAllocator(fName, false);
+    int pageNum = allocator.allocPage();
+    allocator.getIOStats().reset();
+    IOStats query = new IOStats();
+
+    IOStats.attach(query);
+    try {
+      allocator.fetchPage(pageNum);
+      // I/O of other threads isn't charged to this thread's stats.
+      Thread other = new Thread(() -> allocator.fetchPage(pageNum));
+      other.start();
+      other.join();
+    } finally {
+      IOStats.detach(query);
+    }
+    allocator.fetchPage(pageNum);
+
+    assertEquals(1, query.getNumLogicalReads());
+    assertEquals(3, allocator.getIOStats().getNumLogicalReads());
+    allocator.close();
+  }
+
+  @Test
+  public void testLatencyHistogram() {
+    LatencyHistogram h = new LatencyHistogram();
+    assertEquals(0, h.getPercentile(0.5));
+    for (int i = 0; i < 99; i++) {
+      h.record(100);
+    }
+    h.record(1000000);
+    assertEquals(100, h.getCount());
+    assertEquals(1000000, h.getMax());
+    // 100ns falls in [64, 128).
+    assertEquals(99, h.getBucketCount(6));
+    assertEquals(127, h.getPercentile(0.5));
+    assertEquals(127, h.getPercentile(0.99));
+    assertEquals(1000000, h.getPercentile(1.0));
+    assertEquals((99 * 100 + 1000000) / 100.0, h.getMean(), 1e-9);
+
+    h.reset();
+    assertEquals(0, h.getCount());
+    assertEquals(0, h.getMax());
+  }
+}
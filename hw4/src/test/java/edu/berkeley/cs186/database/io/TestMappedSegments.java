@@ -0,0 +1,80 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class TestMappedSegments {
+  private final String fName = "TestMappedSegments.temp";
+
+  // Small segments keep the test files small: 16 blocks per segment.
+  private static final int SEGMENT_SIZE = 16 * Page.pageSize;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private BufferPool newSegmentedPool() {
+    BufferPool pool = new BufferPool(64);
+    pool.setSegmentSize(SEGMENT_SIZE);
+    return pool;
+  }
+
+  @Test(expected = PageException.class)
+  public void testSegmentSizeMustBeMultipleOfPageSize() {
+    new BufferPool(64).setSegmentSize(Page.pageSize + 1);
+  }
+
+  @Test
+  public void testPagesAreSlicesOfSegments() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator allocator = new PageAllocator(tempFile.getAbsolutePath(), true, false,
+                                                newSegmentedPool());
+    long mappedBefore = PageAllocator.getNumMappedRegions();
+    for (int i = 0; i < 40; i++) {
+      Page p = allocator.fetchPage(allocator.allocPage());
+      p.writeInt(0, i);
+      p.writeInt(Page.pageSize - 4, -i);
+    }
+    // The master page, the header page and 40 data pages are blocks 0 to 41,
+    // which are three segments of 16 blocks.
+    assertEquals(3, allocator.getNumMappedSegments());
+    assertEquals(2, PageAllocator.getNumMappedRegions() - mappedBefore);
+
+    for (int i = 0; i < 40; i++) {
+      Page p = allocator.fetchPage(i);
+      assertEquals(i, p.readInt(0));
+      assertEquals(-i, p.readInt(Page.pageSize - 4));
+    }
+    allocator.close();
+    assertEquals(0, allocator.getNumMappedSegments());
+  }
+
+  @Test
+  public void testSegmentedFilesArePageCompatible() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    String path = tempFile.getAbsolutePath();
+
+    PageAllocator segmented = new PageAllocator(path, true, true, newSegmentedPool());
+    for (int i = 0; i < 20; i++) {
+      segmented.fetchPage(segmented.allocPage()).writeInt(8, 100 + i);
+    }
+    segmented.close();
+
+    PageAllocator perPage = new PageAllocator(path, false, true, new BufferPool(64));
+    assertEquals(0, perPage.getNumMappedSegments());
+    assertEquals(20, perPage.getNumPages());
+    for (int i = 0; i < 20; i++) {
+      assertEquals(100 + i, perPage.fetchPage(i).readInt(8));
+    }
+    perPage.freePage(3);
+    perPage.close();
+
+    segmented = new PageAllocator(path, false, true, newSegmentedPool());
+    assertEquals(19, segmented.getNumPages());
+    assertEquals(119, segmented.fetchPage(19).readInt(8));
+    segmented.close();
+  }
+}
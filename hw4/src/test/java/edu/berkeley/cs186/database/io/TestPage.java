@@ -0,0 +1,129 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TestPage {
+  private final String fName = "TestPage.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Page newPage() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    return new Page(fc, 0, 0, false);
+  }
+
+  @Test
+  public void testAbsoluteAccessors() throws IOException {
+    Page p = newPage();
+    p.writeInt(8, 186);
+    p.writeBytes(12, 4, ByteBuffer.allocate(4).putFloat(1.5f).array());
+    p.writeByte(Page.pageSize - 1, (byte) 7);
+
+    assertEquals(186, p.getInt(8));
+    assertEquals(186, p.readInt(8));
+    assertEquals(1.5f, p.getFloat(12), 0.0f);
+    assertEquals(7, p.getByte(Page.pageSize - 1));
+
+    byte[] dst = new byte[6];
+    p.getBytes(8, dst, 2, 4);
+    assertEquals(186, ByteBuffer.wrap(dst, 2, 4).getInt());
+    assertEquals(0, dst[0]);
+  }
+
+  @Test
+  public void testOutOfBounds() throws IOException {
+    Page p = newPage();
+    int[][] accesses = {{-1, 1}, {Page.pageSize - 3, 4}, {Page.pageSize, 1}};
+    for (int[] access : accesses) {
+      try {
+        p.slice(access[0], access[1]);
+        fail();
+      } catch (PageException e) {
+        // Expected.
+      }
+    }
+    try {
+      p.getInt(Page.pageSize - 3);
+      fail();
+    } catch (PageException e) {
+      // Expected.
+    }
+    try {
+      p.getBytes(0, new byte[4], 2, 4);
+      fail();
+    } catch (PageException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testSlicesAreReadOnlyViews() throws IOException {
+    Page p = newPage();
+    ByteBuffer slice = p.slice(100, 8);
+    assertEquals(0, slice.position());
+    assertEquals(8, slice.remaining());
+    assertTrue(slice.isReadOnly());
+
+    // The slice sees later writes, and reading it moves nobody else's position.
+    p.writeInt(104, 42);
+    slice.getInt();
+    assertEquals(42, slice.getInt());
+    assertEquals(0, p.getByteBuffer().position());
+    try {
+      p.asReadOnlyBuffer().put((byte) 1);
+      fail();
+    } catch (ReadOnlyBufferException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void testConcurrentReaders() throws Exception {
+    Page p = newPage();
+    for (int i = 0; i < Page.pageSize / 4; i++) {
+      p.writeInt(4 * i, i);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    for (int t = 0; t < 4; t++) {
+      final int offset = t;
+      results.add(executor.submit(new Callable<Boolean>() {
+        public Boolean call() {
+          byte[] buf = new byte[4];
+          for (int round = 0; round < 200; round++) {
+            for (int i = offset; i < Page.pageSize / 4; i += 4) {
+              p.readBytes(4 * i, 4, buf);
+              if (ByteBuffer.wrap(buf).getInt() != i || p.slice(4 * i, 4).getInt() != i) {
+                return false;
+              }
+            }
+          }
+          return true;
+        }
+      }));
+    }
+    for (Future<Boolean> result : results) {
+      assertTrue(result.get());
+    }
+    executor.shutdown();
+  }
+}
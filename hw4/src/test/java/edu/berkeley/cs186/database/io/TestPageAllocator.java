@@ -0,0 +1,102 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class TestPageAllocator {
+  private final String fName = "TestPageAllocator.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void testAllocPages() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator allocator = new PageAllocator(tempFile.getAbsolutePath(), true, true,
+                                                new BufferPool(16));
+    assertEquals(0, allocator.allocPages(0).length);
+    assertEquals(0, allocator.allocPage());
+    int[] pageNums = allocator.allocPages(100);
+    assertEquals(100, pageNums.length);
+    for (int i = 0; i < pageNums.length; i++) {
+      assertEquals(i + 1, pageNums[i]);
+      assertEquals(0, allocator.fetchPage(pageNums[i]).readInt(0));
+    }
+    assertEquals(101, allocator.getNumPages());
+    allocator.close();
+  }
+
+  @Test
+  public void testFreedPagesAreReusedLowestFirst() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator allocator = new PageAllocator(tempFile.getAbsolutePath(), true, false,
+                                                new BufferPool(16));
+    allocator.allocPages(10);
+    assertTrue(allocator.freePage(7));
+    assertTrue(allocator.freePage(3));
+    assertFalse(allocator.freePage(3));
+    assertEquals(8, allocator.getNumPages());
+
+    try {
+      allocator.fetchPage(3);
+      fail();
+    } catch (PageException e) {
+      // Page 3 is no longer allocated.
+    }
+
+    assertArrayEquals(new int[] {3, 7, 10}, allocator.allocPages(3));
+    assertEquals(11, allocator.allocPage());
+    allocator.close();
+  }
+
+  @Test
+  public void testDirectoryIsRebuiltOnOpen() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    String path = tempFile.getAbsolutePath();
+    PageAllocator allocator = new PageAllocator(path, true, false, new BufferPool(16));
+    // Fill the first header page and spill into the second.
+    allocator.allocPages(Page.pageSize + 5);
+    allocator.freePage(42);
+    allocator.freePage(Page.pageSize + 1);
+    allocator.close();
+
+    allocator = new PageAllocator(path, false, false, new BufferPool(16));
+    assertEquals(Page.pageSize + 3, allocator.getNumPages());
+    assertEquals(42, allocator.allocPage());
+    assertEquals(Page.pageSize + 1, allocator.allocPage());
+    assertEquals(Page.pageSize + 5, allocator.allocPage());
+    allocator.close();
+
+    allocator = new PageAllocator(path, true, false, new BufferPool(16));
+    assertEquals(0, allocator.getNumPages());
+    assertEquals(0, allocator.allocPage());
+    allocator.close();
+  }
+
+  @Test
+  public void testIteratorSkipsPagesWithoutFetching() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator allocator = new PageAllocator(tempFile.getAbsolutePath(), true, false,
+                                                new BufferPool(16));
+    allocator.allocPages(6);
+    allocator.freePage(2);
+
+    // Freed pages are passed over, and skipped pages aren't fetched.
+    PageAllocator.PageIterator iter = allocator.iterator();
+    assertEquals(0, iter.next().getPageNum());
+    assertEquals(1, iter.peekPageNum());
+    iter.skip();
+    long reads = allocator.getIOStats().getNumLogicalReads();
+    assertEquals(3, iter.peekPageNum());
+    iter.skip();
+    iter.skip();
+    assertEquals(reads, allocator.getIOStats().getNumLogicalReads());
+    assertEquals(5, iter.next().getPageNum());
+    assertFalse(iter.hasNext());
+    allocator.close();
+  }
+}
@@ -0,0 +1,126 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+public class TestPageStore {
+  private final String fName = "TestPageStore.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static BufferPool newPool(int capacity, PageStore.Type type) {
+    BufferPool pool = new BufferPool(capacity);
+    pool.setStoreType(type);
+    return pool;
+  }
+
+  private void writeAndReadBack(PageStore.Type writer, PageStore.Type reader, boolean durable)
+      throws Exception {
+    File tempFile = tempFolder.newFile(fName + writer + reader + durable);
+    String path = tempFile.getAbsolutePath();
+
+    // A pool much smaller than the file, so most pages are evicted and
+    // reloaded along the way.
+    PageAllocator allocator = new PageAllocator(path, true, durable, newPool(8, writer));
+    for (int i = 0; i < 50; i++) {
+      Page p = allocator.fetchPage(allocator.allocPage());
+      p.writeInt(0, i);
+      p.writeInt(Page.pageSize - 4, i * i);
+    }
+    for (int i = 0; i < 50; i++) {
+      assertEquals(i, allocator.fetchPage(i).readInt(0));
+    }
+    allocator.freePage(10);
+    allocator.close();
+
+    allocator = new PageAllocator(path, false, durable, newPool(8, reader));
+    assertEquals(49, allocator.getNumPages());
+    for (int i = 0; i < 50; i++) {
+      if (i == 10) {
+        continue;
+      }
+      Page p = allocator.fetchPage(i);
+      assertEquals(i, p.readInt(0));
+      assertEquals(i * i, p.readInt(Page.pageSize - 4));
+    }
+    allocator.close();
+  }
+
+  @Test
+  public void testStoresShareTheFileFormat() throws Exception {
+    for (boolean durable : new boolean[] {false, true}) {
+      writeAndReadBack(PageStore.Type.PREAD, PageStore.Type.PREAD, durable);
+      writeAndReadBack(PageStore.Type.PREAD, PageStore.Type.MMAP, durable);
+      writeAndReadBack(PageStore.Type.MMAP, PageStore.Type.PREAD, durable);
+    }
+  }
+
+  @Test
+  public void testPreadPagesOutliveEviction() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    String path = tempFile.getAbsolutePath();
+    PageAllocator allocator = new PageAllocator(path, true, false, newPool(4, PageStore.Type.PREAD));
+    allocator.allocPages(20);
+
+    // Hold on to page 0 while the pool evicts it, like a B+ tree holds its
+    // root node.
+    Page held = allocator.fetchPage(0);
+    for (int i = 1; i < 20; i++) {
+      allocator.fetchPage(i);
+    }
+    assertFalse(allocator.getBufferPool().contains(allocator.translatePageNum(0)));
+
+    // Writes to the held page are neither lost nor hidden by a second copy.
+    held.writeInt(0, 42);
+    assertSame(held, allocator.fetchPage(0));
+    for (int i = 1; i < 20; i++) {
+      allocator.fetchPage(i);
+    }
+    held.writeInt(4, 43);
+    allocator.close();
+
+    allocator = new PageAllocator(path, false, false, newPool(4, PageStore.Type.MMAP));
+    assertEquals(42, allocator.fetchPage(0).readInt(0));
+    assertEquals(43, allocator.fetchPage(0).readInt(4));
+    allocator.close();
+  }
+
+  @Test
+  public void testPreadViewsOutliveTheirPage() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    String path = tempFile.getAbsolutePath();
+    PageAllocator allocator = new PageAllocator(path, true, false, newPool(4, PageStore.Type.PREAD));
+    allocator.allocPages(20);
+    for (int i = 0; i < 20; i++) {
+      allocator.fetchPage(i).writeInt(0, i);
+    }
+    allocator.checkpoint();
+
+    // A view of page 0 taken before the page is evicted and collected keeps
+    // reading page 0, however many other blocks are loaded meanwhile.
+    ByteBuffer view = allocator.fetchPage(0).slice(0, 4);
+    for (int round = 0; round < 10; round++) {
+      System.gc();
+      for (int i = 1; i < 20; i++) {
+        assertEquals(i, allocator.fetchPage(i).readInt(0));
+      }
+      assertEquals(0, view.getInt(0));
+    }
+    allocator.close();
+  }
+
+  @Test
+  public void testStoreTypeIsPerPool() throws Exception {
+    BufferPool pool = new BufferPool(8);
+    assertEquals(PageStore.Type.MMAP, pool.getStoreType());
+    pool.setStoreType(PageStore.Type.PREAD);
+    assertEquals(PageStore.Type.PREAD, pool.getStoreType());
+    assertEquals(PageStore.Type.MMAP, new BufferPool(8).getStoreType());
+  }
+}
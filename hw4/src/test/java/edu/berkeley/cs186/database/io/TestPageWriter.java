@@ -0,0 +1,130 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class TestPageWriter {
+  private final String fName = "TestPageWriter.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static BufferPool newPool(int capacity, long writerInterval) {
+    BufferPool pool = new BufferPool(capacity);
+    pool.setStoreType(PageStore.Type.PREAD);
+    pool.setWriterInterval(writerInterval);
+    return pool;
+  }
+
+  // Reads the int at offset 0 of data page pageNum straight from the file.
+  private static int readFromFile(String path, int pageNum) throws Exception {
+    try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+      long block = 2 + pageNum;
+      if (file.length() < (block + 1) * Page.pageSize) {
+        return 0;
+      }
+      file.seek(block * Page.pageSize);
+      return file.readInt();
+    }
+  }
+
+  @Test
+  public void testPagesTrackDirtiness() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator allocator = new PageAllocator(tempFile.getAbsolutePath(), true, false,
+                                                newPool(8, 0));
+    Page p = allocator.fetchPage(allocator.allocPage());
+    assertTrue(p.isDirty());
+    allocator.checkpoint();
+    assertFalse(p.isDirty());
+
+    // Reading doesn't dirty a page; writing through its methods does, and so
+    // does marking it after writing through its buffer.
+    p.readInt(0);
+    p.getByteBuffer().get();
+    assertFalse(p.isDirty());
+    p.writeInt(0, 1);
+    assertTrue(p.isDirty());
+    allocator.checkpoint();
+    p.getByteBuffer().putInt(2);
+    p.markDirty();
+    assertTrue(p.isDirty());
+    assertEquals(1, allocator.getNumDirtyPages());
+    allocator.close();
+  }
+
+  @Test
+  public void testEvictionDoesNotWrite() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    String path = tempFile.getAbsolutePath();
+    PageAllocator allocator = new PageAllocator(path, true, false, newPool(4, 0));
+    int[] pageNums = allocator.allocPages(20);
+    for (int pageNum : pageNums) {
+      allocator.fetchPage(pageNum).writeInt(0, pageNum + 100);
+    }
+
+    // Most pages have been evicted, but none of them has been written.
+    assertTrue(allocator.getBufferPool().size() <= 4);
+    assertTrue(allocator.getNumDirtyPages() >= 20);
+    for (int pageNum : pageNums) {
+      assertEquals(0, readFromFile(path, pageNum));
+    }
+
+    // A checkpoint writes them all, evicted or not.
+    assertTrue(allocator.checkpoint() >= 20);
+    assertEquals(0, allocator.getNumDirtyPages());
+    for (int pageNum : pageNums) {
+      assertEquals(pageNum + 100, readFromFile(path, pageNum));
+      assertEquals(pageNum + 100, allocator.fetchPage(pageNum).readInt(0));
+    }
+    allocator.close();
+  }
+
+  @Test
+  public void testBackgroundWriter() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    String path = tempFile.getAbsolutePath();
+    BufferPool pool = newPool(4, 10);
+    PageAllocator allocator = new PageAllocator(path, true, false, pool);
+    int[] pageNums = allocator.allocPages(20);
+    for (int pageNum : pageNums) {
+      allocator.fetchPage(pageNum).writeInt(0, pageNum + 100);
+    }
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (allocator.getNumDirtyPages() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, allocator.getNumDirtyPages());
+    for (int pageNum : pageNums) {
+      assertEquals(pageNum + 100, readFromFile(path, pageNum));
+    }
+    allocator.close();
+  }
+
+  @Test
+  public void testCloseWritesDirtyPages() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    String path = tempFile.getAbsolutePath();
+    PageAllocator allocator = new PageAllocator(path, true, true, newPool(4, 0));
+    for (int i = 0; i < 10; i++) {
+      allocator.fetchPage(allocator.allocPage()).writeInt(0, i + 100);
+    }
+    allocator.freePage(3);
+    allocator.close();
+
+    allocator = new PageAllocator(path, false, true, newPool(4, 0));
+    assertEquals(9, allocator.getNumPages());
+    for (int i = 0; i < 10; i++) {
+      if (i != 3) {
+        assertEquals(i + 100, allocator.fetchPage(i).readInt(0));
+      }
+    }
+    allocator.close();
+  }
+}
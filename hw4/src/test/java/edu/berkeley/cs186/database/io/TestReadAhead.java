@@ -0,0 +1,151 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class TestReadAhead {
+  private static final int NUM_PAGES = 200;
+  private final String fName = "TestReadAhead.temp";
+  private String path;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Before
+  public void writeFile() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    this.path = tempFile.getAbsolutePath();
+    PageAllocator allocator = new PageAllocator(this.path, true, false, new BufferPool(8));
+    for (int pageNum : allocator.allocPages(NUM_PAGES)) {
+      allocator.fetchPage(pageNum).writeInt(0, pageNum + 100);
+    }
+    allocator.close();
+  }
+
+  private static BufferPool newPool(PageStore.Type type) {
+    BufferPool pool = new BufferPool(8);
+    pool.setStoreType(type);
+    pool.setWriterInterval(0);
+    return pool;
+  }
+
+  // Fetches the next pages of pages up to page to - 1, giving the read-ahead
+  // thread a chance to run every few pages.
+  private static void scan(PageAllocator.PageIterator pages, int to) throws Exception {
+    while (pages.hasNext() && pages.peekPageNum() < to) {
+      int pageNum = pages.peekPageNum();
+      assertEquals(pageNum + 100, pages.next().readInt(0));
+      if (pageNum % 4 == 0) {
+        Thread.sleep(2);
+      }
+    }
+  }
+
+  private static void awaitLoads(BufferPool pool, long numLoads) throws Exception {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (pool.getNumReadAheadLoads() < numLoads && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void testSequentialScanHits() throws Exception {
+    for (PageStore.Type type : PageStore.Type.values()) {
+      BufferPool pool = newPool(type);
+      PageAllocator allocator = new PageAllocator(this.path, false, false, pool);
+      scan(allocator.iterator(), NUM_PAGES);
+      assertTrue(pool.getNumReadAheadLoads() > 0);
+      assertTrue(pool.getNumReadAheadHits() > 0);
+      assertTrue(pool.getNumReadAheadHits() <= pool.getNumReadAheadLoads());
+      allocator.close();
+    }
+  }
+
+  @Test
+  public void testJumpWastesPrefetchedPages() throws Exception {
+    BufferPool pool = newPool(PageStore.Type.PREAD);
+    PageAllocator allocator = new PageAllocator(this.path, false, false, pool);
+    PageAllocator.PageIterator pages = allocator.iterator();
+    scan(pages, 20);
+    // Wait for the read-ahead to get past the reader, then jump elsewhere.
+    awaitLoads(pool, pool.getNumReadAheadHits() + 1);
+    Thread.sleep(20);
+    while (pages.peekPageNum() < 150) {
+      pages.skip();
+    }
+    assertEquals(150 + 100, pages.next().readInt(0));
+    assertTrue(pool.getNumReadAheadWasted() > 0);
+
+    // The jump restarts the pattern; reading on from there is fine.
+    scan(pages, NUM_PAGES);
+    allocator.close();
+  }
+
+  @Test
+  public void testConcurrentScansKeepTheirOwnWindows() throws Exception {
+    BufferPool pool = newPool(PageStore.Type.PREAD);
+    PageAllocator allocator = new PageAllocator(this.path, false, false, pool);
+    PageAllocator.PageIterator first = allocator.iterator();
+    PageAllocator.PageIterator second = allocator.iterator();
+    for (int i = 0; i < 100; i++) {
+      second.skip();
+    }
+
+    // Two scans of different parts of the file, taking turns, don't reset each other.
+    for (int to = 10; to <= 100; to += 10) {
+      scan(first, to);
+      scan(second, 100 + to);
+    }
+    assertTrue(pool.getNumReadAheadHits() > 0);
+    assertEquals(0, pool.getNumReadAheadWasted());
+
+    // Fetches that don't go through an iterator don't load anything ahead.
+    long numLoads = pool.getNumReadAheadLoads();
+    for (int pageNum = 0; pageNum < NUM_PAGES; pageNum++) {
+      allocator.fetchPage(pageNum);
+    }
+    Thread.sleep(20);
+    assertEquals(numLoads, pool.getNumReadAheadLoads());
+    allocator.close();
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    BufferPool pool = newPool(PageStore.Type.PREAD);
+    PageAllocator allocator = new PageAllocator(this.path, false, false, pool);
+    allocator.prefetch(120);
+    awaitLoads(pool, 1);
+    assertEquals(1, pool.getNumReadAheadLoads());
+    assertEquals(120 + 100, allocator.fetchPage(120).readInt(0));
+    assertEquals(1, pool.getNumReadAheadHits());
+
+    // Pages that aren't allocated aren't loaded.
+    allocator.prefetch(NUM_PAGES + 10);
+    Thread.sleep(20);
+    assertEquals(1, pool.getNumReadAheadLoads());
+    allocator.close();
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    BufferPool pool = newPool(PageStore.Type.PREAD);
+    pool.setReadAheadWindow(0);
+    PageAllocator allocator = new PageAllocator(this.path, false, false, pool);
+    scan(allocator.iterator(), NUM_PAGES);
+    allocator.prefetch(10);
+    Thread.sleep(20);
+    assertEquals(0, pool.getNumReadAheadLoads());
+    assertEquals(0, pool.getNumReadAheadHits());
+    allocator.close();
+  }
+
+  @Test(expected = PageException.class)
+  public void testNegativeWindow() {
+    new BufferPool(8).setReadAheadWindow(-1);
+  }
+}
@@ -0,0 +1,152 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+public class TestReplacementPolicy {
+  private final String fName = "TestReplacementPolicy.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private Page newPage(String suffix) throws IOException {
+    File tempFile = tempFolder.newFile(fName + suffix);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    return new Page(fc, 0, 0, false);
+  }
+
+  /**
+   * Runs a workload that repeatedly reads a small hot set of pages twice, with
+   * a one-off scan in between, through a single-shard pool of the given
+   * policy, and returns the pool's hit ratio.
+   */
+  private double hotSetWithScans(ReplacementPolicy.Type type) throws IOException {
+    BufferPool pool = new BufferPool(16, 1, type);
+    Page page = newPage(type.toString());
+    long nextScanPage = 1000;
+    for (int round = 0; round < 50; round++) {
+      for (int pass = 0; pass < 2; pass++) {
+        for (long hot = 0; hot < 8; hot++) {
+          if (pool.get(hot) == null) {
+            pool.putIfAbsent(hot, page);
+          }
+        }
+      }
+      for (int i = 0; i < 12; i++) {
+        long scanned = nextScanPage++;
+        if (pool.get(scanned) == null) {
+          pool.putIfAbsent(scanned, page);
+        }
+      }
+    }
+    return pool.getHitRatio();
+  }
+
+  @Test
+  public void testLRUEvictsLeastRecentlyUsed() {
+    ReplacementPolicy policy = ReplacementPolicy.Type.LRU.create(4);
+    policy.recordInsert(1);
+    policy.recordInsert(2);
+    policy.recordInsert(3);
+    policy.recordHit(1);
+    assertEquals(2, policy.evict(v -> true));
+    assertEquals(3, policy.evict(v -> true));
+    assertEquals(1, policy.evict(v -> true));
+    assertEquals(ReplacementPolicy.NO_VICTIM, policy.evict(v -> true));
+  }
+
+  @Test
+  public void testClockGivesSecondChance() {
+    ReplacementPolicy policy = ReplacementPolicy.Type.CLOCK.create(4);
+    policy.recordInsert(1);
+    policy.recordInsert(2);
+    policy.recordInsert(3);
+    // Every page is referenced, so the hand clears all bits and comes back
+    // around to the first frame.
+    assertEquals(1, policy.evict(v -> true));
+    policy.recordHit(2);
+    assertEquals(3, policy.evict(v -> true));
+    assertEquals(2, policy.evict(v -> true));
+  }
+
+  @Test
+  public void testRemovedPagesAreNeverEvicted() {
+    for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+      ReplacementPolicy policy = type.create(4);
+      policy.recordInsert(1);
+      policy.recordInsert(2);
+      policy.recordRemove(1);
+      assertEquals(type.toString(), 2, policy.evict(v -> true));
+      assertEquals(type.toString(), ReplacementPolicy.NO_VICTIM, policy.evict(v -> true));
+    }
+  }
+
+  @Test
+  public void testEvictRespectsFilter() {
+    for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+      ReplacementPolicy policy = type.create(4);
+      for (long v = 1; v <= 4; v++) {
+        policy.recordInsert(v);
+      }
+      policy.recordHit(3);
+      assertEquals(type.toString(), ReplacementPolicy.NO_VICTIM, policy.evict(v -> false));
+      assertEquals(type.toString(), 3, policy.evict(v -> v == 3));
+      long victim = policy.evict(v -> v != 1);
+      assertTrue(type.toString(), victim == 2 || victim == 4);
+    }
+  }
+
+  @Test
+  public void testPoolNeverEvictsInsertedPage() throws IOException {
+    for (ReplacementPolicy.Type type : ReplacementPolicy.Type.values()) {
+      BufferPool pool = new BufferPool(4, 1, type);
+      Page page = newPage(type.toString());
+      for (long v = 0; v < 100; v++) {
+        pool.putIfAbsent(v, page);
+        assertTrue(type.toString(), pool.contains(v));
+        assertTrue(type.toString(), pool.size() <= 4);
+      }
+    }
+  }
+
+  @Test
+  public void testScanResistance() throws IOException {
+    // The hot set is re-read every 20 distinct pages, which is more than the
+    // pool holds, so LRU loses all of it to every scan and only hits on the
+    // second pass over it. 2Q and ARC keep it cached across scans.
+    double lru = hotSetWithScans(ReplacementPolicy.Type.LRU);
+    double twoQ = hotSetWithScans(ReplacementPolicy.Type.TWO_Q);
+    double arc = hotSetWithScans(ReplacementPolicy.Type.ARC);
+    assertTrue(twoQ > lru + 0.1);
+    assertTrue(arc > lru + 0.1);
+  }
+
+  @Test
+  public void testHitRatio() throws IOException {
+    BufferPool pool = new BufferPool(16, ReplacementPolicy.Type.CLOCK);
+    assertEquals(ReplacementPolicy.Type.CLOCK, pool.getPolicyType());
+    assertEquals(0.0, pool.getHitRatio(), 1e-9);
+
+    Page page = newPage("");
+    assertNull(pool.get(7));
+    pool.putIfAbsent(7, page);
+    assertSame(page, pool.get(7));
+    assertSame(page, pool.get(7));
+    assertNull(pool.get(8));
+    assertEquals(2, pool.getNumHits());
+    assertEquals(2, pool.getNumMisses());
+    assertEquals(0.5, pool.getHitRatio(), 1e-9);
+
+    pool.resetStats();
+    assertEquals(0, pool.getNumHits());
+    assertEquals(0, pool.getNumMisses());
+    assertTrue(pool.contains(7));
+  }
+}
@@ -0,0 +1,92 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Iterator;
+
+public class TestScanRing {
+  private final String fName = "TestScanRing.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private PageAllocator newAllocator(BufferPool pool, int numPages) throws Exception {
+    PageAllocator allocator = new PageAllocator(tempFolder.newFile(fName).getAbsolutePath(), true,
+                                                false, pool);
+    for (int pageNum : allocator.allocPages(numPages)) {
+      allocator.fetchPage(pageNum).writeInt(0, pageNum);
+    }
+    return allocator;
+  }
+
+  @Test
+  public void testLargeScanLeavesThePoolAlone() throws Exception {
+    BufferPool pool = new BufferPool(16, 1);
+    PageAllocator allocator = newAllocator(pool, 100);
+
+    // Make pages 0 to 7 the contents of the pool.
+    for (int i = 0; i < 16; i++) {
+      allocator.fetchPage(i % 8);
+    }
+    pool.resetStats();
+    int sizeBefore = pool.size();
+
+    PageAllocator.PageIterator iter = allocator.iterator();
+    assertTrue(iter.usesRing());
+    int numPages = 0;
+    while (iter.hasNext()) {
+      Page p = iter.next();
+      assertEquals(numPages, p.readInt(0));
+      numPages++;
+    }
+    assertEquals(100, numPages);
+
+    // The scan found the cached pages, but didn't add any.
+    assertEquals(sizeBefore, pool.size());
+    for (int i = 0; i < 8; i++) {
+      assertTrue(pool.contains(allocator.translatePageNum(i)));
+    }
+    assertTrue(pool.getNumHits() >= 8);
+    allocator.close();
+  }
+
+  @Test
+  public void testRingThreshold() throws Exception {
+    BufferPool pool = new BufferPool(16, 1);
+    PageAllocator allocator = newAllocator(pool, 4);
+    // Four pages are exactly a quarter of the pool.
+    assertFalse(allocator.iterator().usesRing());
+    allocator.allocPage();
+    assertTrue(allocator.iterator().usesRing());
+    // Iterators that pin their pages need them in the pool.
+    assertFalse(allocator.pinnedIterator().usesRing());
+
+    pool.setScanRingFraction(Double.POSITIVE_INFINITY);
+    PageAllocator.PageIterator iter = allocator.iterator();
+    assertFalse(iter.usesRing());
+    while (iter.hasNext()) {
+      iter.next();
+    }
+    assertEquals(5, pool.size());
+    allocator.close();
+  }
+
+  @Test
+  public void testRingScanSeesWrites() throws Exception {
+    BufferPool pool = new BufferPool(4, 1);
+    pool.setStoreType(PageStore.Type.PREAD);
+    PageAllocator allocator = newAllocator(pool, 40);
+    Iterator<Page> iter = allocator.iterator();
+    for (int i = 0; i < 40; i++) {
+      Page p = iter.next();
+      p.writeInt(4, i + 1000);
+    }
+    for (int i = 0; i < 40; i++) {
+      assertEquals(i + 1000, allocator.fetchPage(i).readInt(4));
+    }
+    allocator.close();
+  }
+}
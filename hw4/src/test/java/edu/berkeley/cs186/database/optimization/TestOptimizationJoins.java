@@ -169,8 +169,9 @@ public class TestOptimizationJoins {
 
     //creates a 100 records int 0 to 99
     try{
+      // The ints are spread over the pages, so that the zone map doesn't rule any out.
       for (int i = 0; i < 1000; ++i) {
-        Record r = createRecordWithAllTypes(false, i, "test", 0.0f);
+        Record r = createRecordWithAllTypes(false, i % 100 * 10 + i / 100, "test", 0.0f);
         table.addRecord(r.getValues());
       }
     }
@@ -116,8 +116,9 @@ public class TestSingleAccess {
   public void testSimpleIndexScanSelection() throws DatabaseException, QueryPlanException{
     Table table = db.getTable(TABLENAME+"I");
     try{
+      // The ints are spread over the pages, so that the zone map doesn't rule any out.
       for (int i = 0; i < 1000; ++i) {
-        Record r = createRecordWithAllTypes(false, i, "test", 0.0f);
+        Record r = createRecordWithAllTypes(false, i % 100 * 10 + i / 100, "test", 0.0f);
         table.addRecord(r.getValues());
       }
     }
@@ -223,8 +224,9 @@ public class TestSingleAccess {
     Table table = db.getTable(TABLENAME + "MI");
 
     try{
+      // The ints are spread over the pages, so that the zone map doesn't rule any out.
       for (int i = 0; i < 10000; ++i) {
-        Record r = createRecordWithAllTypes(false, i, "test", 0.0f);
+        Record r = createRecordWithAllTypes(false, i * 7919 % 10000, "test", 0.0f);
         table.addRecord(r.getValues());
       }
     }
@@ -0,0 +1,136 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.BufferPool;
+
+/**
+ * Measures the throughput of a table, in operations per second, against
+ * thread count, with readers and writers mixed: half of the threads look up
+ * random records with getRecord, and the other half update random records
+ * and add and delete records of their own. Each thread count is run twice:
+ * once with every operation under one lock, which behaves like the old table
+ * monitor, and once with the table's page latches alone.
+ *
+ * This is not a unit test. Run it after `mvn test-compile` with
+ *
+ *   java -cp target/classes:target/test-classes \
+ *     edu.berkeley.cs186.database.table.TableLatchBenchmark [seconds per run]
+ */
+public class TableLatchBenchmark {
+  private static final int NUM_RECORDS = 50000;
+  private static final int POOL_CAPACITY = 4096;
+
+  public static void main(String[] args) throws Exception {
+    double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2.0;
+    int maxThreads = 2 * Math.max(2, Runtime.getRuntime().availableProcessors());
+    File dir = Files.createTempDirectory("TableLatchBenchmark").toFile();
+
+    System.out.printf("%8s %18s %18s %8s%n", "threads", "1 lock (ops/s)", "latched (ops/s)",
+                      "speedup");
+    for (int threads = 2; threads <= maxThreads; threads *= 2) {
+      double global = run(dir, threads, seconds, new Object());
+      double latched = run(dir, threads, seconds, null);
+      System.out.printf("%8d %18.0f %18.0f %7.2fx%n", threads, global, latched, latched / global);
+    }
+
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+
+  /**
+   * Runs numThreads threads against a new table for seconds seconds, every
+   * operation under tableLock unless it is null, and returns the number of
+   * operations per second.
+   */
+  private static double run(File dir, int numThreads, double seconds, Object tableLock)
+      throws Exception {
+    String filename = new File(dir, "t" + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Table table = new Table("t", TestUtils.createSchemaWithAllTypes(), filename,
+                            new BufferPool(POOL_CAPACITY));
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < NUM_RECORDS; i++) {
+      rids.add(table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+
+    final AtomicLong ops = new AtomicLong(0);
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    final CountDownLatch start = new CountDownLatch(1);
+    final long durationNanos = (long) (seconds * 1e9);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; t++) {
+      final boolean writer = t % 2 == 1;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          List<RecordId> added = new ArrayList<RecordId>();
+          long n = 0;
+          long end = System.nanoTime() + durationNanos;
+          while (System.nanoTime() < end) {
+            // Check the clock every 256 operations to keep it off the hot path.
+            for (int i = 0; i < 256; i++) {
+              RecordId rid = rids.get(random.nextInt(NUM_RECORDS));
+              if (!writer) {
+                call(tableLock, () -> table.getRecord(rid));
+              } else if (i % 4 != 0) {
+                List<DataBox> values = TestUtils.createRecordWithAllTypesWithValue(
+                    random.nextInt(NUM_RECORDS)).getValues();
+                call(tableLock, () -> table.updateRecord(values, rid));
+              } else if (added.size() < 64) {
+                List<DataBox> values = TestUtils.createRecordWithAllTypesWithValue(
+                    random.nextInt(NUM_RECORDS)).getValues();
+                added.add(call(tableLock, () -> table.addRecord(values)));
+              } else {
+                RecordId own = added.remove(added.size() - 1);
+                call(tableLock, () -> table.deleteRecord(own));
+              }
+            }
+            n += 256;
+          }
+          ops.addAndGet(n);
+        } catch (Throwable e) {
+          synchronized (errors) {
+            errors.add(e);
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    table.close();
+    if (!errors.isEmpty()) {
+      throw new RuntimeException(errors.get(0));
+    }
+    return ops.get() / seconds;
+  }
+
+  private interface Operation<T> {
+    T call() throws DatabaseException;
+  }
+
+  private static <T> T call(Object lock, Operation<T> operation) throws DatabaseException {
+    if (lock == null) {
+      return operation.call();
+    }
+    synchronized (lock) {
+      return operation.call();
+    }
+  }
+}
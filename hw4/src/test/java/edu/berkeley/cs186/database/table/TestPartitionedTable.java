@@ -0,0 +1,167 @@
+package edu.berkeley.cs186.database.table;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.query.QueryPlan.PredicateOperator;
+
+public class TestPartitionedTable {
+  public static final String TABLENAME = "testtable";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static BufferPool newPool() {
+    BufferPool pool = new BufferPool(64);
+    pool.setWriterInterval(0);
+    return pool;
+  }
+
+  private PartitionedTable newTable(Partitioning partitioning) throws Exception {
+    String dirname = tempFolder.newFolder(TABLENAME + PartitionedTable.DIRECTORY_EXTENSION)
+                               .getAbsolutePath();
+    return new PartitionedTable(TABLENAME, TestUtils.createSchemaWithAllTypes(), partitioning,
+                                dirname, newPool(), PageLayout.Format.ROW);
+  }
+
+  // The values of the int column of records, sorted.
+  private static List<Integer> ints(Iterator<Record> records) {
+    List<Integer> ints = new ArrayList<Integer>();
+    while (records.hasNext()) {
+      ints.add(records.next().getValues().get(1).getInt());
+    }
+    Collections.sort(ints);
+    return ints;
+  }
+
+  private static List<Integer> range(int from, int to) {
+    List<Integer> ints = new ArrayList<Integer>();
+    for (int i = from; i < to; ++i) {
+      ints.add(i);
+    }
+    return ints;
+  }
+
+  @Test
+  public void testHashPartitioning() throws Exception {
+    PartitionedTable table = newTable(Partitioning.hash("int", 4));
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 2000; ++i) {
+      rids.add(table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    assertEquals(2000, table.getNumRecords());
+    assertEquals(2000, table.getStats().getNumRecords());
+    for (int i = 0; i < 4; ++i) {
+      assertTrue(table.getPartition(i).getNumRecords() > 300);
+    }
+    for (int i = 0; i < 2000; i += 7) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), table.getRecord(rids.get(i)));
+    }
+
+    // A scan of every partition at once returns every record, and an equality on the key is
+    // answered by a single partition.
+    assertEquals(range(0, 2000), ints(table.scan(table.allPartitions(), null, null, 4)));
+    List<Integer> partitions = table.partitionsFor(1, PredicateOperator.EQUALS, new IntDataBox(42));
+    assertEquals(1, partitions.size());
+    assertTrue(ints(table.scan(partitions, null, null, 4)).contains(42));
+    assertEquals(table.allPartitions(),
+                 table.partitionsFor(1, PredicateOperator.LESS_THAN, new IntDataBox(42)));
+    assertEquals(table.allPartitions(),
+                 table.partitionsFor(3, PredicateOperator.EQUALS, new FloatDataBox(42)));
+
+    // Updates that keep a record in its partition go through, the others are refused.
+    List<DataBox> values = TestUtils.createRecordWithAllTypesWithValue(5).getValues();
+    values.set(3, new FloatDataBox(-1));
+    table.updateRecord(values, rids.get(5));
+    assertEquals(new Record(values), table.getRecord(rids.get(5)));
+    try {
+      table.updateRecord(TestUtils.createRecordWithAllTypesWithValue(6).getValues(), rids.get(5));
+      fail();
+    } catch (DatabaseException e) {
+      // As expected.
+    }
+
+    table.deleteRecord(rids.get(5));
+    assertEquals(1999, table.getNumRecords());
+    try {
+      table.getRecord(rids.get(5));
+      fail();
+    } catch (DatabaseException e) {
+      // As expected.
+    }
+    table.close();
+  }
+
+  @Test
+  public void testRangePartitioning() throws Exception {
+    PartitionedTable table = newTable(Partitioning.range(
+        "int", Arrays.<DataBox>asList(new IntDataBox(100), new IntDataBox(200))));
+    for (int i = 0; i < 300; ++i) {
+      table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    assertEquals(range(0, 100), ints(table.scan(Arrays.asList(0), null, null, 4)));
+    assertEquals(range(100, 200), ints(table.scan(Arrays.asList(1), null, null, 4)));
+    assertEquals(range(200, 300), ints(table.scan(Arrays.asList(2), null, null, 4)));
+
+    DataBox hundred = new IntDataBox(100);
+    assertEquals(Arrays.asList(0), table.partitionsFor(1, PredicateOperator.LESS_THAN, hundred));
+    assertEquals(Arrays.asList(0, 1),
+                 table.partitionsFor(1, PredicateOperator.LESS_THAN_EQUALS, hundred));
+    assertEquals(Arrays.asList(1), table.partitionsFor(1, PredicateOperator.EQUALS, hundred));
+    assertEquals(Arrays.asList(1, 2),
+                 table.partitionsFor(1, PredicateOperator.GREATER_THAN, new IntDataBox(150)));
+    assertEquals(Arrays.asList(0, 1, 2),
+                 table.partitionsFor(1, PredicateOperator.NOT_EQUALS, hundred));
+    table.close();
+
+    // Bounds must fit the partition key.
+    String dirname = tempFolder.newFolder("bad").getAbsolutePath();
+    List<Partitioning> bad = Arrays.asList(
+        Partitioning.range("int", Arrays.<DataBox>asList(new IntDataBox(2), new IntDataBox(1))),
+        Partitioning.range("int", Arrays.<DataBox>asList(new FloatDataBox(1))),
+        Partitioning.hash("nope", 4),
+        Partitioning.hash("int", Partitioning.MAX_PARTITIONS + 1));
+    for (Partitioning partitioning : bad) {
+      try {
+        new PartitionedTable("bad", TestUtils.createSchemaWithAllTypes(), partitioning, dirname,
+                             newPool(), PageLayout.Format.ROW);
+        fail(partitioning.toString());
+      } catch (DatabaseException e) {
+        // As expected.
+      }
+    }
+  }
+
+  @Test
+  public void testReopen() throws Exception {
+    PartitionedTable table = newTable(Partitioning.range(
+        "int", Arrays.<DataBox>asList(new IntDataBox(500))));
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 1000; ++i) {
+      rids.add(table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    table.close();
+
+    table = new PartitionedTable(TABLENAME, table.getDirname(), newPool());
+    assertEquals(Partitioning.Method.RANGE, table.getPartitioning().getMethod());
+    assertEquals(Arrays.<DataBox>asList(new IntDataBox(500)), table.getPartitioning().getBounds());
+    assertEquals(1000, table.getNumRecords());
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(700), table.getRecord(rids.get(700)));
+    assertEquals(range(0, 500), ints(table.scan(Arrays.asList(0), null, null, 1)));
+    table.close();
+  }
+}
@@ -0,0 +1,867 @@
+package edu.berkeley.cs186.database.table;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TestUtils;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.query.QueryPlan;
+
+public class TestTable {
+  public static final String TABLENAME = "testtable";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static BufferPool newPool() {
+    BufferPool pool = new BufferPool(64);
+    pool.setWriterInterval(0);
+    return pool;
+  }
+
+  // Fills a table with numRecords records, deleting every third one.
+  private static List<RecordId> fill(Table table, int numRecords) throws DatabaseException {
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < numRecords; ++i) {
+      rids.add(table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    for (int i = 0; i < numRecords; i += 3) {
+      table.deleteRecord(rids.get(i));
+    }
+    return rids;
+  }
+
+  private static long count(Table table) {
+    long n = 0;
+    for (Record r : table) {
+      n++;
+    }
+    return n;
+  }
+
+  @Test
+  public void testReopenFromMetadata() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Table table = new Table(TABLENAME, TestUtils.createSchemaWithAllTypes(), path, newPool());
+    fill(table, 1000);
+    long numRecords = table.getNumRecords();
+    table.close();
+    assertTrue(new File(table.getMetadataFilename()).exists());
+
+    // The reopened table gets its counts from the metadata file and reads no data page.
+    table = new Table(TABLENAME, path, newPool());
+    assertEquals(numRecords, table.getNumRecords());
+    assertEquals(numRecords, table.getStats().getNumRecords());
+    assertEquals(1, table.getIOStats().getNumLogicalReads());
+    assertEquals(numRecords, count(table));
+
+    // Freed slots are reused after reopening, so no page is allocated.
+    int numPages = table.getNumDataPages();
+    for (int i = 0; i < 300; ++i) {
+      table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    assertEquals(numPages, table.getNumDataPages());
+    assertEquals(numRecords + 300, table.getNumRecords());
+    table.close();
+  }
+
+  @Test
+  public void testModificationInvalidatesMetadata() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Table table = new Table(TABLENAME, TestUtils.createSchemaWithAllTypes(), path, newPool());
+    fill(table, 100);
+    table.checkpoint();
+    File metadata = new File(table.getMetadataFilename());
+    assertTrue(metadata.exists());
+
+    // A table that is modified and never closed leaves no metadata behind,
+    // and is rebuilt from its pages.
+    table.addRecord(TestUtils.createRecordWithAllTypesWithValue(0).getValues());
+    assertFalse(metadata.exists());
+    table.checkpoint();
+    assertTrue(metadata.exists());
+    long numRecords = table.getNumRecords();
+    table.deleteRecord(new RecordId(1, (short) 1));
+    table.getAllocator().checkpoint();
+    assertFalse(metadata.exists());
+
+    Table reopened = new Table(TABLENAME, path, newPool());
+    assertEquals(numRecords - 1, reopened.getNumRecords());
+    assertTrue(reopened.getIOStats().getNumLogicalReads() > 1);
+    reopened.close();
+  }
+
+  @Test
+  public void testCorruptMetadataIsIgnored() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Table table = new Table(TABLENAME, TestUtils.createSchemaWithAllTypes(), path, newPool());
+    fill(table, 100);
+    long numRecords = table.getNumRecords();
+    table.close();
+
+    try (RandomAccessFile file = new RandomAccessFile(table.getMetadataFilename(), "rw")) {
+      file.seek(8);
+      file.writeLong(12345);
+    }
+    table = new Table(TABLENAME, path, newPool());
+    assertEquals(numRecords, table.getNumRecords());
+    table.close();
+  }
+
+  @Test
+  public void testNewTableDeletesStaleMetadata() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Table table = new Table(TABLENAME, TestUtils.createSchemaWithAllTypes(), path, newPool());
+    fill(table, 100);
+    table.close();
+
+    table = new Table(TABLENAME, TestUtils.createSchemaWithAllTypes(), path, newPool());
+    assertFalse(new File(table.getMetadataFilename()).exists());
+    table.close();
+    table = new Table(TABLENAME, path, newPool());
+    assertEquals(0, table.getNumRecords());
+    table.close();
+  }
+
+  @Test
+  public void testFillLevels() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Table table = new Table(TABLENAME, TestUtils.createSchemaWithAllTypes(), path, newPool());
+    int perPage = table.getNumRecordsPerPage();
+    List<RecordId> rids = fill(table, 2 * perPage);
+    assertEquals(2, table.getNumDataPages());
+    assertEquals(FreeSpaceMap.FULL, table.getFillLevel(0));
+    int level = table.getFillLevel(1);
+    assertTrue(level > 0 && level < FreeSpaceMap.FULL);
+    for (RecordId rid : rids) {
+      if (rid.getPageNum() == 2 && rid.getEntryNum() % 3 != 0) {
+        table.deleteRecord(rid);
+      }
+    }
+    assertTrue(table.getFillLevel(2) < level);
+    table.close();
+
+    // The map survives a clean close, and is rebuilt from the pages after an
+    // unclean one.
+    table = new Table(TABLENAME, path, newPool());
+    assertEquals(level, table.getFillLevel(1));
+    int emptier = table.getFillLevel(2);
+    table.addRecord(TestUtils.createRecordWithAllTypesWithValue(0).getValues());
+    table.getAllocator().close();
+    table = new Table(TABLENAME, path, newPool());
+    assertEquals(FreeSpaceMap.FULL, table.getFillLevel(0));
+    assertTrue(table.getFillLevel(1) >= level);
+    assertTrue(table.getFillLevel(2) >= emptier);
+    assertTrue(table.getFillLevel(1) < FreeSpaceMap.FULL);
+    table.close();
+  }
+
+  @Test
+  public void testConcurrentInserts() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Table table = new Table(TABLENAME, TestUtils.createSchemaWithAllTypes(), path, newPool());
+    int numThreads = 4;
+    int numPerThread = 2 * table.getNumRecordsPerPage() + 5;
+    Set<RecordId> rids = Collections.synchronizedSet(new HashSet<RecordId>());
+    List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; ++t) {
+      Thread thread = new Thread(() -> {
+        try {
+          for (int i = 0; i < numPerThread; ++i) {
+            rids.add(table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+          }
+        } catch (Throwable e) {
+          errors.add(e);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(Collections.emptyList(), errors);
+    long numRecords = numThreads * numPerThread;
+    assertEquals(numRecords, rids.size());
+    assertEquals(numRecords, table.getNumRecords());
+    assertEquals(numRecords, table.getStats().getNumRecords());
+    assertEquals(numRecords, count(table));
+    // Inserts fill the pages they are spread over before new ones are allocated.
+    int minPages = (int) ((numRecords + table.getNumRecordsPerPage() - 1) /
+                          table.getNumRecordsPerPage());
+    assertTrue(table.getNumDataPages() <= minPages + 4);
+    table.close();
+  }
+
+  @Test
+  public void testConcurrentReadersAndWriters() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Schema schema = new Schema(Arrays.asList("id", "name"),
+                               Arrays.asList(Type.intType(), Type.stringType(100)));
+    Table table = new Table(TABLENAME, schema, path, newPool(), PageLayout.Format.SLOTTED);
+    int numRecords = 400;
+    List<RecordId> rids = new ArrayList<RecordId>();
+    Map<RecordId, Record> expected = Collections.synchronizedMap(new HashMap<RecordId, Record>());
+    for (int i = 0; i < numRecords; ++i) {
+      List<DataBox> values = Arrays.asList(new IntDataBox(i), new StringDataBox("r" + i, 100));
+      rids.add(table.addRecord(values));
+      expected.put(rids.get(i), new Record(values));
+    }
+
+    // Writer w updates the records whose id is w modulo the number of writers,
+    // to names of random lengths so that records move between pages, and adds
+    // and deletes records of its own. Readers look records up as they go, and
+    // always find them under their ids, and scans see every one of them once.
+    int numWriters = 3;
+    int numReaders = 3;
+    String longName = new String(new char[100]).replace('\0', 'x');
+    List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    AtomicBoolean done = new AtomicBoolean(false);
+    List<Thread> writers = new ArrayList<Thread>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numWriters + numReaders; ++t) {
+      int w = t;
+      Random random = new Random(t);
+      Thread thread = new Thread(() -> {
+        try {
+          if (w >= numWriters) {
+            while (!done.get()) {
+              int r = random.nextInt(10);
+              Set<Integer> seen = new HashSet<Integer>();
+              if (r == 0) {
+                Table.TableIterator scanned = table.ridIterator();
+                while (scanned.hasNext()) {
+                  RecordId rid = scanned.next();
+                  Record record = scanned.readRecord(null);
+                  int i = record.getValues().get(0).getInt();
+                  if (i >= 0) {
+                    assertEquals(rids.get(i), rid);
+                    assertTrue(seen.add(i));
+                  }
+                }
+                assertEquals(numRecords, seen.size());
+              } else if (r == 1) {
+                Iterator<RecordView> views = table.viewIterator();
+                while (views.hasNext()) {
+                  Record record = views.next().materialize();
+                  int i = record.getValues().get(0).getInt();
+                  assertTrue(i >= -1 && i < numRecords);
+                  assertTrue(i == -1 || seen.add(i));
+                }
+                assertEquals(numRecords, seen.size());
+              } else {
+                int i = random.nextInt(numRecords);
+                assertEquals(i, table.getRecord(rids.get(i)).getValues().get(0).getInt());
+              }
+            }
+            return;
+          }
+          List<RecordId> own = new ArrayList<RecordId>();
+          for (int n = 0; n < 600; ++n) {
+            int i = w + numWriters * random.nextInt(numRecords / numWriters);
+            List<DataBox> values = Arrays.asList(
+                new IntDataBox(i), new StringDataBox(longName.substring(random.nextInt(100)), 100));
+            table.updateRecord(values, rids.get(i));
+            expected.put(rids.get(i), new Record(values));
+            if (n % 3 == 0) {
+              values = Arrays.asList(new IntDataBox(-1), new StringDataBox("w" + w, 100));
+              RecordId rid = table.addRecord(values);
+              own.add(rid);
+              expected.put(rid, new Record(values));
+            } else if (n % 3 == 1 && own.size() > 5) {
+              RecordId rid = own.remove(random.nextInt(own.size()));
+              expected.remove(rid);
+              table.deleteRecord(rid);
+            }
+          }
+        } catch (Throwable e) {
+          errors.add(e);
+        }
+      });
+      if (w < numWriters) {
+        writers.add(thread);
+      }
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : writers) {
+      thread.join(60000);
+    }
+    done.set(true);
+    for (Thread thread : threads) {
+      thread.join(60000);
+      assertFalse(thread.isAlive());
+    }
+
+    assertEquals(Collections.emptyList(), errors);
+    for (Map.Entry<RecordId, Record> e : expected.entrySet()) {
+      assertEquals(e.getValue(), table.getRecord(e.getKey()));
+    }
+    assertEquals(expected, scan(table));
+    assertEquals(expected.size(), table.getNumRecords());
+    assertEquals(expected.size(), table.getStats().getNumRecords());
+    table.close();
+  }
+
+  @Test
+  public void testBulkLoad() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Table table = new Table(TABLENAME, TestUtils.createSchemaWithAllTypes(), path, newPool());
+    int numRows = 3 * table.getNumRecordsPerPage() + 5;
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < numRows; ++i) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    List<RecordId> loaded = new ArrayList<RecordId>();
+    assertEquals(numRows, table.bulkLoad(rows.iterator(), (rid, record) -> loaded.add(rid)));
+
+    // The rows fill as few pages as possible, and the rest of the batch is given back.
+    assertEquals(numRows, table.getNumRecords());
+    assertEquals(numRows, table.getStats().getNumRecords());
+    assertEquals(4, table.getNumDataPages());
+    assertEquals(FreeSpaceMap.FULL, table.getFillLevel(1));
+    assertTrue(table.getFillLevel(4) < FreeSpaceMap.FULL);
+    for (int i = 0; i < numRows; ++i) {
+      assertEquals(new Record(rows.get(i)), table.getRecord(loaded.get(i)));
+    }
+
+    // A bad row stops the load, but the rows before it stay.
+    List<List<DataBox>> bad = new ArrayList<List<DataBox>>(rows.subList(0, 10));
+    bad.add(Collections.<DataBox>singletonList(new IntDataBox(0)));
+    bad.addAll(rows.subList(0, 10));
+    try {
+      table.bulkLoad(bad.iterator());
+      fail();
+    } catch (DatabaseException e) {
+      // Expected.
+    }
+    assertEquals(numRows + 10, table.getNumRecords());
+    assertEquals(numRows + 10, count(table));
+    table.close();
+
+    table = new Table(TABLENAME, path, newPool());
+    assertEquals(numRows + 10, count(table));
+    table.close();
+  }
+
+  @Test
+  public void testRebuildAfterBulkLoadersLeaveHoles() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Table table = new Table(TABLENAME, TestUtils.createSchemaWithAllTypes(), path, newPool());
+    Schema schema = table.getSchema();
+    Table.BulkLoader first = table.newBulkLoader();
+    Table.BulkLoader second = table.newBulkLoader();
+    for (int i = 0; i < 10; ++i) {
+      first.add(schema.verify(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+      second.add(schema.verify(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    // The first loader gives back the rest of its batch, below the second loader's pages.
+    first.close();
+    second.close();
+    table.close();
+
+    // Without its metadata, the table rebuilds its free-space map from its pages, and the pages
+    // given back are no place for a record.
+    assertTrue(new File(table.getMetadataFilename()).delete());
+    table = new Table(TABLENAME, path, newPool());
+    int numRecords = 3 * table.getNumRecordsPerPage();
+    for (int i = 0; i < numRecords; ++i) {
+      table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    assertEquals(numRecords + 20, table.getNumRecords());
+    assertEquals(numRecords + 20, count(table));
+    table.close();
+  }
+
+  @Test
+  public void testViewIterator() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Table table = new Table(TABLENAME, TestUtils.createSchemaWithAllTypes(), path, newPool());
+    fill(table, 1000);
+
+    // The views decode the same records as the record iterator, field by field or whole, and
+    // are all the same view.
+    Iterator<Record> records = table.iterator();
+    Iterator<RecordView> views = table.viewIterator();
+    RecordView first = null;
+    while (records.hasNext()) {
+      assertTrue(views.hasNext());
+      Record expected = records.next();
+      RecordView view = views.next();
+      if (first == null) {
+        first = view;
+      }
+      assertSame(first, view);
+      assertFalse(view.isMaterialized());
+      assertEquals(4, view.getNumFields());
+      for (int i = 3; i >= 0; --i) {
+        assertEquals(expected.getValues().get(i), view.getValue(i));
+      }
+      assertEquals(expected, view.materialize());
+    }
+    assertFalse(views.hasNext());
+
+    // A view of a materialized record hands back the record itself.
+    Record record = TestUtils.createRecordWithAllTypes();
+    views = RecordView.of(table.getSchema(), Collections.singletonList(record).iterator());
+    RecordView view = views.next();
+    assertTrue(view.isMaterialized());
+    assertEquals(new IntDataBox(1), view.getValue(1));
+    assertSame(record, view.materialize());
+    table.close();
+  }
+
+  @Test
+  public void testPaxFormat() throws Exception {
+    String rowPath = tempFolder.newFile("row" + Table.FILENAME_EXTENSION).getAbsolutePath();
+    String paxPath = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Schema schema = TestUtils.createSchemaWithAllTypes();
+    Table row = new Table("row", schema, rowPath, newPool());
+    Table pax = new Table(TABLENAME, schema, paxPath, newPool(), PageLayout.Format.PAX);
+    List<RecordId> rids = fill(pax, 1000);
+    assertEquals(rids, fill(row, 1000));
+    assertEquals(PageLayout.Format.PAX, pax.getLayout().getFormat());
+    assertEquals(row.getNumRecordsPerPage(), pax.getNumRecordsPerPage());
+    assertEquals(row.getNumDataPages(), pax.getNumDataPages());
+
+    // The values of a column are next to each other on a page.
+    FixedLengthPageLayout paxLayout = (FixedLengthPageLayout) pax.getLayout();
+    assertEquals(4, paxLayout.getFieldStride(1));
+    assertEquals(paxLayout.getFieldOffset(0, 1) + 4, paxLayout.getFieldOffset(1, 1));
+
+    // Updates and inserts into freed slots land in the right minipages.
+    Record updated = TestUtils.createRecordWithAllTypesWithValue(99999);
+    pax.updateRecord(updated.getValues(), rids.get(1));
+    row.updateRecord(updated.getValues(), rids.get(1));
+    assertEquals(updated, pax.getRecord(rids.get(1)));
+    RecordId added = pax.addRecord(updated.getValues());
+    assertEquals(added, row.addRecord(updated.getValues()));
+    assertEquals(updated, pax.getRecord(added));
+
+    // Both tables read the same records, whichever way they are read.
+    Iterator<Record> expected = row.iterator();
+    Iterator<Record> records = pax.iterator();
+    Iterator<RecordView> views = pax.viewIterator(new int[] {3, 1});
+    while (expected.hasNext()) {
+      Record record = expected.next();
+      assertEquals(record, records.next());
+      RecordView view = views.next();
+      assertEquals(record.getValues().get(3), view.getValue(0));
+      assertEquals(record.getValues().get(1), view.getValue(1));
+    }
+    assertFalse(records.hasNext());
+    assertFalse(views.hasNext());
+
+    // The column chunks of a column hold the values of the used slots of each page.
+    Iterator<ColumnChunk> chunks = pax.columnIterator(1);
+    long numValues = 0;
+    while (chunks.hasNext()) {
+      ColumnChunk chunk = chunks.next();
+      numValues += chunk.getNumValues();
+      for (int i = 0; i < chunk.getNumSlots(); ++i) {
+        if (chunk.isSlotUsed(i)) {
+          RecordId rid = new RecordId(chunk.getPageNum(), (short) i);
+          assertEquals(pax.getRecord(rid).getValues().get(1).getInt(), chunk.getInt(i));
+          assertEquals(row.getRecord(rid).getValues().get(1), chunk.getValue(i));
+        }
+      }
+    }
+    assertEquals(pax.getNumRecords(), numValues);
+    row.close();
+
+    // A table remembers its format, and bulk loads go through it too.
+    pax.close();
+    pax = new Table(TABLENAME, paxPath, newPool());
+    assertEquals(PageLayout.Format.PAX, pax.getLayout().getFormat());
+    List<RecordId> loaded = new ArrayList<RecordId>();
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 100; ++i) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue(5000 + i).getValues());
+    }
+    pax.bulkLoad(rows.iterator(), (rid, record) -> loaded.add(rid));
+    for (int i = 0; i < 100; ++i) {
+      assertEquals(new Record(rows.get(i)), pax.getRecord(loaded.get(i)));
+    }
+    pax.close();
+  }
+
+  // Reads every record of a table by its id, checking that no id is read twice.
+  private static Map<RecordId, Record> scan(Table table) {
+    Map<RecordId, Record> records = new HashMap<RecordId, Record>();
+    Iterator<RecordId> rids = table.ridIterator();
+    Iterator<Record> iter = table.iterator();
+    while (rids.hasNext()) {
+      assertNull(records.put(rids.next(), iter.next()));
+    }
+    assertFalse(iter.hasNext());
+    return records;
+  }
+
+  @Test
+  public void testSlottedFormat() throws Exception {
+    String rowPath = tempFolder.newFile("row" + Table.FILENAME_EXTENSION).getAbsolutePath();
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Schema schema = new Schema(Arrays.asList("id", "name"),
+                               Arrays.asList(Type.intType(), Type.stringType(100)));
+    Table row = new Table("row", schema, rowPath, newPool());
+    Table slotted = new Table(TABLENAME, schema, path, newPool(), PageLayout.Format.SLOTTED);
+    Map<RecordId, Record> expected = new HashMap<RecordId, Record>();
+    for (int i = 0; i < 500; ++i) {
+      List<DataBox> values = Arrays.asList(new IntDataBox(i), new StringDataBox("name" + i, 100));
+      expected.put(slotted.addRecord(values), new Record(values));
+      row.addRecord(values);
+    }
+
+    // Short strings take as many bytes as they have characters, not 100.
+    assertEquals(expected, scan(slotted));
+    assertTrue(4 * slotted.getNumDataPages() <= row.getNumDataPages());
+    row.close();
+
+    // Records of the first page grow until they don't fit on it and move
+    // elsewhere, but keep their ids.
+    String longName = new String(new char[100]).replace('\0', 'x');
+    for (RecordId rid : new ArrayList<RecordId>(expected.keySet())) {
+      if (rid.getPageNum() == 1) {
+        List<DataBox> values = Arrays.asList(new IntDataBox(rid.getEntryNum()),
+                                             new StringDataBox(longName, 100));
+        assertEquals(expected.get(rid), slotted.updateRecord(values, rid));
+        expected.put(rid, new Record(values));
+      }
+    }
+    PageLayout layout = slotted.getLayout();
+    Page page = slotted.getAllocator().fetchPage(1);
+    List<RecordId> moved = new ArrayList<RecordId>();
+    for (int i = 0; i < layout.getNumSlots(page); ++i) {
+      if (layout.getForward(page, i) != null) {
+        moved.add(new RecordId(1, (short) i));
+      }
+    }
+    assertTrue(moved.size() > 0);
+    for (Map.Entry<RecordId, Record> e : expected.entrySet()) {
+      assertEquals(e.getValue(), slotted.getRecord(e.getKey()));
+    }
+    assertEquals(expected, scan(slotted));
+
+    // The slot a record moved to isn't a record id of its own.
+    RecordId target = layout.getForward(page, moved.get(0).getEntryNum());
+    try {
+      slotted.getRecord(target);
+      fail();
+    } catch (DatabaseException e) {
+      // Expected.
+    }
+
+    // A moved record can shrink and grow again, and deleting it deletes the
+    // moved copy too.
+    List<DataBox> shrunk = Arrays.asList(new IntDataBox(-1), new StringDataBox("a", 100));
+    slotted.updateRecord(shrunk, moved.get(0));
+    expected.put(moved.get(0), new Record(shrunk));
+    List<DataBox> grown = Arrays.asList(new IntDataBox(-2), new StringDataBox(longName, 100));
+    slotted.updateRecord(grown, moved.get(1));
+    expected.put(moved.get(1), new Record(grown));
+    slotted.deleteRecord(moved.get(2));
+    expected.remove(moved.get(2));
+    try {
+      slotted.getRecord(moved.get(2));
+      fail();
+    } catch (DatabaseException e) {
+      // Expected.
+    }
+    assertEquals(expected.size(), slotted.getNumRecords());
+    assertEquals(expected, scan(slotted));
+
+    // A reopened table remembers its format, whether it reads its metadata
+    // or rebuilds it from its pages.
+    slotted.close();
+    slotted = new Table(TABLENAME, path, newPool());
+    assertEquals(PageLayout.Format.SLOTTED, slotted.getLayout().getFormat());
+    assertEquals(expected, scan(slotted));
+    slotted.close();
+    assertTrue(new File(slotted.getMetadataFilename()).delete());
+    slotted = new Table(TABLENAME, path, newPool());
+    assertEquals(expected.size(), slotted.getNumRecords());
+    assertEquals(expected, scan(slotted));
+
+    // Bulk loads pack records by their size too.
+    int numPages = slotted.getNumDataPages();
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 1000; ++i) {
+      rows.add(Arrays.asList(new IntDataBox(i), new StringDataBox("load" + i, 100)));
+    }
+    slotted.bulkLoad(rows.iterator(), (rid, record) -> expected.put(rid, record));
+    assertEquals(expected, scan(slotted));
+    assertTrue(slotted.getNumDataPages() - numPages <= 1000 / 200 + 1);
+    slotted.close();
+  }
+
+  @Test
+  public void testDictionaryEncoding() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Schema schema = new Schema(Arrays.asList("id", "color"),
+                               Arrays.asList(Type.intType(), Type.stringType(50)));
+    Table table = new Table(TABLENAME, schema, path, newPool(), PageLayout.Format.PAX);
+    String[] colors = {"red", "green", "blue", "cyan", "magenta"};
+    Map<RecordId, Record> expected = new HashMap<RecordId, Record>();
+    for (int i = 0; i < 500; ++i) {
+      List<DataBox> values = Arrays.asList(new IntDataBox(i), new StringDataBox(colors[i % 5], 50));
+      expected.put(table.addRecord(values), new Record(values));
+    }
+    int numRecordsPerPage = table.getNumRecordsPerPage();
+
+    // Building statistics alone doesn't encode anything.
+    assertFalse(table.encodeColumns());
+    table.buildStatistics(10);
+    assertNull(table.getLayout().getDictionary(1));
+
+    // Nor does encoding while a page of the table is pinned.
+    Page pinned = table.getAllocator().pinPage(1);
+    assertFalse(table.encodeColumns());
+    pinned.unpin();
+    assertNull(table.getLayout().getDictionary(1));
+
+    // Encoding the colors rewrites the pages in place: records keep their
+    // ids, and pages fit more of them. Scans that are underway read the
+    // pages they get to with the new layout.
+    Table.TableIterator rids = table.ridIterator();
+    Iterator<RecordView> views = table.viewIterator();
+    Map<RecordId, Record> scanned = new HashMap<RecordId, Record>();
+    Set<Record> viewed = new HashSet<Record>();
+    for (int i = 0; i < 2 * numRecordsPerPage; ++i) {
+      scanned.put(rids.next(), rids.readRecord(null));
+      viewed.add(views.next().materialize());
+    }
+    assertTrue(table.encodeColumns());
+    while (rids.hasNext()) {
+      scanned.put(rids.next(), rids.readRecord(null));
+      viewed.add(views.next().materialize());
+    }
+    assertFalse(views.hasNext());
+    assertEquals(expected, scanned);
+    assertEquals(new HashSet<Record>(expected.values()), viewed);
+    StringDictionary dictionary = table.getLayout().getDictionary(1);
+    assertNull(table.getLayout().getDictionary(0));
+    assertEquals(5, dictionary.size());
+    assertEquals(new StringDataBox("blue", 50),
+                 dictionary.decode(dictionary.getCode(new StringDataBox("blue", 50))));
+    assertEquals(-1, dictionary.getCode(new StringDataBox("black", 50)));
+    assertTrue(table.getNumRecordsPerPage() > numRecordsPerPage);
+    assertEquals(expected, scan(table));
+    for (Map.Entry<RecordId, Record> e : expected.entrySet()) {
+      assertEquals(e.getValue(), table.getRecord(e.getKey()));
+    }
+
+    // New values are added to the dictionary as they are stored.
+    List<DataBox> values = Arrays.asList(new IntDataBox(-1), new StringDataBox("black", 50));
+    expected.put(table.addRecord(values), new Record(values));
+    RecordId rid = expected.keySet().iterator().next();
+    values = Arrays.asList(new IntDataBox(-2), new StringDataBox("white", 50));
+    table.updateRecord(values, rid);
+    expected.put(rid, new Record(values));
+    assertEquals(7, dictionary.size());
+    assertEquals(expected, scan(table));
+
+    // A reopened table reads its dictionaries back, whether it reads its
+    // metadata or rebuilds it from its pages.
+    table.close();
+    table = new Table(TABLENAME, path, newPool());
+    assertEquals(7, table.getLayout().getDictionary(1).size());
+    assertEquals(expected, scan(table));
+    table.close();
+    assertTrue(new File(table.getMetadataFilename()).delete());
+    table = new Table(TABLENAME, path, newPool());
+    assertEquals(PageLayout.Format.PAX, table.getLayout().getFormat());
+    assertEquals(expected, scan(table));
+    table.close();
+  }
+
+  // Returns the ids of the records that a scan with predicates returns.
+  private static List<Integer> scanIds(Table table, ZonePredicate... predicates) {
+    List<Integer> ids = new ArrayList<Integer>();
+    Iterator<RecordView> views = table.viewIterator(null, Arrays.asList(predicates));
+    while (views.hasNext()) {
+      ids.add(views.next().getValue(0).getInt());
+    }
+    return ids;
+  }
+
+  @Test
+  public void testZoneMaps() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Schema schema = new Schema(Arrays.asList("id", "name"),
+                               Arrays.asList(Type.intType(), Type.stringType(100)));
+    Table table = new Table(TABLENAME, schema, path, newPool());
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 1000; ++i) {
+      rids.add(table.addRecord(Arrays.asList(new IntDataBox(i), new StringDataBox("name" + i, 100))));
+    }
+    int numPages = table.getNumDataPages();
+    int perPage = table.getNumRecordsPerPage();
+    assertTrue(numPages >= 10);
+
+    // Records were added in id order, so only the first page can have ids below perPage.
+    ZonePredicate first = new ZonePredicate(0, QueryPlan.PredicateOperator.LESS_THAN,
+                                            new IntDataBox(perPage));
+    assertEquals(1, table.getNumDataPages(Collections.singletonList(first)));
+    long reads = table.getIOStats().getNumLogicalReads();
+    List<Integer> ids = scanIds(table, first);
+    assertEquals(perPage, ids.size());
+    assertTrue(table.getIOStats().getNumLogicalReads() - reads <= 2);
+
+    // The scan returns every record of the pages it reads. Predicates on
+    // several columns must all hold, and a page without any match is skipped.
+    ZonePredicate last = new ZonePredicate(0, QueryPlan.PredicateOperator.GREATER_THAN_EQUALS,
+                                           new IntDataBox(999));
+    ZonePredicate none = new ZonePredicate(1, QueryPlan.PredicateOperator.EQUALS,
+                                           new StringDataBox("nobody", 100));
+    ids = scanIds(table, last);
+    assertTrue(ids.contains(999) && ids.size() <= perPage);
+    assertEquals(Collections.emptyList(), scanIds(table, last, none));
+    assertEquals(1000, scanIds(table, new ZonePredicate(
+        0, QueryPlan.PredicateOperator.NOT_EQUALS, new IntDataBox(5))).size());
+
+    // Updates widen the zone of the page a record is on.
+    table.updateRecord(Arrays.asList(new IntDataBox(-1), new StringDataBox("moved", 100)),
+                       rids.get(999));
+    ZonePredicate negative = new ZonePredicate(0, QueryPlan.PredicateOperator.LESS_THAN,
+                                               new IntDataBox(0));
+    ids = scanIds(table, negative);
+    assertTrue(ids.contains(-1) && ids.size() <= perPage);
+
+    // Updating it back drops the page's smallest id, so the zone is unknown
+    // until the next scan reads the page and summarizes it again.
+    table.updateRecord(Arrays.asList(new IntDataBox(999), new StringDataBox("name999", 100)),
+                       rids.get(999));
+    assertFalse(scanIds(table, negative).isEmpty());
+    assertEquals(Collections.emptyList(), scanIds(table, negative));
+
+    // Deleting the smallest id of the first page makes its zone unknown, so
+    // the page counts as read until a scan summarizes it again.
+    table.deleteRecord(rids.get(0));
+    ZonePredicate zero = new ZonePredicate(0, QueryPlan.PredicateOperator.EQUALS, new IntDataBox(0));
+    assertEquals(1, table.getNumDataPages(Collections.singletonList(zero)));
+    assertEquals(perPage - 1, scanIds(table, zero).size());
+    assertEquals(0, table.getNumDataPages(Collections.singletonList(zero)));
+    assertEquals(Collections.emptyList(), scanIds(table, zero));
+
+    // A table opened from its metadata knows no zone until it is scanned.
+    table.close();
+    table = new Table(TABLENAME, path, newPool());
+    assertEquals(numPages, table.getNumDataPages(Collections.singletonList(first)));
+    assertEquals(999, scanIds(table, first).size());
+    assertEquals(1, table.getNumDataPages(Collections.singletonList(first)));
+    assertEquals(perPage - 1, scanIds(table, first).size());
+
+    // Bulk loaded pages have their zones.
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 1000; ++i) {
+      rows.add(Arrays.asList(new IntDataBox(10000 + i), new StringDataBox("load" + i, 100)));
+    }
+    table.bulkLoad(rows.iterator());
+    ZonePredicate loaded = new ZonePredicate(0, QueryPlan.PredicateOperator.GREATER_THAN_EQUALS,
+                                             new IntDataBox(10000));
+    assertEquals(numPages, table.getNumDataPages(Collections.singletonList(loaded)));
+    assertEquals(1000, scanIds(table, loaded).size());
+    table.close();
+  }
+
+  private static List<RecordId> toList(Iterator<RecordId> rids) {
+    List<RecordId> list = new ArrayList<RecordId>();
+    rids.forEachRemaining(list::add);
+    return list;
+  }
+
+  @Test
+  public void testBloomFilters() throws Exception {
+    String path = tempFolder.newFile(TABLENAME + Table.FILENAME_EXTENSION).getAbsolutePath();
+    Schema schema = new Schema(Arrays.asList("id", "name"),
+                               Arrays.asList(Type.intType(), Type.stringType(10)));
+    Table table = new Table(TABLENAME, schema, path, newPool());
+    List<RecordId> rids = new ArrayList<RecordId>();
+    for (int i = 0; i < 1000; ++i) {
+      rids.add(table.addRecord(Arrays.asList(new IntDataBox(2 * i),
+                                             new StringDataBox("n" + i, 10))));
+    }
+
+    // A column without a filter may hold anything.
+    assertFalse(table.hasBloomFilter(0));
+    assertTrue(table.mightContain(0, new IntDataBox(1)));
+
+    table.buildBloomFilter(0);
+    assertTrue(table.hasBloomFilter(0));
+    assertFalse(table.hasBloomFilter(1));
+    int numFalsePositives = 0;
+    for (int i = 0; i < 1000; ++i) {
+      assertTrue(table.mightContain(0, new IntDataBox(2 * i)));
+      numFalsePositives += table.mightContain(0, new IntDataBox(2 * i + 1)) ? 1 : 0;
+    }
+    assertTrue("" + numFalsePositives, numFalsePositives < 100);
+    assertEquals(Collections.singletonList(rids.get(7)), toList(table.ridsEqual(0, new IntDataBox(14))));
+    assertEquals(Collections.emptyList(), toList(table.ridsEqual(0, new IntDataBox(15))));
+
+    // Inserts, bulk loads, and updates add their values to the filter.
+    table.addRecord(Arrays.asList(new IntDataBox(-1), new StringDataBox("a", 10)));
+    table.bulkLoad(Collections.singletonList(
+        Arrays.<DataBox>asList(new IntDataBox(-3), new StringDataBox("b", 10))).iterator());
+    table.updateRecord(Arrays.asList(new IntDataBox(-5), new StringDataBox("c", 10)), rids.get(0));
+    for (int value : new int[] {-1, -3, -5}) {
+      assertTrue(table.mightContain(0, new IntDataBox(value)));
+    }
+    assertEquals(Collections.singletonList(rids.get(0)), toList(table.ridsEqual(0, new IntDataBox(-5))));
+    assertEquals(Collections.emptyList(), toList(table.ridsEqual(0, new IntDataBox(0))));
+
+    // The filter is read back with the metadata, and rebuilt from the data
+    // pages without it.
+    table.close();
+    table = new Table(TABLENAME, path, newPool());
+    assertTrue(table.hasBloomFilter(0));
+    assertFalse(table.hasBloomFilter(1));
+    assertTrue(table.mightContain(0, new IntDataBox(-3)));
+    assertTrue(table.mightContain(0, new IntDataBox(1998)));
+    table.close();
+    assertTrue(new File(table.getMetadataFilename()).delete());
+    table = new Table(TABLENAME, path, newPool());
+    assertTrue(table.hasBloomFilter(0));
+    for (int i = 1; i < 1000; ++i) {
+      assertTrue(table.mightContain(0, new IntDataBox(2 * i)));
+    }
+    assertTrue(table.mightContain(0, new IntDataBox(-5)));
+
+    // Deleted values stay in the filter until it is rebuilt.
+    table.buildBloomFilter(1);
+    table.deleteRecord(rids.get(1));
+    assertTrue(table.mightContain(1, new StringDataBox("n1", 10)));
+    table.buildBloomFilter(1);
+    assertFalse(table.mightContain(1, new StringDataBox("n1", 10)));
+    assertTrue(table.mightContain(1, new StringDataBox("n2", 10)));
+    table.close();
+    table = new Table(TABLENAME, path, newPool());
+    assertTrue(table.hasBloomFilter(0));
+    assertTrue(table.hasBloomFilter(1));
+    assertFalse(table.mightContain(1, new StringDataBox("n1", 10)));
+    table.close();
+  }
+}